@@ -0,0 +1,205 @@
+package com.surftools.BeanstalkClient;
+
+/*
+
+ Copyright 2009-2020 Robert Tykulsker
+
+ This file is part of JavaBeanstalkCLient.
+
+ JavaBeanstalkCLient is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version, or alternatively, the BSD license supplied
+ with this project in the file "BSD-LICENSE".
+
+ JavaBeanstalkCLient is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with JavaBeanstalkCLient.  If not, see <http://www.gnu.org/licenses/>.
+
+ */
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * An asynchronous counterpart of {@link Client}. Every method sends its command at once and returns a future that
+ * completes when the reply arrives; see the corresponding {@link Client} method for the meaning of arguments and
+ * results. Where a {@link Client} method throws a BeanstalkException, the future completes exceptionally with it.
+ * 
+ * All commands share one connection and any number of threads may issue them. beanstalkd answers the commands of a
+ * connection strictly in order, so a reserve that waits for a job delays the replies to every command sent after
+ * it; {@link #reserveAsync(Integer)} therefore takes only short timeouts.
+ * 
+ * Futures are completed by the thread that reads replies; dependent stages that block or take long should use the
+ * *Async methods of CompletableFuture.
+ * 
+ */
+public interface AsyncClient {
+
+	/**
+	 * the longest a reserve may wait, in seconds, since it holds up every command behind it
+	 */
+	public static final int MAX_RESERVE_TIMEOUT_SECONDS = 1;
+
+	// ****************************************************************
+	// Producer methods
+	// ****************************************************************
+
+	/**
+	 * @see Client#put(long, int, int, byte[])
+	 */
+	public CompletableFuture<Long> putAsync(long priority, int delaySeconds, int timeToRun, byte[] data);
+
+	/**
+	 * @see Client#useTube(String)
+	 */
+	public CompletableFuture<Void> useTubeAsync(String tubeName);
+
+	// ****************************************************************
+	// Consumer methods
+	// job-related
+	// ****************************************************************
+
+	/**
+	 * Only a reserve that waits at most {@link #MAX_RESERVE_TIMEOUT_SECONDS} is sent; a null, negative or longer
+	 * timeout completes the future exceptionally with a BeanstalkException. To wait longer, poll, or use a
+	 * {@link Client}.
+	 * 
+	 * @see Client#reserve(Integer)
+	 */
+	public CompletableFuture<Job> reserveAsync(Integer timeoutSeconds);
+
+	/**
+	 * @see Client#reserveJob(long)
+	 */
+	public CompletableFuture<Job> reserveJobAsync(long jobId);
+
+	/**
+	 * @see Client#delete(long)
+	 */
+	public CompletableFuture<Boolean> deleteAsync(long jobId);
+
+	/**
+	 * @see Client#release(long, long, int)
+	 */
+	public CompletableFuture<Boolean> releaseAsync(long jobId, long priority, int delaySeconds);
+
+	/**
+	 * @see Client#bury(long, long)
+	 */
+	public CompletableFuture<Boolean> buryAsync(long jobId, long priority);
+
+	/**
+	 * @see Client#touch(long)
+	 */
+	public CompletableFuture<Boolean> touchAsync(long jobId);
+
+	// ****************************************************************
+	// Consumer methods
+	// tube-related
+	// ****************************************************************
+
+	/**
+	 * @see Client#watch(String)
+	 */
+	public CompletableFuture<Integer> watchAsync(String tubeName);
+
+	/**
+	 * @see Client#ignore(String)
+	 */
+	public CompletableFuture<Integer> ignoreAsync(String tubeName);
+
+	// ****************************************************************
+	// Consumer methods
+	// peek-related
+	// ****************************************************************
+
+	/**
+	 * @see Client#peek(long)
+	 */
+	public CompletableFuture<Job> peekAsync(long jobId);
+
+	/**
+	 * @see Client#peekReady()
+	 */
+	public CompletableFuture<Job> peekReadyAsync();
+
+	/**
+	 * @see Client#peekDelayed()
+	 */
+	public CompletableFuture<Job> peekDelayedAsync();
+
+	/**
+	 * @see Client#peekBuried()
+	 */
+	public CompletableFuture<Job> peekBuriedAsync();
+
+	/**
+	 * @see Client#kick(int)
+	 */
+	public CompletableFuture<Integer> kickAsync(int count);
+
+	/**
+	 * @see Client#kickJob(long)
+	 */
+	public CompletableFuture<Boolean> kickJobAsync(long jobId);
+
+	// ****************************************************************
+	// Consumer methods
+	// stats-related
+	// ****************************************************************
+
+	/**
+	 * @see Client#statsJob(long)
+	 */
+	public CompletableFuture<Map<String, String>> statsJobAsync(long jobId);
+
+	/**
+	 * @see Client#statsTube(String)
+	 */
+	public CompletableFuture<Map<String, String>> statsTubeAsync(String tubeName);
+
+	/**
+	 * @see Client#stats()
+	 */
+	public CompletableFuture<Map<String, String>> statsAsync();
+
+	/**
+	 * @see Client#listTubes()
+	 */
+	public CompletableFuture<List<String>> listTubesAsync();
+
+	/**
+	 * @see Client#listTubeUsed()
+	 */
+	public CompletableFuture<String> listTubeUsedAsync();
+
+	/**
+	 * @see Client#listTubesWatched()
+	 */
+	public CompletableFuture<List<String>> listTubesWatchedAsync();
+
+	/**
+	 * @see Client#pauseTube(String, int)
+	 */
+	public CompletableFuture<Boolean> pauseTubeAsync(String tubeName, int pauseSeconds);
+
+	// ****************************************************************
+	// Client methods
+	// ****************************************************************
+
+	/**
+	 * @return the version of this JavaBeanstalkd Client
+	 */
+	public String getClientVersion();
+
+	/**
+	 * close the underlying connection; futures still waiting for a reply complete exceptionally
+	 */
+	public void close();
+}
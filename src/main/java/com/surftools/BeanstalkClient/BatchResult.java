@@ -0,0 +1,90 @@
+package com.surftools.BeanstalkClient;
+
+/*
+
+ Copyright 2009-2020 Robert Tykulsker
+
+ This file is part of JavaBeanstalkCLient.
+
+ JavaBeanstalkCLient is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version, or alternatively, the BSD license supplied
+ with this project in the file "BSD-LICENSE".
+
+ JavaBeanstalkCLient is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with JavaBeanstalkCLient.  If not, see <http://www.gnu.org/licenses/>.
+
+ */
+
+import java.util.BitSet;
+
+/**
+ * the per-job outcome of a pipelined batch command. Entries are in the same order as the batch input; a failure of
+ * one entry never aborts the rest of the batch.
+ * 
+ */
+public interface BatchResult {
+
+	/**
+	 * 
+	 * @return the number of entries in the batch
+	 */
+	public int size();
+
+	/**
+	 * 
+	 * @param index
+	 *            the position of the entry in the batch
+	 * 
+	 * @return true if the command for this entry succeeded
+	 */
+	public boolean isOk(int index);
+
+	/**
+	 * 
+	 * @return the set of indices whose command succeeded
+	 */
+	public BitSet getOk();
+
+	/**
+	 * 
+	 * @return the number of entries whose command did not succeed
+	 */
+	public int getFailureCount();
+
+	/**
+	 * 
+	 * @param index
+	 *            the position of the entry in the batch
+	 * 
+	 * @return the job id of this entry, or -1 if the server did not assign one (e.g. JOB_TOO_BIG)
+	 */
+	public long getJobId(int index);
+
+	/**
+	 * 
+	 * @return the job ids of all entries, in batch order; -1 where the server did not assign one
+	 */
+	public long[] getJobIds();
+
+	/**
+	 * 
+	 * @return the job ids of the entries that did not succeed, in batch order; entries without a job id are omitted
+	 */
+	public long[] getFailedJobIds();
+
+	/**
+	 * 
+	 * @param index
+	 *            the position of the entry in the batch
+	 * 
+	 * @return the status word the server replied with for this entry, e.g. "INSERTED", "BURIED", "JOB_TOO_BIG"
+	 */
+	public String getStatus(int index);
+}
@@ -22,6 +22,12 @@ package com.surftools.BeanstalkClient;
 
  */
 
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.List;
 import java.util.Map;
 
@@ -60,14 +66,107 @@ public interface Client {
 	 */
 	public long put(long priority, int delaySeconds, int timeToRun, byte[] data);
 
+	/**
+	 * put part of an array, e.g. a payload held in a larger pooled buffer. The bytes are sent from the array itself,
+	 * without a copy of the body.
+	 * 
+	 * @param priority
+	 * @param delaySeconds
+	 * @param timeToRun
+	 *            as for {@link #put(long, int, int, byte[])}
+	 * @param data
+	 * @param offset
+	 *            of the first byte of the body in data
+	 * @param length
+	 *            of the body
+	 * @return the jobId of the inserted job
+	 */
+	public long put(long priority, int delaySeconds, int timeToRun, byte[] data, int offset, int length);
+
+	/**
+	 * put the bytes between the position and the limit of a buffer; the position is advanced to the limit. A direct
+	 * buffer on a channel transport goes to the socket without any copy. (Named apart from put so that put(..., null)
+	 * still compiles.)
+	 * 
+	 * @param priority
+	 * @param delaySeconds
+	 * @param timeToRun
+	 *            as for {@link #put(long, int, int, byte[])}
+	 * @param data
+	 * @return the jobId of the inserted job
+	 */
+	public long putBuffer(long priority, int delaySeconds, int timeToRun, ByteBuffer data);
+
+	/**
+	 * put a body of length bytes read from a stream, e.g. a large document, without holding it in memory. The stream
+	 * is not closed. If it ends early the connection is left mid-job and is unusable.
+	 * 
+	 * @param priority
+	 * @param delaySeconds
+	 * @param timeToRun
+	 *            as for {@link #put(long, int, int, byte[])}
+	 * @param data
+	 * @param length
+	 *            of the body
+	 * @return the jobId of the inserted job
+	 */
+	public long putStream(long priority, int delaySeconds, int timeToRun, InputStream data, long length);
+
+	/**
+	 * put a body of length bytes read from a channel, as for {@link #putStream(long, int, int, InputStream, long)}.
+	 * The channel must be in blocking mode.
+	 */
+	public long putChannel(long priority, int delaySeconds, int timeToRun, ReadableByteChannel data, long length);
+
+	/**
+	 * put a region of a file as the body. On the Channel transport the kernel sends the bytes straight from the file
+	 * (FileChannel.transferTo). The file's position is not changed.
+	 * 
+	 * @param priority
+	 * @param delaySeconds
+	 * @param timeToRun
+	 *            as for {@link #put(long, int, int, byte[])}
+	 * @param file
+	 * @param position
+	 *            of the first byte of the body in the file
+	 * @param length
+	 *            of the body
+	 * @return the jobId of the inserted job
+	 */
+	public long putFile(long priority, int delaySeconds, int timeToRun, FileChannel file, long position, long length);
+
 	/**
 	 * The "use" command is for producers. Subsequent put commands will put jobs into the tube specified by this
 	 * command. If no use command has been issued, jobs will be put into the tube named "default".
 	 * 
+	 * The client remembers the tube each connection uses, so using the tube already in use sends nothing.
+	 * 
 	 * @param tubeName
 	 */
 	public void useTube(String tubeName);
 
+	/**
+	 * A pipelined put: every job in the batch is written to the server before any reply is read, so the whole batch
+	 * costs about one round trip instead of one per job. Jobs go to the tube currently used, unless they were added
+	 * with a tube of their own; those are grouped by tube, keeping their order within each tube, and each tube is used
+	 * once. The tube currently used is the same afterwards.
+	 * 
+	 * @param batch
+	 *            the jobs to insert
+	 * 
+	 * @return the outcome of each job, in batch order. An entry is ok if the job was INSERTED; a BURIED entry (server
+	 *         out of memory) still carries its job id, a JOB_TOO_BIG entry has none.
+	 */
+	public BatchResult putAll(PutBatch batch);
+
+	/**
+	 * A pipelined put of many job bodies that share the same priority, delay and time to run.
+	 * 
+	 * @see #put(long, int, int, byte[])
+	 * @see #putAll(PutBatch)
+	 */
+	public BatchResult putAll(long priority, int delaySeconds, int timeToRun, List<byte[]> data);
+
 	// ****************************************************************
 	// Consumer methods
 	// job-related
@@ -90,6 +189,72 @@ public interface Client {
 	 */
 	public Job reserve(Integer timeoutSeconds);
 
+	/**
+	 * reserve a job, as for {@link #reserve(Integer)}, writing its body to a stream instead of returning it, e.g.
+	 * straight to a file or a parser. The body passes through the connection's read buffer; it is never held whole.
+	 * If the sink throws, the connection is unusable and the job goes back to the ready queue when it is closed.
+	 * 
+	 * @param timeoutSeconds
+	 *            as for {@link #reserve(Integer)}
+	 * @param sink
+	 *            is not closed
+	 * @return the job id and body length, or null if no job available within timeoutSeconds
+	 */
+	public StreamedJob reserve(Integer timeoutSeconds, OutputStream sink);
+
+	/**
+	 * reserve a job, writing its body to a channel, as for {@link #reserve(Integer, OutputStream)}
+	 */
+	public StreamedJob reserve(Integer timeoutSeconds, WritableByteChannel sink);
+
+	/**
+	 * reserve a job, putting its body into a buffer the caller reuses, as for {@link #reserve(Integer, OutputStream)}.
+	 * The body is put at the buffer's position, which is advanced. If the body is longer than the space remaining, the
+	 * rest of it is discarded; compare {@link StreamedJob#getLength()} with what was received.
+	 */
+	public StreamedJob reserve(Integer timeoutSeconds, ByteBuffer sink);
+
+	/**
+	 * reserve a job into a holder the caller reuses: its id and body are filled in place, and its buffer only grows
+	 * when a body is larger than any before. On the default connection-per-thread client, a loop of reserveInto and
+	 * {@link #delete(long)} allocates nothing once warmed up.
+	 * 
+	 * @param holder
+	 *            filled in if a job is reserved, untouched otherwise
+	 * @param timeoutSeconds
+	 *            as for {@link #reserve(Integer)}
+	 * @return true if a job was reserved, false if none was available within timeoutSeconds
+	 */
+	public boolean reserveInto(MutableJob holder, int timeoutSeconds);
+
+	/**
+	 * reserve up to max jobs in one round trip: a reserve that waits up to timeoutSeconds is pipelined with max - 1
+	 * reserves that do not wait at all, so a backlog drains at the speed of the connection rather than one round trip
+	 * per job.
+	 * 
+	 * @param max
+	 *            the most jobs to reserve
+	 * @param timeoutSeconds
+	 *            for the first reserve, as for {@link #reserve(Integer)}
+	 * @return the jobs reserved, in the order the server handed them out; empty if none was available in time
+	 * @throws BeanstalkException
+	 *             DEADLINE_SOON if no job was reserved because one already held is about to time out
+	 */
+	public List<Job> reserveBatch(int max, int timeoutSeconds);
+
+	/**
+	 * like {@link #reserveBatch(int, int)}, but fills parallel arrays instead of building Jobs
+	 * 
+	 * @param timeoutSeconds
+	 *            for the first reserve
+	 * @param jobIds
+	 *            receives the job ids; its length is the most jobs to reserve
+	 * @param bodies
+	 *            receives the job bodies; at least as long as jobIds
+	 * @return the number of jobs reserved, filling indexes 0 to count - 1
+	 */
+	public int reserveBatch(int timeoutSeconds, long[] jobIds, byte[][] bodies);
+
 	/**
 	 * A job can be reserved by its id. Once a job is reserved for the client, the client has limited time to run (TTR)
 	 * the job before the job times out. When the job times out, the server will put the job back into the ready queue.
@@ -156,6 +321,42 @@ public interface Client {
 	 */
 	public boolean touch(long jobId);
 
+	/**
+	 * A pipelined delete: all commands are sent in one write and the replies are read in one pass, so acknowledging a
+	 * batch of jobs costs about one round trip.
+	 * 
+	 * @param jobIds
+	 *            the jobs to delete
+	 * 
+	 * @return the outcome of each job, in jobIds order; getOk() has the indices that were DELETED and
+	 *         getFailedJobIds() the ids that were not
+	 */
+	public BatchResult deleteAll(long[] jobIds);
+
+	/**
+	 * A pipelined release of reserved jobs, all with the same priority and delay.
+	 * 
+	 * @see #release(long, long, int)
+	 * @see #deleteAll(long[])
+	 */
+	public BatchResult releaseAll(long[] jobIds, long priority, int delaySeconds);
+
+	/**
+	 * A pipelined bury of reserved jobs, all with the same priority.
+	 * 
+	 * @see #bury(long, long)
+	 * @see #deleteAll(long[])
+	 */
+	public BatchResult buryAll(long[] jobIds, long priority);
+
+	/**
+	 * A pipelined touch of reserved jobs.
+	 * 
+	 * @see #touch(long)
+	 * @see #deleteAll(long[])
+	 */
+	public BatchResult touchAll(long[] jobIds);
+
 	// ****************************************************************
 	// Consumer methods
 	// tube-related
@@ -166,6 +367,9 @@ public interface Client {
 	 * a job from any of the tubes in the watch list. For each new connection, the watch list initially consists of one
 	 * tube, named "default".
 	 * 
+	 * The client remembers the watch list of each connection, so watching a tube already watched sends nothing, and
+	 * neither does ignoring one that is not.
+	 * 
 	 * @param tubeName
 	 *            is a name at most 200 bytes. It specifies a tube to add to the watch list. If the tube doesn't exist,
 	 *            it will be created.
@@ -217,6 +421,66 @@ public interface Client {
 	 */
 	public Job peekBuried();
 
+	/**
+	 * peek at a job, as for {@link #peek(long)}, writing its body to a stream; see {@link #reserve(Integer, OutputStream)}
+	 */
+	public StreamedJob peek(long jobId, OutputStream sink);
+
+	/**
+	 * peek at a job, as for {@link #peek(long)}, writing its body to a channel; see {@link #reserve(Integer, WritableByteChannel)}
+	 */
+	public StreamedJob peek(long jobId, WritableByteChannel sink);
+
+	/**
+	 * peek at a job, as for {@link #peek(long)}, putting its body into a buffer; see {@link #reserve(Integer, ByteBuffer)}
+	 */
+	public StreamedJob peek(long jobId, ByteBuffer sink);
+
+	/**
+	 * peek at the next ready job, as for {@link #peekReady()}, writing its body to a stream; see {@link #reserve(Integer, OutputStream)}
+	 */
+	public StreamedJob peekReady(OutputStream sink);
+
+	/**
+	 * peek at the next ready job, as for {@link #peekReady()}, writing its body to a channel; see {@link #reserve(Integer, WritableByteChannel)}
+	 */
+	public StreamedJob peekReady(WritableByteChannel sink);
+
+	/**
+	 * peek at the next ready job, as for {@link #peekReady()}, putting its body into a buffer; see {@link #reserve(Integer, ByteBuffer)}
+	 */
+	public StreamedJob peekReady(ByteBuffer sink);
+
+	/**
+	 * peek at the delayed job with the shortest delay left, as for {@link #peekDelayed()}, writing its body to a stream; see {@link #reserve(Integer, OutputStream)}
+	 */
+	public StreamedJob peekDelayed(OutputStream sink);
+
+	/**
+	 * peek at the delayed job with the shortest delay left, as for {@link #peekDelayed()}, writing its body to a channel; see {@link #reserve(Integer, WritableByteChannel)}
+	 */
+	public StreamedJob peekDelayed(WritableByteChannel sink);
+
+	/**
+	 * peek at the delayed job with the shortest delay left, as for {@link #peekDelayed()}, putting its body into a buffer; see {@link #reserve(Integer, ByteBuffer)}
+	 */
+	public StreamedJob peekDelayed(ByteBuffer sink);
+
+	/**
+	 * peek at the next buried job, as for {@link #peekBuried()}, writing its body to a stream; see {@link #reserve(Integer, OutputStream)}
+	 */
+	public StreamedJob peekBuried(OutputStream sink);
+
+	/**
+	 * peek at the next buried job, as for {@link #peekBuried()}, writing its body to a channel; see {@link #reserve(Integer, WritableByteChannel)}
+	 */
+	public StreamedJob peekBuried(WritableByteChannel sink);
+
+	/**
+	 * peek at the next buried job, as for {@link #peekBuried()}, putting its body into a buffer; see {@link #reserve(Integer, ByteBuffer)}
+	 */
+	public StreamedJob peekBuried(ByteBuffer sink);
+
 	/**
 	 * The kick command applies only to the currently used tube. It moves jobs into the ready queue. If there are any
 	 * buried jobs, it will only kick buried jobs. Otherwise it will kick delayed jobs
@@ -424,6 +688,30 @@ public interface Client {
 	 */
 	public Map<String, String> stats();
 
+	/**
+	 * the stats command, parsed into typed fields; keys this client does not know are in
+	 * {@link ServerStats#getOther()}
+	 * 
+	 * @return the server stats
+	 */
+	public ServerStats serverStats();
+
+	/**
+	 * the stats-tube command, parsed into typed fields
+	 * 
+	 * @param tubeName
+	 * @return the tube stats, or null if the tube does not exist
+	 */
+	public TubeStats tubeStats(String tubeName);
+
+	/**
+	 * the stats-job command, parsed into typed fields
+	 * 
+	 * @param jobId
+	 * @return the job stats, or null if the job does not exist
+	 */
+	public JobStats jobStats(long jobId);
+
 	/**
 	 * The list-tubes command returns a list of all existing tubes.
 	 * 
@@ -486,6 +774,10 @@ public interface Client {
 	 * 
 	 * is the client using one unique connection per thread or a single shared connection?
 	 * 
+	 * A shared connection is safe to use from any number of threads: their commands are queued, sent in batches and
+	 * answered in order, and the used tube and watch list are those of the connection. A reserve that may block runs
+	 * on a separate connection of the calling thread, so it does not hold up the other threads.
+	 * 
 	 * @param uniqueConnectionPerThread
 	 *            true for a unique connection per thread, false for a single shared connection
 	 */
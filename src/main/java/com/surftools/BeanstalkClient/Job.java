@@ -22,7 +22,14 @@ package com.surftools.BeanstalkClient;
 
  */
 
-public interface Job {
+import java.nio.ByteBuffer;
+
+/**
+ * a job and its body. A job read into a pooled buffer (see ClientImpl.setBufferPool) holds that buffer until it is
+ * released or closed; a job with a plain byte[] body needs no release.
+ * 
+ */
+public interface Job extends AutoCloseable {
 
 	/**
 	 * 
@@ -43,4 +50,28 @@ public interface Job {
 	 */
 	public void setData(byte[] data);
 
+	/**
+	 * 
+	 * @return a view of the job body, position 0 to limit; valid until the job is released
+	 */
+	public default ByteBuffer getBuffer() {
+		byte[] data = getData();
+		return (data == null) ? null : ByteBuffer.wrap(data);
+	}
+
+	/**
+	 * give back the buffer holding the body, if it came from a pool; {@link #getData()} still works afterwards only
+	 * if it was called before
+	 */
+	public default void release() {
+	}
+
+	/**
+	 * same as {@link #release()}, so that a job can be used in try-with-resources
+	 */
+	@Override
+	public default void close() {
+		release();
+	}
+
 }
@@ -0,0 +1,139 @@
+package com.surftools.BeanstalkClient;
+
+/*
+
+ Copyright 2009-2020 Robert Tykulsker
+
+ This file is part of JavaBeanstalkCLient.
+
+ JavaBeanstalkCLient is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version, or alternatively, the BSD license supplied
+ with this project in the file "BSD-LICENSE".
+
+ JavaBeanstalkCLient is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with JavaBeanstalkCLient.  If not, see <http://www.gnu.org/licenses/>.
+
+ */
+
+import java.nio.ByteBuffer;
+
+/**
+ * a job holder that {@link Client#reserveInto(MutableJob, int)} fills in place, so that a consumer loop reusing one
+ * holder allocates nothing once its buffer has grown to the largest body seen.
+ * 
+ * The body sits in the holder's own buffer, from position 0 to the body length. The buffer is replaced when a larger
+ * body arrives, and overwritten by the next reserve, so do not keep references to it across calls.
+ * 
+ */
+public class MutableJob implements Job {
+	static final int DEFAULT_INITIAL_CAPACITY = 4096;
+
+	private final boolean direct;
+	private ByteBuffer buffer;
+	private long jobId = -1;
+	private int length = 0;
+
+	public MutableJob() {
+		this(DEFAULT_INITIAL_CAPACITY, false);
+	}
+
+	/**
+	 * @param initialCapacity
+	 *            of the body buffer
+	 * @param direct
+	 *            true for a direct buffer, which a channel connection reads into without a copy
+	 */
+	public MutableJob(int initialCapacity, boolean direct) {
+		if (initialCapacity < 0) {
+			throw new BeanstalkException("invalid initialCapacity");
+		}
+		this.direct = direct;
+		this.buffer = allocate(initialCapacity);
+		this.buffer.limit(0);
+	}
+
+	/**
+	 * make this the holder of job jobId, with room for a body of length bytes
+	 * 
+	 * @return the buffer to read the body into, position 0 and limit length
+	 */
+	public ByteBuffer prepare(long jobId, int length) {
+		if (length < 0) {
+			throw new BeanstalkException("invalid length");
+		}
+		if (buffer.capacity() < length) {
+			// grow geometrically, so a slowly growing body does not reallocate every time
+			buffer = allocate((int) Math.min(Integer.MAX_VALUE, Math.max(length, 2L * buffer.capacity())));
+		}
+		this.jobId = jobId;
+		this.length = length;
+		buffer.clear().limit(length);
+		return buffer;
+	}
+
+	@Override
+	public long getJobId() {
+		return jobId;
+	}
+
+	/**
+	 * 
+	 * @return the length of the body
+	 */
+	public int getLength() {
+		return length;
+	}
+
+	/**
+	 * 
+	 * @return the capacity of the body buffer
+	 */
+	public int getCapacity() {
+		return buffer.capacity();
+	}
+
+	/**
+	 * 
+	 * @return the holder's own body buffer, rewound to position 0 and limit length; no copy is made
+	 */
+	@Override
+	public ByteBuffer getBuffer() {
+		buffer.limit(length).position(0);
+		return buffer;
+	}
+
+	/**
+	 * 
+	 * @return a copy of the body
+	 */
+	@Override
+	public byte[] getData() {
+		byte[] data = new byte[length];
+		getBuffer().get(data);
+		buffer.position(0);
+		return data;
+	}
+
+	/**
+	 * copy data into the body buffer
+	 */
+	@Override
+	public void setData(byte[] data) {
+		if (data == null) {
+			throw new BeanstalkException("null data");
+		}
+		prepare(jobId, data.length).put(data).flip();
+	}
+
+	private ByteBuffer allocate(int capacity) {
+		return direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+	}
+
+}
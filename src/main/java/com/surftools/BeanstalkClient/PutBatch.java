@@ -0,0 +1,136 @@
+package com.surftools.BeanstalkClient;
+
+/*
+
+ Copyright 2009-2020 Robert Tykulsker
+
+ This file is part of JavaBeanstalkCLient.
+
+ JavaBeanstalkCLient is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version, or alternatively, the BSD license supplied
+ with this project in the file "BSD-LICENSE".
+
+ JavaBeanstalkCLient is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with JavaBeanstalkCLient.  If not, see <http://www.gnu.org/licenses/>.
+
+ */
+
+import java.util.Arrays;
+
+/**
+ * a batch of jobs for {@link Client#putAll(PutBatch)}. A job goes to the tube given when it was added, or, if none
+ * was, to the tube currently used by the client.
+ * 
+ * The jobs are held in parallel arrays, so large batches do not create an object per job.
+ * 
+ */
+public class PutBatch {
+	private long[] priorities;
+	private int[] delaySeconds;
+	private int[] timesToRun;
+	private byte[][] data;
+	private String[] tubeNames;
+	private int size;
+
+	public PutBatch() {
+		this(16);
+	}
+
+	public PutBatch(int expectedSize) {
+		int capacity = Math.max(1, expectedSize);
+		priorities = new long[capacity];
+		delaySeconds = new int[capacity];
+		timesToRun = new int[capacity];
+		data = new byte[capacity][];
+		tubeNames = new String[capacity];
+	}
+
+	/**
+	 * add a job to the batch; see {@link Client#put(long, int, int, byte[])} for the meaning of the arguments
+	 * 
+	 * @return this batch
+	 */
+	public PutBatch add(long priority, int delaySeconds, int timeToRun, byte[] data) {
+		return add(null, priority, delaySeconds, timeToRun, data);
+	}
+
+	/**
+	 * add a job for a tube of its own. Jobs for the same tube are sent in the order they were added, but jobs are
+	 * grouped by tube before they are sent, so that each tube is used once per batch.
+	 * 
+	 * @param tubeName
+	 *            the tube to put the job to, or null for the tube currently used by the client
+	 * @return this batch
+	 */
+	public PutBatch add(String tubeName, long priority, int delaySeconds, int timeToRun, byte[] data) {
+		if (size == priorities.length) {
+			int capacity = size * 2;
+			this.priorities = Arrays.copyOf(this.priorities, capacity);
+			this.delaySeconds = Arrays.copyOf(this.delaySeconds, capacity);
+			this.timesToRun = Arrays.copyOf(this.timesToRun, capacity);
+			this.data = Arrays.copyOf(this.data, capacity);
+			this.tubeNames = Arrays.copyOf(this.tubeNames, capacity);
+		}
+		this.tubeNames[size] = tubeName;
+		this.priorities[size] = priority;
+		this.delaySeconds[size] = delaySeconds;
+		this.timesToRun[size] = timeToRun;
+		this.data[size] = data;
+		++size;
+		return this;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * empty the batch, so that it can be reused
+	 */
+	public void clear() {
+		Arrays.fill(data, 0, size, null);
+		Arrays.fill(tubeNames, 0, size, null);
+		size = 0;
+	}
+
+	public long getPriority(int index) {
+		checkIndex(index);
+		return priorities[index];
+	}
+
+	public int getDelaySeconds(int index) {
+		checkIndex(index);
+		return delaySeconds[index];
+	}
+
+	public int getTimeToRun(int index) {
+		checkIndex(index);
+		return timesToRun[index];
+	}
+
+	public byte[] getData(int index) {
+		checkIndex(index);
+		return data[index];
+	}
+
+	/**
+	 * @return the tube of a job, or null if it goes to the tube currently used by the client
+	 */
+	public String getTubeName(int index) {
+		checkIndex(index);
+		return tubeNames[index];
+	}
+
+	private void checkIndex(int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("index: " + index + ", size: " + size);
+		}
+	}
+}
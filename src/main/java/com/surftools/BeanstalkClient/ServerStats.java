@@ -0,0 +1,149 @@
+package com.surftools.BeanstalkClient;
+
+/*
+
+ Copyright 2009-2020 Robert Tykulsker
+
+ This file is part of JavaBeanstalkCLient.
+
+ JavaBeanstalkCLient is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version, or alternatively, the BSD license supplied
+ with this project in the file "BSD-LICENSE".
+
+ JavaBeanstalkCLient is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with JavaBeanstalkCLient.  If not, see <http://www.gnu.org/licenses/>.
+
+ */
+
+import java.util.Map;
+
+/**
+ * the reply to stats, with each value parsed into its own type; see {@link Client#stats()} for the meaning of each
+ * field
+ * 
+ */
+public interface ServerStats {
+
+	public long getCurrentJobsUrgent();
+
+	public long getCurrentJobsReady();
+
+	public long getCurrentJobsReserved();
+
+	public long getCurrentJobsDelayed();
+
+	public long getCurrentJobsBuried();
+
+	public long getCmdPut();
+
+	public long getCmdPeek();
+
+	public long getCmdPeekReady();
+
+	public long getCmdPeekDelayed();
+
+	public long getCmdPeekBuried();
+
+	public long getCmdReserve();
+
+	public long getCmdReserveWithTimeout();
+
+	public long getCmdDelete();
+
+	public long getCmdRelease();
+
+	public long getCmdUse();
+
+	public long getCmdWatch();
+
+	public long getCmdIgnore();
+
+	public long getCmdBury();
+
+	public long getCmdKick();
+
+	public long getCmdTouch();
+
+	public long getCmdStats();
+
+	public long getCmdStatsJob();
+
+	public long getCmdStatsTube();
+
+	public long getCmdListTubes();
+
+	public long getCmdListTubeUsed();
+
+	public long getCmdListTubesWatched();
+
+	public long getCmdPauseTube();
+
+	public long getJobTimeouts();
+
+	public long getTotalJobs();
+
+	public long getMaxJobSize();
+
+	public long getCurrentTubes();
+
+	public long getCurrentConnections();
+
+	public long getCurrentProducers();
+
+	public long getCurrentWorkers();
+
+	public long getCurrentWaiting();
+
+	public long getTotalConnections();
+
+	public long getPid();
+
+	public String getVersion();
+
+	/**
+	 * @return CPU time in seconds
+	 */
+	public double getRusageUtime();
+
+	/**
+	 * @return CPU time in seconds
+	 */
+	public double getRusageStime();
+
+	public long getUptime();
+
+	public long getBinlogOldestIndex();
+
+	public long getBinlogCurrentIndex();
+
+	public long getBinlogRecordsMigrated();
+
+	public long getBinlogRecordsWritten();
+
+	public long getBinlogMaxSize();
+
+	public boolean isDraining();
+
+	/**
+	 * @return the random id of the server process
+	 */
+	public String getId();
+
+	public String getHostname();
+
+	public String getOs();
+
+	public String getPlatform();
+
+	/**
+	 * @return the keys this client does not know, with their values as sent; empty if there were none
+	 */
+	public Map<String, String> getOther();
+}
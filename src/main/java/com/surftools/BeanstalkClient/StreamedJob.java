@@ -0,0 +1,44 @@
+package com.surftools.BeanstalkClient;
+
+/*
+
+ Copyright 2009-2020 Robert Tykulsker
+
+ This file is part of JavaBeanstalkCLient.
+
+ JavaBeanstalkCLient is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version, or alternatively, the BSD license supplied
+ with this project in the file "BSD-LICENSE".
+
+ JavaBeanstalkCLient is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with JavaBeanstalkCLient.  If not, see <http://www.gnu.org/licenses/>.
+
+ */
+
+/**
+ * a job whose body was written to a caller-supplied sink rather than returned as a byte[]
+ * 
+ */
+public interface StreamedJob {
+
+	/**
+	 * 
+	 * @return the job id
+	 */
+	public long getJobId();
+
+	/**
+	 * 
+	 * @return the length of the body announced by the server. A ByteBuffer sink receives at most its remaining bytes
+	 *         and the rest of the body is discarded, so a length greater than what it received means it was too small.
+	 */
+	public int getLength();
+
+}
@@ -0,0 +1,66 @@
+package com.surftools.BeanstalkClient;
+
+/*
+
+ Copyright 2009-2020 Robert Tykulsker
+
+ This file is part of JavaBeanstalkCLient.
+
+ JavaBeanstalkCLient is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version, or alternatively, the BSD license supplied
+ with this project in the file "BSD-LICENSE".
+
+ JavaBeanstalkCLient is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with JavaBeanstalkCLient.  If not, see <http://www.gnu.org/licenses/>.
+
+ */
+
+import java.util.Map;
+
+/**
+ * the reply to stats-tube, with each value parsed into its own type; see {@link Client#statsTube(String)} for the
+ * meaning of each field
+ * 
+ */
+public interface TubeStats {
+
+	public String getName();
+
+	public long getCurrentJobsUrgent();
+
+	public long getCurrentJobsReady();
+
+	public long getCurrentJobsReserved();
+
+	public long getCurrentJobsDelayed();
+
+	public long getCurrentJobsBuried();
+
+	public long getTotalJobs();
+
+	public long getCurrentUsing();
+
+	public long getCurrentWaiting();
+
+	public long getCurrentWatching();
+
+	public long getPause();
+
+	public long getCmdDelete();
+
+	public long getCmdPauseTube();
+
+	public long getPauseTimeLeft();
+
+	/**
+	 * @return the keys this client does not know, with their values as sent; empty if there were none
+	 */
+	public Map<String, String> getOther();
+}
@@ -0,0 +1,233 @@
+package com.surftools.BeanstalkClientImpl;
+
+/*
+
+ Copyright 2009-2020 Robert Tykulsker
+
+ This file is part of JavaBeanstalkCLient.
+
+ JavaBeanstalkCLient is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version, or alternatively, the BSD license supplied
+ with this project in the file "BSD-LICENSE".
+
+ JavaBeanstalkCLient is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with JavaBeanstalkCLient.  If not, see <http://www.gnu.org/licenses/>.
+
+ */
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import com.surftools.BeanstalkClient.AsyncClient;
+import com.surftools.BeanstalkClient.BeanstalkException;
+import com.surftools.BeanstalkClient.Job;
+
+public class AsyncClientImpl implements AsyncClient {
+
+	private final PipelinedConnection connection;
+
+	public AsyncClientImpl() {
+		this(ClientImpl.DEFAULT_HOST, ClientImpl.DEFAULT_PORT);
+	}
+
+	public AsyncClientImpl(String host, int port) {
+		this(host, port, Transport.Stream);
+	}
+
+	public AsyncClientImpl(String host, int port, Transport transport) {
+		connection = new PipelinedConnection(ProtocolHandler.newInstance(host, port, transport),
+				"AsyncClient-" + host + ":" + port);
+	}
+
+	// ****************************************************************
+	// Producer methods
+	// ****************************************************************
+
+	@Override
+	public CompletableFuture<Long> putAsync(long priority, int delaySeconds, int timeToRun, byte[] data) {
+		Request request;
+		try {
+			request = Commands.put(priority, delaySeconds, timeToRun, data);
+		} catch (BeanstalkException e) {
+			return CompletableFuture.failedFuture(e);
+		}
+		return connection.submit(request, Commands::toPutJobId);
+	}
+
+	@Override
+	public CompletableFuture<Void> useTubeAsync(String tubeName) {
+		Request request;
+		try {
+			request = Commands.use(tubeName);
+		} catch (BeanstalkException e) {
+			return CompletableFuture.failedFuture(e);
+		}
+		return connection.submit(request, response -> null);
+	}
+
+	// ****************************************************************
+	// Consumer methods
+	// job-related
+	// ****************************************************************
+
+	@Override
+	public CompletableFuture<Job> reserveAsync(Integer timeoutSeconds) {
+		if (timeoutSeconds == null || timeoutSeconds < 0 || timeoutSeconds > MAX_RESERVE_TIMEOUT_SECONDS) {
+			return CompletableFuture.failedFuture(new BeanstalkException("timeoutSeconds must be between 0 and "
+					+ MAX_RESERVE_TIMEOUT_SECONDS + " on a pipelined connection"));
+		}
+		return connection.submit(Commands.reserve(timeoutSeconds), Commands::toReservedJob);
+	}
+
+	@Override
+	public CompletableFuture<Job> reserveJobAsync(long jobId) {
+		return connection.submit(Commands.reserveJob(jobId), Commands::toJob);
+	}
+
+	@Override
+	public CompletableFuture<Boolean> deleteAsync(long jobId) {
+		return connection.submit(Commands.delete(jobId), Commands::isOk);
+	}
+
+	@Override
+	public CompletableFuture<Boolean> releaseAsync(long jobId, long priority, int delaySeconds) {
+		return connection.submit(Commands.release(jobId, priority, delaySeconds), Commands::isOk);
+	}
+
+	@Override
+	public CompletableFuture<Boolean> buryAsync(long jobId, long priority) {
+		return connection.submit(Commands.bury(jobId, priority), Commands::isOk);
+	}
+
+	@Override
+	public CompletableFuture<Boolean> touchAsync(long jobId) {
+		return connection.submit(Commands.touch(jobId), Commands::isOk);
+	}
+
+	// ****************************************************************
+	// Consumer methods
+	// tube-related
+	// ****************************************************************
+
+	@Override
+	public CompletableFuture<Integer> watchAsync(String tubeName) {
+		Request request;
+		try {
+			request = Commands.watch(tubeName);
+		} catch (BeanstalkException e) {
+			return CompletableFuture.failedFuture(e);
+		}
+		return connection.submit(request, Commands::toWatchCount);
+	}
+
+	@Override
+	public CompletableFuture<Integer> ignoreAsync(String tubeName) {
+		Request request;
+		try {
+			request = Commands.ignore(tubeName);
+		} catch (BeanstalkException e) {
+			return CompletableFuture.failedFuture(e);
+		}
+		return connection.submit(request, Commands::toWatchCount);
+	}
+
+	// ****************************************************************
+	// Consumer methods
+	// peek-related
+	// ****************************************************************
+
+	@Override
+	public CompletableFuture<Job> peekAsync(long jobId) {
+		return connection.submit(Commands.peek(jobId), Commands::toJob);
+	}
+
+	@Override
+	public CompletableFuture<Job> peekReadyAsync() {
+		return connection.submit(Commands.peekReady(), Commands::toJob);
+	}
+
+	@Override
+	public CompletableFuture<Job> peekDelayedAsync() {
+		return connection.submit(Commands.peekDelayed(), Commands::toJob);
+	}
+
+	@Override
+	public CompletableFuture<Job> peekBuriedAsync() {
+		return connection.submit(Commands.peekBuried(), Commands::toJob);
+	}
+
+	@Override
+	public CompletableFuture<Integer> kickAsync(final int count) {
+		return connection.submit(Commands.kick(count), response -> Commands.toKickCount(response, count));
+	}
+
+	@Override
+	public CompletableFuture<Boolean> kickJobAsync(long jobId) {
+		return connection.submit(Commands.kickJob(jobId), Commands::isOk);
+	}
+
+	// ****************************************************************
+	// Consumer methods
+	// stats-related
+	// ****************************************************************
+
+	@Override
+	public CompletableFuture<Map<String, String>> statsJobAsync(long jobId) {
+		return connection.submit(Commands.statsJob(jobId), Commands::toMap);
+	}
+
+	@Override
+	public CompletableFuture<Map<String, String>> statsTubeAsync(String tubeName) {
+		if (tubeName == null) {
+			return CompletableFuture.completedFuture(null);
+		}
+		return connection.submit(Commands.statsTube(tubeName), Commands::toMap);
+	}
+
+	@Override
+	public CompletableFuture<Map<String, String>> statsAsync() {
+		return connection.submit(Commands.stats(), Commands::toMap);
+	}
+
+	@Override
+	public CompletableFuture<List<String>> listTubesAsync() {
+		return connection.submit(Commands.listTubes(), Commands::toList);
+	}
+
+	@Override
+	public CompletableFuture<String> listTubeUsedAsync() {
+		return connection.submit(Commands.listTubeUsed(), Commands::toTubeName);
+	}
+
+	@Override
+	public CompletableFuture<List<String>> listTubesWatchedAsync() {
+		return connection.submit(Commands.listTubesWatched(), Commands::toList);
+	}
+
+	@Override
+	public CompletableFuture<Boolean> pauseTubeAsync(String tubeName, int pauseSeconds) {
+		return connection.submit(Commands.pauseTube(tubeName, pauseSeconds), Commands::isOk);
+	}
+
+	// ****************************************************************
+	// Client methods
+	// ****************************************************************
+
+	@Override
+	public String getClientVersion() {
+		return ClientImpl.VERSION;
+	}
+
+	@Override
+	public void close() {
+		connection.close();
+	}
+}
@@ -0,0 +1,477 @@
+package com.surftools.BeanstalkClientImpl;
+
+/*
+
+ Copyright 2009-2020 Robert Tykulsker
+
+ This file is part of JavaBeanstalkCLient.
+
+ JavaBeanstalkCLient is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version, or alternatively, the BSD license supplied
+ with this project in the file "BSD-LICENSE".
+
+ JavaBeanstalkCLient is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with JavaBeanstalkCLient.  If not, see <http://www.gnu.org/licenses/>.
+
+ */
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import com.surftools.BeanstalkClient.BatchResult;
+import com.surftools.BeanstalkClient.BeanstalkException;
+import com.surftools.BeanstalkClient.Client;
+import com.surftools.BeanstalkClient.PutBatch;
+
+/**
+ * fire-and-forget puts. {@link #put(long, int, int, byte[])} only enqueues the job and returns a future for its job
+ * id; background flusher threads drain the queue and send what they took in one pipelined
+ * {@link Client#putAll(PutBatch)}, once maxBatchSize jobs are waiting or the oldest has waited maxDelayMillis.
+ * 
+ * The queue is a bounded lock-free ring: a put claims a slot with one compare-and-set and never takes a lock. What
+ * happens when it is full is the {@link Overflow} policy.
+ * 
+ * Every job of a batch is named for tubeName, so the batch lands there whatever tube the client's connection was left
+ * on, and the client may be per-thread, shared or pooled.
+ * 
+ */
+public class AsyncProducer implements AutoCloseable {
+	static final int DEFAULT_MAX_BATCH_SIZE = 64;
+	static final long DEFAULT_MAX_DELAY_MILLIS = 1;
+	// how long a blocked put or an idle flusher waits before looking again
+	private static final long PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+	private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+	/**
+	 * what a put does when the queue is full
+	 */
+	public enum Overflow {
+		/** wait for room */
+		BLOCK,
+		/** discard the job: its future completes exceptionally with "job dropped" */
+		DROP,
+		/** throw a BeanstalkException "queue full" */
+		FAIL
+	}
+
+	private static class Pending {
+		final long priority;
+		final int delaySeconds;
+		final int timeToRun;
+		final byte[] data;
+		final long enqueuedNanos = System.nanoTime();
+		final CompletableFuture<Long> future = new CompletableFuture<Long>();
+
+		Pending(long priority, int delaySeconds, int timeToRun, byte[] data) {
+			this.priority = priority;
+			this.delaySeconds = delaySeconds;
+			this.timeToRun = timeToRun;
+			this.data = data;
+		}
+	}
+
+	/**
+	 * a bounded multi-producer ring, after Dmitry Vyukov's: each slot carries a sequence number that says whether it
+	 * is free for the lap a producer is on, or full for the lap a consumer is on
+	 */
+	private static class Ring {
+		private final int mask;
+		private final AtomicReferenceArray<Pending> slots;
+		private final AtomicLongArray sequences;
+		private final AtomicLong tail = new AtomicLong();
+		private final AtomicLong head = new AtomicLong();
+
+		Ring(int capacity) {
+			int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+			mask = size - 1;
+			slots = new AtomicReferenceArray<Pending>(size);
+			sequences = new AtomicLongArray(size);
+			for (int i = 0; i < size; ++i) {
+				sequences.set(i, i);
+			}
+		}
+
+		boolean offer(Pending pending) {
+			long pos = tail.get();
+			while (true) {
+				int index = (int) (pos & mask);
+				long lag = sequences.get(index) - pos;
+				if (lag == 0) {
+					if (tail.compareAndSet(pos, pos + 1)) {
+						slots.lazySet(index, pending);
+						sequences.set(index, pos + 1);
+						return true;
+					}
+					pos = tail.get();
+				} else if (lag < 0) {
+					// the slot still holds the previous lap's job
+					return false;
+				} else {
+					pos = tail.get();
+				}
+			}
+		}
+
+		Pending poll() {
+			long pos = head.get();
+			while (true) {
+				int index = (int) (pos & mask);
+				long lag = sequences.get(index) - (pos + 1);
+				if (lag == 0) {
+					if (head.compareAndSet(pos, pos + 1)) {
+						Pending pending = slots.get(index);
+						slots.lazySet(index, null);
+						sequences.set(index, pos + mask + 1);
+						return pending;
+					}
+					pos = head.get();
+				} else if (lag < 0) {
+					return null;
+				} else {
+					pos = head.get();
+				}
+			}
+		}
+
+		int size() {
+			return (int) Math.max(0, tail.get() - head.get());
+		}
+
+		int capacity() {
+			return mask + 1;
+		}
+	}
+
+	private final Client client;
+	private final String tubeName;
+	private final Ring ring;
+	private final Thread[] flushers;
+	private final AtomicInteger idleFlushers = new AtomicInteger();
+
+	private volatile Overflow overflow = Overflow.BLOCK;
+	private volatile int maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+	private volatile long maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_MAX_DELAY_MILLIS);
+	private volatile boolean started = false;
+	private volatile boolean closed = false;
+	// set once no flusher will take from the queue again; whatever is still queued then is failed
+	private volatile boolean stopped = false;
+
+	private final AtomicInteger maxQueueDepth = new AtomicInteger();
+	private final LongAdder submitted = new LongAdder();
+	private final LongAdder inserted = new LongAdder();
+	private final LongAdder failed = new LongAdder();
+	private final LongAdder dropped = new LongAdder();
+	private final LongAdder batches = new LongAdder();
+
+	public AsyncProducer(Client client, String tubeName, int capacity) {
+		this(client, tubeName, capacity, 1);
+	}
+
+	/**
+	 * @param tubeName
+	 *            the tube every job is put to
+	 * @param capacity
+	 *            of the queue, rounded up to a power of two
+	 * @param flusherThreads
+	 *            the number of threads sending batches
+	 */
+	public AsyncProducer(Client client, String tubeName, int capacity, int flusherThreads) {
+		if (client == null) {
+			throw new BeanstalkException("null client");
+		}
+		if (tubeName == null) {
+			throw new BeanstalkException("null tubeName");
+		}
+		if (capacity < 1) {
+			throw new BeanstalkException("invalid capacity");
+		}
+		if (flusherThreads < 1) {
+			throw new BeanstalkException("invalid flusherThreads");
+		}
+		this.client = client;
+		this.tubeName = tubeName;
+		this.ring = new Ring(capacity);
+		this.flushers = new Thread[flusherThreads];
+		for (int i = 0; i < flusherThreads; ++i) {
+			flushers[i] = new Thread(this::flush, "beanstalk-producer-" + tubeName + "-" + i);
+			flushers[i].setDaemon(true);
+		}
+	}
+
+	public void setOverflow(Overflow overflow) {
+		if (overflow == null) {
+			throw new BeanstalkException("null overflow");
+		}
+		this.overflow = overflow;
+	}
+
+	public Overflow getOverflow() {
+		return overflow;
+	}
+
+	/**
+	 * @param maxBatchSize
+	 *            a batch is sent as soon as it has this many jobs
+	 * @param maxDelayMillis
+	 *            a batch is sent once its oldest job has waited this long; 0 sends whatever has queued up while the
+	 *            previous batch was on the wire
+	 */
+	public void setFlushThresholds(int maxBatchSize, long maxDelayMillis) {
+		if (maxBatchSize < 1) {
+			throw new BeanstalkException("invalid maxBatchSize");
+		}
+		if (maxDelayMillis < 0) {
+			throw new BeanstalkException("invalid maxDelayMillis");
+		}
+		this.maxBatchSize = maxBatchSize;
+		this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxDelayMillis);
+	}
+
+	public synchronized void start() {
+		if (started) {
+			throw new BeanstalkException("already started");
+		}
+		started = true;
+		for (Thread flusher : flushers) {
+			flusher.start();
+		}
+	}
+
+	/**
+	 * queue a job; see {@link Client#put(long, int, int, byte[])} for the meaning of the arguments. The arguments are
+	 * checked here, so a bad job fails alone rather than failing the batch it would have been sent in.
+	 * 
+	 * @return a future for the job id. It completes exceptionally with a BeanstalkException if the server did not
+	 *         insert the job (the status is the message), if the connection failed, or if the job was dropped.
+	 * 
+	 * @throws BeanstalkException
+	 *             if the producer is closed, or the queue is full and the policy is FAIL
+	 */
+	public CompletableFuture<Long> put(long priority, int delaySeconds, int timeToRun, byte[] data) {
+		if (data == null) {
+			throw new BeanstalkException("null data");
+		}
+		if (priority < 0) {
+			throw new BeanstalkException("invalid priority");
+		}
+		if (delaySeconds < 0) {
+			throw new BeanstalkException("invalid delaySeconds");
+		}
+		if (timeToRun < 0) {
+			throw new BeanstalkException("invalid timeToRun");
+		}
+		if (closed) {
+			throw new BeanstalkException("producer closed");
+		}
+
+		Pending pending = new Pending(priority, delaySeconds, timeToRun, data);
+		while (!ring.offer(pending)) {
+			switch (overflow) {
+			case DROP:
+				dropped.increment();
+				pending.future.completeExceptionally(new BeanstalkException("job dropped"));
+				return pending.future;
+			case FAIL:
+				throw new BeanstalkException("queue full");
+			default:
+				LockSupport.parkNanos(PARK_NANOS);
+				if (closed) {
+					throw new BeanstalkException("producer closed");
+				}
+			}
+		}
+		submitted.increment();
+		if (stopped) {
+			// close() ran between the check above and the offer, and the flushers are gone
+			failQueued();
+			return pending.future;
+		}
+
+		int depth = ring.size();
+		int max;
+		while (depth > (max = maxQueueDepth.get()) && !maxQueueDepth.compareAndSet(max, depth)) {
+			// another put raised it first
+		}
+		if (idleFlushers.get() > 0) {
+			for (Thread flusher : flushers) {
+				LockSupport.unpark(flusher);
+			}
+		}
+		return pending.future;
+	}
+
+	private void flush() {
+		Pending[] taken = new Pending[maxBatchSize];
+		PutBatch batch = new PutBatch(maxBatchSize);
+		while (true) {
+			Pending first = ring.poll();
+			if (first == null) {
+				if (closed) {
+					return;
+				}
+				idleFlushers.incrementAndGet();
+				if (ring.size() == 0 && !closed) {
+					LockSupport.parkNanos(IDLE_PARK_NANOS);
+				}
+				idleFlushers.decrementAndGet();
+				continue;
+			}
+
+			int limit = maxBatchSize;
+			if (taken.length < limit) {
+				taken = new Pending[limit];
+			}
+			int count = 0;
+			taken[count++] = first;
+			long deadline = first.enqueuedNanos + maxDelayNanos;
+			while (count < limit) {
+				Pending next = ring.poll();
+				if (next != null) {
+					taken[count++] = next;
+					continue;
+				}
+				long wait = deadline - System.nanoTime();
+				if (wait <= 0 || closed) {
+					break;
+				}
+				LockSupport.parkNanos(Math.min(wait, PARK_NANOS));
+			}
+
+			batch.clear();
+			for (int i = 0; i < count; ++i) {
+				batch.add(tubeName, taken[i].priority, taken[i].delaySeconds, taken[i].timeToRun, taken[i].data);
+			}
+			send(batch, taken, count);
+			for (int i = 0; i < count; ++i) {
+				taken[i] = null;
+			}
+		}
+	}
+
+	private void send(PutBatch batch, Pending[] taken, int count) {
+		batches.increment();
+		BatchResult result;
+		try {
+			result = client.putAll(batch);
+		} catch (RuntimeException e) {
+			failed.add(count);
+			for (int i = 0; i < count; ++i) {
+				taken[i].future.completeExceptionally(e);
+			}
+			return;
+		}
+		for (int i = 0; i < count; ++i) {
+			if (result.isOk(i)) {
+				inserted.increment();
+				taken[i].future.complete(result.getJobId(i));
+			} else {
+				failed.increment();
+				taken[i].future.completeExceptionally(new BeanstalkException(result.getStatus(i)));
+			}
+		}
+	}
+
+	/**
+	 * stop taking puts, send everything already queued and wait for the flushers to finish
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		for (Thread flusher : flushers) {
+			LockSupport.unpark(flusher);
+		}
+		if (started) {
+			for (Thread flusher : flushers) {
+				try {
+					flusher.join();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+		}
+		// a put that passed its closed check before the flushers stopped may have queued a job nothing will send
+		stopped = true;
+		failQueued();
+	}
+
+	private void failQueued() {
+		Pending pending;
+		while ((pending = ring.poll()) != null) {
+			failed.increment();
+			pending.future.completeExceptionally(new BeanstalkException("producer closed"));
+		}
+	}
+
+	public boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * @return the number of jobs queued and not yet taken by a flusher
+	 */
+	public int getQueueDepth() {
+		return ring.size();
+	}
+
+	/**
+	 * @return the highest queue depth seen
+	 */
+	public int getMaxQueueDepth() {
+		return maxQueueDepth.get();
+	}
+
+	public int getCapacity() {
+		return ring.capacity();
+	}
+
+	/**
+	 * @return the number of jobs accepted into the queue
+	 */
+	public long getSubmittedCount() {
+		return submitted.sum();
+	}
+
+	public long getInsertedCount() {
+		return inserted.sum();
+	}
+
+	/**
+	 * @return the number of jobs the server did not insert, or that were lost with their connection
+	 */
+	public long getFailedCount() {
+		return failed.sum();
+	}
+
+	public long getDroppedCount() {
+		return dropped.sum();
+	}
+
+	/**
+	 * @return the number of batches sent
+	 */
+	public long getBatchCount() {
+		return batches.sum();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("AsyncProducer[tube=%s, depth=%d/%d, maxDepth=%d, submitted=%d, inserted=%d, failed=%d, "
+				+ "dropped=%d, batches=%d]",
+				tubeName, getQueueDepth(), getCapacity(), getMaxQueueDepth(), getSubmittedCount(), getInsertedCount(),
+				getFailedCount(), getDroppedCount(), getBatchCount());
+	}
+}
@@ -0,0 +1,94 @@
+package com.surftools.BeanstalkClientImpl;
+
+/*
+
+ Copyright 2009-2020 Robert Tykulsker
+
+ This file is part of JavaBeanstalkCLient.
+
+ JavaBeanstalkCLient is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version, or alternatively, the BSD license supplied
+ with this project in the file "BSD-LICENSE".
+
+ JavaBeanstalkCLient is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with JavaBeanstalkCLient.  If not, see <http://www.gnu.org/licenses/>.
+
+ */
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+import com.surftools.BeanstalkClient.BatchResult;
+
+public class BatchResultImpl implements BatchResult {
+	private final long[] jobIds;
+	private final String[] statuses;
+	private final BitSet ok;
+
+	public BatchResultImpl(int size) {
+		jobIds = new long[size];
+		Arrays.fill(jobIds, -1);
+		statuses = new String[size];
+		ok = new BitSet(size);
+	}
+
+	void set(int index, long jobId, String status, boolean isOk) {
+		jobIds[index] = jobId;
+		statuses[index] = status;
+		ok.set(index, isOk);
+	}
+
+	@Override
+	public int size() {
+		return jobIds.length;
+	}
+
+	@Override
+	public boolean isOk(int index) {
+		return ok.get(index);
+	}
+
+	@Override
+	public BitSet getOk() {
+		return (BitSet) ok.clone();
+	}
+
+	@Override
+	public int getFailureCount() {
+		return jobIds.length - ok.cardinality();
+	}
+
+	@Override
+	public long getJobId(int index) {
+		return jobIds[index];
+	}
+
+	@Override
+	public long[] getJobIds() {
+		return jobIds.clone();
+	}
+
+	@Override
+	public long[] getFailedJobIds() {
+		long[] failed = new long[getFailureCount()];
+		int n = 0;
+		for (int i = ok.nextClearBit(0); i < jobIds.length; i = ok.nextClearBit(i + 1)) {
+			if (jobIds[i] >= 0) {
+				failed[n++] = jobIds[i];
+			}
+		}
+		return Arrays.copyOf(failed, n);
+	}
+
+	@Override
+	public String getStatus(int index) {
+		return statuses[index];
+	}
+}
@@ -0,0 +1,360 @@
+package com.surftools.BeanstalkClientImpl;
+
+/*
+
+ Copyright 2009-2020 Robert Tykulsker
+
+ This file is part of JavaBeanstalkCLient.
+
+ JavaBeanstalkCLient is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version, or alternatively, the BSD license supplied
+ with this project in the file "BSD-LICENSE".
+
+ JavaBeanstalkCLient is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with JavaBeanstalkCLient.  If not, see <http://www.gnu.org/licenses/>.
+
+ */
+
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.surftools.BeanstalkClient.BeanstalkException;
+
+/**
+ * a pool of job body buffers, for {@link ClientImpl#setBufferPool(BufferPool)}.
+ * 
+ * Buffers come in power-of-two size classes from MIN_CLASS_SIZE up to maxPooledSize. Each class is carved out of
+ * slabs of at least SLAB_SIZE bytes, heap or direct, and a released buffer goes back to the free list of its class.
+ * A body larger than maxPooledSize gets a buffer of its own, which is simply dropped when released. Only a buffer
+ * this pool handed out, and has not had back, is taken back: a lease knows its buffer is ours, and the buffers from
+ * {@link #acquire(int)} are remembered by identity until released; anything else given to {@link #release(ByteBuffer)}
+ * is ignored.
+ * 
+ * With leak detection on, every lease records where it was taken; a job that becomes unreachable without being
+ * released is counted as a leak and its trace is kept (the most recent MAX_LEAK_TRACES). Its buffer is not returned
+ * to the pool, since a view of it handed out by the job may still be read; it is left to the garbage collector.
+ * Detection costs a stack trace per lease, so it is meant for debugging.
+ * 
+ */
+public class BufferPool {
+	static final int MIN_CLASS_SIZE = 1024;
+	static final int DEFAULT_MAX_POOLED_SIZE = 1024 * 1024;
+	static final int SLAB_SIZE = 64 * 1024;
+	static final int MAX_LEAK_TRACES = 16;
+
+	private static class CleanerHolder {
+		static final Cleaner cleaner = Cleaner.create();
+	}
+
+	/**
+	 * a buffer leased to one job
+	 */
+	static class Lease implements Runnable {
+		private final BufferPool pool;
+		private final ByteBuffer buffer;
+		private final AtomicBoolean released = new AtomicBoolean(false);
+		private Throwable trace;
+		private Cleaner.Cleanable cleanable;
+
+		Lease(BufferPool pool, ByteBuffer buffer) {
+			this.pool = pool;
+			this.buffer = buffer;
+		}
+
+		ByteBuffer getBuffer() {
+			return buffer;
+		}
+
+		boolean isReleased() {
+			return released.get();
+		}
+
+		/**
+		 * watch the owner of the buffer, if leak detection is on; the lease must not refer to its owner
+		 */
+		void track(Object owner) {
+			if (pool.leakDetection) {
+				trace = new Throwable("job buffer leased here was never released");
+				cleanable = CleanerHolder.cleaner.register(owner, this);
+			}
+		}
+
+		void release() {
+			if (released.compareAndSet(false, true)) {
+				pool.recycle(buffer);
+				if (cleanable != null) {
+					cleanable.clean();
+				}
+			}
+		}
+
+		/**
+		 * run by the Cleaner once the owner is unreachable, or by {@link #release()}
+		 */
+		@Override
+		public void run() {
+			if (released.compareAndSet(false, true)) {
+				pool.leaked(trace);
+			}
+		}
+	}
+
+	private final boolean direct;
+	private final int maxPooledSize;
+	// free buffers, one list per size class
+	private final Deque<ByteBuffer>[] free;
+	// the buffers handed out by acquire and not yet released, by identity, since ByteBuffer.equals compares contents
+	private final Set<ByteBuffer> acquiredBuffers = Collections.newSetFromMap(new IdentityHashMap<ByteBuffer, Boolean>());
+	private volatile boolean leakDetection = false;
+
+	private final LongAdder acquired = new LongAdder();
+	private final LongAdder reused = new LongAdder();
+	private final LongAdder unpooled = new LongAdder();
+	private final LongAdder released = new LongAdder();
+	private final LongAdder slabBytes = new LongAdder();
+	private final LongAdder leaks = new LongAdder();
+	private final Deque<Throwable> leakTraces = new ArrayDeque<Throwable>();
+
+	public BufferPool(boolean direct) {
+		this(direct, DEFAULT_MAX_POOLED_SIZE);
+	}
+
+	/**
+	 * @param direct
+	 *            true for direct buffers, which a channel connection reads into without a copy
+	 * @param maxPooledSize
+	 *            the largest body that is pooled, rounded up to a power of two
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public BufferPool(boolean direct, int maxPooledSize) {
+		if (maxPooledSize < MIN_CLASS_SIZE || maxPooledSize > (1 << 30)) {
+			throw new BeanstalkException("invalid maxPooledSize");
+		}
+		this.direct = direct;
+		this.free = new Deque[sizeClass(maxPooledSize) + 1];
+		for (int i = 0; i < free.length; ++i) {
+			free[i] = new ArrayDeque<ByteBuffer>();
+		}
+		this.maxPooledSize = classSize(free.length - 1);
+	}
+
+	/**
+	 * @return a buffer with position 0 and limit length; give it back with {@link #release(ByteBuffer)}
+	 */
+	public ByteBuffer acquire(int length) {
+		ByteBuffer buffer = take(length);
+		synchronized (acquiredBuffers) {
+			acquiredBuffers.add(buffer);
+		}
+		return buffer;
+	}
+
+	private ByteBuffer take(int length) {
+		if (length < 0) {
+			throw new BeanstalkException("invalid length");
+		}
+		acquired.increment();
+		ByteBuffer buffer;
+		if (length > maxPooledSize) {
+			unpooled.increment();
+			buffer = allocate(length);
+		} else {
+			int sizeClass = sizeClass(length);
+			Deque<ByteBuffer> list = free[sizeClass];
+			synchronized (list) {
+				buffer = list.pollFirst();
+				if (buffer == null) {
+					carveSlab(sizeClass, list);
+					buffer = list.pollFirst();
+				} else {
+					reused.increment();
+				}
+			}
+		}
+		buffer.clear().limit(length);
+		return buffer;
+	}
+
+	/**
+	 * give back a buffer from {@link #acquire(int)}; it must not be used afterwards. A buffer that is not outstanding
+	 * from this pool is ignored.
+	 */
+	public void release(ByteBuffer buffer) {
+		if (buffer == null) {
+			throw new BeanstalkException("null buffer");
+		}
+		boolean ours;
+		synchronized (acquiredBuffers) {
+			ours = acquiredBuffers.remove(buffer);
+		}
+		if (ours) {
+			recycle(buffer);
+		}
+	}
+
+	Lease lease(int length) {
+		return new Lease(this, take(length));
+	}
+
+	/**
+	 * take back a buffer known to be one of ours: a slab slice goes back to its free list, a buffer of its own is
+	 * dropped
+	 */
+	private void recycle(ByteBuffer buffer) {
+		int capacity = buffer.capacity();
+		if (capacity <= maxPooledSize) {
+			Deque<ByteBuffer> list = free[sizeClass(capacity)];
+			synchronized (list) {
+				list.addFirst(buffer);
+			}
+		}
+		released.increment();
+	}
+
+	private void carveSlab(int sizeClass, Deque<ByteBuffer> list) {
+		int size = classSize(sizeClass);
+		int count = Math.max(1, SLAB_SIZE / size);
+		ByteBuffer slab = allocate(size * count);
+		slabBytes.add(slab.capacity());
+		for (int i = 0; i < count; ++i) {
+			slab.limit(i * size + size).position(i * size);
+			list.addLast(slab.slice());
+		}
+	}
+
+	private ByteBuffer allocate(int capacity) {
+		return direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+	}
+
+	private void leaked(Throwable trace) {
+		// no longer outstanding, though it never comes back
+		released.increment();
+		leaks.increment();
+		if (trace != null) {
+			synchronized (leakTraces) {
+				if (leakTraces.size() == MAX_LEAK_TRACES) {
+					leakTraces.removeLast();
+				}
+				leakTraces.addFirst(trace);
+			}
+		}
+	}
+
+	static int sizeClass(int length) {
+		if (length <= MIN_CLASS_SIZE) {
+			return 0;
+		}
+		return 32 - Integer.numberOfLeadingZeros(length - 1) - Integer.numberOfTrailingZeros(MIN_CLASS_SIZE);
+	}
+
+	static int classSize(int sizeClass) {
+		return MIN_CLASS_SIZE << sizeClass;
+	}
+
+	public boolean isDirect() {
+		return direct;
+	}
+
+	public int getMaxPooledSize() {
+		return maxPooledSize;
+	}
+
+	/**
+	 * record where each job buffer is leased, and report the ones that are never released
+	 */
+	public void setLeakDetection(boolean leakDetection) {
+		this.leakDetection = leakDetection;
+	}
+
+	public boolean isLeakDetection() {
+		return leakDetection;
+	}
+
+	/**
+	 * @return the number of buffers handed out
+	 */
+	public long getAcquireCount() {
+		return acquired.sum();
+	}
+
+	/**
+	 * @return the number of buffers handed out from a free list, rather than freshly carved or allocated
+	 */
+	public long getReuseCount() {
+		return reused.sum();
+	}
+
+	/**
+	 * @return the number of buffers allocated on their own, for bodies larger than the largest size class
+	 */
+	public long getUnpooledCount() {
+		return unpooled.sum();
+	}
+
+	/**
+	 * @return the number of buffers handed out and not yet released, nor found leaked
+	 */
+	public long getOutstandingCount() {
+		return acquired.sum() - released.sum();
+	}
+
+	/**
+	 * @return the bytes held in slabs, whether leased or free
+	 */
+	public long getSlabBytes() {
+		return slabBytes.sum();
+	}
+
+	/**
+	 * @return the bytes sitting in free lists
+	 */
+	public long getIdleBytes() {
+		long idle = 0;
+		for (int i = 0; i < free.length; ++i) {
+			synchronized (free[i]) {
+				idle += (long) free[i].size() * classSize(i);
+			}
+		}
+		return idle;
+	}
+
+	/**
+	 * @return the number of job buffers found unreleased once their job was unreachable, while leak detection was on
+	 */
+	public long getLeakCount() {
+		return leaks.sum();
+	}
+
+	/**
+	 * @return where the most recent leaked buffers were leased, newest first
+	 */
+	public List<Throwable> getLeakTraces() {
+		synchronized (leakTraces) {
+			return new ArrayList<Throwable>(leakTraces);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return String.format(
+				"BufferPool[%s, acquired=%d, reused=%d, unpooled=%d, outstanding=%d, slabBytes=%d, idleBytes=%d, leaks=%d]",
+				direct ? "direct" : "heap", getAcquireCount(), getReuseCount(), getUnpooledCount(),
+				getOutstandingCount(), getSlabBytes(), getIdleBytes(), getLeakCount());
+	}
+}
@@ -0,0 +1,48 @@
+package com.surftools.BeanstalkClientImpl;
+
+/*
+
+ Copyright 2009-2020 Robert Tykulsker
+
+ This file is part of JavaBeanstalkCLient.
+
+ JavaBeanstalkCLient is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version, or alternatively, the BSD license supplied
+ with this project in the file "BSD-LICENSE".
+
+ JavaBeanstalkCLient is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with JavaBeanstalkCLient.  If not, see <http://www.gnu.org/licenses/>.
+
+ */
+
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.SocketChannel;
+
+import com.surftools.BeanstalkClient.BeanstalkException;
+
+/**
+ * a ProtocolHandler built on a blocking {@link SocketChannel}. Commands are encoded straight into a direct write
+ * buffer and responses are read through a direct read buffer, so the request path never builds an intermediate
+ * byte[].
+ *
+ */
+public class ChannelProtocolHandler extends ProtocolHandler {
+
+	ChannelProtocolHandler(String host, int port) {
+		try {
+			SocketChannel channel = SocketChannel.open(new InetSocketAddress(host, port));
+			channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+			init(channel, new ResponseReader(channel), new RequestWriter(channel));
+		} catch (Exception e) {
+			throw new BeanstalkException(e.getMessage());
+		}
+	}
+}
@@ -22,52 +22,229 @@ package com.surftools.BeanstalkClientImpl;
 
  */
 
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
 
+import com.surftools.BeanstalkClient.BatchResult;
 import com.surftools.BeanstalkClient.BeanstalkException;
 import com.surftools.BeanstalkClient.Client;
 import com.surftools.BeanstalkClient.Job;
+import com.surftools.BeanstalkClient.JobStats;
+import com.surftools.BeanstalkClient.MutableJob;
+import com.surftools.BeanstalkClient.PutBatch;
+import com.surftools.BeanstalkClient.ServerStats;
+import com.surftools.BeanstalkClient.StreamedJob;
+import com.surftools.BeanstalkClient.TubeStats;
 
 public class ClientImpl implements Client {
 
-	private static final String VERSION = "1.6.0";
-	private static final long MAX_PRIORITY = 4294967296L;
-	private static String DEFAULT_HOST = "localhost";
-	private static final int DEFAULT_PORT = 11300;
+	static final String VERSION = "1.6.0";
+	static final String DEFAULT_HOST = "localhost";
+	static final int DEFAULT_PORT = 11300;
 
 	private String host;
 	private int port;
+	private Transport transport = Transport.Stream;
 
 	private boolean uniqueConnectionPerThread = true;
 
 	private ProtocolHandler aProtocolHandler = null;
 
+	// optional: job bodies are read into buffers leased from here
+	private volatile BufferPool bufferPool = null;
+
 	private ThreadLocal<ProtocolHandler> tlProtocolHandler = new ThreadLocal<ProtocolHandler>() {
 		@Override
 		protected ProtocolHandler initialValue() {
-			return new ProtocolHandler(host, port);
+			return newProtocolHandler();
+		}
+	};
+
+	// pooled mode: connections are borrowed per call, so what each thread uses and watches is kept here and applied
+	// to whichever connection it borrows
+	private ConnectionPool connectionPool = null;
+
+	private ThreadLocal<String> tlUsedTube = new ThreadLocal<String>() {
+		@Override
+		protected String initialValue() {
+			return "default";
+		}
+	};
+
+	private ThreadLocal<Set<String>> tlWatchedTubes = new ThreadLocal<Set<String>>() {
+		@Override
+		protected Set<String> initialValue() {
+			return new LinkedHashSet<String>(Collections.singleton("default"));
+		}
+	};
+
+	// pooled mode: only the connection that reserved a job can delete, release, bury or touch it, so that connection
+	// stays out of the pool until its jobs are finished. holds counts the calls in progress plus the jobs reserved on
+	// each borrowed connection; the connection goes back when it drops to zero.
+	private final Map<Long, ProtocolHandler> reservedBy = new ConcurrentHashMap<Long, ProtocolHandler>();
+	private final Map<ProtocolHandler, Integer> holds = new ConcurrentHashMap<ProtocolHandler, Integer>();
+	private ThreadLocal<ProtocolHandler> tlReserving = new ThreadLocal<ProtocolHandler>();
+	// the connections blocked in a reserve that may wait, which holds any other command sent to them until it returns
+	private final Set<ProtocolHandler> waiting = ConcurrentHashMap.newKeySet();
+
+	// shared mode: aProtocolHandler is driven by a writer and a reader thread, so concurrent calls are queued, sent
+	// in batches and answered in order. A reserve that may block would stall everyone queued behind it, so it runs
+	// on a connection of the calling thread's own, which mirrors the shared watch list; the jobs it reserves are
+	// recorded in reservedBy.
+	private PipelinedConnection sharedConnection = null;
+	private volatile Set<String> sharedWatchedTubes = Collections.singleton("default");
+	// the tube the shared connection is meant to use. Every use on it is queued under sharedUseLock, together with
+	// the update of sharedUsedTube, so the two agree between any two queued uses.
+	private volatile String sharedUsedTube = "default";
+	private final Object sharedUseLock = new Object();
+	private final Set<ProtocolHandler> blockingConnections = ConcurrentHashMap.newKeySet();
+
+	private ThreadLocal<ProtocolHandler> tlBlockingConnection = new ThreadLocal<ProtocolHandler>() {
+		@Override
+		protected ProtocolHandler initialValue() {
+			ProtocolHandler protocolHandler = newProtocolHandler();
+			blockingConnections.add(protocolHandler);
+			return protocolHandler;
+		}
+	};
+
+	// the Request and Response of each thread's synchronous calls, reused so that a put or a reserve/delete loop
+	// allocates nothing but the job; the Response is converted before the call returns
+	private ThreadLocal<Request> tlRequest = new ThreadLocal<Request>() {
+		@Override
+		protected Request initialValue() {
+			return new Request();
 		}
 	};
 
+	private ThreadLocal<Response> tlResponse = new ThreadLocal<Response>() {
+		@Override
+		protected Response initialValue() {
+			return new Response();
+		}
+	};
+
+	/**
+	 * @return this thread's reusable Request, or a new one in shared mode, where requests wait in a queue
+	 */
+	private Request scratchRequest() {
+		return isShared() ? new Request() : tlRequest.get();
+	}
+
+	ProtocolHandler newProtocolHandler() {
+		return ProtocolHandler.newInstance(host, port, transport);
+	}
+
 	private ProtocolHandler getProtocolHandler() {
 		if (uniqueConnectionPerThread) {
-			return tlProtocolHandler.get();
+			ProtocolHandler protocolHandler = tlProtocolHandler.get();
+			if (protocolHandler.isBroken()) {
+				protocolHandler = reconnect(protocolHandler);
+			}
+			return protocolHandler;
 		} else {
 			return aProtocolHandler;
 		}
 	}
 
+	/**
+	 * replace this thread's connection after an I/O error left it out of step with the server; the new one uses and
+	 * watches what the old one did. If the server cannot be reached the old one is kept, and the next call tries again.
+	 */
+	private ProtocolHandler reconnect(ProtocolHandler broken) {
+		ProtocolHandler protocolHandler = newProtocolHandler();
+		try {
+			applyTubes(protocolHandler, broken.getUsedTube(), broken.getWatchedTubes());
+		} catch (BeanstalkException e) {
+			protocolHandler.close();
+			throw e;
+		}
+		try {
+			broken.close();
+		} catch (BeanstalkException e) {
+			// it is being discarded anyway
+		}
+		tlProtocolHandler.set(protocolHandler);
+		return protocolHandler;
+	}
+
+	/**
+	 * @return the shared connection; one that an I/O error failed is replaced by a new connection that uses and
+	 *         watches what the old one did. If the server cannot be reached the failed one is kept, and the next call
+	 *         tries again.
+	 */
+	private synchronized PipelinedConnection getSharedConnection() {
+		if (sharedConnection != null && sharedConnection.isBroken()) {
+			ProtocolHandler protocolHandler = newProtocolHandler();
+			protocolHandler.setUseBlockIO(aProtocolHandler.isUseBlockIO());
+			try {
+				applyTubes(protocolHandler, sharedUsedTube, sharedWatchedTubes);
+			} catch (BeanstalkException e) {
+				protocolHandler.close();
+				throw e;
+			}
+			aProtocolHandler = protocolHandler;
+			sharedConnection = null;
+		}
+		if (sharedConnection == null) {
+			sharedConnection = new PipelinedConnection(aProtocolHandler, "ClientImpl-" + host + ":" + port);
+		}
+		return sharedConnection;
+	}
+
+	private boolean isShared() {
+		return connectionPool == null && !uniqueConnectionPerThread;
+	}
+
 	public ClientImpl() {
 		this(DEFAULT_HOST, DEFAULT_PORT);
 	}
 
 	public ClientImpl(String host, int port) {
+		this(host, port, Transport.Stream);
+	}
+
+	public ClientImpl(String host, int port, Transport transport) {
 		this.host = host;
 		this.port = port;
+		this.transport = transport;
 
-		aProtocolHandler = new ProtocolHandler(host, port);
+		aProtocolHandler = newProtocolHandler();
+	}
+
+	/**
+	 * a client whose calls borrow a connection from the pool for their duration, so any number of threads share at
+	 * most the pool's maxSize connections. Each thread still has its own used tube and watch list.
+	 * 
+	 * A thread that reserves a job keeps that connection until the job is deleted, released or buried, and reserves
+	 * again on the same connection. Another thread may finish the job, but waits if the reserving thread is blocked in
+	 * a reserve on that connection.
+	 * 
+	 * @param connectionPool
+	 *            closed by {@link #close()}
+	 */
+	public ClientImpl(ConnectionPool connectionPool) {
+		if (connectionPool == null) {
+			throw new BeanstalkException("null connectionPool");
+		}
+		this.host = connectionPool.getHost();
+		this.port = connectionPool.getPort();
+		this.transport = connectionPool.getTransport();
+		this.connectionPool = connectionPool;
 	}
 
 	public ClientImpl(boolean useBlockIO) {
@@ -86,33 +263,193 @@ public class ClientImpl implements Client {
 
 	@Override
 	public long put(long priority, int delaySeconds, int timeToRun, byte[] data) {
-		if (data == null) {
-			throw new BeanstalkException("null data");
+		Request request = Commands.put(scratchRequest(), priority, delaySeconds, timeToRun, data);
+		return process(request, Commands::toPutJobId);
+	}
+
+	@Override
+	public long put(long priority, int delaySeconds, int timeToRun, byte[] data, int offset, int length) {
+		Request request = Commands.put(scratchRequest(), priority, delaySeconds, timeToRun, data, offset, length);
+		return process(request, Commands::toPutJobId);
+	}
+
+	@Override
+	public long putBuffer(long priority, int delaySeconds, int timeToRun, ByteBuffer data) {
+		Request request = Commands.put(scratchRequest(), priority, delaySeconds, timeToRun, data);
+		return process(request, Commands::toPutJobId);
+	}
+
+	@Override
+	public long putStream(long priority, int delaySeconds, int timeToRun, InputStream data, long length) {
+		Request request = Commands.put(scratchRequest(), priority, delaySeconds, timeToRun, data, length);
+		return process(request, Commands::toPutJobId);
+	}
+
+	@Override
+	public long putChannel(long priority, int delaySeconds, int timeToRun, ReadableByteChannel data, long length) {
+		Request request = Commands.put(scratchRequest(), priority, delaySeconds, timeToRun, data, -1, length);
+		return process(request, Commands::toPutJobId);
+	}
+
+	@Override
+	public long putFile(long priority, int delaySeconds, int timeToRun, FileChannel file, long position, long length) {
+		if (position < 0) {
+			throw new BeanstalkException("invalid position");
 		}
-		if (priority > MAX_PRIORITY) {
-			throw new BeanstalkException("invalid priority");
+		Request request = Commands.put(scratchRequest(), priority, delaySeconds, timeToRun, file, position, length);
+		return process(request, Commands::toPutJobId);
+	}
+
+	@Override
+	public BatchResult putAll(PutBatch batch) {
+		if (batch == null) {
+			throw new BeanstalkException("null batch");
+		}
+
+		// a request the server rejects as BAD_FORMAT would leave its body to be read as a command,
+		// so validate the whole batch before anything is written
+		List<Request> requests = new ArrayList<Request>(batch.size());
+		boolean tubes = false;
+		for (int i = 0; i < batch.size(); ++i) {
+			if (batch.getTubeName(i) != null) {
+				// a use the server refused would send the puts after it to the wrong tube
+				if (!Commands.isValidTubeName(batch.getTubeName(i))) {
+					throw new BeanstalkException("invalid tubeName");
+				}
+				tubes = true;
+			}
+			if (batch.getPriority(i) < 0) {
+				throw new BeanstalkException("invalid priority");
+			}
+			if (batch.getDelaySeconds(i) < 0) {
+				throw new BeanstalkException("invalid delaySeconds");
+			}
+			if (batch.getTimeToRun(i) < 0) {
+				throw new BeanstalkException("invalid timeToRun");
+			}
+			requests.add(Commands.put(batch.getPriority(i), batch.getDelaySeconds(i), batch.getTimeToRun(i),
+					batch.getData(i)));
+		}
+
+		BatchResultImpl result = new BatchResultImpl(requests.size());
+		if (requests.isEmpty()) {
+			return result;
+		}
+		if (!tubes) {
+			List<Response> responses = process(requests);
+			for (int i = 0; i < responses.size(); ++i) {
+				setPutResult(result, i, responses.get(i));
+			}
+			return result;
+		}
+
+		List<Request> wire = new ArrayList<Request>();
+		int[] indexes;
+		List<Response> responses;
+		if (isShared()) {
+			// the shared connection's tube only stays put while no other use can be queued
+			List<CompletableFuture<Response>> futures;
+			synchronized (sharedUseLock) {
+				indexes = groupByTube(batch, requests, sharedUsedTube, true, wire);
+				futures = getSharedConnection().submitRequests(wire);
+			}
+			responses = PipelinedConnection.joinAll(futures);
+		} else {
+			indexes = groupByTube(batch, requests, knownUsedTube(), false, wire);
+			responses = process(wire);
+		}
+		for (int i = 0; i < responses.size(); ++i) {
+			if (indexes[i] >= 0) {
+				setPutResult(result, indexes[i], responses.get(i));
+			} else if (!responses.get(i).isMatchOk()) {
+				throw new BeanstalkException(responses.get(i).getStatus());
+			}
 		}
+		return result;
+	}
+
+	/**
+	 * lay out a batch for the wire grouped by tube, in order of first appearance. Jobs without a tube, or named for
+	 * currentTube, go first; each other tube is used once before its jobs, and a last use goes back to currentTube.
+	 * 
+	 * @param useCurrent
+	 *            true to use currentTube before its jobs too, rather than trust the connection to be on it
+	 * @return the batch index of each request on the wire, -1 for a use
+	 */
+	private int[] groupByTube(PutBatch batch, List<Request> requests, String currentTube, boolean useCurrent,
+			List<Request> wire) {
+		Map<String, List<Integer>> groups = new LinkedHashMap<String, List<Integer>>();
+		groups.put(currentTube, new ArrayList<Integer>());
+		for (int i = 0; i < batch.size(); ++i) {
+			String tubeName = (batch.getTubeName(i) != null) ? batch.getTubeName(i) : currentTube;
+			groups.computeIfAbsent(tubeName, k -> new ArrayList<Integer>()).add(i);
+		}
+
+		int[] indexes = new int[requests.size() + groups.size() + 1];
+		String usedTube = useCurrent ? null : currentTube;
+		for (Map.Entry<String, List<Integer>> group : groups.entrySet()) {
+			if (group.getValue().isEmpty()) {
+				continue;
+			}
+			if (!group.getKey().equals(usedTube)) {
+				indexes[wire.size()] = -1;
+				wire.add(Commands.use(group.getKey()));
+				usedTube = group.getKey();
+			}
+			for (int i : group.getValue()) {
+				indexes[wire.size()] = i;
+				wire.add(requests.get(i));
+			}
+		}
+		if (!currentTube.equals(usedTube)) {
+			indexes[wire.size()] = -1;
+			wire.add(Commands.use(currentTube));
+		}
+		return indexes;
+	}
+
+	private void setPutResult(BatchResultImpl result, int index, Response response) {
 		long jobId = -1;
-		Request request = new Request("put " + priority + " " + delaySeconds + " " + timeToRun + " " + data.length,
-				new String[] { "INSERTED", "BURIED" }, new String[] { "JOB_TOO_BIG" }, data, ExpectedResponse.None);
-		Response response = getProtocolHandler().processRequest(request);
-		if (response != null && response.getStatus().equals("JOB_TOO_BIG")) {
-			BeanstalkException be = new BeanstalkException(response.getStatus());
-			throw be;
+		if (response.isMatchOk()) {
+			// INSERTED <id> or BURIED <id>
+			jobId = response.getNumber();
 		}
-		if (response != null && response.isMatchOk()) {
-			jobId = Long.parseLong(response.getReponse());
+		result.set(index, jobId, response.getStatus(), response.getStatusCode() == Status.INSERTED);
+	}
+
+	@Override
+	public BatchResult putAll(long priority, int delaySeconds, int timeToRun, List<byte[]> data) {
+		if (data == null) {
+			throw new BeanstalkException("null data");
 		}
-		return jobId;
+		PutBatch batch = new PutBatch(data.size());
+		for (byte[] bytes : data) {
+			batch.add(priority, delaySeconds, timeToRun, bytes);
+		}
+		return putAll(batch);
 	}
 
 	@Override
 	public void useTube(String tubeName) {
-		if (tubeName == null) {
-			throw new BeanstalkException("null tubeName");
+		if (isShared() && Commands.isValidTubeName(tubeName)) {
+			CompletableFuture<Response> future;
+			synchronized (sharedUseLock) {
+				if (tubeName.equals(sharedUsedTube)) {
+					return;
+				}
+				future = getSharedConnection().submit(Commands.use(tubeName), Function.identity());
+				sharedUsedTube = tubeName;
+			}
+			PipelinedConnection.join(future);
+			return;
+		}
+		if (tubeName != null && tubeName.equals(knownUsedTube())) {
+			return;
+		}
+		process(Commands.use(tubeName));
+		if (connectionPool != null) {
+			tlUsedTube.set(tubeName);
 		}
-		Request request = new Request("use " + tubeName, "USING", null, null, ExpectedResponse.None);
-		getProtocolHandler().processRequest(request);
 	}
 
 	// ****************************************************************
@@ -121,75 +458,704 @@ public class ClientImpl implements Client {
 	// ****************************************************************
 	@Override
 	public Job reserve(Integer timeoutSeconds) {
-		Job job = null;
-		String command = (timeoutSeconds == null) ? "reserve" : "reserve-with-timeout " + timeoutSeconds.toString();
-		Request request = new Request(command, new String[] { "RESERVED" },
-				new String[] { "DEADLINE_SOON", "TIMED_OUT", }, null, ExpectedResponse.ByteArray, 2);
-		Response response = getProtocolHandler().processRequest(request);
-		if (response != null && response.getStatus().equals("DEADLINE_SOON")) {
-			BeanstalkException be = new BeanstalkException(response.getStatus());
-			throw be;
+		Request request = Commands.reserve(scratchRequest(), timeoutSeconds).bodyPool(bufferPool);
+		try {
+			return Commands.toReservedJob(reserve(request, isPoll(timeoutSeconds)));
+		} finally {
+			clear(request);
 		}
-		if (response != null && response.isMatchOk()) {
-			long jobId = Long.parseLong(response.getReponse());
-			job = new JobImpl(jobId);
-			job.setData((byte[]) response.getData());
+	}
+
+	@Override
+	public StreamedJob reserve(Integer timeoutSeconds, OutputStream sink) {
+		Request request = Commands.reserve(scratchRequest(), timeoutSeconds).sink(checkSink(sink));
+		try {
+			return Commands.toReservedStreamedJob(reserve(request, isPoll(timeoutSeconds)));
+		} finally {
+			clear(request);
 		}
-		return job;
 	}
 
 	@Override
-	public Job reserveJob(long jobId) {
-		Job job = null;
-		Request request = new Request("reserve-job " + jobId, new String[] { "RESERVED" },
-				new String[] { "NOT_FOUND", "BAD_FORMAT" }, null, ExpectedResponse.ByteArray);
-		Response response = getProtocolHandler().processRequest(request);
+	public StreamedJob reserve(Integer timeoutSeconds, WritableByteChannel sink) {
+		Request request = Commands.reserve(scratchRequest(), timeoutSeconds).sink(checkSink(sink));
+		try {
+			return Commands.toReservedStreamedJob(reserve(request, isPoll(timeoutSeconds)));
+		} finally {
+			clear(request);
+		}
+	}
 
-		if (response == null) {
-			BeanstalkException be = new BeanstalkException("unexpected null response");
-			throw be;
+	@Override
+	public StreamedJob reserve(Integer timeoutSeconds, ByteBuffer sink) {
+		Request request = Commands.reserve(scratchRequest(), timeoutSeconds).sink(checkSink(sink));
+		try {
+			return Commands.toReservedStreamedJob(reserve(request, isPoll(timeoutSeconds)));
+		} finally {
+			clear(request);
 		}
+	}
 
-		if (response.isMatchError()) {
-			return null;
+	@Override
+	public boolean reserveInto(MutableJob holder, int timeoutSeconds) {
+		Request request = Commands.reserve(scratchRequest(), timeoutSeconds).sink(checkSink(holder));
+		try {
+			return Commands.toReserved(reserve(request, timeoutSeconds == 0));
+		} finally {
+			clear(request);
+		}
+	}
+
+	@Override
+	public List<Job> reserveBatch(int max, int timeoutSeconds) {
+		List<Response> responses = reserveBatchResponses(max, timeoutSeconds, bufferPool);
+		List<Job> jobs = new ArrayList<Job>(responses.size());
+		for (Response response : responses) {
+			Job job = Commands.toJob(response);
+			if (job != null) {
+				jobs.add(job);
+			}
+		}
+		return jobs;
+	}
+
+	@Override
+	public int reserveBatch(int timeoutSeconds, long[] jobIds, byte[][] bodies) {
+		if (jobIds == null || bodies == null) {
+			throw new BeanstalkException("null arrays");
+		}
+		if (bodies.length < jobIds.length) {
+			throw new BeanstalkException("bodies shorter than jobIds");
+		}
+		int count = 0;
+		for (Response response : reserveBatchResponses(jobIds.length, timeoutSeconds, null)) {
+			if (response.isMatchOk()) {
+				jobIds[count] = response.getNumber();
+				bodies[count] = (byte[]) response.getData();
+				++count;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * pipeline one reserve that may wait and max - 1 that do not, and return every response; the reserved jobs are
+	 * the ones that matched ok
+	 * 
+	 * @param pool
+	 *            to read the bodies into, null for byte[] bodies
+	 */
+	private List<Response> reserveBatchResponses(int max, int timeoutSeconds, BufferPool pool) {
+		if (max < 1) {
+			throw new BeanstalkException("invalid max");
+		}
+		List<Request> requests = new ArrayList<Request>(max);
+		requests.add(Commands.reserve(new Request(), timeoutSeconds).bodyPool(pool));
+		for (int i = 1; i < max; ++i) {
+			requests.add(Commands.reserve(new Request(), 0).bodyPool(pool));
+		}
+		List<Response> responses = reserve(requests, timeoutSeconds == 0);
+
+		boolean reserved = false;
+		boolean deadlineSoon = false;
+		for (Response response : responses) {
+			reserved |= response.isMatchOk();
+			deadlineSoon |= response.getStatusCode() == Status.DEADLINE_SOON;
+		}
+		if (deadlineSoon && !reserved) {
+			throw new BeanstalkException(Status.DEADLINE_SOON.name());
+		}
+		return responses;
+	}
+
+	private static boolean isPoll(Integer timeoutSeconds) {
+		return timeoutSeconds != null && timeoutSeconds == 0;
+	}
+
+	/**
+	 * run a reserve on the connection this mode calls for, and remember which connection holds the reserved job
+	 * 
+	 * @param poll
+	 *            true if the reserve cannot block, so that the shared connection may carry it
+	 */
+	private Response reserve(Request request, boolean poll) {
+		if (isShared()) {
+			if (poll) {
+				return getSharedConnection().process(request, Function.identity());
+			}
+			ProtocolHandler protocolHandler = tlBlockingConnection.get();
+			Response response;
+			waiting.add(protocolHandler);
+			try {
+				synchronized (protocolHandler) {
+					applyTubes(protocolHandler, null, sharedWatchedTubes);
+					response = protocolHandler.processRequest(request, tlResponse.get());
+				}
+			} finally {
+				waiting.remove(protocolHandler);
+			}
+			if (response.getStatusCode() == Status.RESERVED) {
+				reservedBy.put(response.getNumber(), protocolHandler);
+			}
+			return response;
+		}
+		if (connectionPool == null) {
+			return getProtocolHandler().processRequest(request, tlResponse.get());
 		}
 
-		if (response != null && response.isMatchOk()) {
-			long newJobId = Long.parseLong(response.getReponse());
-			job = new JobImpl(newJobId);
-			job.setData((byte[]) response.getData());
+		ProtocolHandler protocolHandler = acquire();
+		try {
+			Response response;
+			if (!poll) {
+				waiting.add(protocolHandler);
+			}
+			try {
+				synchronized (protocolHandler) {
+					applyTubes(protocolHandler, tlUsedTube.get(), tlWatchedTubes.get());
+					response = protocolHandler.processRequest(request, tlResponse.get());
+				}
+			} finally {
+				waiting.remove(protocolHandler);
+			}
+			if (response.getStatusCode() == Status.RESERVED) {
+				pin(response.getNumber(), protocolHandler);
+			}
+			return response;
+		} finally {
+			release(protocolHandler);
+		}
+	}
+
+	/**
+	 * as {@link #reserve(Request, boolean)}, for a pipelined list of reserves
+	 */
+	private List<Response> reserve(List<Request> requests, boolean poll) {
+		if (isShared()) {
+			if (poll) {
+				return getSharedConnection().processRequests(requests);
+			}
+			ProtocolHandler protocolHandler = tlBlockingConnection.get();
+			List<Response> responses;
+			waiting.add(protocolHandler);
+			try {
+				synchronized (protocolHandler) {
+					applyTubes(protocolHandler, null, sharedWatchedTubes);
+					responses = protocolHandler.processRequests(requests);
+				}
+			} finally {
+				waiting.remove(protocolHandler);
+			}
+			for (Response response : responses) {
+				if (response.getStatusCode() == Status.RESERVED) {
+					reservedBy.put(response.getNumber(), protocolHandler);
+				}
+			}
+			return responses;
+		}
+		if (connectionPool == null) {
+			return getProtocolHandler().processRequests(requests);
+		}
+
+		ProtocolHandler protocolHandler = acquire();
+		try {
+			List<Response> responses;
+			if (!poll) {
+				waiting.add(protocolHandler);
+			}
+			try {
+				synchronized (protocolHandler) {
+					applyTubes(protocolHandler, tlUsedTube.get(), tlWatchedTubes.get());
+					responses = protocolHandler.processRequests(requests);
+				}
+			} finally {
+				waiting.remove(protocolHandler);
+			}
+			for (Response response : responses) {
+				if (response.getStatusCode() == Status.RESERVED) {
+					pin(response.getNumber(), protocolHandler);
+				}
+			}
+			return responses;
+		} finally {
+			release(protocolHandler);
+		}
+	}
+
+	private static <T> T checkSink(T sink) {
+		if (sink == null) {
+			throw new BeanstalkException("null sink");
+		}
+		return sink;
+	}
+
+	@Override
+	public Job reserveJob(long jobId) {
+		Request request = Commands.reserveJob(jobId).bodyPool(bufferPool);
+		if (isShared()) {
+			return getSharedConnection().process(request, Commands::toJob);
+		}
+		if (connectionPool == null) {
+			return process(request, Commands::toJob);
+		}
+
+		ProtocolHandler protocolHandler = acquire();
+		try {
+			Job job;
+			synchronized (protocolHandler) {
+				job = Commands.toJob(protocolHandler.processRequest(request, tlResponse.get()));
+			}
+			if (job != null) {
+				pin(job.getJobId(), protocolHandler);
+			}
+			return job;
+		} finally {
+			clear(request);
+			release(protocolHandler);
 		}
-		return job;
 	}
 
 	@Override
 	public boolean delete(long jobId) {
-		Request request = new Request("delete " + jobId, "DELETED", "NOT_FOUND", null, ExpectedResponse.None);
-		Response response = getProtocolHandler().processRequest(request);
-		return response != null && response.isMatchOk();
+		Request request = Commands.delete(scratchRequest(), jobId);
+		try {
+			return Commands.isOk(processForJob(jobId, request, true));
+		} finally {
+			clear(request);
+		}
 	}
 
 	@Override
 	public boolean release(long jobId, long priority, int delaySeconds) {
-		Request request = new Request("release " + jobId + " " + priority + " " + delaySeconds,
-				new String[] { "RELEASED" }, new String[] { "NOT_FOUND", "BURIED" }, null, ExpectedResponse.None);
-		Response response = getProtocolHandler().processRequest(request);
-		return response != null && response.isMatchOk();
+		Request request = Commands.release(scratchRequest(), jobId, priority, delaySeconds);
+		try {
+			return Commands.isOk(processForJob(jobId, request, true));
+		} finally {
+			clear(request);
+		}
 	}
 
 	@Override
 	public boolean bury(long jobId, long priority) {
-		Request request = new Request("bury " + jobId + " " + priority, "BURIED", "NOT_FOUND", null,
-				ExpectedResponse.None);
-		Response response = getProtocolHandler().processRequest(request);
-		return response != null && response.isMatchOk();
+		Request request = Commands.bury(scratchRequest(), jobId, priority);
+		try {
+			return Commands.isOk(processForJob(jobId, request, true));
+		} finally {
+			clear(request);
+		}
 	}
 
 	@Override
 	public boolean touch(long jobId) {
-		Request request = new Request("touch " + jobId, "TOUCHED", "NOT_FOUND", null, ExpectedResponse.None);
-		Response response = getProtocolHandler().processRequest(request);
-		return response != null && response.isMatchOk();
+		Request request = Commands.touch(scratchRequest(), jobId);
+		try {
+			return Commands.isOk(processForJob(jobId, request, false));
+		} finally {
+			clear(request);
+		}
+	}
+
+	@Override
+	public BatchResult deleteAll(long[] jobIds) {
+		if (jobIds == null) {
+			throw new BeanstalkException("null jobIds");
+		}
+		List<Request> requests = new ArrayList<Request>(jobIds.length);
+		for (long jobId : jobIds) {
+			requests.add(Commands.delete(jobId));
+		}
+		return processAll(jobIds, requests, true, false);
+	}
+
+	@Override
+	public BatchResult releaseAll(long[] jobIds, long priority, int delaySeconds) {
+		if (jobIds == null) {
+			throw new BeanstalkException("null jobIds");
+		}
+		List<Request> requests = new ArrayList<Request>(jobIds.length);
+		for (long jobId : jobIds) {
+			requests.add(Commands.release(jobId, priority, delaySeconds));
+		}
+		return processAll(jobIds, requests, true, false);
+	}
+
+	@Override
+	public BatchResult buryAll(long[] jobIds, long priority) {
+		if (jobIds == null) {
+			throw new BeanstalkException("null jobIds");
+		}
+		List<Request> requests = new ArrayList<Request>(jobIds.length);
+		for (long jobId : jobIds) {
+			requests.add(Commands.bury(jobId, priority));
+		}
+		return processAll(jobIds, requests, true, false);
+	}
+
+	@Override
+	public BatchResult touchAll(long[] jobIds) {
+		if (jobIds == null) {
+			throw new BeanstalkException("null jobIds");
+		}
+		List<Request> requests = new ArrayList<Request>(jobIds.length);
+		for (long jobId : jobIds) {
+			requests.add(Commands.touch(jobId));
+		}
+		return processAll(jobIds, requests, false, false);
+	}
+
+	/**
+	 * as {@link #touchAll(long[])}, but passing over the jobs reserved on a connection that is blocked in another
+	 * reserve, which would hold the touches until it returns; their entries are not ok and have no status
+	 */
+	BatchResult touchAllNow(long[] jobIds) {
+		if (jobIds == null) {
+			throw new BeanstalkException("null jobIds");
+		}
+		List<Request> requests = new ArrayList<Request>(jobIds.length);
+		for (long jobId : jobIds) {
+			requests.add(Commands.touch(jobId));
+		}
+		return processAll(jobIds, requests, false, true);
+	}
+
+	/**
+	 * @param skipWaiting
+	 *            true to leave out the jobs of a connection that is blocked in a reserve
+	 */
+	private BatchResult processAll(long[] jobIds, List<Request> requests, boolean finishes, boolean skipWaiting) {
+		BatchResultImpl result = new BatchResultImpl(jobIds.length);
+		if (jobIds.length == 0) {
+			return result;
+		}
+
+		if (connectionPool == null && uniqueConnectionPerThread) {
+			List<Response> responses = getProtocolHandler().processRequests(requests);
+			for (int i = 0; i < responses.size(); ++i) {
+				Response response = responses.get(i);
+				result.set(i, jobIds[i], response.getStatus(), response.isMatchOk());
+			}
+			return result;
+		}
+
+		// one pipeline per connection that reserved some of the jobs, plus one for the rest
+		Map<ProtocolHandler, List<Integer>> groups = new LinkedHashMap<ProtocolHandler, List<Integer>>();
+		List<Integer> others = new ArrayList<Integer>();
+		for (int i = 0; i < jobIds.length; ++i) {
+			ProtocolHandler owner = reservedBy.get(jobIds[i]);
+			if (owner == null) {
+				others.add(i);
+			} else {
+				if (!groups.containsKey(owner)) {
+					groups.put(owner, new ArrayList<Integer>());
+				}
+				groups.get(owner).add(i);
+			}
+		}
+		for (Map.Entry<ProtocolHandler, List<Integer>> group : groups.entrySet()) {
+			ProtocolHandler owner = group.getKey();
+			if (skipWaiting && waiting.contains(owner)) {
+				continue;
+			}
+			if (owner.isOpen() && (connectionPool == null || retain(owner))) {
+				try {
+					processGroup(owner, jobIds, requests, group.getValue(), result);
+				} finally {
+					if (finishes) {
+						for (int i : group.getValue()) {
+							unpin(jobIds[i], owner);
+						}
+					}
+					if (connectionPool != null) {
+						release(owner);
+					}
+				}
+			} else {
+				forget(owner);
+				others.addAll(group.getValue());
+			}
+		}
+		if (!others.isEmpty()) {
+			if (isShared()) {
+				processGroup(null, jobIds, requests, others, result);
+			} else {
+				ProtocolHandler protocolHandler = acquire();
+				try {
+					processGroup(protocolHandler, jobIds, requests, others, result);
+				} finally {
+					release(protocolHandler);
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @param protocolHandler
+	 *            null for the shared connection
+	 */
+	private void processGroup(ProtocolHandler protocolHandler, long[] jobIds, List<Request> requests,
+			List<Integer> indexes, BatchResultImpl result) {
+		List<Request> group = new ArrayList<Request>(indexes.size());
+		for (int i : indexes) {
+			group.add(requests.get(i));
+		}
+		List<Response> responses;
+		if (protocolHandler == null) {
+			responses = getSharedConnection().processRequests(group);
+		} else {
+			synchronized (protocolHandler) {
+				responses = protocolHandler.processRequests(group);
+			}
+		}
+		for (int j = 0; j < responses.size(); ++j) {
+			int i = indexes.get(j);
+			Response response = responses.get(j);
+			result.set(i, jobIds[i], response.getStatus(), response.isMatchOk());
+		}
+	}
+
+	// ****************************************************************
+	// pooled and shared modes
+	// ****************************************************************
+
+	/**
+	 * run a request on this thread's connection, on the shared connection, or, in pooled mode, on a borrowed
+	 * connection set up with this thread's tubes
+	 */
+	private Response process(Request request) {
+		if (isShared()) {
+			return getSharedConnection().process(request, Function.identity());
+		}
+		if (connectionPool == null) {
+			return getProtocolHandler().processRequest(request, tlResponse.get());
+		}
+
+		ProtocolHandler protocolHandler = acquire();
+		try {
+			synchronized (protocolHandler) {
+				applyTubes(protocolHandler, tlUsedTube.get(), tlWatchedTubes.get());
+				return protocolHandler.processRequest(request, tlResponse.get());
+			}
+		} finally {
+			release(protocolHandler);
+		}
+	}
+
+	/**
+	 * as {@link #process(Request)}, converting the reply before the request and response are cleared
+	 */
+	private <T> T process(Request request, Function<Response, T> converter) {
+		try {
+			return converter.apply(process(request));
+		} finally {
+			clear(request);
+		}
+	}
+
+	/**
+	 * drop what a finished call left on its request and on this thread's reused Response - a body, a source, a sink,
+	 * a leased buffer - so that none of it stays reachable until the thread's next call; only once the reply is
+	 * converted. A shared-mode request is new and may still be in the writer's hands after a failure, so it is left
+	 * alone
+	 */
+	private void clear(Request request) {
+		if (!isShared()) {
+			request.clearReferences();
+		}
+		tlResponse.get().reset();
+	}
+
+	private List<Response> process(List<Request> requests) {
+		if (isShared()) {
+			return getSharedConnection().processRequests(requests);
+		}
+		if (connectionPool == null) {
+			return getProtocolHandler().processRequests(requests);
+		}
+
+		ProtocolHandler protocolHandler = acquire();
+		try {
+			synchronized (protocolHandler) {
+				applyTubes(protocolHandler, tlUsedTube.get(), tlWatchedTubes.get());
+				return protocolHandler.processRequests(requests);
+			}
+		} finally {
+			release(protocolHandler);
+		}
+	}
+
+	/**
+	 * run a request about one job; in pooled and shared modes it goes to the connection that reserved the job, if any
+	 * 
+	 * @param finishes
+	 *            true if the job is no longer reserved afterwards, whatever the reply
+	 */
+	private Response processForJob(long jobId, Request request, boolean finishes) {
+		if (connectionPool == null && uniqueConnectionPerThread) {
+			return getProtocolHandler().processRequest(request, tlResponse.get());
+		}
+
+		ProtocolHandler owner = reservedBy.get(jobId);
+		if (owner == null) {
+			return process(request);
+		}
+		if (!owner.isOpen() || (connectionPool != null && !retain(owner))) {
+			// the reservation went with the connection
+			forget(owner);
+			return process(request);
+		}
+		try {
+			synchronized (owner) {
+				return owner.processRequest(request, tlResponse.get());
+			}
+		} finally {
+			if (finishes) {
+				unpin(jobId, owner);
+			}
+			if (connectionPool != null) {
+				release(owner);
+			}
+		}
+	}
+
+	/**
+	 * bring a connection in line with what it should use and watch; watches are added before any are ignored, since
+	 * the last watched tube cannot be ignored
+	 * 
+	 * @param usedTube
+	 *            null to leave the used tube alone
+	 */
+	private void applyTubes(ProtocolHandler protocolHandler, String usedTube, Set<String> watchedTubes) {
+		Set<String> current = protocolHandler.getWatchedTubes();
+
+		List<Request> requests = new ArrayList<Request>();
+		if (usedTube != null && !usedTube.equals(protocolHandler.getUsedTube())) {
+			requests.add(Commands.use(usedTube));
+		}
+		if (!watchedTubes.equals(current)) {
+			for (String tubeName : watchedTubes) {
+				if (!current.contains(tubeName)) {
+					requests.add(Commands.watch(tubeName));
+				}
+			}
+			for (String tubeName : current) {
+				if (!watchedTubes.contains(tubeName)) {
+					requests.add(Commands.ignore(tubeName));
+				}
+			}
+		}
+		if (requests.isEmpty()) {
+			return;
+		}
+		for (Response response : protocolHandler.processRequests(requests)) {
+			if (!response.isMatchOk()) {
+				throw new BeanstalkException(response.getStatus());
+			}
+		}
+	}
+
+	/**
+	 * the connection this thread reserved on, while it still holds jobs, else a connection from the pool
+	 */
+	private ProtocolHandler acquire() {
+		ProtocolHandler protocolHandler = tlReserving.get();
+		if (protocolHandler != null) {
+			if (protocolHandler.isOpen() && retain(protocolHandler)) {
+				return protocolHandler;
+			}
+			tlReserving.remove();
+			if (!protocolHandler.isOpen()) {
+				forget(protocolHandler);
+			}
+		}
+
+		protocolHandler = connectionPool.borrow();
+		holds.put(protocolHandler, 1);
+		return protocolHandler;
+	}
+
+	/**
+	 * @return false if the connection is no longer held, i.e. it is back in the pool
+	 */
+	private boolean retain(ProtocolHandler protocolHandler) {
+		return holds.computeIfPresent(protocolHandler, (key, count) -> count + 1) != null;
+	}
+
+	private void release(ProtocolHandler protocolHandler) {
+		boolean[] last = new boolean[1];
+		holds.computeIfPresent(protocolHandler, (key, count) -> {
+			if (count > 1) {
+				return count - 1;
+			}
+			last[0] = true;
+			return null;
+		});
+		if (last[0]) {
+			connectionPool.giveBack(protocolHandler);
+		}
+	}
+
+	private void pin(long jobId, ProtocolHandler protocolHandler) {
+		retain(protocolHandler);
+		ProtocolHandler previous = reservedBy.put(jobId, protocolHandler);
+		if (previous != null) {
+			// reserved again after its ttr ran out
+			release(previous);
+		}
+		tlReserving.set(protocolHandler);
+	}
+
+	private void unpin(long jobId, ProtocolHandler protocolHandler) {
+		if (reservedBy.remove(jobId, protocolHandler) && connectionPool != null) {
+			release(protocolHandler);
+		}
+	}
+
+	/**
+	 * @return the tube the next command will be sent to: as last applied to this thread's connection, requested by
+	 *         this thread in pooled mode, or used by the shared connection
+	 */
+	private String knownUsedTube() {
+		if (connectionPool != null) {
+			return tlUsedTube.get();
+		}
+		if (isShared()) {
+			return sharedUsedTube;
+		}
+		return getProtocolHandler().getUsedTube();
+	}
+
+	/**
+	 * @return the tubes a reserve will be served from, known the same way as {@link #knownUsedTube()}
+	 */
+	private Set<String> knownWatchedTubes() {
+		if (connectionPool != null) {
+			return tlWatchedTubes.get();
+		}
+		if (isShared()) {
+			return sharedWatchedTubes;
+		}
+		return getProtocolHandler().getWatchedTubes();
+	}
+
+	private synchronized void updateSharedWatchedTubes(String tubeName, boolean watch) {
+		Set<String> watchedTubes = new LinkedHashSet<String>(sharedWatchedTubes);
+		if (watch) {
+			watchedTubes.add(tubeName);
+		} else {
+			watchedTubes.remove(tubeName);
+		}
+		sharedWatchedTubes = watchedTubes;
+	}
+
+	/**
+	 * drop the reservations of a connection that broke; the server has released them
+	 */
+	private void forget(ProtocolHandler protocolHandler) {
+		for (Map.Entry<Long, ProtocolHandler> entry : reservedBy.entrySet()) {
+			if (entry.getValue() == protocolHandler) {
+				unpin(entry.getKey(), protocolHandler);
+			}
+		}
 	}
 
 	// ****************************************************************
@@ -198,23 +1164,33 @@ public class ClientImpl implements Client {
 	// ****************************************************************
 	@Override
 	public int watch(String tubeName) {
-		if (tubeName == null) {
-			throw new BeanstalkException("null tubeName");
+		Set<String> watchedTubes = knownWatchedTubes();
+		if (tubeName != null && watchedTubes.contains(tubeName)) {
+			return watchedTubes.size();
 		}
-		Request request = new Request("watch " + tubeName, "WATCHING", null, null, ExpectedResponse.None);
-		Response response = getProtocolHandler().processRequest(request);
-		return Integer.parseInt(response.getReponse());
+		int count = Commands.toWatchCount(process(Commands.watch(tubeName)));
+		if (connectionPool != null) {
+			tlWatchedTubes.get().add(tubeName);
+		} else if (isShared()) {
+			updateSharedWatchedTubes(tubeName, true);
+		}
+		return count;
 	}
 
 	@Override
 	public int ignore(String tubeName) {
-		if (tubeName == null) {
-			throw new BeanstalkException("null tubeName");
+		Set<String> watchedTubes = knownWatchedTubes();
+		if (tubeName != null && !watchedTubes.contains(tubeName)) {
+			// the server would only report the count
+			return watchedTubes.size();
 		}
-		Request request = new Request("ignore " + tubeName, new String[] { "WATCHING", "NOT_IGNORED" }, null, null,
-				ExpectedResponse.None);
-		Response response = getProtocolHandler().processRequest(request);
-		return (response.getReponse() == null) ? -1 : Integer.parseInt(response.getReponse());
+		int count = Commands.toWatchCount(process(Commands.ignore(tubeName)));
+		if (connectionPool != null && count >= 0) {
+			tlWatchedTubes.get().remove(tubeName);
+		} else if (isShared() && count >= 0) {
+			updateSharedWatchedTubes(tubeName, false);
+		}
+		return count;
 	}
 
 	// ****************************************************************
@@ -223,72 +1199,92 @@ public class ClientImpl implements Client {
 	// ****************************************************************
 	@Override
 	public Job peek(long jobId) {
-		Job job = null;
-		Request request = new Request("peek " + jobId, "FOUND", new String[] { "NOT_FOUND", "BAD_FORMAT" }, null,
-				ExpectedResponse.ByteArray, 2);
-		Response response = getProtocolHandler().processRequest(request);
-		if (response != null && response.isMatchOk()) {
-			jobId = Long.parseLong(response.getReponse());
-			job = new JobImpl(jobId);
-			job.setData((byte[]) response.getData());
-		}
-		return job;
+		return process(Commands.peek(jobId).bodyPool(bufferPool), Commands::toJob);
 	}
 
 	@Override
 	public Job peekBuried() {
-		Job job = null;
-		Request request = new Request("peek-buried", "FOUND", "NOT_FOUND", null, ExpectedResponse.ByteArray, 2);
-		Response response = getProtocolHandler().processRequest(request);
-		if (response != null && response.isMatchOk()) {
-			long jobId = Long.parseLong(response.getReponse());
-			job = new JobImpl(jobId);
-			job.setData((byte[]) response.getData());
-		}
-		return job;
+		return process(Commands.peekBuried().bodyPool(bufferPool), Commands::toJob);
 	}
 
 	@Override
 	public Job peekDelayed() {
-		Job job = null;
-		Request request = new Request("peek-delayed", "FOUND", "NOT_FOUND", null, ExpectedResponse.ByteArray, 2);
-		Response response = getProtocolHandler().processRequest(request);
-		if (response != null && response.isMatchOk()) {
-			long jobId = Long.parseLong(response.getReponse());
-			job = new JobImpl(jobId);
-			job.setData((byte[]) response.getData());
-		}
-		return job;
+		return process(Commands.peekDelayed().bodyPool(bufferPool), Commands::toJob);
 	}
 
 	@Override
 	public Job peekReady() {
-		Job job = null;
-		Request request = new Request("peek-ready", "FOUND", "NOT_FOUND", null, ExpectedResponse.ByteArray, 2);
-		Response response = getProtocolHandler().processRequest(request);
-		if (response != null && response.isMatchOk()) {
-			long jobId = Long.parseLong(response.getReponse());
-			job = new JobImpl(jobId);
-			job.setData((byte[]) response.getData());
-		}
-		return job;
+		return process(Commands.peekReady().bodyPool(bufferPool), Commands::toJob);
+	}
+
+	@Override
+	public StreamedJob peek(long jobId, OutputStream sink) {
+		return process(Commands.peek(jobId).sink(checkSink(sink)), Commands::toStreamedJob);
+	}
+
+	@Override
+	public StreamedJob peek(long jobId, WritableByteChannel sink) {
+		return process(Commands.peek(jobId).sink(checkSink(sink)), Commands::toStreamedJob);
+	}
+
+	@Override
+	public StreamedJob peek(long jobId, ByteBuffer sink) {
+		return process(Commands.peek(jobId).sink(checkSink(sink)), Commands::toStreamedJob);
+	}
+
+	@Override
+	public StreamedJob peekReady(OutputStream sink) {
+		return process(Commands.peekReady().sink(checkSink(sink)), Commands::toStreamedJob);
+	}
+
+	@Override
+	public StreamedJob peekReady(WritableByteChannel sink) {
+		return process(Commands.peekReady().sink(checkSink(sink)), Commands::toStreamedJob);
+	}
+
+	@Override
+	public StreamedJob peekReady(ByteBuffer sink) {
+		return process(Commands.peekReady().sink(checkSink(sink)), Commands::toStreamedJob);
+	}
+
+	@Override
+	public StreamedJob peekDelayed(OutputStream sink) {
+		return process(Commands.peekDelayed().sink(checkSink(sink)), Commands::toStreamedJob);
+	}
+
+	@Override
+	public StreamedJob peekDelayed(WritableByteChannel sink) {
+		return process(Commands.peekDelayed().sink(checkSink(sink)), Commands::toStreamedJob);
+	}
+
+	@Override
+	public StreamedJob peekDelayed(ByteBuffer sink) {
+		return process(Commands.peekDelayed().sink(checkSink(sink)), Commands::toStreamedJob);
+	}
+
+	@Override
+	public StreamedJob peekBuried(OutputStream sink) {
+		return process(Commands.peekBuried().sink(checkSink(sink)), Commands::toStreamedJob);
+	}
+
+	@Override
+	public StreamedJob peekBuried(WritableByteChannel sink) {
+		return process(Commands.peekBuried().sink(checkSink(sink)), Commands::toStreamedJob);
+	}
+
+	@Override
+	public StreamedJob peekBuried(ByteBuffer sink) {
+		return process(Commands.peekBuried().sink(checkSink(sink)), Commands::toStreamedJob);
 	}
 
 	@Override
 	public int kick(int count) {
-		Request request = new Request("kick " + count, "KICKED", null, null, ExpectedResponse.None);
-		Response response = getProtocolHandler().processRequest(request);
-		if (response != null && response.isMatchOk()) {
-			count = Integer.parseInt(response.getReponse());
-		}
-		return count;
+		return process(Commands.kick(count), response -> Commands.toKickCount(response, count));
 	}
 
 	@Override
 	public boolean kickJob(long jobId) {
-		Request request = new Request("kick-job " + jobId, "KICKED", "NOT_FOUND", null, ExpectedResponse.None);
-		Response response = getProtocolHandler().processRequest(request);
-		return response != null && response.isMatchOk();
+		return process(Commands.kickJob(jobId), Commands::isOk);
 	}
 
 	// ****************************************************************
@@ -296,82 +1292,61 @@ public class ClientImpl implements Client {
 	// stats-related
 	// ****************************************************************
 	@Override
-	@SuppressWarnings("unchecked")
 	public Map<String, String> statsJob(long jobId) {
-		Request request = new Request("stats-job " + jobId, "OK", "NOT_FOUND", null, ExpectedResponse.Map);
-		Response response = getProtocolHandler().processRequest(request);
-		Map<String, String> map = null;
-		if (response != null && response.isMatchOk()) {
-			map = (Map<String, String>) response.getData();
-		}
-		return map;
+		return process(Commands.statsJob(jobId), Commands::toMap);
 	}
 
 	@Override
-	@SuppressWarnings("unchecked")
 	public Map<String, String> statsTube(String tubeName) {
 		if (tubeName == null) {
 			return null;
 		}
-
-		Request request = new Request("stats-tube " + tubeName, "OK", "NOT_FOUND", null, ExpectedResponse.Map);
-		Response response = getProtocolHandler().processRequest(request);
-		Map<String, String> map = null;
-		if (response != null && response.isMatchOk()) {
-			map = (Map<String, String>) response.getData();
-		}
-		return map;
+		return process(Commands.statsTube(tubeName), Commands::toMap);
 	}
 
 	@Override
-	@SuppressWarnings("unchecked")
 	public Map<String, String> stats() {
-		Request request = new Request("stats", "OK", null, null, ExpectedResponse.Map);
-		Response response = getProtocolHandler().processRequest(request);
-		Map<String, String> map = null;
-		if (response != null && response.isMatchOk()) {
-			map = (Map<String, String>) response.getData();
+		return process(Commands.stats(), Commands::toMap);
+	}
+
+	@Override
+	public ServerStats serverStats() {
+		ServerStatsImpl stats = new ServerStatsImpl();
+		return process(Commands.stats().sink(stats), response -> Commands.toStats(response, stats));
+	}
+
+	@Override
+	public TubeStats tubeStats(String tubeName) {
+		if (tubeName == null) {
+			return null;
 		}
-		return map;
+		TubeStatsImpl stats = new TubeStatsImpl();
+		return process(Commands.statsTube(tubeName).sink(stats), response -> Commands.toStats(response, stats));
+	}
+
+	@Override
+	public JobStats jobStats(long jobId) {
+		JobStatsImpl stats = new JobStatsImpl();
+		return process(Commands.statsJob(jobId).sink(stats), response -> Commands.toStats(response, stats));
 	}
 
 	@Override
-	@SuppressWarnings("unchecked")
 	public List<String> listTubes() {
-		Request request = new Request("list-tubes", "OK", null, null, ExpectedResponse.List);
-		Response response = getProtocolHandler().processRequest(request);
-		List<String> list = null;
-		if (response != null && response.isMatchOk()) {
-			list = (List<String>) response.getData();
-		} else {
-			list = new ArrayList<String>(0);
-		}
-		return list;
+		return process(Commands.listTubes(), Commands::toList);
 	}
 
 	@Override
 	public String listTubeUsed() {
-		String tubeName = null;
-		Request request = new Request("list-tube-used", "USING", null, null, ExpectedResponse.None);
-		Response response = getProtocolHandler().processRequest(request);
-		if (response != null && response.isMatchOk()) {
-			tubeName = response.getReponse();
-		}
-		return tubeName;
+		return process(Commands.listTubeUsed(), Commands::toTubeName);
 	}
 
 	@Override
-	@SuppressWarnings("unchecked")
 	public List<String> listTubesWatched() {
-		Request request = new Request("list-tubes-watched", "OK", null, null, ExpectedResponse.List);
-		Response response = getProtocolHandler().processRequest(request);
-		List<String> list = null;
-		if (response != null && response.isMatchOk()) {
-			list = (List<String>) response.getData();
-		} else {
-			return new ArrayList<String>(0);
-		}
-		return list;
+		return process(Commands.listTubesWatched(), Commands::toList);
+	}
+
+	public Transport getTransport() {
+		return transport;
 	}
 
 	@Override
@@ -381,7 +1356,52 @@ public class ClientImpl implements Client {
 
 	@Override
 	public void close() {
-		getProtocolHandler().close();
+		if (isShared()) {
+			synchronized (this) {
+				if (sharedConnection != null) {
+					sharedConnection.close();
+				} else {
+					aProtocolHandler.close();
+				}
+			}
+			for (ProtocolHandler protocolHandler : blockingConnections) {
+				protocolHandler.close();
+			}
+			return;
+		}
+		if (connectionPool == null) {
+			tlProtocolHandler.get().close();
+			return;
+		}
+
+		connectionPool.close();
+		// connections still holding reserved jobs are not in the pool
+		for (ProtocolHandler protocolHandler : holds.keySet()) {
+			protocolHandler.close();
+		}
+	}
+
+	/**
+	 * @return the pool this client borrows from, or null if it is not pooled
+	 */
+	public ConnectionPool getConnectionPool() {
+		return connectionPool;
+	}
+
+	/**
+	 * read the bodies of reserved and peeked jobs into buffers leased from pool, instead of a new byte[] per job. Such
+	 * a job holds its buffer until {@link Job#release()} or {@link Job#close()}; {@link Job#getBuffer()} is a view of
+	 * it and {@link Job#getData()} copies it out.
+	 * 
+	 * @param bufferPool
+	 *            null to go back to a new byte[] per job
+	 */
+	public void setBufferPool(BufferPool bufferPool) {
+		this.bufferPool = bufferPool;
+	}
+
+	public BufferPool getBufferPool() {
+		return bufferPool;
 	}
 
 	@Override
@@ -396,13 +1416,7 @@ public class ClientImpl implements Client {
 
 	@Override
 	public boolean pauseTube(String tubeName, int pauseSeconds) {
-		Request request = new Request("pause-tube " + tubeName + " " + pauseSeconds, "PAUSED", null, null,
-				ExpectedResponse.None);
-		Response response = getProtocolHandler().processRequest(request);
-		if (response != null && response.isMatchOk()) {
-			return true;
-		}
-		return false;
+		return process(Commands.pauseTube(tubeName, pauseSeconds), Commands::isOk);
 	}
 
 	@Override
@@ -0,0 +1,442 @@
+package com.surftools.BeanstalkClientImpl;
+
+/*
+
+ Copyright 2009-2020 Robert Tykulsker
+
+ This file is part of JavaBeanstalkCLient.
+
+ JavaBeanstalkCLient is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version, or alternatively, the BSD license supplied
+ with this project in the file "BSD-LICENSE".
+
+ JavaBeanstalkCLient is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with JavaBeanstalkCLient.  If not, see <http://www.gnu.org/licenses/>.
+
+ */
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SelectableChannel;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+
+import com.surftools.BeanstalkClient.BeanstalkException;
+import com.surftools.BeanstalkClient.Job;
+import com.surftools.BeanstalkClient.StreamedJob;
+
+/**
+ * the Request for each beanstalkd command, and the interpretation of its Response. Shared by {@link ClientImpl} and
+ * {@link AsyncClientImpl}, so that both clients speak the protocol the same way.
+ * 
+ */
+class Commands {
+	static final long MAX_PRIORITY = 4294967296L;
+
+	// expected statuses, shared by every request
+	private static final EnumSet<Status> PUT_OK = EnumSet.of(Status.INSERTED, Status.BURIED);
+	private static final EnumSet<Status> PUT_ERROR = EnumSet.of(Status.JOB_TOO_BIG);
+	private static final EnumSet<Status> USING = EnumSet.of(Status.USING);
+	private static final EnumSet<Status> RESERVED = EnumSet.of(Status.RESERVED);
+	private static final EnumSet<Status> RESERVE_ERROR = EnumSet.of(Status.DEADLINE_SOON, Status.TIMED_OUT);
+	private static final EnumSet<Status> DELETED = EnumSet.of(Status.DELETED);
+	private static final EnumSet<Status> RELEASED = EnumSet.of(Status.RELEASED);
+	private static final EnumSet<Status> RELEASE_ERROR = EnumSet.of(Status.NOT_FOUND, Status.BURIED);
+	private static final EnumSet<Status> BURIED = EnumSet.of(Status.BURIED);
+	private static final EnumSet<Status> TOUCHED = EnumSet.of(Status.TOUCHED);
+	private static final EnumSet<Status> WATCHING = EnumSet.of(Status.WATCHING);
+	private static final EnumSet<Status> IGNORE_OK = EnumSet.of(Status.WATCHING, Status.NOT_IGNORED);
+	private static final EnumSet<Status> FOUND = EnumSet.of(Status.FOUND);
+	private static final EnumSet<Status> KICKED = EnumSet.of(Status.KICKED);
+	private static final EnumSet<Status> OK = EnumSet.of(Status.OK);
+	private static final EnumSet<Status> PAUSED = EnumSet.of(Status.PAUSED);
+	private static final EnumSet<Status> NOT_FOUND = EnumSet.of(Status.NOT_FOUND);
+	private static final EnumSet<Status> NOT_FOUND_OR_BAD_FORMAT = EnumSet.of(Status.NOT_FOUND, Status.BAD_FORMAT);
+
+	private Commands() {
+	}
+
+	// ****************************************************************
+	// Requests
+	// ****************************************************************
+
+	static Request put(long priority, int delaySeconds, int timeToRun, byte[] data) {
+		return put(new Request(), priority, delaySeconds, timeToRun, data);
+	}
+
+	// the commands of a reserve/delete loop can also be built into a Request the caller reuses
+
+	static Request put(Request request, long priority, int delaySeconds, int timeToRun, byte[] data) {
+		if (data == null) {
+			throw new BeanstalkException("null data");
+		}
+		return put(request, priority, delaySeconds, timeToRun, data, 0, data.length);
+	}
+
+	static Request put(Request request, long priority, int delaySeconds, int timeToRun, byte[] data, int offset,
+			int length) {
+		if (data == null) {
+			throw new BeanstalkException("null data");
+		}
+		if (offset < 0 || length < 0 || offset > data.length - length) {
+			throw new BeanstalkException("invalid offset or length");
+		}
+		if (priority > MAX_PRIORITY) {
+			throw new BeanstalkException("invalid priority");
+		}
+		return request.init(Verb.PUT, PUT_OK, PUT_ERROR, null, ExpectedResponse.None, -1).arg(priority)
+				.arg(delaySeconds).arg(timeToRun).arg(length).body(data, offset, length);
+	}
+
+	static Request put(Request request, long priority, int delaySeconds, int timeToRun, ByteBuffer data) {
+		if (data == null) {
+			throw new BeanstalkException("null data");
+		}
+		if (priority > MAX_PRIORITY) {
+			throw new BeanstalkException("invalid priority");
+		}
+		return request.init(Verb.PUT, PUT_OK, PUT_ERROR, null, ExpectedResponse.None, -1).arg(priority)
+				.arg(delaySeconds).arg(timeToRun).arg(data.remaining()).body(data);
+	}
+
+	static Request put(Request request, long priority, int delaySeconds, int timeToRun, InputStream data,
+			long length) {
+		if (data == null) {
+			throw new BeanstalkException("null data");
+		}
+		checkPut(priority, length);
+		return request.init(Verb.PUT, PUT_OK, PUT_ERROR, null, ExpectedResponse.None, -1).arg(priority)
+				.arg(delaySeconds).arg(timeToRun).arg(length).body(data, length);
+	}
+
+	/**
+	 * @param position
+	 *            of the body in a FileChannel, or -1 to read data from where it stands
+	 */
+	static Request put(Request request, long priority, int delaySeconds, int timeToRun, ReadableByteChannel data,
+			long position, long length) {
+		if (data == null) {
+			throw new BeanstalkException("null data");
+		}
+		if (position < -1 || (position >= 0 && !(data instanceof FileChannel))) {
+			throw new BeanstalkException("invalid position");
+		}
+		// a read that returns nothing would leave the writer spinning with the command half sent
+		if (data instanceof SelectableChannel && !((SelectableChannel) data).isBlocking()) {
+			throw new BeanstalkException("non-blocking data channel");
+		}
+		checkPut(priority, length);
+		return request.init(Verb.PUT, PUT_OK, PUT_ERROR, null, ExpectedResponse.None, -1).arg(priority)
+				.arg(delaySeconds).arg(timeToRun).arg(length).body(data, position, length);
+	}
+
+	private static void checkPut(long priority, long length) {
+		if (length < 0) {
+			throw new BeanstalkException("invalid length");
+		}
+		if (priority > MAX_PRIORITY) {
+			throw new BeanstalkException("invalid priority");
+		}
+	}
+
+	/**
+	 * @return true if the server would accept tubeName: 1 to 200 letters, digits and "-+/;.$_()", not starting with
+	 *         '-'
+	 */
+	static boolean isValidTubeName(String tubeName) {
+		if (tubeName == null || tubeName.isEmpty() || tubeName.length() > 200 || tubeName.charAt(0) == '-') {
+			return false;
+		}
+		for (int i = 0; i < tubeName.length(); ++i) {
+			char c = tubeName.charAt(i);
+			if (!(c >= 'A' && c <= 'Z' || c >= 'a' && c <= 'z' || c >= '0' && c <= '9' || "-+/;.$_()".indexOf(c) >= 0)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	static Request use(String tubeName) {
+		if (tubeName == null) {
+			throw new BeanstalkException("null tubeName");
+		}
+		return new Request(Verb.USE, USING, null, null, ExpectedResponse.None, -1).tube(tubeName);
+	}
+
+	static Request reserve(Integer timeoutSeconds) {
+		return reserve(new Request(), timeoutSeconds);
+	}
+
+	static Request reserve(Request request, Integer timeoutSeconds) {
+		if (timeoutSeconds == null) {
+			return request.init(Verb.RESERVE, RESERVED, RESERVE_ERROR, null, ExpectedResponse.ByteArray, 2);
+		}
+		return reserve(request, timeoutSeconds.intValue());
+	}
+
+	static Request reserve(Request request, int timeoutSeconds) {
+		return request.init(Verb.RESERVE_WITH_TIMEOUT, RESERVED, RESERVE_ERROR, null, ExpectedResponse.ByteArray, 2)
+				.arg(timeoutSeconds);
+	}
+
+	static Request reserveJob(long jobId) {
+		return new Request(Verb.RESERVE_JOB, RESERVED, NOT_FOUND_OR_BAD_FORMAT, null, ExpectedResponse.ByteArray, 2)
+				.arg(jobId);
+	}
+
+	static Request delete(long jobId) {
+		return delete(new Request(), jobId);
+	}
+
+	static Request delete(Request request, long jobId) {
+		return request.init(Verb.DELETE, DELETED, NOT_FOUND, null, ExpectedResponse.None, -1).arg(jobId);
+	}
+
+	static Request release(long jobId, long priority, int delaySeconds) {
+		return release(new Request(), jobId, priority, delaySeconds);
+	}
+
+	static Request release(Request request, long jobId, long priority, int delaySeconds) {
+		return request.init(Verb.RELEASE, RELEASED, RELEASE_ERROR, null, ExpectedResponse.None, -1).arg(jobId)
+				.arg(priority).arg(delaySeconds);
+	}
+
+	static Request bury(long jobId, long priority) {
+		return bury(new Request(), jobId, priority);
+	}
+
+	static Request bury(Request request, long jobId, long priority) {
+		return request.init(Verb.BURY, BURIED, NOT_FOUND, null, ExpectedResponse.None, -1).arg(jobId).arg(priority);
+	}
+
+	static Request touch(long jobId) {
+		return touch(new Request(), jobId);
+	}
+
+	static Request touch(Request request, long jobId) {
+		return request.init(Verb.TOUCH, TOUCHED, NOT_FOUND, null, ExpectedResponse.None, -1).arg(jobId);
+	}
+
+	static Request watch(String tubeName) {
+		if (tubeName == null) {
+			throw new BeanstalkException("null tubeName");
+		}
+		return new Request(Verb.WATCH, WATCHING, null, null, ExpectedResponse.None, -1).tube(tubeName);
+	}
+
+	static Request ignore(String tubeName) {
+		if (tubeName == null) {
+			throw new BeanstalkException("null tubeName");
+		}
+		return new Request(Verb.IGNORE, IGNORE_OK, null, null, ExpectedResponse.None, -1).tube(tubeName);
+	}
+
+	static Request peek(long jobId) {
+		return new Request(Verb.PEEK, FOUND, NOT_FOUND_OR_BAD_FORMAT, null, ExpectedResponse.ByteArray, 2).arg(jobId);
+	}
+
+	static Request peekBuried() {
+		return new Request(Verb.PEEK_BURIED, FOUND, NOT_FOUND, null, ExpectedResponse.ByteArray, 2);
+	}
+
+	static Request peekDelayed() {
+		return new Request(Verb.PEEK_DELAYED, FOUND, NOT_FOUND, null, ExpectedResponse.ByteArray, 2);
+	}
+
+	static Request peekReady() {
+		return new Request(Verb.PEEK_READY, FOUND, NOT_FOUND, null, ExpectedResponse.ByteArray, 2);
+	}
+
+	static Request kick(int count) {
+		return new Request(Verb.KICK, KICKED, null, null, ExpectedResponse.None, -1).arg(count);
+	}
+
+	static Request kickJob(long jobId) {
+		return new Request(Verb.KICK_JOB, KICKED, NOT_FOUND, null, ExpectedResponse.None, -1).arg(jobId);
+	}
+
+	static Request statsJob(long jobId) {
+		return new Request(Verb.STATS_JOB, OK, NOT_FOUND, null, ExpectedResponse.Map, -1).arg(jobId);
+	}
+
+	static Request statsTube(String tubeName) {
+		// a null name has always been sent as "null"
+		return new Request(Verb.STATS_TUBE, OK, NOT_FOUND, null, ExpectedResponse.Map, -1)
+				.tube(String.valueOf(tubeName));
+	}
+
+	static Request stats() {
+		return new Request(Verb.STATS, OK, null, null, ExpectedResponse.Map, -1);
+	}
+
+	static Request listTubes() {
+		return new Request(Verb.LIST_TUBES, OK, null, null, ExpectedResponse.List, -1);
+	}
+
+	static Request listTubeUsed() {
+		return new Request(Verb.LIST_TUBE_USED, USING, null, null, ExpectedResponse.None, -1);
+	}
+
+	static Request listTubesWatched() {
+		return new Request(Verb.LIST_TUBES_WATCHED, OK, null, null, ExpectedResponse.List, -1);
+	}
+
+	static Request pauseTube(String tubeName, int pauseSeconds) {
+		return new Request(Verb.PAUSE_TUBE, PAUSED, null, null, ExpectedResponse.None, -1)
+				.tube(String.valueOf(tubeName)).arg(pauseSeconds);
+	}
+
+	// ****************************************************************
+	// Responses
+	// ****************************************************************
+
+	/**
+	 * @return the id of an inserted (or buried) job, -1 otherwise
+	 * @throws BeanstalkException
+	 *             on JOB_TOO_BIG
+	 */
+	static long toPutJobId(Response response) {
+		long jobId = -1;
+		if (response != null && response.getStatusCode() == Status.JOB_TOO_BIG) {
+			BeanstalkException be = new BeanstalkException(response.getStatus());
+			throw be;
+		}
+		if (response != null && response.isMatchOk()) {
+			jobId = response.getNumber();
+		}
+		return jobId;
+	}
+
+	/**
+	 * @return the reserved job, or null on TIMED_OUT
+	 * @throws BeanstalkException
+	 *             on DEADLINE_SOON
+	 */
+	static Job toReservedJob(Response response) {
+		if (response != null && response.getStatusCode() == Status.DEADLINE_SOON) {
+			BeanstalkException be = new BeanstalkException(response.getStatus());
+			throw be;
+		}
+		return toJob(response);
+	}
+
+	/**
+	 * @return the reserved or found job, or null if there is none
+	 */
+	static Job toJob(Response response) {
+		Job job = null;
+		if (response != null && response.isMatchOk()) {
+			if (response.getData() instanceof BufferPool.Lease) {
+				job = new PooledJobImpl(response.getNumber(), (BufferPool.Lease) response.getData());
+			} else {
+				job = new JobImpl(response.getNumber());
+				job.setData((byte[]) response.getData());
+			}
+		}
+		return job;
+	}
+
+	/**
+	 * @return true if a job was reserved, false on TIMED_OUT
+	 * @throws BeanstalkException
+	 *             on DEADLINE_SOON
+	 */
+	static boolean toReserved(Response response) {
+		if (response.getStatusCode() == Status.DEADLINE_SOON) {
+			throw new BeanstalkException(response.getStatus());
+		}
+		return response.isMatchOk();
+	}
+
+	/**
+	 * @return the reserved job, or null on TIMED_OUT
+	 * @throws BeanstalkException
+	 *             on DEADLINE_SOON
+	 */
+	static StreamedJob toReservedStreamedJob(Response response) {
+		if (response != null && response.getStatusCode() == Status.DEADLINE_SOON) {
+			throw new BeanstalkException(response.getStatus());
+		}
+		return toStreamedJob(response);
+	}
+
+	/**
+	 * @return the reserved or found job whose body went to the request's sink, or null if there is none
+	 */
+	static StreamedJob toStreamedJob(Response response) {
+		if (response != null && response.isMatchOk()) {
+			return new StreamedJobImpl(response.getNumber(), response.getDataLength());
+		}
+		return null;
+	}
+
+	static boolean isOk(Response response) {
+		return response != null && response.isMatchOk();
+	}
+
+	/**
+	 * @return the number of tubes watched, -1 on NOT_IGNORED
+	 */
+	static int toWatchCount(Response response) {
+		return (int) response.getNumber();
+	}
+
+	/**
+	 * @return the number of jobs kicked, or count if the server did not say
+	 */
+	static int toKickCount(Response response, int count) {
+		if (response != null && response.isMatchOk()) {
+			count = (int) response.getNumber();
+		}
+		return count;
+	}
+
+	@SuppressWarnings("unchecked")
+	static Map<String, String> toMap(Response response) {
+		Map<String, String> map = null;
+		if (response != null && response.isMatchOk()) {
+			map = (Map<String, String>) response.getData();
+		}
+		return map;
+	}
+
+	/**
+	 * @return the stats the reply was parsed into, or null if the tube or job was not found
+	 */
+	static <T extends StatsImpl> T toStats(Response response, T stats) {
+		return (response != null && response.isMatchOk()) ? stats : null;
+	}
+
+	/**
+	 * @return the list, never null
+	 */
+	@SuppressWarnings("unchecked")
+	static List<String> toList(Response response) {
+		List<String> list = null;
+		if (response != null && response.isMatchOk()) {
+			list = (List<String>) response.getData();
+		} else {
+			list = new ArrayList<String>(0);
+		}
+		return list;
+	}
+
+	static String toTubeName(Response response) {
+		String tubeName = null;
+		if (response != null && response.isMatchOk()) {
+			tubeName = response.getReponse();
+		}
+		return tubeName;
+	}
+}
@@ -0,0 +1,383 @@
+package com.surftools.BeanstalkClientImpl;
+
+/*
+
+ Copyright 2009-2020 Robert Tykulsker
+
+ This file is part of JavaBeanstalkCLient.
+
+ JavaBeanstalkCLient is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version, or alternatively, the BSD license supplied
+ with this project in the file "BSD-LICENSE".
+
+ JavaBeanstalkCLient is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with JavaBeanstalkCLient.  If not, see <http://www.gnu.org/licenses/>.
+
+ */
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import com.surftools.BeanstalkClient.BeanstalkException;
+
+/**
+ * a bounded pool of connections to one server, for {@link ClientImpl#ClientImpl(ConnectionPool)}.
+ * 
+ * At most maxSize connections are ever open; a borrower waits, first come first served, for up to borrowTimeoutMillis
+ * before giving up. Idle connections beyond minSize are closed once they have been idle for idleTimeoutMillis. A
+ * connection that has sat idle for a while is checked with a round trip before it is handed out, and a connection
+ * that broke while borrowed is closed instead of being returned; the evictor opens new ones to get back to minSize.
+ * 
+ */
+public class ConnectionPool {
+	static final long DEFAULT_BORROW_TIMEOUT_MILLIS = 30000;
+	static final long DEFAULT_IDLE_TIMEOUT_MILLIS = 60000;
+	static final long DEFAULT_VALIDATE_AFTER_IDLE_MILLIS = 1000;
+
+	private static class Idle {
+		final ProtocolHandler protocolHandler;
+		final long since;
+
+		Idle(ProtocolHandler protocolHandler, long since) {
+			this.protocolHandler = protocolHandler;
+			this.since = since;
+		}
+	}
+
+	private final String host;
+	private final int port;
+	private final Transport transport;
+	private final int minSize;
+	private final int maxSize;
+	private final long borrowTimeoutMillis;
+	private final long idleTimeoutMillis;
+	private volatile long validateAfterIdleMillis = DEFAULT_VALIDATE_AFTER_IDLE_MILLIS;
+
+	// one permit per connection that may still be handed out; fair, so borrowers are served in arrival order
+	private final Semaphore permits;
+	// most recently returned first, so the busy connections stay warm and the others age out
+	private final Deque<Idle> idle = new ArrayDeque<Idle>();
+	private int size = 0;
+	private volatile boolean closed = false;
+	private final ScheduledExecutorService evictor;
+
+	public ConnectionPool(int minSize, int maxSize) {
+		this(ClientImpl.DEFAULT_HOST, ClientImpl.DEFAULT_PORT, minSize, maxSize);
+	}
+
+	public ConnectionPool(String host, int port, int minSize, int maxSize) {
+		this(host, port, Transport.Stream, minSize, maxSize, DEFAULT_BORROW_TIMEOUT_MILLIS, DEFAULT_IDLE_TIMEOUT_MILLIS);
+	}
+
+	/**
+	 * @param host
+	 * @param port
+	 * @param transport
+	 * @param minSize
+	 *            connections opened up front and never evicted for being idle
+	 * @param maxSize
+	 *            the most connections open at once
+	 * @param borrowTimeoutMillis
+	 *            how long a borrower waits for a connection when all maxSize are in use
+	 * @param idleTimeoutMillis
+	 *            how long a connection beyond minSize may stay idle; 0 never evicts
+	 */
+	public ConnectionPool(String host, int port, Transport transport, int minSize, int maxSize,
+			long borrowTimeoutMillis, long idleTimeoutMillis) {
+		if (minSize < 0 || maxSize < 1 || minSize > maxSize) {
+			throw new BeanstalkException("invalid pool size");
+		}
+		if (borrowTimeoutMillis < 0 || idleTimeoutMillis < 0) {
+			throw new BeanstalkException("invalid timeout");
+		}
+
+		this.host = host;
+		this.port = port;
+		this.transport = transport;
+		this.minSize = minSize;
+		this.maxSize = maxSize;
+		this.borrowTimeoutMillis = borrowTimeoutMillis;
+		this.idleTimeoutMillis = idleTimeoutMillis;
+		this.permits = new Semaphore(maxSize, true);
+
+		for (int i = 0; i < minSize; ++i) {
+			ProtocolHandler protocolHandler = open();
+			synchronized (this) {
+				idle.addLast(new Idle(protocolHandler, System.currentTimeMillis()));
+			}
+		}
+
+		if (idleTimeoutMillis > 0) {
+			evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "beanstalk-pool-evictor");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			long period = Math.max(1, idleTimeoutMillis / 2);
+			evictor.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					evictIdle();
+				}
+			}, period, period, TimeUnit.MILLISECONDS);
+		} else {
+			evictor = null;
+		}
+	}
+
+	/**
+	 * take a connection out of the pool, opening one if none is idle and the pool is not full
+	 * 
+	 * @return a connection for the exclusive use of the caller until {@link #giveBack(ProtocolHandler)}
+	 */
+	ProtocolHandler borrow() {
+		if (closed) {
+			throw new BeanstalkException("Connection pool is closed");
+		}
+
+		try {
+			if (!permits.tryAcquire(borrowTimeoutMillis, TimeUnit.MILLISECONDS)) {
+				throw new BeanstalkException("Timed out waiting for a connection");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new BeanstalkException("Interrupted waiting for a connection");
+		}
+
+		try {
+			while (true) {
+				Idle candidate;
+				synchronized (this) {
+					candidate = idle.pollFirst();
+				}
+				if (candidate == null) {
+					return open();
+				}
+				if (isValid(candidate)) {
+					return candidate.protocolHandler;
+				}
+				discard(candidate.protocolHandler);
+			}
+		} catch (RuntimeException e) {
+			permits.release();
+			throw e;
+		}
+	}
+
+	/**
+	 * return a borrowed connection; one that broke, or that comes back after {@link #close()}, is closed instead
+	 * 
+	 * @param protocolHandler
+	 */
+	void giveBack(ProtocolHandler protocolHandler) {
+		try {
+			if (closed || !protocolHandler.isOpen()) {
+				discard(protocolHandler);
+			} else {
+				synchronized (this) {
+					idle.addFirst(new Idle(protocolHandler, System.currentTimeMillis()));
+				}
+			}
+		} finally {
+			permits.release();
+		}
+	}
+
+	private ProtocolHandler open() {
+		ProtocolHandler protocolHandler = ProtocolHandler.newInstance(host, port, transport);
+		synchronized (this) {
+			++size;
+		}
+		return protocolHandler;
+	}
+
+	private void discard(ProtocolHandler protocolHandler) {
+		synchronized (this) {
+			--size;
+		}
+		closeQuietly(protocolHandler);
+	}
+
+	private static void closeQuietly(ProtocolHandler protocolHandler) {
+		try {
+			protocolHandler.close();
+		} catch (BeanstalkException e) {
+			// already unusable
+		}
+	}
+
+	/**
+	 * a connection that has been idle for a while may have been dropped by the server or a firewall; a round trip
+	 * proves it is still there, and refreshes what it uses
+	 */
+	private boolean isValid(Idle candidate) {
+		ProtocolHandler protocolHandler = candidate.protocolHandler;
+		if (!protocolHandler.isOpen()) {
+			return false;
+		}
+		if (System.currentTimeMillis() - candidate.since < validateAfterIdleMillis) {
+			return true;
+		}
+		try {
+			String usedTube = Commands.toTubeName(protocolHandler.processRequest(Commands.listTubeUsed()));
+			if (usedTube == null) {
+				return false;
+			}
+			protocolHandler.setUsedTube(usedTube);
+			return true;
+		} catch (BeanstalkException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * close the connections idle for longer than idleTimeoutMillis beyond minSize, then open connections until minSize
+	 * are open again; sockets are closed and opened outside the lock, so borrowers are not held up
+	 */
+	void evictIdle() {
+		long now = System.currentTimeMillis();
+		List<ProtocolHandler> evicted = new ArrayList<ProtocolHandler>();
+		synchronized (this) {
+			// oldest at the end
+			Iterator<Idle> it = idle.descendingIterator();
+			while (it.hasNext() && size > minSize) {
+				Idle candidate = it.next();
+				if (now - candidate.since < idleTimeoutMillis) {
+					break;
+				}
+				it.remove();
+				--size;
+				evicted.add(candidate.protocolHandler);
+			}
+		}
+		for (ProtocolHandler protocolHandler : evicted) {
+			closeQuietly(protocolHandler);
+		}
+		refill();
+	}
+
+	/**
+	 * replace the connections that broke and were discarded, up to minSize
+	 */
+	private void refill() {
+		while (!closed) {
+			synchronized (this) {
+				if (size >= minSize) {
+					return;
+				}
+				// counted before it is open, so that a borrower opening one at the same time cannot overshoot
+				++size;
+			}
+			ProtocolHandler protocolHandler;
+			try {
+				protocolHandler = ProtocolHandler.newInstance(host, port, transport);
+			} catch (BeanstalkException e) {
+				synchronized (this) {
+					--size;
+				}
+				// try again on the next tick
+				return;
+			}
+			synchronized (this) {
+				if (!closed) {
+					idle.addLast(new Idle(protocolHandler, System.currentTimeMillis()));
+					continue;
+				}
+			}
+			discard(protocolHandler);
+		}
+	}
+
+	/**
+	 * close every idle connection; borrowed connections are closed as they are given back
+	 */
+	public void close() {
+		closed = true;
+		if (evictor != null) {
+			evictor.shutdownNow();
+		}
+		while (true) {
+			Idle candidate;
+			synchronized (this) {
+				candidate = idle.pollFirst();
+			}
+			if (candidate == null) {
+				break;
+			}
+			discard(candidate.protocolHandler);
+		}
+	}
+
+	public boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * an idle connection older than this is validated with a round trip before it is borrowed; 0 validates every
+	 * borrow
+	 * 
+	 * @param validateAfterIdleMillis
+	 */
+	public void setValidateAfterIdleMillis(long validateAfterIdleMillis) {
+		this.validateAfterIdleMillis = validateAfterIdleMillis;
+	}
+
+	public long getValidateAfterIdleMillis() {
+		return validateAfterIdleMillis;
+	}
+
+	String getHost() {
+		return host;
+	}
+
+	int getPort() {
+		return port;
+	}
+
+	Transport getTransport() {
+		return transport;
+	}
+
+	public int getMinSize() {
+		return minSize;
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	/**
+	 * @return the number of open connections, borrowed or idle
+	 */
+	public synchronized int getSize() {
+		return size;
+	}
+
+	public synchronized int getIdleCount() {
+		return idle.size();
+	}
+
+	/**
+	 * @return the number of threads waiting to borrow
+	 */
+	public int getWaitingCount() {
+		return permits.getQueueLength();
+	}
+}
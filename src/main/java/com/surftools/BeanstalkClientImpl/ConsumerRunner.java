@@ -0,0 +1,517 @@
+package com.surftools.BeanstalkClientImpl;
+
+/*
+
+ Copyright 2009-2020 Robert Tykulsker
+
+ This file is part of JavaBeanstalkCLient.
+
+ JavaBeanstalkCLient is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version, or alternatively, the BSD license supplied
+ with this project in the file "BSD-LICENSE".
+
+ JavaBeanstalkCLient is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with JavaBeanstalkCLient.  If not, see <http://www.gnu.org/licenses/>.
+
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.surftools.BeanstalkClient.BeanstalkException;
+import com.surftools.BeanstalkClient.Client;
+import com.surftools.BeanstalkClient.Job;
+
+/**
+ * runs a {@link Handler} over the jobs of some tubes, on a number of handler threads.
+ * 
+ * One fetcher thread does all the talking to the server: it keeps a local queue of up to prefetch reserved jobs,
+ * refilled with {@link Client#reserveBatch(int, int)}, and sends the outcome of each handled job. Since every command
+ * goes through that one thread, a reserved job is always acknowledged on the connection that reserved it, whatever
+ * the client's connection mode; for the same reason the fetcher sets up the watch list itself when it starts.
+ * 
+ * A job that was handled is deleted. A job whose handler threw is released with an exponential backoff delay, or
+ * buried once it has been reserved maxAttempts times. A prefetched job that has waited in the queue for nearly its
+ * time to run is not started; the server gives it back to the ready queue when its TTR runs out.
+ * 
+ * {@link #shutdown()} stops fetching, lets the handlers finish the jobs they started, and releases the jobs that were
+ * prefetched but never started.
+ * 
+ */
+public class ConsumerRunner {
+	static final int DEFAULT_MAX_ATTEMPTS = 3;
+	static final int DEFAULT_BACKOFF_SECONDS = 1;
+	static final int DEFAULT_MAX_BACKOFF_SECONDS = 60;
+	static final int DEFAULT_TTR_SECONDS = 120;
+	static final int DEFAULT_RESERVE_TIMEOUT_SECONDS = 1;
+	// how long an idle thread waits for work before looking again
+	static final long POLL_MILLIS = 20;
+	// the longest wait between polls for more jobs while the handlers are busy and nothing was ready
+	static final long MAX_POLL_BACKOFF_MILLIS = 1000;
+	// a job is not started with less than this much of its time to run left
+	static final long TTR_MARGIN_MILLIS = 1000;
+
+	/**
+	 * handles one job; return normally to have it deleted, throw to have it released or buried
+	 */
+	public interface Handler {
+		void handle(Job job) throws Exception;
+	}
+
+	private static class Prefetched {
+		final Job job;
+		final long reservedAt;
+
+		Prefetched(Job job, long reservedAt) {
+			this.job = job;
+			this.reservedAt = reservedAt;
+		}
+	}
+
+	private static class Outcome {
+		final long jobId;
+		final boolean ok;
+		// false for a job that was never handed to the handler, to be released as it is
+		final boolean started;
+
+		Outcome(long jobId, boolean ok, boolean started) {
+			this.jobId = jobId;
+			this.ok = ok;
+			this.started = started;
+		}
+	}
+
+	private final Client client;
+	private final String[] tubeNames;
+	private final Handler handler;
+	private final int threads;
+	private int prefetch;
+	private int maxAttempts = DEFAULT_MAX_ATTEMPTS;
+	private int backoffSeconds = DEFAULT_BACKOFF_SECONDS;
+	private int maxBackoffSeconds = DEFAULT_MAX_BACKOFF_SECONDS;
+	private int ttrSeconds = DEFAULT_TTR_SECONDS;
+	private int reserveTimeoutSeconds = DEFAULT_RESERVE_TIMEOUT_SECONDS;
+
+	private final BlockingQueue<Prefetched> queue = new LinkedBlockingQueue<Prefetched>();
+	private final BlockingQueue<Outcome> outcomes = new LinkedBlockingQueue<Outcome>();
+	// jobs taken by a handler whose outcome the fetcher has not sent yet
+	private final AtomicInteger inFlight = new AtomicInteger();
+	private final AtomicInteger liveHandlers = new AtomicInteger();
+	private volatile boolean started = false;
+	private volatile boolean running = false;
+	private final List<Thread> handlerThreads = new ArrayList<Thread>();
+	private Thread fetcherThread;
+	private CountDownLatch terminated;
+	private volatile Exception lastError;
+
+	private final LongAdder succeeded = new LongAdder();
+	private final LongAdder failed = new LongAdder();
+	private final LongAdder buried = new LongAdder();
+	private final LongAdder expired = new LongAdder();
+
+	/**
+	 * @param client
+	 *            only the runner's fetcher thread uses it once started
+	 * @param tubeNames
+	 *            the tubes to consume; the fetcher watches these and only these
+	 * @param handler
+	 * @param threads
+	 *            the number of handler threads
+	 */
+	public ConsumerRunner(Client client, String[] tubeNames, Handler handler, int threads) {
+		if (client == null) {
+			throw new BeanstalkException("null client");
+		}
+		if (tubeNames == null || tubeNames.length == 0) {
+			throw new BeanstalkException("no tubeNames");
+		}
+		if (handler == null) {
+			throw new BeanstalkException("null handler");
+		}
+		if (threads < 1) {
+			throw new BeanstalkException("invalid threads");
+		}
+		this.client = client;
+		this.tubeNames = tubeNames.clone();
+		this.handler = handler;
+		this.threads = threads;
+		this.prefetch = 2 * threads;
+	}
+
+	/**
+	 * @param prefetch
+	 *            the most reserved jobs waiting for a handler; at least 1, default twice the threads
+	 */
+	public void setPrefetch(int prefetch) {
+		if (prefetch < 1) {
+			throw new BeanstalkException("invalid prefetch");
+		}
+		this.prefetch = prefetch;
+	}
+
+	/**
+	 * @param maxAttempts
+	 *            the number of times a job is reserved before a failure buries it instead of releasing it
+	 */
+	public void setMaxAttempts(int maxAttempts) {
+		if (maxAttempts < 1) {
+			throw new BeanstalkException("invalid maxAttempts");
+		}
+		this.maxAttempts = maxAttempts;
+	}
+
+	/**
+	 * a failed job is released with a delay of backoffSeconds, doubled for every earlier attempt, up to
+	 * maxBackoffSeconds
+	 */
+	public void setBackoff(int backoffSeconds, int maxBackoffSeconds) {
+		if (backoffSeconds < 0 || maxBackoffSeconds < backoffSeconds) {
+			throw new BeanstalkException("invalid backoff");
+		}
+		this.backoffSeconds = backoffSeconds;
+		this.maxBackoffSeconds = maxBackoffSeconds;
+	}
+
+	/**
+	 * @param ttrSeconds
+	 *            the time to run producers give these jobs; a prefetched job that has waited for nearly this long is
+	 *            released instead of started
+	 */
+	public void setTtrSeconds(int ttrSeconds) {
+		if (ttrSeconds < 1) {
+			throw new BeanstalkException("invalid ttrSeconds");
+		}
+		this.ttrSeconds = ttrSeconds;
+	}
+
+	/**
+	 * @param reserveTimeoutSeconds
+	 *            how long the fetcher waits for a job when it is idle; shutdown can take this long
+	 */
+	public void setReserveTimeoutSeconds(int reserveTimeoutSeconds) {
+		if (reserveTimeoutSeconds < 0) {
+			throw new BeanstalkException("invalid reserveTimeoutSeconds");
+		}
+		this.reserveTimeoutSeconds = reserveTimeoutSeconds;
+	}
+
+	public synchronized void start() {
+		if (started) {
+			throw new BeanstalkException("already started");
+		}
+		started = true;
+		running = true;
+		terminated = new CountDownLatch(threads + 1);
+		liveHandlers.set(threads);
+		for (int i = 0; i < threads; ++i) {
+			Thread thread = new Thread(this::handle, "beanstalk-consumer-" + i);
+			thread.setDaemon(true);
+			handlerThreads.add(thread);
+			thread.start();
+		}
+		fetcherThread = new Thread(this::fetch, "beanstalk-consumer-fetcher");
+		fetcherThread.setDaemon(true);
+		fetcherThread.start();
+	}
+
+	/**
+	 * stop taking new jobs: started jobs are finished and acknowledged, prefetched ones are released
+	 */
+	public void shutdown() {
+		running = false;
+	}
+
+	/**
+	 * @return true if the runner stopped within the timeout
+	 */
+	public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+		if (!started) {
+			return true;
+		}
+		return terminated.await(timeout, unit);
+	}
+
+	public boolean isRunning() {
+		return running;
+	}
+
+	public boolean isTerminated() {
+		return started && terminated.getCount() == 0;
+	}
+
+	private void handle() {
+		try {
+			while (running) {
+				Prefetched prefetched = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+				if (prefetched == null) {
+					continue;
+				}
+				if (!running) {
+					// shutting down: leave it for the fetcher to release
+					queue.add(prefetched);
+					break;
+				}
+				if (System.currentTimeMillis() - prefetched.reservedAt > ttrSeconds * 1000L - TTR_MARGIN_MILLIS) {
+					// too late to start it: have the fetcher release it now, rather than let it sit out its ttr
+					expired.increment();
+					inFlight.incrementAndGet();
+					outcomes.add(new Outcome(prefetched.job.getJobId(), false, false));
+					continue;
+				}
+
+				inFlight.incrementAndGet();
+				boolean ok;
+				try {
+					handler.handle(prefetched.job);
+					ok = true;
+				} catch (Exception e) {
+					ok = false;
+				}
+				outcomes.add(new Outcome(prefetched.job.getJobId(), ok, true));
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			liveHandlers.decrementAndGet();
+			terminated.countDown();
+		}
+	}
+
+	private void fetch() {
+		try {
+			watchTubes();
+			// while the handlers are busy, an empty poll doubles the wait before the next one
+			long pollBackoff = POLL_MILLIS;
+			long nextPoll = 0;
+			while (running) {
+				try {
+					sendOutcomes(null);
+					int room = prefetch - queue.size();
+					// block on the server only when there is nothing to acknowledge in the meantime
+					boolean idle = inFlight.get() == 0 && queue.isEmpty();
+					long now = System.currentTimeMillis();
+					if (room > 0 && (idle || now >= nextPoll)) {
+						List<Job> jobs = client.reserveBatch(room, idle ? reserveTimeoutSeconds : 0);
+						for (Job job : jobs) {
+							queue.add(new Prefetched(job, now));
+						}
+						if (!jobs.isEmpty()) {
+							pollBackoff = POLL_MILLIS;
+							continue;
+						}
+						if (idle) {
+							continue;
+						}
+						nextPoll = now + pollBackoff;
+						pollBackoff = Math.min(pollBackoff * 2, MAX_POLL_BACKOFF_MILLIS);
+					}
+					sendOutcomes(outcomes.poll(POLL_MILLIS, TimeUnit.MILLISECONDS));
+				} catch (BeanstalkException e) {
+					if (Status.DEADLINE_SOON.name().equals(e.getMessage())) {
+						// not an error: a job held here is about to time out, and its outcome is what to wait for
+						sendOutcomes(outcomes.poll(POLL_MILLIS, TimeUnit.MILLISECONDS));
+					} else {
+						lastError = e;
+						Thread.sleep(DEFAULT_BACKOFF_SECONDS * 1000L);
+					}
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (RuntimeException e) {
+			lastError = e;
+		} finally {
+			running = false;
+			finish();
+			terminated.countDown();
+		}
+	}
+
+	/**
+	 * acknowledge the jobs still being handled, then release what was never started
+	 */
+	private void finish() {
+		try {
+			while (liveHandlers.get() > 0 || inFlight.get() > 0) {
+				sendOutcomes(outcomes.poll(POLL_MILLIS, TimeUnit.MILLISECONDS));
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		List<Prefetched> unstarted = new ArrayList<Prefetched>();
+		queue.drainTo(unstarted);
+		for (Prefetched prefetched : unstarted) {
+			releaseUnstarted(prefetched.job.getJobId());
+		}
+	}
+
+	/**
+	 * watch tubeNames and nothing else, on the fetcher's connection
+	 */
+	private void watchTubes() throws InterruptedException {
+		while (running) {
+			try {
+				for (String tubeName : tubeNames) {
+					client.watch(tubeName);
+				}
+				for (String watched : client.listTubesWatched()) {
+					if (!Arrays.asList(tubeNames).contains(watched)) {
+						client.ignore(watched);
+					}
+				}
+				return;
+			} catch (BeanstalkException e) {
+				lastError = e;
+				Thread.sleep(DEFAULT_BACKOFF_SECONDS * 1000L);
+			}
+		}
+	}
+
+	/**
+	 * delete the jobs that were handled, in one pipelined batch, release or bury the ones that failed, and release the
+	 * ones that were never started
+	 * 
+	 * @param first
+	 *            an outcome already taken from the queue, or null
+	 */
+	private void sendOutcomes(Outcome first) {
+		List<Outcome> batch = new ArrayList<Outcome>();
+		if (first != null) {
+			batch.add(first);
+		}
+		outcomes.drainTo(batch);
+		if (batch.isEmpty()) {
+			return;
+		}
+
+		List<Long> deletes = new ArrayList<Long>();
+		try {
+			for (Outcome outcome : batch) {
+				if (!outcome.started) {
+					releaseUnstarted(outcome.jobId);
+				} else if (outcome.ok) {
+					deletes.add(outcome.jobId);
+					succeeded.increment();
+				} else {
+					failed.increment();
+					retry(outcome.jobId);
+				}
+			}
+			if (!deletes.isEmpty()) {
+				long[] jobIds = new long[deletes.size()];
+				for (int i = 0; i < jobIds.length; ++i) {
+					jobIds[i] = deletes.get(i);
+				}
+				client.deleteAll(jobIds);
+			}
+		} catch (BeanstalkException e) {
+			// the server releases the jobs not deleted once their TTR runs out
+			lastError = e;
+		} finally {
+			inFlight.addAndGet(-batch.size());
+		}
+	}
+
+	/**
+	 * release a failed job with backoff, or bury it if it has had its attempts; the attempt count and priority come
+	 * from the server, so they hold across consumers
+	 */
+	private void retry(long jobId) {
+		try {
+			Map<String, String> stats = client.statsJob(jobId);
+			if (stats == null) {
+				return;
+			}
+			long priority = parse(stats.get("pri"), 0);
+			long attempts = parse(stats.get("reserves"), 1);
+			if (attempts >= maxAttempts) {
+				if (client.bury(jobId, priority)) {
+					buried.increment();
+				}
+			} else {
+				long delay = (long) backoffSeconds << Math.min(30, Math.max(0, attempts - 1));
+				client.release(jobId, priority, (int) Math.min(maxBackoffSeconds, delay));
+			}
+		} catch (BeanstalkException e) {
+			// the server releases it anyway once its TTR runs out
+			lastError = e;
+		}
+	}
+
+	private void releaseUnstarted(long jobId) {
+		try {
+			Map<String, String> stats = client.statsJob(jobId);
+			if (stats != null) {
+				client.release(jobId, parse(stats.get("pri"), 0), 0);
+			}
+		} catch (BeanstalkException e) {
+			// the server releases it anyway once its TTR runs out
+			lastError = e;
+		}
+	}
+
+	private static long parse(String value, long otherwise) {
+		try {
+			return (value == null) ? otherwise : Long.parseLong(value);
+		} catch (NumberFormatException e) {
+			return otherwise;
+		}
+	}
+
+	/**
+	 * @return the number of jobs handled and deleted
+	 */
+	public long getSucceededCount() {
+		return succeeded.sum();
+	}
+
+	/**
+	 * @return the number of jobs whose handler threw, whether released or buried
+	 */
+	public long getFailedCount() {
+		return failed.sum();
+	}
+
+	/**
+	 * @return the number of failed jobs buried after maxAttempts
+	 */
+	public long getBuriedCount() {
+		return buried.sum();
+	}
+
+	/**
+	 * @return the number of prefetched jobs released unstarted because their time to run had nearly run out
+	 */
+	public long getExpiredCount() {
+		return expired.sum();
+	}
+
+	/**
+	 * @return the number of reserved jobs waiting for a handler
+	 */
+	public int getQueueSize() {
+		return queue.size();
+	}
+
+	/**
+	 * @return the last error the fetcher ran into, or null
+	 */
+	public Exception getLastError() {
+		return lastError;
+	}
+}
@@ -0,0 +1,215 @@
+package com.surftools.BeanstalkClientImpl;
+
+/*
+
+ Copyright 2009-2020 Robert Tykulsker
+
+ This file is part of JavaBeanstalkCLient.
+
+ JavaBeanstalkCLient is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version, or alternatively, the BSD license supplied
+ with this project in the file "BSD-LICENSE".
+
+ JavaBeanstalkCLient is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with JavaBeanstalkCLient.  If not, see <http://www.gnu.org/licenses/>.
+
+ */
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import com.surftools.BeanstalkClient.BeanstalkException;
+import com.surftools.BeanstalkClient.Client;
+import com.surftools.BeanstalkClient.Job;
+
+/**
+ * the jobs of some tubes as a {@link Flow.Publisher}. Demand is turned into reserves: a subscription never has more
+ * reserves outstanding than its subscriber has requested jobs, and sends them in pipelined batches of up to maxBatch
+ * with {@link Client#reserveBatch(int, int)}.
+ * 
+ * Each subscription runs on a thread of its own, which sets up the watch list and makes every reserve, and calls
+ * onNext. A subscriber that deletes, releases or buries a job inside onNext does so on the connection that reserved
+ * it; one that hands jobs to other threads needs a shared or pooled client.
+ * 
+ * {@link Flow.Subscription#cancel()} releases the jobs reserved but not yet delivered. The stream never completes;
+ * it ends with onError if a reserve fails.
+ * 
+ */
+public class JobPublisher implements Flow.Publisher<Job> {
+	static final int DEFAULT_MAX_BATCH = 16;
+	static final int DEFAULT_RESERVE_TIMEOUT_SECONDS = 1;
+	// how long a subscription without demand waits before looking again
+	static final long POLL_MILLIS = 20;
+
+	private final Client client;
+	private final String[] tubeNames;
+	private volatile int maxBatch = DEFAULT_MAX_BATCH;
+	private volatile int reserveTimeoutSeconds = DEFAULT_RESERVE_TIMEOUT_SECONDS;
+
+	public JobPublisher(Client client, String[] tubeNames) {
+		if (client == null) {
+			throw new BeanstalkException("null client");
+		}
+		if (tubeNames == null || tubeNames.length == 0) {
+			throw new BeanstalkException("no tubeNames");
+		}
+		this.client = client;
+		this.tubeNames = tubeNames.clone();
+	}
+
+	/**
+	 * @param maxBatch
+	 *            the most reserves sent in one batch
+	 */
+	public void setMaxBatch(int maxBatch) {
+		if (maxBatch < 1) {
+			throw new BeanstalkException("invalid maxBatch");
+		}
+		this.maxBatch = maxBatch;
+	}
+
+	/**
+	 * @param reserveTimeoutSeconds
+	 *            how long a reserve waits for a job; a cancel is noticed within about this long
+	 */
+	public void setReserveTimeoutSeconds(int reserveTimeoutSeconds) {
+		if (reserveTimeoutSeconds < 0) {
+			throw new BeanstalkException("invalid reserveTimeoutSeconds");
+		}
+		this.reserveTimeoutSeconds = reserveTimeoutSeconds;
+	}
+
+	@Override
+	public void subscribe(Flow.Subscriber<? super Job> subscriber) {
+		if (subscriber == null) {
+			throw new NullPointerException("null subscriber");
+		}
+		JobSubscription subscription = new JobSubscription(subscriber);
+		subscriber.onSubscribe(subscription);
+		subscription.thread.start();
+	}
+
+	private class JobSubscription implements Flow.Subscription {
+		private final Flow.Subscriber<? super Job> subscriber;
+		private final Thread thread;
+		private final AtomicLong demand = new AtomicLong();
+		private volatile boolean cancelled = false;
+		private volatile Throwable invalidRequest = null;
+
+		JobSubscription(Flow.Subscriber<? super Job> subscriber) {
+			this.subscriber = subscriber;
+			thread = new Thread(this::run, "beanstalk-publisher-" + String.join(",", tubeNames));
+			thread.setDaemon(true);
+		}
+
+		@Override
+		public void request(long n) {
+			if (n <= 0) {
+				invalidRequest = new IllegalArgumentException("non-positive request: " + n);
+			} else {
+				demand.accumulateAndGet(n, (current, more) -> {
+					long sum = current + more;
+					return (sum < 0) ? Long.MAX_VALUE : sum;
+				});
+			}
+			LockSupport.unpark(thread);
+		}
+
+		@Override
+		public void cancel() {
+			cancelled = true;
+			LockSupport.unpark(thread);
+		}
+
+		private void run() {
+			try {
+				watchTubes();
+			} catch (BeanstalkException e) {
+				subscriber.onError(e);
+				return;
+			}
+
+			while (!cancelled) {
+				if (invalidRequest != null) {
+					cancelled = true;
+					subscriber.onError(invalidRequest);
+					return;
+				}
+				long wanted = demand.get();
+				if (wanted == 0) {
+					LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(POLL_MILLIS));
+					continue;
+				}
+
+				List<Job> jobs;
+				try {
+					jobs = client.reserveBatch((int) Math.min(wanted, maxBatch), reserveTimeoutSeconds);
+				} catch (BeanstalkException e) {
+					if (Status.DEADLINE_SOON.name().equals(e.getMessage())) {
+						// a job delivered earlier is about to time out; the subscriber still has it, and every
+						// reserve says so until it is handled or times out
+						LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(POLL_MILLIS));
+						continue;
+					}
+					cancelled = true;
+					subscriber.onError(e);
+					return;
+				}
+				for (int i = 0; i < jobs.size(); ++i) {
+					if (cancelled) {
+						release(jobs.subList(i, jobs.size()));
+						break;
+					}
+					demand.decrementAndGet();
+					try {
+						subscriber.onNext(jobs.get(i));
+					} catch (RuntimeException e) {
+						// a subscriber that throws has broken the contract: treat it as cancelled
+						cancelled = true;
+						release(jobs.subList(i + 1, jobs.size()));
+						return;
+					}
+				}
+			}
+		}
+
+		private void watchTubes() {
+			for (String tubeName : tubeNames) {
+				client.watch(tubeName);
+			}
+			for (String watched : client.listTubesWatched()) {
+				if (!Arrays.asList(tubeNames).contains(watched)) {
+					client.ignore(watched);
+				}
+			}
+		}
+
+		/**
+		 * give jobs that were never delivered back to the ready queue, with the priority they had
+		 */
+		private void release(List<Job> jobs) {
+			for (Job job : jobs) {
+				try {
+					Map<String, String> stats = client.statsJob(job.getJobId());
+					if (stats != null) {
+						client.release(job.getJobId(), Long.parseLong(stats.get("pri")), 0);
+					}
+				} catch (RuntimeException e) {
+					// the server gives it back when its time to run is up
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,124 @@
+package com.surftools.BeanstalkClientImpl;
+
+/*
+
+ Copyright 2009-2020 Robert Tykulsker
+
+ This file is part of JavaBeanstalkCLient.
+
+ JavaBeanstalkCLient is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version, or alternatively, the BSD license supplied
+ with this project in the file "BSD-LICENSE".
+
+ JavaBeanstalkCLient is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with JavaBeanstalkCLient.  If not, see <http://www.gnu.org/licenses/>.
+
+ */
+
+import com.surftools.BeanstalkClient.JobStats;
+
+/**
+ * the typed reply to stats-job
+ */
+public class JobStatsImpl extends StatsImpl implements JobStats {
+	private static final int ID = 0;
+	private static final int TUBE = 1;
+	private static final int STATE = 2;
+	private static final int PRI = 3;
+	private static final int AGE = 4;
+	private static final int DELAY = 5;
+	private static final int TTR = 6;
+	private static final int TIME_LEFT = 7;
+	private static final int FILE = 8;
+	private static final int RESERVES = 9;
+	private static final int TIMEOUTS = 10;
+	private static final int RELEASES = 11;
+	private static final int BURIES = 12;
+	private static final int KICKS = 13;
+
+	private static final Schema SCHEMA = new Schema(new String[] {
+			"id", "tube", "state", "pri", "age", "delay", "ttr", "time-left", "file", "reserves", "timeouts",
+			"releases", "buries", "kicks" },
+			"NSSNNNNNNNNNNN");
+
+	JobStatsImpl() {
+		super(SCHEMA);
+	}
+
+	@Override
+	public long getId() {
+		return number(ID);
+	}
+
+	@Override
+	public String getTube() {
+		return text(TUBE);
+	}
+
+	@Override
+	public String getState() {
+		return text(STATE);
+	}
+
+	@Override
+	public long getPriority() {
+		return number(PRI);
+	}
+
+	@Override
+	public long getAge() {
+		return number(AGE);
+	}
+
+	@Override
+	public long getDelay() {
+		return number(DELAY);
+	}
+
+	@Override
+	public long getTimeToRun() {
+		return number(TTR);
+	}
+
+	@Override
+	public long getTimeLeft() {
+		return number(TIME_LEFT);
+	}
+
+	@Override
+	public long getFile() {
+		return number(FILE);
+	}
+
+	@Override
+	public long getReserves() {
+		return number(RESERVES);
+	}
+
+	@Override
+	public long getTimeouts() {
+		return number(TIMEOUTS);
+	}
+
+	@Override
+	public long getReleases() {
+		return number(RELEASES);
+	}
+
+	@Override
+	public long getBuries() {
+		return number(BURIES);
+	}
+
+	@Override
+	public long getKicks() {
+		return number(KICKS);
+	}
+}
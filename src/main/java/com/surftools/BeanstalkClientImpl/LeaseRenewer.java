@@ -0,0 +1,358 @@
+package com.surftools.BeanstalkClientImpl;
+
+/*
+
+ Copyright 2009-2020 Robert Tykulsker
+
+ This file is part of JavaBeanstalkCLient.
+
+ JavaBeanstalkCLient is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version, or alternatively, the BSD license supplied
+ with this project in the file "BSD-LICENSE".
+
+ JavaBeanstalkCLient is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with JavaBeanstalkCLient.  If not, see <http://www.gnu.org/licenses/>.
+
+ */
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.surftools.BeanstalkClient.BatchResult;
+import com.surftools.BeanstalkClient.BeanstalkException;
+import com.surftools.BeanstalkClient.Client;
+import com.surftools.BeanstalkClient.Job;
+
+/**
+ * keeps reserved jobs from timing out while they are worked on, by touching each one every renewFraction of its time
+ * to run.
+ * 
+ * Tracked jobs sit on a hashed timing wheel of WHEEL_SIZE slots, one slot per tick; a job due further out than one
+ * turn of the wheel waits out the extra turns in its slot. On each tick the renewer thread touches everything that came
+ * due in one {@link Client#touchAll(long[])}, which pipelines the touches for each connection in one write.
+ * 
+ * A touch has to reach the connection that reserved the job, so the client must be shared or pooled (see
+ * {@link ClientImpl#setUniqueConnectionPerThread(boolean)} and {@link ClientImpl#ClientImpl(ConnectionPool)}). While
+ * that connection is blocked in another reserve its jobs are passed over and tried again on the next tick, so one busy
+ * connection does not hold up the others; the server answers the reserve with DEADLINE_SOON before the job runs out,
+ * which {@link #reserve(Integer)} handles by renewing and reserving again.
+ * 
+ * A lease is dropped only when its touch answers NOT_FOUND; after a failed batch or a connection error the leases
+ * are tried again on the next tick.
+ * 
+ */
+public class LeaseRenewer {
+	static final int WHEEL_SIZE = 512;
+	static final long DEFAULT_TICK_MILLIS = 100;
+	static final double DEFAULT_RENEW_FRACTION = 0.5;
+
+	private static class Lease {
+		final long jobId;
+		final long ttrMillis;
+		// whole turns of the wheel still to wait
+		long rounds;
+		volatile boolean cancelled = false;
+
+		Lease(long jobId, long ttrMillis) {
+			this.jobId = jobId;
+			this.ttrMillis = ttrMillis;
+		}
+	}
+
+	private final Client client;
+	private final double renewFraction;
+	private final long tickMillis;
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private final ArrayDeque<Lease>[] wheel = new ArrayDeque[WHEEL_SIZE];
+	private long tick = 0;
+	private final Map<Long, Lease> leases = new ConcurrentHashMap<Long, Lease>();
+	private final Thread thread;
+	private volatile boolean closed = false;
+
+	private final LongAdder touches = new LongAdder();
+	private final LongAdder lost = new LongAdder();
+
+	public LeaseRenewer(Client client) {
+		this(client, DEFAULT_RENEW_FRACTION, DEFAULT_TICK_MILLIS);
+	}
+
+	/**
+	 * @param client
+	 *            shared or pooled
+	 * @param renewFraction
+	 *            of a job's time to run after which it is touched, between 0 and 1
+	 * @param tickMillis
+	 *            the resolution of the wheel
+	 */
+	public LeaseRenewer(Client client, double renewFraction, long tickMillis) {
+		if (client == null) {
+			throw new BeanstalkException("null client");
+		}
+		if (client instanceof ClientImpl && ((ClientImpl) client).getConnectionPool() == null
+				&& client.isUniqueConnectionPerThread()) {
+			throw new BeanstalkException("lease renewal needs a shared or pooled client");
+		}
+		if (!(renewFraction > 0 && renewFraction < 1)) {
+			throw new BeanstalkException("invalid renewFraction");
+		}
+		if (tickMillis < 1) {
+			throw new BeanstalkException("invalid tickMillis");
+		}
+		this.client = client;
+		this.renewFraction = renewFraction;
+		this.tickMillis = tickMillis;
+		for (int i = 0; i < WHEEL_SIZE; ++i) {
+			wheel[i] = new ArrayDeque<Lease>();
+		}
+		thread = new Thread(this::run, "beanstalk-lease-renewer");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * renew a job that was just reserved
+	 * 
+	 * @param ttrSeconds
+	 *            its time to run, as given to put
+	 */
+	public void track(long jobId, int ttrSeconds) {
+		if (ttrSeconds < 1) {
+			throw new BeanstalkException("invalid ttrSeconds");
+		}
+		long ttrMillis = ttrSeconds * 1000L;
+		schedule(jobId, ttrMillis, (long) (ttrMillis * renewFraction));
+	}
+
+	/**
+	 * renew a reserved job whose time to run is not known here; it is read, with the time left, from stats-job
+	 * 
+	 * @return false if the job was not found
+	 */
+	public boolean track(long jobId) {
+		Map<String, String> stats = client.statsJob(jobId);
+		if (stats == null) {
+			return false;
+		}
+		long ttrMillis = Math.max(1, parse(stats.get("ttr"))) * 1000L;
+		long leftMillis = parse(stats.get("time-left")) * 1000L;
+		// touch when it is as far along as renewFraction of a full lease would be
+		schedule(jobId, ttrMillis, Math.max(0, leftMillis - (long) (ttrMillis * (1 - renewFraction))));
+		return true;
+	}
+
+	/**
+	 * stop renewing a job, e.g. once it is deleted, released or buried
+	 */
+	public void untrack(long jobId) {
+		Lease lease = leases.remove(jobId);
+		if (lease != null) {
+			lease.cancelled = true;
+		}
+	}
+
+	public boolean isTracked(long jobId) {
+		return leases.containsKey(jobId);
+	}
+
+	/**
+	 * reserve a job and track it. On DEADLINE_SOON, a job held on this connection is about to run out: every tracked
+	 * job is renewed and the reserve is tried again, rather than throwing.
+	 * 
+	 * @return the Job, or null if no job available within timeoutSeconds
+	 */
+	public Job reserve(Integer timeoutSeconds) {
+		while (true) {
+			try {
+				Job job = client.reserve(timeoutSeconds);
+				if (job != null) {
+					track(job.getJobId());
+				}
+				return job;
+			} catch (BeanstalkException e) {
+				if (!Status.DEADLINE_SOON.name().equals(e.getMessage())) {
+					throw e;
+				}
+				renewAll();
+			}
+		}
+	}
+
+	/**
+	 * touch every tracked job now
+	 */
+	public void renewAll() {
+		List<Lease> due = new ArrayList<Lease>(leases.values());
+		synchronized (wheel) {
+			for (Lease lease : due) {
+				// its slot entry is dropped as cancelled, and the lease is scheduled again after the touch
+				lease.cancelled = true;
+			}
+		}
+		touch(due);
+	}
+
+	private void schedule(long jobId, long ttrMillis, long delayMillis) {
+		Lease lease = new Lease(jobId, ttrMillis);
+		Lease previous = leases.put(jobId, lease);
+		if (previous != null) {
+			previous.cancelled = true;
+		}
+		enqueue(lease, delayMillis);
+	}
+
+	private void enqueue(Lease lease, long delayMillis) {
+		long ticks = Math.max(1, delayMillis / tickMillis);
+		synchronized (wheel) {
+			lease.rounds = (ticks - 1) / WHEEL_SIZE;
+			wheel[(int) ((tick + ticks) % WHEEL_SIZE)].addLast(lease);
+		}
+	}
+
+	private void run() {
+		long next = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(tickMillis);
+		while (!closed) {
+			long sleep = next - System.nanoTime();
+			if (sleep > 0) {
+				try {
+					TimeUnit.NANOSECONDS.sleep(sleep);
+				} catch (InterruptedException e) {
+					return;
+				}
+			}
+			next += TimeUnit.MILLISECONDS.toNanos(tickMillis);
+
+			List<Lease> due = new ArrayList<Lease>();
+			synchronized (wheel) {
+				++tick;
+				ArrayDeque<Lease> slot = wheel[(int) (tick % WHEEL_SIZE)];
+				for (int i = slot.size(); i > 0; --i) {
+					Lease lease = slot.pollFirst();
+					if (lease.cancelled) {
+						continue;
+					}
+					if (lease.rounds > 0) {
+						--lease.rounds;
+						slot.addLast(lease);
+					} else {
+						due.add(lease);
+					}
+				}
+			}
+			if (!due.isEmpty()) {
+				try {
+					touch(due);
+				} catch (RuntimeException e) {
+					// keep the renewer alive; the leases that were due are tried again on the next tick
+				}
+			}
+		}
+	}
+
+	/**
+	 * touch the leases in one batch and schedule the next renewal of the ones still held
+	 */
+	private void touch(List<Lease> due) {
+		if (due.isEmpty()) {
+			return;
+		}
+		long[] jobIds = new long[due.size()];
+		for (int i = 0; i < jobIds.length; ++i) {
+			jobIds[i] = due.get(i).jobId;
+		}
+		BatchResult result;
+		try {
+			if (client instanceof ClientImpl) {
+				result = ((ClientImpl) client).touchAllNow(jobIds);
+			} else {
+				result = client.touchAll(jobIds);
+			}
+		} catch (RuntimeException e) {
+			for (Lease lease : due) {
+				renew(lease, tickMillis);
+			}
+			throw e;
+		}
+
+		for (int i = 0; i < jobIds.length; ++i) {
+			Lease lease = due.get(i);
+			if (result.getStatus(i) != null) {
+				touches.increment();
+			}
+			if (result.isOk(i)) {
+				// a touch restarts the full time to run
+				renew(lease, (long) (lease.ttrMillis * renewFraction));
+			} else if (Status.NOT_FOUND.name().equals(result.getStatus(i))) {
+				// deleted, released, or already timed out
+				if (leases.remove(lease.jobId, lease)) {
+					lost.increment();
+				}
+			} else {
+				// passed over while its connection waits in a reserve, or a reply that says nothing about the job
+				renew(lease, tickMillis);
+			}
+		}
+	}
+
+	/**
+	 * schedule the next touch of a lease that is still tracked
+	 */
+	private void renew(Lease lease, long delayMillis) {
+		Lease renewed = new Lease(lease.jobId, lease.ttrMillis);
+		if (leases.replace(lease.jobId, lease, renewed)) {
+			enqueue(renewed, delayMillis);
+		}
+	}
+
+	private static long parse(String value) {
+		try {
+			return (value == null) ? 0 : Long.parseLong(value);
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+
+	/**
+	 * @return the number of jobs being renewed
+	 */
+	public int getTrackedCount() {
+		return leases.size();
+	}
+
+	/**
+	 * @return the number of touches sent
+	 */
+	public long getTouchCount() {
+		return touches.sum();
+	}
+
+	/**
+	 * @return the number of tracked jobs whose touch failed, i.e. that were gone without being untracked
+	 */
+	public long getLostCount() {
+		return lost.sum();
+	}
+
+	public void close() {
+		closed = true;
+		thread.interrupt();
+		synchronized (wheel) {
+			for (ArrayDeque<Lease> slot : wheel) {
+				slot.clear();
+			}
+		}
+		leases.clear();
+	}
+}
@@ -0,0 +1,290 @@
+package com.surftools.BeanstalkClientImpl;
+
+/*
+
+ Copyright 2009-2020 Robert Tykulsker
+
+ This file is part of JavaBeanstalkCLient.
+
+ JavaBeanstalkCLient is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version, or alternatively, the BSD license supplied
+ with this project in the file "BSD-LICENSE".
+
+ JavaBeanstalkCLient is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with JavaBeanstalkCLient.  If not, see <http://www.gnu.org/licenses/>.
+
+ */
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Function;
+
+import com.surftools.BeanstalkClient.BeanstalkException;
+
+/**
+ * one connection shared by any number of threads. Submitted requests go on a queue; a writer thread takes everything
+ * queued so far, writes it and flushes once, so requests from concurrent callers share packets and system calls. A
+ * reader thread takes the oldest written request from a FIFO and completes its future with the next response on the
+ * wire.
+ * 
+ * If the connection breaks, every pending future and every later submission completes exceptionally.
+ * 
+ */
+public class PipelinedConnection {
+	// the most requests written between two flushes
+	static final int MAX_BATCH = ProtocolHandler.PIPELINE_WINDOW;
+
+	private static class Pending<T> {
+		final Request request;
+		final Function<Response, T> converter;
+		final boolean strict;
+		final CompletableFuture<T> future = new CompletableFuture<T>();
+
+		Pending(Request request, Function<Response, T> converter, boolean strict) {
+			this.request = request;
+			this.converter = converter;
+			this.strict = strict;
+		}
+
+		void complete(Response response) {
+			if (strict && !response.isMatchOk() && !response.isMatchError()) {
+				future.completeExceptionally(new BeanstalkException(response.getStatus()));
+				return;
+			}
+			try {
+				future.complete(converter.apply(response));
+			} catch (RuntimeException e) {
+				future.completeExceptionally(e);
+			}
+		}
+	}
+
+	private final ProtocolHandler protocolHandler;
+	// submitted, not yet written
+	private final BlockingQueue<Pending<?>> outgoing = new LinkedBlockingQueue<Pending<?>>();
+	// written, response not yet read
+	private final BlockingQueue<Pending<?>> pending = new LinkedBlockingQueue<Pending<?>>();
+	private final Object failLock = new Object();
+	private final Thread writerThread;
+	private final Thread readerThread;
+	private volatile BeanstalkException failure = null;
+	private volatile boolean closed = false;
+
+	PipelinedConnection(ProtocolHandler protocolHandler, String name) {
+		this.protocolHandler = protocolHandler;
+
+		writerThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				writeRequests();
+			}
+		}, name + "-writer");
+		writerThread.setDaemon(true);
+
+		readerThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				readResponses();
+			}
+		}, name);
+		readerThread.setDaemon(true);
+
+		writerThread.start();
+		readerThread.start();
+	}
+
+	/**
+	 * queue a request for sending and complete the returned future when its response arrives
+	 * 
+	 * @param request
+	 * @param converter
+	 *            turns the response into the result; a BeanstalkException it throws completes the future
+	 *            exceptionally
+	 * @return the future result
+	 */
+	<T> CompletableFuture<T> submit(Request request, Function<Response, T> converter) {
+		Pending<T> p = new Pending<T>(request, converter, true);
+		enqueue(p);
+		return p.future;
+	}
+
+	private void enqueue(Pending<?> p) {
+		synchronized (outgoing) {
+			outgoing.add(p);
+		}
+		if (failure != null) {
+			// the writer is gone, nobody else will complete it
+			failQueued();
+		}
+	}
+
+	/**
+	 * submit and wait
+	 * 
+	 * @return the converted response; an unexpected status or a broken connection throws BeanstalkException
+	 */
+	<T> T process(Request request, Function<Response, T> converter) {
+		return join(submit(request, converter));
+	}
+
+	/**
+	 * submit a list of requests back-to-back and wait for all of them. No other request is queued between them, so a
+	 * use in the list applies to the puts after it. As with
+	 * {@link ProtocolHandler#processRequests(List)}, an unexpected status does not throw; the response is returned with
+	 * neither matchOk nor matchError set.
+	 * 
+	 * @param requests
+	 * @return the responses, in request order
+	 */
+	List<Response> processRequests(List<Request> requests) {
+		return joinAll(submitRequests(requests));
+	}
+
+	/**
+	 * as {@link #processRequests(List)}, without waiting
+	 * 
+	 * @return a future for each response, in request order
+	 */
+	List<CompletableFuture<Response>> submitRequests(List<Request> requests) {
+		List<CompletableFuture<Response>> submitted = new ArrayList<CompletableFuture<Response>>(requests.size());
+		synchronized (outgoing) {
+			for (Request request : requests) {
+				Pending<Response> p = new Pending<Response>(request, Function.identity(), false);
+				enqueue(p);
+				submitted.add(p.future);
+			}
+		}
+		return submitted;
+	}
+
+	static List<Response> joinAll(List<CompletableFuture<Response>> futures) {
+		List<Response> responses = new ArrayList<Response>(futures.size());
+		for (CompletableFuture<Response> future : futures) {
+			responses.add(join(future));
+		}
+		return responses;
+	}
+
+	static <T> T join(CompletableFuture<T> future) {
+		try {
+			return future.join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new BeanstalkException(e.getMessage());
+		}
+	}
+
+	/**
+	 * @return the number of requests submitted whose response has not been read yet
+	 */
+	int getPendingCount() {
+		return outgoing.size() + pending.size();
+	}
+
+	boolean isOpen() {
+		return failure == null;
+	}
+
+	/**
+	 * @return true if an I/O error, rather than close(), ended the connection
+	 */
+	boolean isBroken() {
+		return failure != null && !closed;
+	}
+
+	void close() {
+		closed = true;
+		fail(new BeanstalkException("Socket is closed"));
+	}
+
+	private void writeRequests() {
+		List<Pending<?>> batch = new ArrayList<Pending<?>>();
+		while (failure == null) {
+			try {
+				batch.add(outgoing.take());
+			} catch (InterruptedException e) {
+				break;
+			}
+			outgoing.drainTo(batch, MAX_BATCH - 1);
+
+			// the responses cannot be read before the requests are in the FIFO, the reader is waiting on it
+			pending.addAll(batch);
+			try {
+				for (Pending<?> p : batch) {
+					protocolHandler.write(p.request);
+				}
+				protocolHandler.flush();
+			} catch (BeanstalkException e) {
+				fail((failure != null) ? failure : e);
+				break;
+			}
+			batch.clear();
+		}
+		failQueued();
+	}
+
+	private void readResponses() {
+		while (failure == null) {
+			Pending<?> p;
+			try {
+				p = pending.take();
+			} catch (InterruptedException e) {
+				break;
+			}
+
+			Response response;
+			try {
+				response = protocolHandler.receive(p.request);
+			} catch (BeanstalkException e) {
+				// if the connection was closed under us, report that rather than the read error it caused
+				BeanstalkException cause = (failure != null) ? failure : e;
+				p.future.completeExceptionally(cause);
+				fail(cause);
+				break;
+			}
+			p.complete(response);
+		}
+		failQueued();
+	}
+
+	private void fail(BeanstalkException e) {
+		synchronized (failLock) {
+			if (failure != null) {
+				return;
+			}
+			failure = e;
+		}
+
+		protocolHandler.close();
+		writerThread.interrupt();
+		readerThread.interrupt();
+		failQueued();
+	}
+
+	/**
+	 * complete everything still queued with the failure; safe to call from any thread, any number of times
+	 */
+	private void failQueued() {
+		if (failure == null) {
+			return;
+		}
+		List<Pending<?>> failed = new ArrayList<Pending<?>>();
+		outgoing.drainTo(failed);
+		pending.drainTo(failed);
+		for (Pending<?> p : failed) {
+			p.future.completeExceptionally(failure);
+		}
+	}
+}
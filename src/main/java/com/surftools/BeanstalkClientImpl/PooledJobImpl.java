@@ -0,0 +1,78 @@
+package com.surftools.BeanstalkClientImpl;
+
+/*
+
+ Copyright 2009-2020 Robert Tykulsker
+
+ This file is part of JavaBeanstalkCLient.
+
+ JavaBeanstalkCLient is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version, or alternatively, the BSD license supplied
+ with this project in the file "BSD-LICENSE".
+
+ JavaBeanstalkCLient is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with JavaBeanstalkCLient.  If not, see <http://www.gnu.org/licenses/>.
+
+ */
+
+import java.nio.ByteBuffer;
+
+import com.surftools.BeanstalkClient.BeanstalkException;
+
+/**
+ * a job whose body sits in a buffer leased from a {@link BufferPool}. {@link #getData()} copies the body out once, on
+ * first use.
+ * 
+ */
+class PooledJobImpl extends JobImpl {
+	private final BufferPool.Lease lease;
+
+	PooledJobImpl(long jobId, BufferPool.Lease lease) {
+		super(jobId);
+		this.lease = lease;
+		lease.track(this);
+	}
+
+	@Override
+	public byte[] getData() {
+		byte[] data = super.getData();
+		if (data == null) {
+			ByteBuffer buffer = getBuffer();
+			data = new byte[buffer.remaining()];
+			buffer.get(data);
+			super.setData(data);
+		}
+		return data;
+	}
+
+	@Override
+	public void setData(byte[] data) {
+		lease.release();
+		super.setData(data);
+	}
+
+	@Override
+	public ByteBuffer getBuffer() {
+		if (lease.isReleased()) {
+			byte[] data = super.getData();
+			if (data == null) {
+				throw new BeanstalkException("job released");
+			}
+			return ByteBuffer.wrap(data);
+		}
+		return lease.getBuffer().duplicate();
+	}
+
+	@Override
+	public void release() {
+		lease.release();
+	}
+
+}
@@ -22,184 +22,314 @@ package com.surftools.BeanstalkClientImpl;
 
  */
 
-import java.io.BufferedReader;
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
+import java.io.Closeable;
 import java.net.Socket;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import com.surftools.BeanstalkClient.BeanstalkException;
 
 public class ProtocolHandler {
-	private static final byte[] CRLF = { '\r', '\n' };
-
-	private Socket socket;
+	static final int PIPELINE_WINDOW = 512;
+
+	private Closeable connection;
+	private ResponseReader reader;
+	private RequestWriter writer;
+	// reused for stats replies parsed in place, grown as needed
+	private ByteBuffer statsBuffer;
+	private boolean closed = false;
+	private boolean broken = false;
 	private boolean useBlockIO = false;
 
+	// what the server believes this connection uses and watches, as told by its USING and WATCHING replies; a new
+	// connection starts from the server's defaults, so a reconnect discards whatever was known about the old one
+	private volatile String usedTube = "default";
+	private Set<String> watchedTubes = new LinkedHashSet<String>(Collections.singleton("default"));
+
 	ProtocolHandler(String host, int port) {
 		try {
-			socket = new Socket(host, port);
+			Socket socket = new Socket(host, port);
+			// writes are already batched by RequestWriter; a body written in pieces must not wait on Nagle
+			socket.setTcpNoDelay(true);
+			init(socket, new ResponseReader(socket.getInputStream()), new RequestWriter(socket.getOutputStream()));
 		} catch (Exception e) {
 			throw new BeanstalkException(e.getMessage());
 		}
 	}
 
+	/**
+	 * open a connection of the given kind
+	 * 
+	 * @param host
+	 * @param port
+	 * @param transport
+	 * @return the ProtocolHandler for the new connection
+	 */
+	static ProtocolHandler newInstance(String host, int port, Transport transport) {
+		switch (transport) {
+		case Channel:
+			return new ChannelProtocolHandler(host, port);
+		default:
+			return new ProtocolHandler(host, port);
+		}
+	}
+
+	/**
+	 * for subclasses that open their own kind of connection
+	 */
+	protected ProtocolHandler() {
+	}
+
+	void init(Closeable connection, ResponseReader reader, RequestWriter writer) {
+		this.connection = connection;
+		this.reader = reader;
+		this.writer = writer;
+	}
+
 	Response processRequest(Request request) {
+		return processRequest(request, new Response());
+	}
+
+	/**
+	 * like {@link #processRequest(Request)}, but fills the caller's Response instead of allocating one; a caller that
+	 * reuses it can run a request without allocating anything but the job body
+	 * 
+	 * @param request
+	 * @param response
+	 *            reset and filled in
+	 * @return response
+	 */
+	Response processRequest(Request request, Response response) {
 		validateRequest(request);
 
-		Response response = null;
-		InputStream is = null;
-		OutputStream os = null;
+		if (closed) {
+			throw new BeanstalkException("Socket is closed");
+		}
 
 		try {
 			// formulate the request ...
-			ByteArrayOutputStream baos = new ByteArrayOutputStream();
-			baos.write(request.getCommand().getBytes());
-			baos.write(CRLF);
-			if (request.getData() != null) {
-				baos.write(request.getData());
-				baos.write(CRLF);
-			}
-			baos.flush();
-			os = socket.getOutputStream();
-			os.write(baos.toByteArray());
-			os.flush();
-			baos.close();
-
-			is = socket.getInputStream();
-			String line = new String(readInputStream(is, 0));
-
-			String[] tokens = line.split(" ");
-			if (tokens == null || tokens.length == 0) {
-				throw new BeanstalkException("no response");
-			}
+			writer.write(request);
+			writer.flush();
 
-			response = new Response();
-			response.setResponseLine(line);
-			String status = tokens[0];
-			response.setStatus(status);
-			if (tokens.length > 1) {
-				response.setReponse(tokens[1]);
-			}
-			setState(request, response, status);
+			readResponse(request, response);
+		} catch (Exception e) {
+			broken = true;
+			throw new BeanstalkException(e.getMessage());
+		}
 
-			switch (request.getExpectedResponse()) {
-			case Map:
-				if (response.isMatchError()) {
-					break;
-				}
-				response.setData(parseForMap(is));
-				break;
-			case List:
-				response.setData(parseForList(is));
-				break;
-			case ByteArray:
-				if (response.isMatchError()) {
-					break;
+		// the connection is still in step with the server, only the status was unexpected
+		if (!response.isMatchOk() && !response.isMatchError()) {
+			throw new BeanstalkException(response.getStatus());
+		}
+		return response;
+	}
+
+	/**
+	 * pipeline a list of requests: write a window of requests in one go, then read their responses in order.
+	 * 
+	 * Unlike {@link #processRequest(Request)}, an unexpected status does not throw; the response is returned with
+	 * neither matchOk nor matchError set, so that the remaining responses can still be read.
+	 * 
+	 * @param requests
+	 * @return the responses, in request order
+	 */
+	List<Response> processRequests(List<Request> requests) {
+		if (requests == null) {
+			throw new BeanstalkException("null requests");
+		}
+		for (Request request : requests) {
+			validateRequest(request);
+		}
+
+		if (closed) {
+			throw new BeanstalkException("Socket is closed");
+		}
+
+		List<Response> responses = new ArrayList<Response>(requests.size());
+		try {
+			// bound the unread responses, so neither side blocks writing while the other is not reading
+			for (int from = 0; from < requests.size(); from += PIPELINE_WINDOW) {
+				int to = Math.min(requests.size(), from + PIPELINE_WINDOW);
+				for (int i = from; i < to; ++i) {
+					writer.write(requests.get(i));
 				}
-				int length = 0;
-				if (request.getExpectedDataLengthIndex() > 0 && tokens.length > request.getExpectedDataLengthIndex()) {
-					try {
-						length = Integer.parseInt(tokens[request.getExpectedDataLengthIndex()]);
-					} catch (NumberFormatException ex) {
-						length = 0;
-					}
+				writer.flush();
+
+				for (int i = from; i < to; ++i) {
+					responses.add(readResponse(requests.get(i), new Response()));
 				}
-				byte[] data = readInputStream(is, length);
-				response.setData(data);
-				break;
-			default:
-				break;
 			}
-
 		} catch (Exception e) {
+			broken = true;
 			throw new BeanstalkException(e.getMessage());
 		}
-		return response;
+		return responses;
 	}
 
-	private byte[] readInputStream(InputStream is, int expectedLength) {
-		if (is == null) {
-			return null;
-		}
+	/**
+	 * buffer a request without waiting for its response; it is sent by {@link #flush()}, or earlier if the buffer
+	 * fills. The caller must {@link #receive(Request)} responses in the order requests were written.
+	 * 
+	 * @param request
+	 */
+	void write(Request request) {
+		validateRequest(request);
 
-		byte[] data;
+		if (closed) {
+			throw new BeanstalkException("Socket is closed");
+		}
 
-		if (expectedLength > 0 && useBlockIO) {
-			data = readInputStreamBurstMode(is, expectedLength);
-		} else {
-			data = readInputStreamSlowMode(is);
+		try {
+			writer.write(request);
+		} catch (Exception e) {
+			broken = true;
+			throw new BeanstalkException(e.getMessage());
 		}
-		return data;
 	}
 
-	private byte[] readInputStreamBurstMode(InputStream is, int length) {
+	/**
+	 * send every request written so far
+	 */
+	void flush() {
+		if (closed) {
+			throw new BeanstalkException("Socket is closed");
+		}
 
 		try {
-			byte[] data = new byte[length];
-			// changes per alaz
-			int off = 0;
-			int toRead = length - off;
-			while (toRead > 0) {
-				int readLength = is.read(data, off, toRead);
-				if (readLength == -1) {
-					throw new BeanstalkException(
-							String.format("The end of InputStream is reached - %d bytes expected, %d bytes read",
-									length, off + readLength));
-				}
-				off += readLength;
-				toRead = length - off;
-			}
-			byte br = (byte) is.read();
-			byte bn = (byte) is.read();
-			if (br != '\r' || bn != '\n') {
-				throw new BeanstalkException("The end of InputStream is reached - End of line expected, but not found");
-			}
-			return data;
-
-		} catch (IOException ex) {
-			throw new BeanstalkException(ex.getMessage());
+			writer.flush();
+		} catch (Exception e) {
+			broken = true;
+			throw new BeanstalkException(e.getMessage());
 		}
 	}
 
-	private byte[] readInputStreamSlowMode(InputStream is) {
-		boolean lastByteWasReturnByte = false;
-		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+	/**
+	 * read the response to the oldest request sent and not yet received. As with
+	 * {@link #processRequests(List)}, an unexpected status is returned with neither matchOk nor matchError set.
+	 * 
+	 * @param request
+	 * @return the response
+	 */
+	Response receive(Request request) {
+		if (closed) {
+			throw new BeanstalkException("Socket is closed");
+		}
+
 		try {
-			while (true) {
-				int intB = is.read();
-				byte b = (byte) intB;
-
-				/**
-				 * prevent OutOfMemory exceptions, per leopoldkot
-				 */
-				if (intB == -1) {
-					throw new BeanstalkException("The end of InputStream is reached");
-				}
+			return readResponse(request, new Response());
+		} catch (Exception e) {
+			broken = true;
+			throw new BeanstalkException(e.getMessage());
+		}
+	}
 
-				if (b == '\n' && lastByteWasReturnByte) {
-					break;
+	private Response readResponse(Request request, Response response) {
+		reader.readStatusLine();
+
+		response.reset();
+		Status status = reader.getStatus();
+		response.setStatusCode(status);
+		if (status == Status.UNKNOWN) {
+			// only an unexpected reply costs a String
+			String word = reader.getWord(0);
+			response.setStatus((word == null) ? "" : word);
+			response.setResponseLine(reader.getLine());
+		}
+		if (status == Status.USING) {
+			response.setReponse(reader.getWord(1));
+		} else {
+			response.setNumber(reader.getNumber(1));
+		}
+		setState(request, response, status);
+
+		if (!response.isMatchOk()) {
+			return response;
+		}
+		trackTubes(request, status, response);
+
+		switch (request.getExpectedResponse()) {
+		case Map:
+			if (request.getSinkStats() != null) {
+				int statsLength = (int) Math.max(0, response.getNumber());
+				if (statsBuffer == null || statsBuffer.capacity() < statsLength) {
+					statsBuffer = ByteBuffer.allocate(Math.max(statsLength, 1024));
 				}
-				if (b == '\r') {
-					lastByteWasReturnByte = true;
-				} else {
-					if (lastByteWasReturnByte) {
-						lastByteWasReturnByte = false;
-						baos.write('\r');
-					}
-					baos.write(b);
+				statsBuffer.clear();
+				reader.readBody(statsLength, statsBuffer);
+				request.getSinkStats().parse(statsBuffer.array(), statsLength);
+				response.setData(request.getSinkStats());
+			} else {
+				Map<String, String> map = new LinkedHashMap<String, String>();
+				reader.readYaml((int) Math.max(0, response.getNumber()), null, map);
+				response.setData(map);
+			}
+			break;
+		case List:
+			List<String> list = new ArrayList<String>();
+			reader.readYaml((int) Math.max(0, response.getNumber()), list, null);
+			response.setData(list);
+			break;
+		case ByteArray:
+			int length = 0;
+			if (request.getExpectedDataLengthIndex() > 0) {
+				length = (int) Math.max(0, reader.getNumber(request.getExpectedDataLengthIndex()));
+			}
+			response.setDataLength(length);
+			if (request.getSinkStream() != null) {
+				reader.readBody(length, request.getSinkStream());
+			} else if (request.getSinkChannel() != null) {
+				reader.readBody(length, request.getSinkChannel());
+			} else if (request.getSinkBuffer() != null) {
+				reader.readBody(length, request.getSinkBuffer());
+			} else if (request.getSinkJob() != null) {
+				ByteBuffer body = request.getSinkJob().prepare(response.getNumber(), length);
+				reader.readBody(length, body);
+				body.flip();
+			} else if (request.getBodyPool() != null) {
+				BufferPool.Lease lease = request.getBodyPool().lease(length);
+				try {
+					reader.readBody(length, lease.getBuffer());
+				} catch (RuntimeException e) {
+					lease.release();
+					throw e;
 				}
+				lease.getBuffer().flip();
+				response.setData(lease);
+			} else {
+				byte[] data = readInputStream(length);
+				response.setData(data);
 			}
-			return baos.toByteArray();
-		} catch (Exception e) {
-			throw new BeanstalkException(e.getMessage());
+			break;
+		default:
+			break;
+		}
+		return response;
+	}
+
+	private void trackTubes(Request request, Status status, Response response) {
+		if (status == Status.USING) {
+			usedTube = response.getReponse();
+		} else if (status == Status.WATCHING) {
+			if (request.getVerb() == Verb.WATCH) {
+				watchedTubes.add(request.getTubeName());
+			} else if (request.getVerb() == Verb.IGNORE) {
+				watchedTubes.remove(request.getTubeName());
+			}
+		}
+	}
+
+	private byte[] readInputStream(int expectedLength) {
+		if (expectedLength > 0) {
+			return reader.readBody(expectedLength);
 		}
+		return reader.readLine();
 	}
 
 	private void validateRequest(Request request) {
@@ -207,90 +337,70 @@ public class ProtocolHandler {
 			throw new BeanstalkException("null request");
 		}
 
-		String command = request.getCommand();
-		if (command == null || command.length() == 0) {
-			throw new BeanstalkException("null or empty command");
+		if (request.getVerb() == null) {
+			String command = request.getCommand();
+			if (command == null || command.length() == 0) {
+				throw new BeanstalkException("null or empty command");
+			}
 		}
 
-		String[] validStates = request.getValidStates();
-		if (validStates == null || validStates.length == 0) {
+		EnumSet<Status> okStatuses = request.getOkStatuses();
+		if (okStatuses == null || okStatuses.isEmpty()) {
 			throw new BeanstalkException("null or empty validStates");
 		}
 	}
 
-	private void setState(Request request, Response response, String status) {
-		for (String s : request.getValidStates()) {
-			if (status.equals(s)) {
-				response.setMatchOk(true);
-				break;
-			}
+	private void setState(Request request, Response response, Status status) {
+		if (request.getOkStatuses().contains(status)) {
+			response.setMatchOk(true);
+		} else if (request.getErrorStatuses() != null && request.getErrorStatuses().contains(status)) {
+			response.setMatchError(true);
 		}
+	}
 
-		if (!response.isMatchOk() && request.getErrorStates() != null) {
-			for (String s : request.getErrorStates()) {
-				if (status.equals(s)) {
-					response.setMatchError(true);
-					break;
-				}
-			}
-		}
+	/**
+	 * @return false once the connection was closed, or an I/O error left it out of step with the server
+	 */
+	boolean isOpen() {
+		return !closed && !broken;
+	}
 
-		if (!response.isMatchOk() && !response.isMatchError()) {
-			throw new BeanstalkException(status);
-		}
+	/**
+	 * @return true if an I/O error, rather than close(), ended the connection
+	 */
+	boolean isBroken() {
+		return broken && !closed;
 	}
 
-	private Map<String, String> parseForMap(InputStream is) {
-		Map<String, String> map = new LinkedHashMap<String, String>();
-		String line = null;
-		try {
-			BufferedReader in = new BufferedReader(new InputStreamReader(is));
-			while ((line = in.readLine()) != null) {
-				if (line.length() == 0) {
-					break;
-				}
-				String[] values = line.split(": ");
-				if (values.length != 2) {
-					continue;
-				}
-				map.put(values[0], values[1]);
-			}
-		} catch (Exception e) {
-			throw new BeanstalkException(e.getMessage());
-		}
-		return map;
+	String getUsedTube() {
+		return usedTube;
 	}
 
-	private List<String> parseForList(InputStream is) {
-		List<String> list = new ArrayList<String>();
-		String line = null;
-		try {
-			BufferedReader in = new BufferedReader(new InputStreamReader(is));
-			while ((line = in.readLine()) != null) {
-				if (line.length() == 0) {
-					break;
-				}
-				if (line.equals("---")) {
-					continue;
-				}
-				list.add(line.substring(2));
-			}
-		} catch (Exception e) {
-			throw new BeanstalkException(e.getMessage());
-		}
-		return list;
+	void setUsedTube(String usedTube) {
+		this.usedTube = usedTube;
+	}
+
+	Set<String> getWatchedTubes() {
+		return watchedTubes;
 	}
 
 	public void close() {
-		if (socket != null && !socket.isClosed()) {
+		closed = true;
+		if (connection != null) {
 			try {
-				socket.close();
+				connection.close();
 			} catch (Exception e) {
 				throw new BeanstalkException(e.getMessage());
 			}
 		}
 	}
 
+	/**
+	 * bodies with an announced length are always read in bulk through the connection's {@link ResponseReader}; this
+	 * flag is retained for compatibility
+	 * 
+	 * @param useBlockIO
+	 */
 	public void setUseBlockIO(boolean useBlockIO) {
 		this.useBlockIO = useBlockIO;
 	}
@@ -0,0 +1,164 @@
+package com.surftools.BeanstalkClientImpl;
+
+/*
+
+ Copyright 2009-2020 Robert Tykulsker
+
+ This file is part of JavaBeanstalkCLient.
+
+ JavaBeanstalkCLient is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version, or alternatively, the BSD license supplied
+ with this project in the file "BSD-LICENSE".
+
+ JavaBeanstalkCLient is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with JavaBeanstalkCLient.  If not, see <http://www.gnu.org/licenses/>.
+
+ */
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+
+import com.surftools.BeanstalkClient.BatchResult;
+import com.surftools.BeanstalkClient.BeanstalkException;
+import com.surftools.BeanstalkClient.Client;
+import com.surftools.BeanstalkClient.PutBatch;
+
+/**
+ * a {@link Flow.Subscriber} that puts every body it receives to one tube. It requests batchSize bodies at a time and
+ * puts each batch with one pipelined {@link Client#putAll(PutBatch)} before requesting the next, so the upstream can
+ * never run further ahead than one batch. The bodies left over when the upstream completes are put before
+ * {@link #getCompletion()} completes.
+ * 
+ * The puts run on whichever thread calls onNext. Every body is named for tubeName in its batch, so the client may be
+ * per-thread, shared or pooled.
+ * 
+ */
+public class PutSubscriber implements Flow.Subscriber<byte[]> {
+	static final int DEFAULT_BATCH_SIZE = 64;
+
+	private final Client client;
+	private final String tubeName;
+	private final long priority;
+	private final int delaySeconds;
+	private final int timeToRun;
+	private final int batchSize;
+	private final PutBatch batch;
+	private final CompletableFuture<Long> completion = new CompletableFuture<Long>();
+
+	private Flow.Subscription subscription;
+	private volatile long inserted = 0;
+	private volatile long failed = 0;
+
+	public PutSubscriber(Client client, String tubeName, long priority, int delaySeconds, int timeToRun) {
+		this(client, tubeName, priority, delaySeconds, timeToRun, DEFAULT_BATCH_SIZE);
+	}
+
+	/**
+	 * see {@link Client#put(long, int, int, byte[])} for the meaning of the arguments; every job gets the same
+	 * priority, delay and time to run
+	 */
+	public PutSubscriber(Client client, String tubeName, long priority, int delaySeconds, int timeToRun,
+			int batchSize) {
+		if (client == null) {
+			throw new BeanstalkException("null client");
+		}
+		if (tubeName == null) {
+			throw new BeanstalkException("null tubeName");
+		}
+		if (batchSize < 1) {
+			throw new BeanstalkException("invalid batchSize");
+		}
+		this.client = client;
+		this.tubeName = tubeName;
+		this.priority = priority;
+		this.delaySeconds = delaySeconds;
+		this.timeToRun = timeToRun;
+		this.batchSize = batchSize;
+		this.batch = new PutBatch(batchSize);
+	}
+
+	@Override
+	public void onSubscribe(Flow.Subscription subscription) {
+		if (this.subscription != null) {
+			subscription.cancel();
+			return;
+		}
+		this.subscription = subscription;
+		subscription.request(batchSize);
+	}
+
+	@Override
+	public void onNext(byte[] data) {
+		if (data == null) {
+			throw new NullPointerException("null data");
+		}
+		if (completion.isDone()) {
+			return;
+		}
+		batch.add(tubeName, priority, delaySeconds, timeToRun, data);
+		if (batch.size() == batchSize && flush()) {
+			subscription.request(batchSize);
+		}
+	}
+
+	@Override
+	public void onError(Throwable throwable) {
+		if (flush()) {
+			completion.completeExceptionally(throwable);
+		}
+	}
+
+	@Override
+	public void onComplete() {
+		if (flush()) {
+			completion.complete(inserted);
+		}
+	}
+
+	/**
+	 * @return false if the put failed, which cancels the subscription and completes the completion exceptionally
+	 */
+	private boolean flush() {
+		if (batch.size() == 0) {
+			return !completion.isDone();
+		}
+		try {
+			BatchResult result = client.putAll(batch);
+			failed += result.getFailureCount();
+			inserted += batch.size() - result.getFailureCount();
+			return true;
+		} catch (BeanstalkException e) {
+			subscription.cancel();
+			completion.completeExceptionally(e);
+			return false;
+		} finally {
+			batch.clear();
+		}
+	}
+
+	/**
+	 * @return a future for the number of jobs inserted, completed after the upstream completes and the last batch is
+	 *         put
+	 */
+	public CompletableFuture<Long> getCompletion() {
+		return completion;
+	}
+
+	public long getInsertedCount() {
+		return inserted;
+	}
+
+	/**
+	 * @return the number of bodies the server would not insert, e.g. JOB_TOO_BIG
+	 */
+	public long getFailedCount() {
+		return failed;
+	}
+}
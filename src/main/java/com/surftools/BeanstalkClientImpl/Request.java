@@ -22,11 +22,47 @@ package com.surftools.BeanstalkClientImpl;
 
  */
 
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.EnumSet;
+
+import com.surftools.BeanstalkClient.BeanstalkException;
+import com.surftools.BeanstalkClient.MutableJob;
+
 public class Request {
 	private String command;
+	// a request built from parts is encoded by RequestWriter without ever becoming a String
+	private Verb verb;
+	private String tubeName;
+	private long arg0, arg1, arg2, arg3;
+	private int argCount = 0;
 	private String[] validStates;
 	private String[] errorStates;
+	// the same states, checked without comparing strings
+	private EnumSet<Status> okStatuses;
+	private EnumSet<Status> errorStatuses;
 	private byte[] data;
+	// the part of data to send, -1 for all of it; or a ByteBuffer body instead of data
+	private int dataOffset = 0;
+	private int dataLength = -1;
+	private ByteBuffer dataBuffer;
+	// or a body streamed from a source: a stream, a channel, or a file region starting at sourcePosition
+	private InputStream sourceStream;
+	private ReadableByteChannel sourceChannel;
+	private long sourcePosition = -1;
+	private long sourceLength;
+	// where a job body in the reply goes instead of a new byte[]
+	private OutputStream sinkStream;
+	private WritableByteChannel sinkChannel;
+	private ByteBuffer sinkBuffer;
+	private MutableJob sinkJob;
+	// where a stats reply is parsed instead of a new Map
+	private StatsImpl sinkStats;
+	// or a pool to lease the buffer for the job body from
+	private BufferPool bodyPool;
 	private ExpectedResponse expectedResponse;
 	private int expectedDataLengthIndex;
 
@@ -83,10 +119,285 @@ public class Request {
 		this.errorStates = errorStates;
 		this.data = data;
 		this.expectedResponse = expectedResponse;
-		this.expectedDataLengthIndex = -1;
+		this.expectedDataLengthIndex = expectedDataLengthIndex;
+	}
+
+	/**
+	 * a request for verb [tubeName] [args...]; add the tube name and numeric arguments with {@link #tube(String)} and
+	 * {@link #arg(long)}
+	 */
+	Request(Verb verb, EnumSet<Status> okStatuses, EnumSet<Status> errorStatuses, byte[] data,
+			ExpectedResponse expectedResponse, int expectedDataLengthIndex) {
+		init(verb, okStatuses, errorStatuses, data, expectedResponse, expectedDataLengthIndex);
+	}
+
+	/**
+	 * make this a new request, so that a caller that sends one request at a time can reuse a single Request
+	 */
+	Request init(Verb verb, EnumSet<Status> okStatuses, EnumSet<Status> errorStatuses, byte[] data,
+			ExpectedResponse expectedResponse, int expectedDataLengthIndex) {
+		this.command = null;
+		this.verb = verb;
+		this.tubeName = null;
+		this.argCount = 0;
+		this.validStates = null;
+		this.errorStates = null;
+		this.okStatuses = okStatuses;
+		this.errorStatuses = errorStatuses;
+		this.data = data;
+		this.dataOffset = 0;
+		this.dataLength = -1;
+		this.dataBuffer = null;
+		this.sourceStream = null;
+		this.sourceChannel = null;
+		this.sourcePosition = -1;
+		this.sourceLength = 0;
+		this.sinkStream = null;
+		this.sinkChannel = null;
+		this.sinkBuffer = null;
+		this.sinkJob = null;
+		this.sinkStats = null;
+		this.bodyPool = null;
+		this.expectedResponse = expectedResponse;
+		this.expectedDataLengthIndex = expectedDataLengthIndex;
+		return this;
+	}
+
+	/**
+	 * drop the caller's body, source, sink and pool once the request is done, so that a reused Request does not keep
+	 * them reachable
+	 */
+	Request clearReferences() {
+		this.data = null;
+		this.dataBuffer = null;
+		this.sourceStream = null;
+		this.sourceChannel = null;
+		this.sinkStream = null;
+		this.sinkChannel = null;
+		this.sinkBuffer = null;
+		this.sinkJob = null;
+		this.sinkStats = null;
+		this.bodyPool = null;
+		return this;
+	}
+
+	/**
+	 * send len bytes of data, starting at off
+	 */
+	Request body(byte[] data, int off, int len) {
+		this.data = data;
+		this.dataOffset = off;
+		this.dataLength = len;
+		this.dataBuffer = null;
+		return this;
+	}
+
+	/**
+	 * send the bytes between the position and the limit of data; writing the request advances the position
+	 */
+	Request body(ByteBuffer data) {
+		this.data = null;
+		this.dataBuffer = data;
+		return this;
+	}
+
+	/**
+	 * send length bytes read from a stream
+	 */
+	Request body(InputStream source, long length) {
+		this.data = null;
+		this.dataBuffer = null;
+		this.sourceStream = source;
+		this.sourceLength = length;
+		return this;
+	}
+
+	/**
+	 * send length bytes read from a channel; a FileChannel is read from position, -1 for its current position
+	 */
+	Request body(ReadableByteChannel source, long position, long length) {
+		this.data = null;
+		this.dataBuffer = null;
+		this.sourceChannel = source;
+		this.sourcePosition = position;
+		this.sourceLength = length;
+		return this;
 	}
 
+	InputStream getSourceStream() {
+		return sourceStream;
+	}
+
+	ReadableByteChannel getSourceChannel() {
+		return sourceChannel;
+	}
+
+	long getSourcePosition() {
+		return sourcePosition;
+	}
+
+	long getSourceLength() {
+		return sourceLength;
+	}
+
+	/**
+	 * write the job body of the reply to a stream, instead of returning it in the Response
+	 */
+	Request sink(OutputStream sink) {
+		this.sinkStream = sink;
+		return this;
+	}
+
+	/**
+	 * write the job body of the reply to a channel, instead of returning it in the Response
+	 */
+	Request sink(WritableByteChannel sink) {
+		this.sinkChannel = sink;
+		return this;
+	}
+
+	/**
+	 * put the job body of the reply into a buffer, instead of returning it in the Response; whatever does not fit is
+	 * discarded
+	 */
+	Request sink(ByteBuffer sink) {
+		this.sinkBuffer = sink;
+		return this;
+	}
+
+	/**
+	 * read the job body of the reply into a buffer leased from pool, null for a new byte[]
+	 */
+	Request bodyPool(BufferPool pool) {
+		this.bodyPool = pool;
+		return this;
+	}
+
+	BufferPool getBodyPool() {
+		return bodyPool;
+	}
+
+	/**
+	 * fill a job holder with the id and body of the reply, growing its buffer if needed
+	 */
+	Request sink(MutableJob sink) {
+		this.sinkJob = sink;
+		return this;
+	}
+
+	MutableJob getSinkJob() {
+		return sinkJob;
+	}
+
+	/**
+	 * parse a stats reply into typed fields instead of a Map
+	 */
+	Request sink(StatsImpl sink) {
+		this.sinkStats = sink;
+		return this;
+	}
+
+	StatsImpl getSinkStats() {
+		return sinkStats;
+	}
+
+	OutputStream getSinkStream() {
+		return sinkStream;
+	}
+
+	WritableByteChannel getSinkChannel() {
+		return sinkChannel;
+	}
+
+	ByteBuffer getSinkBuffer() {
+		return sinkBuffer;
+	}
+
+	int getDataOffset() {
+		return dataOffset;
+	}
+
+	/**
+	 * @return the number of body bytes to send
+	 */
+	int getDataLength() {
+		if (dataBuffer != null) {
+			return dataBuffer.remaining();
+		}
+		if (data == null) {
+			return 0;
+		}
+		return (dataLength < 0) ? data.length : dataLength;
+	}
+
+	ByteBuffer getDataBuffer() {
+		return dataBuffer;
+	}
+
+	Request tube(String tubeName) {
+		this.tubeName = tubeName;
+		return this;
+	}
+
+	Request arg(long arg) {
+		switch (argCount++) {
+		case 0:
+			arg0 = arg;
+			break;
+		case 1:
+			arg1 = arg;
+			break;
+		case 2:
+			arg2 = arg;
+			break;
+		case 3:
+			arg3 = arg;
+			break;
+		default:
+			throw new BeanstalkException("too many arguments");
+		}
+		return this;
+	}
+
+	Verb getVerb() {
+		return verb;
+	}
+
+	String getTubeName() {
+		return tubeName;
+	}
+
+	int getArgCount() {
+		return argCount;
+	}
+
+	long getArg(int index) {
+		switch (index) {
+		case 0:
+			return arg0;
+		case 1:
+			return arg1;
+		case 2:
+			return arg2;
+		default:
+			return arg3;
+		}
+	}
+
+	/**
+	 * @return the command line; built on demand for a request made from parts
+	 */
 	public String getCommand() {
+		if (command == null && verb != null) {
+			StringBuilder sb = new StringBuilder(verb.getName());
+			if (tubeName != null) {
+				sb.append(' ').append(tubeName);
+			}
+			for (int i = 0; i < argCount; ++i) {
+				sb.append(' ').append(getArg(i));
+			}
+			return sb.toString();
+		}
 		return command;
 	}
 
@@ -95,19 +406,67 @@ public class Request {
 	}
 
 	public String[] getValidStates() {
+		if (validStates == null && okStatuses != null) {
+			return toNames(okStatuses);
+		}
 		return validStates;
 	}
 
 	public void setValidStates(String[] validStates) {
 		this.validStates = validStates;
+		this.okStatuses = null;
 	}
 
 	public String[] getErrorStates() {
+		if (errorStates == null && errorStatuses != null) {
+			return toNames(errorStatuses);
+		}
 		return errorStates;
 	}
 
 	public void setErrorStates(String[] errorStates) {
 		this.errorStates = errorStates;
+		this.errorStatuses = null;
+	}
+
+	/**
+	 * @return the states that make a response ok, or null if there are none
+	 */
+	EnumSet<Status> getOkStatuses() {
+		if (okStatuses == null && validStates != null) {
+			okStatuses = toStatuses(validStates);
+		}
+		return okStatuses;
+	}
+
+	/**
+	 * @return the states that are expected but not ok, or null if there are none
+	 */
+	EnumSet<Status> getErrorStatuses() {
+		if (errorStatuses == null && errorStates != null) {
+			errorStatuses = toStatuses(errorStates);
+		}
+		return errorStatuses;
+	}
+
+	private static EnumSet<Status> toStatuses(String[] names) {
+		EnumSet<Status> statuses = EnumSet.noneOf(Status.class);
+		for (String name : names) {
+			Status status = Status.forName(name);
+			if (status != Status.UNKNOWN) {
+				statuses.add(status);
+			}
+		}
+		return statuses;
+	}
+
+	private static String[] toNames(EnumSet<Status> statuses) {
+		String[] names = new String[statuses.size()];
+		int i = 0;
+		for (Status status : statuses) {
+			names[i++] = status.name();
+		}
+		return names;
 	}
 
 	public byte[] getData() {
@@ -116,6 +475,9 @@ public class Request {
 
 	public void setData(byte[] data) {
 		this.data = data;
+		this.dataOffset = 0;
+		this.dataLength = -1;
+		this.dataBuffer = null;
 	}
 
 	public ExpectedResponse getExpectedResponse() {
@@ -0,0 +1,355 @@
+package com.surftools.BeanstalkClientImpl;
+
+/*
+
+ Copyright 2009-2020 Robert Tykulsker
+
+ This file is part of JavaBeanstalkCLient.
+
+ JavaBeanstalkCLient is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version, or alternatively, the BSD license supplied
+ with this project in the file "BSD-LICENSE".
+
+ JavaBeanstalkCLient is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with JavaBeanstalkCLient.  If not, see <http://www.gnu.org/licenses/>.
+
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.surftools.BeanstalkClient.BeanstalkException;
+
+/**
+ * per-connection write buffer. Requests are encoded straight into the buffer, which is only handed to the connection
+ * on {@link #flush()} or when it fills up.
+ *
+ * Stream connections use a heap buffer, channel connections a direct buffer.
+ *
+ * A request built from parts is encoded without allocating: the verb is copied from its pre-encoded bytes, numbers
+ * are written digit by digit, and tube names are encoded once and cached.
+ *
+ * A body that fits in the buffer is copied in with its command line. A larger one is not copied here: a channel sends
+ * the buffered bytes, the body and its CRLF in one gathering write, a stream sends the buffered bytes and then the
+ * body straight from the caller's array. (Only a direct ByteBuffer body reaches a channel with no copy at all; the JDK
+ * stages heap bodies through a cached direct buffer of its own.)
+ *
+ * A body streamed from a source is never held whole: it is read into the buffer a chunk at a time, or, for a file
+ * going to a channel connection, sent by FileChannel.transferTo.
+ *
+ */
+public class RequestWriter {
+	static final int DEFAULT_BUFFER_SIZE = 8192;
+	static final int MAX_CACHED_TUBE_NAMES = 1024;
+
+	private static final Map<String, byte[]> tubeNameBytes = new ConcurrentHashMap<String, byte[]>();
+	private static final byte[] MIN_LONG = Long.toString(Long.MIN_VALUE).getBytes(StandardCharsets.US_ASCII);
+
+	private final OutputStream os;
+	private final WritableByteChannel channel;
+	private final ByteBuffer buffer;
+	private final ByteBuffer crlf = ByteBuffer.wrap(new byte[] { '\r', '\n' });
+	private final ByteBuffer[] gather = new ByteBuffer[3];
+
+	RequestWriter(OutputStream os) {
+		this(os, DEFAULT_BUFFER_SIZE);
+	}
+
+	RequestWriter(OutputStream os, int bufferSize) {
+		this.os = os;
+		this.channel = null;
+		this.buffer = ByteBuffer.allocate(bufferSize);
+	}
+
+	RequestWriter(WritableByteChannel channel) {
+		this(channel, DEFAULT_BUFFER_SIZE);
+	}
+
+	RequestWriter(WritableByteChannel channel, int bufferSize) {
+		this.os = null;
+		this.channel = channel;
+		this.buffer = ByteBuffer.allocateDirect(bufferSize);
+	}
+
+	/**
+	 * encode the command line and optional body of a request; nothing is sent until the buffer fills or is flushed
+	 *
+	 * @param request
+	 */
+	void write(Request request) {
+		Verb verb = request.getVerb();
+		if (verb != null) {
+			put(verb.getBytes());
+			if (request.getTubeName() != null) {
+				put((byte) ' ');
+				put(encodeTubeName(request.getTubeName()));
+			}
+			for (int i = 0; i < request.getArgCount(); ++i) {
+				put((byte) ' ');
+				putDigits(request.getArg(i));
+			}
+		} else {
+			String command = request.getCommand();
+			for (int i = 0; i < command.length(); ++i) {
+				put((byte) command.charAt(i));
+			}
+		}
+		putCRLF();
+
+		if (request.getDataBuffer() != null) {
+			writeBody(request.getDataBuffer());
+		} else if (request.getData() != null) {
+			writeBody(request.getData(), request.getDataOffset(), request.getDataLength());
+		} else if (request.getSourceStream() != null || request.getSourceChannel() != null) {
+			writeBody(request.getSourceStream(), request.getSourceChannel(), request.getSourcePosition(),
+					request.getSourceLength());
+		}
+	}
+
+	private void writeBody(byte[] data, int off, int len) {
+		if (len + 2 <= buffer.remaining()) {
+			buffer.put(data, off, len);
+			putCRLF();
+		} else if (channel != null) {
+			gatherWrite(ByteBuffer.wrap(data, off, len));
+		} else {
+			try {
+				os.write(buffer.array(), 0, buffer.position());
+				buffer.clear();
+				os.write(data, off, len);
+			} catch (IOException e) {
+				throw new BeanstalkException(e.getMessage());
+			}
+			putCRLF();
+		}
+	}
+
+	private void writeBody(ByteBuffer data) {
+		if (data.remaining() + 2 <= buffer.remaining()) {
+			buffer.put(data);
+			putCRLF();
+		} else if (channel != null) {
+			gatherWrite(data);
+		} else if (data.hasArray()) {
+			writeBody(data.array(), data.arrayOffset() + data.position(), data.remaining());
+			data.position(data.limit());
+		} else {
+			// a direct buffer cannot reach a stream without passing through the heap
+			while (data.hasRemaining()) {
+				if (!buffer.hasRemaining()) {
+					flush();
+				}
+				int limit = data.limit();
+				data.limit(data.position() + Math.min(data.remaining(), buffer.remaining()));
+				buffer.put(data);
+				data.limit(limit);
+			}
+			putCRLF();
+		}
+	}
+
+	/**
+	 * stream length bytes from a stream or a channel. A FileChannel going to a channel connection is handed to
+	 * transferTo, so the kernel moves the bytes; any other source passes through the buffer a chunk at a time.
+	 *
+	 * @param position
+	 *            of the body in a FileChannel, -1 to read from the source's current position
+	 */
+	private void writeBody(InputStream is, ReadableByteChannel source, long position, long length) {
+		long sent = 0;
+		try {
+			if (channel != null && source instanceof FileChannel) {
+				FileChannel file = (FileChannel) source;
+				long from = (position >= 0) ? position : file.position();
+				flush();
+				while (sent < length) {
+					long n = file.transferTo(from + sent, length - sent, channel);
+					if (n == 0 && from + sent >= file.size()) {
+						throw endOfSource(length, sent);
+					}
+					sent += n;
+				}
+				if (position < 0) {
+					file.position(from + length);
+				}
+			} else {
+				if (is != null && !buffer.hasArray()) {
+					source = Channels.newChannel(is);
+				}
+				while (sent < length) {
+					if (!buffer.hasRemaining()) {
+						flush();
+					}
+					int n = (int) Math.min(buffer.remaining(), length - sent);
+					int read;
+					if (source == null) {
+						read = is.read(buffer.array(), buffer.arrayOffset() + buffer.position(), n);
+						if (read > 0) {
+							buffer.position(buffer.position() + read);
+						}
+					} else {
+						int limit = buffer.limit();
+						buffer.limit(buffer.position() + n);
+						try {
+							read = (position >= 0) ? ((FileChannel) source).read(buffer, position + sent)
+									: source.read(buffer);
+						} finally {
+							buffer.limit(limit);
+						}
+					}
+					if (read < 0) {
+						throw endOfSource(length, sent);
+					}
+					sent += read;
+				}
+			}
+		} catch (IOException e) {
+			throw new BeanstalkException(e.getMessage());
+		}
+		putCRLF();
+	}
+
+	private BeanstalkException endOfSource(long length, long sent) {
+		return new BeanstalkException(
+				String.format("The end of the data is reached - %d bytes expected, %d bytes read", length, sent));
+	}
+
+	/**
+	 * send whatever is buffered, then the body, then its CRLF, in as few writes as the channel allows
+	 */
+	private void gatherWrite(ByteBuffer body) {
+		buffer.flip();
+		crlf.clear();
+		gather[0] = buffer;
+		gather[1] = body;
+		gather[2] = crlf;
+		try {
+			if (channel instanceof GatheringByteChannel) {
+				GatheringByteChannel gatheringChannel = (GatheringByteChannel) channel;
+				while (crlf.hasRemaining()) {
+					gatheringChannel.write(gather);
+				}
+			} else {
+				for (ByteBuffer b : gather) {
+					while (b.hasRemaining()) {
+						channel.write(b);
+					}
+				}
+			}
+		} catch (IOException e) {
+			throw new BeanstalkException(e.getMessage());
+		} finally {
+			gather[1] = null;
+			buffer.clear();
+		}
+	}
+
+	/**
+	 * send everything encoded so far
+	 */
+	void flush() {
+		try {
+			if (channel != null) {
+				buffer.flip();
+				while (buffer.hasRemaining()) {
+					channel.write(buffer);
+				}
+			} else {
+				os.write(buffer.array(), 0, buffer.position());
+				os.flush();
+			}
+		} catch (IOException e) {
+			throw new BeanstalkException(e.getMessage());
+		} finally {
+			buffer.clear();
+		}
+	}
+
+	private void put(byte b) {
+		if (!buffer.hasRemaining()) {
+			flush();
+		}
+		buffer.put(b);
+	}
+
+	private void put(byte[] data) {
+		put(data, 0, data.length);
+	}
+
+	/**
+	 * format a number straight into the buffer
+	 */
+	private void putDigits(long value) {
+		if (value == Long.MIN_VALUE) {
+			put(MIN_LONG);
+			return;
+		}
+		// '-' and 19 digits
+		if (buffer.remaining() < 20) {
+			flush();
+		}
+		if (value < 0) {
+			buffer.put((byte) '-');
+			value = -value;
+		}
+		int digits = 1;
+		for (long v = value; v >= 10; v /= 10) {
+			++digits;
+		}
+		int end = buffer.position() + digits;
+		for (int i = end - 1; i >= buffer.position(); --i) {
+			buffer.put(i, (byte) ('0' + value % 10));
+			value /= 10;
+		}
+		buffer.position(end);
+	}
+
+	/**
+	 * tube names are latin-1, the way command strings were always written; the first MAX_CACHED_TUBE_NAMES are
+	 * encoded once
+	 */
+	static byte[] encodeTubeName(String tubeName) {
+		byte[] bytes = tubeNameBytes.get(tubeName);
+		if (bytes == null) {
+			bytes = tubeName.getBytes(StandardCharsets.ISO_8859_1);
+			if (tubeNameBytes.size() < MAX_CACHED_TUBE_NAMES) {
+				tubeNameBytes.put(tubeName, bytes);
+			}
+		}
+		return bytes;
+	}
+
+	private void put(byte[] data, int off, int len) {
+		while (len > 0) {
+			if (!buffer.hasRemaining()) {
+				flush();
+			}
+			int n = Math.min(len, buffer.remaining());
+			buffer.put(data, off, n);
+			off += n;
+			len -= n;
+		}
+	}
+
+	private void putCRLF() {
+		put((byte) '\r');
+		put((byte) '\n');
+	}
+}
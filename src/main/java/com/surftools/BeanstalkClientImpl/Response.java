@@ -23,14 +23,46 @@ package com.surftools.BeanstalkClientImpl;
  */
 
 public class Response {
+	private Status statusCode;
 	private String status;
+	private long number = -1;
 	private String reponse;
 	private String responseLine;
 	private boolean matchOk;
 	private boolean matchError;
 	private Object data;
+	private int dataLength;
+
+	/**
+	 * clear every field, so that a Response can be filled again
+	 */
+	void reset() {
+		statusCode = null;
+		status = null;
+		number = -1;
+		reponse = null;
+		responseLine = null;
+		matchOk = false;
+		matchError = false;
+		data = null;
+		dataLength = 0;
+	}
+
+	public Status getStatusCode() {
+		return statusCode;
+	}
 
+	public void setStatusCode(Status statusCode) {
+		this.statusCode = statusCode;
+	}
+
+	/**
+	 * @return the status word; for a known status this is the name of its {@link Status}
+	 */
 	public String getStatus() {
+		if (status == null && statusCode != null) {
+			return statusCode.name();
+		}
 		return status;
 	}
 
@@ -38,7 +70,25 @@ public class Response {
 		this.status = status;
 	}
 
+	/**
+	 * @return the second word of the reply as a number, e.g. the job id of INSERTED or RESERVED, or -1 if it is not a
+	 *         number
+	 */
+	public long getNumber() {
+		return number;
+	}
+
+	public void setNumber(long number) {
+		this.number = number;
+	}
+
+	/**
+	 * @return the second word of the reply
+	 */
 	public String getReponse() {
+		if (reponse == null && number >= 0) {
+			return Long.toString(number);
+		}
 		return reponse;
 	}
 
@@ -46,6 +96,9 @@ public class Response {
 		this.reponse = reponse;
 	}
 
+	/**
+	 * @return the whole reply line; only kept for a status that is not {@link Status known}
+	 */
 	public String getResponseLine() {
 		return responseLine;
 	}
@@ -78,4 +131,15 @@ public class Response {
 		this.data = data;
 	}
 
+	/**
+	 * @return the length of the job body announced by the server, whether it was returned as data or written to a sink
+	 */
+	public int getDataLength() {
+		return dataLength;
+	}
+
+	public void setDataLength(int dataLength) {
+		this.dataLength = dataLength;
+	}
+
 }
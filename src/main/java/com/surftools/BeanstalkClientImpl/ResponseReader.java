@@ -0,0 +1,470 @@
+package com.surftools.BeanstalkClientImpl;
+
+/*
+
+ Copyright 2009-2020 Robert Tykulsker
+
+ This file is part of JavaBeanstalkCLient.
+
+ JavaBeanstalkCLient is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version, or alternatively, the BSD license supplied
+ with this project in the file "BSD-LICENSE".
+
+ JavaBeanstalkCLient is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with JavaBeanstalkCLient.  If not, see <http://www.gnu.org/licenses/>.
+
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import com.surftools.BeanstalkClient.BeanstalkException;
+
+/**
+ * per-connection read buffer shared by every response path.
+ *
+ * Bytes are pulled from the connection in bulk; whatever is not consumed by the current response stays in the buffer
+ * for the next one, so nothing is lost between responses (or between pipelined responses).
+ *
+ * The buffer is kept in "read mode": position is the next unread byte, limit is the end of the valid data. Stream
+ * connections use a heap buffer, channel connections a direct buffer.
+ *
+ * A status line is split into words where it lies in the buffer; its status and numbers are read from there without
+ * allocating. The words stay valid until the next read. A YAML reply body is read whole into the buffer and scanned
+ * there as well; only the items and values themselves become Strings.
+ *
+ */
+public class ResponseReader {
+	static final int DEFAULT_BUFFER_SIZE = 8192;
+	// "RESERVED <id> <bytes>" is the longest reply
+	static final int MAX_WORDS = 4;
+
+	private final InputStream is;
+	private final ReadableByteChannel channel;
+	private ByteBuffer buffer;
+
+	// the words of the last status line, as [start, end) indexes into the buffer
+	private final int[] wordStarts = new int[MAX_WORDS];
+	private final int[] wordEnds = new int[MAX_WORDS];
+	private int wordCount = 0;
+	private int lineStart = 0;
+	private int lineEnd = 0;
+	// staging for a stream sink when the buffer is direct
+	private byte[] scratch;
+
+	ResponseReader(InputStream is) {
+		this(is, DEFAULT_BUFFER_SIZE);
+	}
+
+	ResponseReader(InputStream is, int bufferSize) {
+		this.is = is;
+		this.channel = null;
+		this.buffer = ByteBuffer.allocate(bufferSize);
+		this.buffer.flip();
+	}
+
+	ResponseReader(ReadableByteChannel channel) {
+		this(channel, DEFAULT_BUFFER_SIZE);
+	}
+
+	ResponseReader(ReadableByteChannel channel, int bufferSize) {
+		this.is = null;
+		this.channel = channel;
+		this.buffer = ByteBuffer.allocateDirect(bufferSize);
+		this.buffer.flip();
+	}
+
+	/**
+	 * read a CRLF-terminated line
+	 *
+	 * @return the bytes of the line, without the trailing CRLF
+	 */
+	byte[] readLine() {
+		int scanFrom = buffer.position();
+		while (true) {
+			int end = indexOfCRLF(scanFrom);
+			if (end >= 0) {
+				byte[] line = new byte[end - buffer.position()];
+				buffer.get(line);
+				buffer.position(buffer.position() + 2);
+				return line;
+			}
+			// keep the last byte, it may be the '\r' of a split CRLF
+			int scanned = Math.max(0, buffer.remaining() - 1);
+			fill();
+			scanFrom = buffer.position() + scanned;
+		}
+	}
+
+	/**
+	 * read a CRLF-terminated status line and split it into words in place, see {@link #getStatus()},
+	 * {@link #getNumber(int)} and {@link #getWord(int)}
+	 */
+	void readStatusLine() {
+		int scanFrom = buffer.position();
+		int end;
+		while ((end = indexOfCRLF(scanFrom)) < 0) {
+			// keep the last byte, it may be the '\r' of a split CRLF
+			int scanned = Math.max(0, buffer.remaining() - 1);
+			fill();
+			scanFrom = buffer.position() + scanned;
+		}
+
+		lineStart = buffer.position();
+		lineEnd = end;
+		wordCount = 0;
+		int i = lineStart;
+		while (i < end && wordCount < MAX_WORDS) {
+			while (i < end && buffer.get(i) == ' ') {
+				++i;
+			}
+			if (i == end) {
+				break;
+			}
+			wordStarts[wordCount] = i;
+			while (i < end && buffer.get(i) != ' ') {
+				++i;
+			}
+			wordEnds[wordCount++] = i;
+		}
+		buffer.position(end + 2);
+	}
+
+	int getWordCount() {
+		return wordCount;
+	}
+
+	/**
+	 * @return the status of the last status line
+	 */
+	Status getStatus() {
+		if (wordCount == 0) {
+			return Status.UNKNOWN;
+		}
+		return Status.match(buffer, wordStarts[0], wordEnds[0]);
+	}
+
+	/**
+	 * @param index
+	 *            of a word of the last status line
+	 * @return the word as a non-negative number, or -1 if it is missing or not a number
+	 */
+	long getNumber(int index) {
+		if (index >= wordCount) {
+			return -1;
+		}
+		int from = wordStarts[index];
+		int to = wordEnds[index];
+		// 18 digits cannot overflow a long
+		if (to - from > 18) {
+			return -1;
+		}
+		long value = 0;
+		for (int i = from; i < to; ++i) {
+			int digit = buffer.get(i) - '0';
+			if (digit < 0 || digit > 9) {
+				return -1;
+			}
+			value = value * 10 + digit;
+		}
+		return value;
+	}
+
+	/**
+	 * @return a word of the last status line as a String, or null if it is missing
+	 */
+	String getWord(int index) {
+		if (index >= wordCount) {
+			return null;
+		}
+		return toString(wordStarts[index], wordEnds[index]);
+	}
+
+	/**
+	 * @return the whole last status line as a String
+	 */
+	String getLine() {
+		return toString(lineStart, lineEnd);
+	}
+
+	private String toString(int from, int to) {
+		if (buffer.hasArray()) {
+			return new String(buffer.array(), buffer.arrayOffset() + from, to - from, StandardCharsets.ISO_8859_1);
+		}
+		byte[] bytes = new byte[to - from];
+		for (int i = from; i < to; ++i) {
+			bytes[i - from] = buffer.get(i);
+		}
+		return new String(bytes, StandardCharsets.ISO_8859_1);
+	}
+
+	/**
+	 * read a body whose length was announced by the server, followed by CRLF
+	 *
+	 * @param length
+	 *            the announced length
+	 * @return the body, without the trailing CRLF
+	 */
+	byte[] readBody(int length) {
+		byte[] data = new byte[length];
+		int off = Math.min(length, buffer.remaining());
+		buffer.get(data, 0, off);
+
+		// large bodies bypass the buffer and land directly in the result
+		try {
+			ByteBuffer rest = (channel != null) ? ByteBuffer.wrap(data) : null;
+			while (off < length) {
+				int readLength;
+				if (channel != null) {
+					rest.position(off);
+					readLength = channel.read(rest);
+				} else {
+					readLength = is.read(data, off, length - off);
+				}
+				if (readLength == -1) {
+					throw new BeanstalkException(
+							String.format("The end of InputStream is reached - %d bytes expected, %d bytes read",
+									length, off));
+				}
+				off += readLength;
+			}
+		} catch (IOException e) {
+			throw new BeanstalkException(e.getMessage());
+		}
+
+		readCRLF();
+		return data;
+	}
+
+	/**
+	 * read a YAML body whose length was announced by the server, followed by CRLF, and scan it in the buffer: a
+	 * "- item" line is added to the list, a "key: value" line is put in the map, and the "---" line or anything else is
+	 * skipped. The buffer grows to hold the whole body if it has to.
+	 *
+	 * @param list
+	 *            for the items, or null
+	 * @param map
+	 *            for the keys and values, or null
+	 */
+	void readYaml(int length, List<String> list, Map<String, String> map) {
+		if (buffer.capacity() < length + 2) {
+			int capacity = buffer.capacity();
+			while (capacity < length + 2) {
+				capacity *= 2;
+			}
+			ByteBuffer bigger = buffer.isDirect() ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+			bigger.put(buffer);
+			bigger.flip();
+			buffer = bigger;
+		}
+		while (buffer.remaining() < length + 2) {
+			fill();
+		}
+
+		int end = buffer.position() + length;
+		int start = buffer.position();
+		while (start < end) {
+			int lineEnd = start;
+			while (lineEnd < end && buffer.get(lineEnd) != '\n') {
+				++lineEnd;
+			}
+			int to = (lineEnd > start && buffer.get(lineEnd - 1) == '\r') ? lineEnd - 1 : lineEnd;
+			if (to - start >= 2 && buffer.get(start) == '-' && buffer.get(start + 1) == ' ') {
+				if (list != null) {
+					list.add(toString(start + 2, to));
+				}
+			} else if (map != null) {
+				for (int i = start; i < to - 1; ++i) {
+					if (buffer.get(i) == ':' && buffer.get(i + 1) == ' ') {
+						map.put(toString(start, i), toString(i + 2, to));
+						break;
+					}
+				}
+			}
+			start = lineEnd + 1;
+		}
+		buffer.position(end);
+		readCRLF();
+	}
+
+	/**
+	 * read a body whose length was announced by the server, followed by CRLF, and write it to a stream a buffer at a
+	 * time
+	 */
+	void readBody(int length, OutputStream sink) {
+		readBody(length, sink, null, null);
+	}
+
+	/**
+	 * read a body whose length was announced by the server, followed by CRLF, and write it to a channel a buffer at a
+	 * time
+	 */
+	void readBody(int length, WritableByteChannel sink) {
+		readBody(length, null, sink, null);
+	}
+
+	/**
+	 * read a body whose length was announced by the server, followed by CRLF, into the remaining space of a buffer;
+	 * whatever does not fit is read and discarded, so the connection stays in step
+	 */
+	void readBody(int length, ByteBuffer sink) {
+		readBody(length, null, null, sink);
+	}
+
+	private void readBody(int length, OutputStream os, WritableByteChannel wc, ByteBuffer bb) {
+		int left = length;
+		try {
+			while (left > 0) {
+				if (!buffer.hasRemaining()) {
+					if (bb != null && bb.remaining() >= left) {
+						// the rest fits the sink: read it there directly
+						readFully(bb, left);
+						break;
+					}
+					fill();
+				}
+				int start = buffer.position();
+				int limit = buffer.limit();
+				int n = Math.min(left, buffer.remaining());
+				if (os != null && !buffer.hasArray()) {
+					// a direct buffer has to pass through the heap on its way to a stream
+					if (scratch == null) {
+						scratch = new byte[DEFAULT_BUFFER_SIZE];
+					}
+					n = Math.min(n, scratch.length);
+				}
+				buffer.limit(start + n);
+				if (os != null) {
+					if (buffer.hasArray()) {
+						os.write(buffer.array(), buffer.arrayOffset() + start, n);
+					} else {
+						buffer.get(scratch, 0, n);
+						os.write(scratch, 0, n);
+					}
+				} else if (wc != null) {
+					while (buffer.hasRemaining()) {
+						wc.write(buffer);
+					}
+				} else {
+					// copy what fits, skip the rest
+					buffer.limit(start + Math.min(n, bb.remaining()));
+					bb.put(buffer);
+				}
+				buffer.limit(limit);
+				buffer.position(start + n);
+				left -= n;
+			}
+		} catch (IOException e) {
+			throw new BeanstalkException(e.getMessage());
+		}
+		readCRLF();
+	}
+
+	/**
+	 * read length bytes from the connection straight into a buffer, bypassing the read buffer
+	 */
+	private void readFully(ByteBuffer sink, int length) throws IOException {
+		int limit = sink.limit();
+		sink.limit(sink.position() + length);
+		try {
+			while (sink.hasRemaining()) {
+				int readLength;
+				if (channel != null) {
+					readLength = channel.read(sink);
+				} else if (sink.hasArray()) {
+					readLength = is.read(sink.array(), sink.arrayOffset() + sink.position(), sink.remaining());
+					if (readLength > 0) {
+						sink.position(sink.position() + readLength);
+					}
+				} else {
+					// a direct sink on a stream connection: go through the read buffer
+					fill();
+					readLength = Math.min(buffer.remaining(), sink.remaining());
+					int bufferLimit = buffer.limit();
+					buffer.limit(buffer.position() + readLength);
+					sink.put(buffer);
+					buffer.limit(bufferLimit);
+				}
+				if (readLength == -1) {
+					throw new BeanstalkException(String.format(
+							"The end of InputStream is reached - %d bytes expected, %d bytes read", length,
+							length - sink.remaining()));
+				}
+			}
+		} finally {
+			sink.limit(limit);
+		}
+	}
+
+	private void readCRLF() {
+		while (buffer.remaining() < 2) {
+			fill();
+		}
+		if (buffer.get() != '\r' || buffer.get() != '\n') {
+			throw new BeanstalkException("The end of InputStream is reached - End of line expected, but not found");
+		}
+	}
+
+	/**
+	 * @return the number of bytes read from the connection but not yet consumed
+	 */
+	int available() {
+		return buffer.remaining();
+	}
+
+	private int indexOfCRLF(int from) {
+		int limit = buffer.limit() - 1;
+		for (int i = from; i < limit; ++i) {
+			if (buffer.get(i) == '\r' && buffer.get(i + 1) == '\n') {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * move unread bytes to the front of the buffer, growing it if it is full, then read whatever the connection has
+	 */
+	private void fill() {
+		if (buffer.position() == 0 && buffer.limit() == buffer.capacity()) {
+			int capacity = buffer.capacity() * 2;
+			ByteBuffer bigger = buffer.isDirect() ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+			bigger.put(buffer);
+			buffer = bigger;
+		} else {
+			buffer.compact();
+		}
+
+		try {
+			if (channel != null) {
+				if (channel.read(buffer) == -1) {
+					throw new BeanstalkException("The end of InputStream is reached");
+				}
+			} else {
+				int readLength = is.read(buffer.array(), buffer.position(), buffer.remaining());
+				if (readLength == -1) {
+					throw new BeanstalkException("The end of InputStream is reached");
+				}
+				buffer.position(buffer.position() + readLength);
+			}
+		} catch (IOException e) {
+			throw new BeanstalkException(e.getMessage());
+		} finally {
+			buffer.flip();
+		}
+	}
+}
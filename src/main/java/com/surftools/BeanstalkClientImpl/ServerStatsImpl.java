@@ -0,0 +1,354 @@
+package com.surftools.BeanstalkClientImpl;
+
+/*
+
+ Copyright 2009-2020 Robert Tykulsker
+
+ This file is part of JavaBeanstalkCLient.
+
+ JavaBeanstalkCLient is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version, or alternatively, the BSD license supplied
+ with this project in the file "BSD-LICENSE".
+
+ JavaBeanstalkCLient is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with JavaBeanstalkCLient.  If not, see <http://www.gnu.org/licenses/>.
+
+ */
+
+import com.surftools.BeanstalkClient.ServerStats;
+
+/**
+ * the typed reply to stats
+ */
+public class ServerStatsImpl extends StatsImpl implements ServerStats {
+	private static final int CURRENT_JOBS_URGENT = 0;
+	private static final int CURRENT_JOBS_READY = 1;
+	private static final int CURRENT_JOBS_RESERVED = 2;
+	private static final int CURRENT_JOBS_DELAYED = 3;
+	private static final int CURRENT_JOBS_BURIED = 4;
+	private static final int CMD_PUT = 5;
+	private static final int CMD_PEEK = 6;
+	private static final int CMD_PEEK_READY = 7;
+	private static final int CMD_PEEK_DELAYED = 8;
+	private static final int CMD_PEEK_BURIED = 9;
+	private static final int CMD_RESERVE = 10;
+	private static final int CMD_RESERVE_WITH_TIMEOUT = 11;
+	private static final int CMD_DELETE = 12;
+	private static final int CMD_RELEASE = 13;
+	private static final int CMD_USE = 14;
+	private static final int CMD_WATCH = 15;
+	private static final int CMD_IGNORE = 16;
+	private static final int CMD_BURY = 17;
+	private static final int CMD_KICK = 18;
+	private static final int CMD_TOUCH = 19;
+	private static final int CMD_STATS = 20;
+	private static final int CMD_STATS_JOB = 21;
+	private static final int CMD_STATS_TUBE = 22;
+	private static final int CMD_LIST_TUBES = 23;
+	private static final int CMD_LIST_TUBE_USED = 24;
+	private static final int CMD_LIST_TUBES_WATCHED = 25;
+	private static final int CMD_PAUSE_TUBE = 26;
+	private static final int JOB_TIMEOUTS = 27;
+	private static final int TOTAL_JOBS = 28;
+	private static final int MAX_JOB_SIZE = 29;
+	private static final int CURRENT_TUBES = 30;
+	private static final int CURRENT_CONNECTIONS = 31;
+	private static final int CURRENT_PRODUCERS = 32;
+	private static final int CURRENT_WORKERS = 33;
+	private static final int CURRENT_WAITING = 34;
+	private static final int TOTAL_CONNECTIONS = 35;
+	private static final int PID = 36;
+	private static final int VERSION = 37;
+	private static final int RUSAGE_UTIME = 38;
+	private static final int RUSAGE_STIME = 39;
+	private static final int UPTIME = 40;
+	private static final int BINLOG_OLDEST_INDEX = 41;
+	private static final int BINLOG_CURRENT_INDEX = 42;
+	private static final int BINLOG_RECORDS_MIGRATED = 43;
+	private static final int BINLOG_RECORDS_WRITTEN = 44;
+	private static final int BINLOG_MAX_SIZE = 45;
+	private static final int DRAINING = 46;
+	private static final int ID = 47;
+	private static final int HOSTNAME = 48;
+	private static final int OS = 49;
+	private static final int PLATFORM = 50;
+
+	private static final Schema SCHEMA = new Schema(new String[] {
+			"current-jobs-urgent", "current-jobs-ready", "current-jobs-reserved", "current-jobs-delayed",
+			"current-jobs-buried", "cmd-put", "cmd-peek", "cmd-peek-ready", "cmd-peek-delayed",
+			"cmd-peek-buried", "cmd-reserve", "cmd-reserve-with-timeout", "cmd-delete", "cmd-release",
+			"cmd-use", "cmd-watch", "cmd-ignore", "cmd-bury", "cmd-kick", "cmd-touch", "cmd-stats",
+			"cmd-stats-job", "cmd-stats-tube", "cmd-list-tubes", "cmd-list-tube-used",
+			"cmd-list-tubes-watched", "cmd-pause-tube", "job-timeouts", "total-jobs", "max-job-size",
+			"current-tubes", "current-connections", "current-producers", "current-workers", "current-waiting",
+			"total-connections", "pid", "version", "rusage-utime", "rusage-stime", "uptime",
+			"binlog-oldest-index", "binlog-current-index", "binlog-records-migrated", "binlog-records-written",
+			"binlog-max-size", "draining", "id", "hostname", "os", "platform" },
+			"NNNNNNNNNNNNNNNNNNNNNNNNNNNNNNNNNNNNNSDDNNNNNNBSSSS");
+
+	ServerStatsImpl() {
+		super(SCHEMA);
+	}
+
+	@Override
+	public long getCurrentJobsUrgent() {
+		return number(CURRENT_JOBS_URGENT);
+	}
+
+	@Override
+	public long getCurrentJobsReady() {
+		return number(CURRENT_JOBS_READY);
+	}
+
+	@Override
+	public long getCurrentJobsReserved() {
+		return number(CURRENT_JOBS_RESERVED);
+	}
+
+	@Override
+	public long getCurrentJobsDelayed() {
+		return number(CURRENT_JOBS_DELAYED);
+	}
+
+	@Override
+	public long getCurrentJobsBuried() {
+		return number(CURRENT_JOBS_BURIED);
+	}
+
+	@Override
+	public long getCmdPut() {
+		return number(CMD_PUT);
+	}
+
+	@Override
+	public long getCmdPeek() {
+		return number(CMD_PEEK);
+	}
+
+	@Override
+	public long getCmdPeekReady() {
+		return number(CMD_PEEK_READY);
+	}
+
+	@Override
+	public long getCmdPeekDelayed() {
+		return number(CMD_PEEK_DELAYED);
+	}
+
+	@Override
+	public long getCmdPeekBuried() {
+		return number(CMD_PEEK_BURIED);
+	}
+
+	@Override
+	public long getCmdReserve() {
+		return number(CMD_RESERVE);
+	}
+
+	@Override
+	public long getCmdReserveWithTimeout() {
+		return number(CMD_RESERVE_WITH_TIMEOUT);
+	}
+
+	@Override
+	public long getCmdDelete() {
+		return number(CMD_DELETE);
+	}
+
+	@Override
+	public long getCmdRelease() {
+		return number(CMD_RELEASE);
+	}
+
+	@Override
+	public long getCmdUse() {
+		return number(CMD_USE);
+	}
+
+	@Override
+	public long getCmdWatch() {
+		return number(CMD_WATCH);
+	}
+
+	@Override
+	public long getCmdIgnore() {
+		return number(CMD_IGNORE);
+	}
+
+	@Override
+	public long getCmdBury() {
+		return number(CMD_BURY);
+	}
+
+	@Override
+	public long getCmdKick() {
+		return number(CMD_KICK);
+	}
+
+	@Override
+	public long getCmdTouch() {
+		return number(CMD_TOUCH);
+	}
+
+	@Override
+	public long getCmdStats() {
+		return number(CMD_STATS);
+	}
+
+	@Override
+	public long getCmdStatsJob() {
+		return number(CMD_STATS_JOB);
+	}
+
+	@Override
+	public long getCmdStatsTube() {
+		return number(CMD_STATS_TUBE);
+	}
+
+	@Override
+	public long getCmdListTubes() {
+		return number(CMD_LIST_TUBES);
+	}
+
+	@Override
+	public long getCmdListTubeUsed() {
+		return number(CMD_LIST_TUBE_USED);
+	}
+
+	@Override
+	public long getCmdListTubesWatched() {
+		return number(CMD_LIST_TUBES_WATCHED);
+	}
+
+	@Override
+	public long getCmdPauseTube() {
+		return number(CMD_PAUSE_TUBE);
+	}
+
+	@Override
+	public long getJobTimeouts() {
+		return number(JOB_TIMEOUTS);
+	}
+
+	@Override
+	public long getTotalJobs() {
+		return number(TOTAL_JOBS);
+	}
+
+	@Override
+	public long getMaxJobSize() {
+		return number(MAX_JOB_SIZE);
+	}
+
+	@Override
+	public long getCurrentTubes() {
+		return number(CURRENT_TUBES);
+	}
+
+	@Override
+	public long getCurrentConnections() {
+		return number(CURRENT_CONNECTIONS);
+	}
+
+	@Override
+	public long getCurrentProducers() {
+		return number(CURRENT_PRODUCERS);
+	}
+
+	@Override
+	public long getCurrentWorkers() {
+		return number(CURRENT_WORKERS);
+	}
+
+	@Override
+	public long getCurrentWaiting() {
+		return number(CURRENT_WAITING);
+	}
+
+	@Override
+	public long getTotalConnections() {
+		return number(TOTAL_CONNECTIONS);
+	}
+
+	@Override
+	public long getPid() {
+		return number(PID);
+	}
+
+	@Override
+	public String getVersion() {
+		return text(VERSION);
+	}
+
+	@Override
+	public double getRusageUtime() {
+		return decimal(RUSAGE_UTIME);
+	}
+
+	@Override
+	public double getRusageStime() {
+		return decimal(RUSAGE_STIME);
+	}
+
+	@Override
+	public long getUptime() {
+		return number(UPTIME);
+	}
+
+	@Override
+	public long getBinlogOldestIndex() {
+		return number(BINLOG_OLDEST_INDEX);
+	}
+
+	@Override
+	public long getBinlogCurrentIndex() {
+		return number(BINLOG_CURRENT_INDEX);
+	}
+
+	@Override
+	public long getBinlogRecordsMigrated() {
+		return number(BINLOG_RECORDS_MIGRATED);
+	}
+
+	@Override
+	public long getBinlogRecordsWritten() {
+		return number(BINLOG_RECORDS_WRITTEN);
+	}
+
+	@Override
+	public long getBinlogMaxSize() {
+		return number(BINLOG_MAX_SIZE);
+	}
+
+	@Override
+	public boolean isDraining() {
+		return flag(DRAINING);
+	}
+
+	@Override
+	public String getId() {
+		return text(ID);
+	}
+
+	@Override
+	public String getHostname() {
+		return text(HOSTNAME);
+	}
+
+	@Override
+	public String getOs() {
+		return text(OS);
+	}
+
+	@Override
+	public String getPlatform() {
+		return text(PLATFORM);
+	}
+}
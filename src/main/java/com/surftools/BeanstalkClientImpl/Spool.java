@@ -0,0 +1,442 @@
+package com.surftools.BeanstalkClientImpl;
+
+/*
+
+ Copyright 2009-2020 Robert Tykulsker
+
+ This file is part of JavaBeanstalkCLient.
+
+ JavaBeanstalkCLient is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version, or alternatively, the BSD license supplied
+ with this project in the file "BSD-LICENSE".
+
+ JavaBeanstalkCLient is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with JavaBeanstalkCLient.  If not, see <http://www.gnu.org/licenses/>.
+
+ */
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+import com.surftools.BeanstalkClient.BeanstalkException;
+import com.surftools.BeanstalkClient.PutBatch;
+
+/**
+ * a durable, append-only log of puts on local disk, kept as a series of memory-mapped segment files in one
+ * directory.
+ * 
+ * Each record is its length, a CRC-32 of the rest, then the job's priority, delay, time to run and body. A record is
+ * written whole before its length, so a crash leaves at worst a torn last record, which fails its checksum and is
+ * dropped when the spool is opened again. A record that does not fit the current segment starts the next one.
+ * 
+ * Records are read back in order with {@link #peek(PutBatch, int)} and acknowledged with {@link #commit(int)}, which
+ * records the read position in a checkpoint file and deletes the segments it has moved past. Records peeked but not
+ * committed before a crash are read again, so delivery is at least once.
+ * 
+ * Writes reach the page cache at once and survive the process dying; to survive the machine going down too, call
+ * {@link #force()} or turn on {@link #setSyncEveryAppend(boolean)}.
+ * 
+ */
+public class Spool implements AutoCloseable {
+	static final int DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+	// length and checksum
+	static final int RECORD_HEADER = 4 + 4;
+	// priority, delay and time to run
+	static final int JOB_HEADER = 8 + 4 + 4;
+	static final String SEGMENT_SUFFIX = ".spool";
+	static final String CHECKPOINT = "checkpoint";
+
+	private final Path directory;
+	private final int segmentSize;
+	private final TreeMap<Long, MappedByteBuffer> segments = new TreeMap<Long, MappedByteBuffer>();
+	private final FileChannel checkpoint;
+	private final ByteBuffer checkpointBuffer = ByteBuffer.allocate(16);
+	private final CRC32 crc = new CRC32();
+
+	private long writeSegment;
+	private int writeOffset;
+	private long readSegment;
+	private int readOffset;
+	// where each record handed out by the last peek ends
+	private long[] peekSegments = new long[0];
+	private int[] peekOffsets = new int[0];
+	private int peeked = 0;
+
+	private long pendingCount = 0;
+	private long corruptCount = 0;
+	private boolean syncEveryAppend = false;
+	private boolean closed = false;
+
+	public Spool(Path directory) {
+		this(directory, DEFAULT_SEGMENT_SIZE);
+	}
+
+	/**
+	 * open the spool in directory, creating it if needed, and recover whatever an earlier run left there
+	 * 
+	 * @param segmentSize
+	 *            the size of a new segment file, which bounds the size of a job
+	 */
+	public Spool(Path directory, int segmentSize) {
+		if (directory == null) {
+			throw new BeanstalkException("null directory");
+		}
+		if (segmentSize < RECORD_HEADER + JOB_HEADER) {
+			throw new BeanstalkException("invalid segmentSize");
+		}
+		this.directory = directory;
+		this.segmentSize = segmentSize;
+		try {
+			Files.createDirectories(directory);
+			checkpoint = FileChannel.open(directory.resolve(CHECKPOINT), StandardOpenOption.CREATE,
+					StandardOpenOption.READ, StandardOpenOption.WRITE);
+			try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+				for (Path path : stream) {
+					String name = path.getFileName().toString();
+					try {
+						long index = Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+						segments.put(index, map(path));
+					} catch (NumberFormatException e) {
+						// not one of ours
+					}
+				}
+			}
+		} catch (IOException e) {
+			throw new BeanstalkException(e.getMessage());
+		}
+		recover();
+	}
+
+	/**
+	 * find the read position from the checkpoint, count the records after it and find the end of the last segment
+	 */
+	private void recover() {
+		if (segments.isEmpty()) {
+			writeSegment = 1;
+			writeOffset = 0;
+			segments.put(writeSegment, newSegment(writeSegment));
+			readSegment = writeSegment;
+			readOffset = 0;
+			return;
+		}
+
+		readSegment = segments.firstKey();
+		readOffset = 0;
+		checkpointBuffer.clear();
+		try {
+			if (checkpoint.read(checkpointBuffer, 0) == checkpointBuffer.capacity()) {
+				long segment = checkpointBuffer.getLong(0);
+				int offset = checkpointBuffer.getInt(8);
+				crc.reset();
+				crc.update(checkpointBuffer.array(), 0, 12);
+				if ((int) crc.getValue() == checkpointBuffer.getInt(12) && segments.containsKey(segment)) {
+					readSegment = segment;
+					readOffset = offset;
+				}
+			}
+		} catch (IOException e) {
+			throw new BeanstalkException(e.getMessage());
+		}
+		// a crash between a checkpoint and its compaction leaves segments behind
+		compact();
+
+		for (Map.Entry<Long, MappedByteBuffer> entry : segments.entrySet()) {
+			MappedByteBuffer segment = entry.getValue();
+			int offset = (entry.getKey() == readSegment) ? readOffset : 0;
+			int length;
+			while ((length = recordLength(segment, offset)) >= 0) {
+				++pendingCount;
+				offset += RECORD_HEADER + length;
+			}
+			boolean last = entry.getKey().equals(segments.lastKey());
+			if (offset + 4 <= segment.capacity() && segment.getInt(offset) != 0) {
+				// a torn or damaged record: the rest of this segment cannot be trusted
+				++corruptCount;
+				if (last) {
+					for (int i = offset; i < segment.capacity(); ++i) {
+						segment.put(i, (byte) 0);
+					}
+				}
+			}
+			if (last) {
+				writeSegment = entry.getKey();
+				writeOffset = offset;
+			}
+		}
+	}
+
+	/**
+	 * @return the length of the valid record at offset, or -1 if there is none
+	 */
+	private int recordLength(MappedByteBuffer segment, int offset) {
+		if (offset + RECORD_HEADER > segment.capacity()) {
+			return -1;
+		}
+		int length = segment.getInt(offset);
+		if (length < JOB_HEADER || length > segment.capacity() - offset - RECORD_HEADER) {
+			return -1;
+		}
+		ByteBuffer payload = segment.duplicate();
+		payload.limit(offset + RECORD_HEADER + length).position(offset + RECORD_HEADER);
+		crc.reset();
+		crc.update(payload);
+		return ((int) crc.getValue() == segment.getInt(offset + 4)) ? length : -1;
+	}
+
+	/**
+	 * append a put; see {@link com.surftools.BeanstalkClient.Client#put(long, int, int, byte[])} for the meaning of
+	 * the arguments
+	 */
+	public synchronized void append(long priority, int delaySeconds, int timeToRun, byte[] data) {
+		checkOpen();
+		if (data == null) {
+			throw new BeanstalkException("null data");
+		}
+		int length = JOB_HEADER + data.length;
+		if (data.length > segmentSize - RECORD_HEADER - JOB_HEADER) {
+			throw new BeanstalkException("job too big for the spool");
+		}
+		MappedByteBuffer segment = segments.get(writeSegment);
+		if (writeOffset + RECORD_HEADER + length > segment.capacity()) {
+			segment = roll();
+		}
+
+		int payload = writeOffset + RECORD_HEADER;
+		segment.putLong(payload, priority);
+		segment.putInt(payload + 8, delaySeconds);
+		segment.putInt(payload + 12, timeToRun);
+		ByteBuffer body = segment.duplicate();
+		body.position(payload + JOB_HEADER);
+		body.put(data);
+		body.limit(payload + length).position(payload);
+		crc.reset();
+		crc.update(body);
+		segment.putInt(writeOffset + 4, (int) crc.getValue());
+		// the length goes last: until it is there, the record does not exist
+		segment.putInt(writeOffset, length);
+		writeOffset += RECORD_HEADER + length;
+		++pendingCount;
+
+		if (syncEveryAppend) {
+			segment.force();
+		}
+	}
+
+	private MappedByteBuffer roll() {
+		segments.get(writeSegment).force();
+		++writeSegment;
+		writeOffset = 0;
+		MappedByteBuffer segment = newSegment(writeSegment);
+		segments.put(writeSegment, segment);
+		return segment;
+	}
+
+	/**
+	 * copy up to max of the oldest records into batch, without removing them
+	 * 
+	 * @param batch
+	 *            cleared, then filled in order
+	 * @return the number of records copied
+	 */
+	public int peek(PutBatch batch, int max) {
+		return peek(batch, max, null);
+	}
+
+	/**
+	 * as {@link #peek(PutBatch, int)}, naming tubeName on every entry of the batch
+	 */
+	public synchronized int peek(PutBatch batch, int max, String tubeName) {
+		checkOpen();
+		batch.clear();
+		if (peekOffsets.length < max) {
+			peekSegments = new long[max];
+			peekOffsets = new int[max];
+		}
+		long segmentIndex = readSegment;
+		int offset = readOffset;
+		peeked = 0;
+		while (peeked < max) {
+			MappedByteBuffer segment = segments.get(segmentIndex);
+			int length = recordLength(segment, offset);
+			if (length < 0) {
+				Long next = segments.higherKey(segmentIndex);
+				if (next == null) {
+					break;
+				}
+				segmentIndex = next;
+				offset = 0;
+				continue;
+			}
+			int payload = offset + RECORD_HEADER;
+			byte[] data = new byte[length - JOB_HEADER];
+			ByteBuffer body = segment.duplicate();
+			body.position(payload + JOB_HEADER);
+			body.get(data);
+			batch.add(tubeName, segment.getLong(payload), segment.getInt(payload + 8), segment.getInt(payload + 12),
+					data);
+
+			offset = payload + length;
+			peekSegments[peeked] = segmentIndex;
+			peekOffsets[peeked] = offset;
+			++peeked;
+		}
+		return peeked;
+	}
+
+	/**
+	 * remove the first count records handed out by the last peek; segments left wholly behind are deleted
+	 */
+	public synchronized void commit(int count) {
+		checkOpen();
+		if (count < 0 || count > peeked) {
+			throw new BeanstalkException("invalid count");
+		}
+		if (count == 0) {
+			return;
+		}
+		readSegment = peekSegments[count - 1];
+		readOffset = peekOffsets[count - 1];
+		pendingCount -= count;
+		peeked = 0;
+
+		checkpointBuffer.clear();
+		checkpointBuffer.putLong(readSegment).putInt(readOffset);
+		crc.reset();
+		crc.update(checkpointBuffer.array(), 0, 12);
+		checkpointBuffer.putInt((int) crc.getValue()).flip();
+		try {
+			checkpoint.write(checkpointBuffer, 0);
+			if (syncEveryAppend) {
+				checkpoint.force(false);
+			}
+		} catch (IOException e) {
+			throw new BeanstalkException(e.getMessage());
+		}
+		compact();
+	}
+
+	/**
+	 * delete the segments before the read position
+	 */
+	private void compact() {
+		Iterator<Long> iterator = segments.headMap(readSegment).keySet().iterator();
+		while (iterator.hasNext()) {
+			long index = iterator.next();
+			iterator.remove();
+			try {
+				Files.deleteIfExists(segmentPath(index));
+			} catch (IOException e) {
+				throw new BeanstalkException(e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * write everything appended and committed so far through to the disk
+	 */
+	public synchronized void force() {
+		checkOpen();
+		segments.get(writeSegment).force();
+		try {
+			checkpoint.force(false);
+		} catch (IOException e) {
+			throw new BeanstalkException(e.getMessage());
+		}
+	}
+
+	/**
+	 * @param syncEveryAppend
+	 *            if true, every append and commit is forced to the disk before it returns
+	 */
+	public synchronized void setSyncEveryAppend(boolean syncEveryAppend) {
+		this.syncEveryAppend = syncEveryAppend;
+	}
+
+	public synchronized boolean isSyncEveryAppend() {
+		return syncEveryAppend;
+	}
+
+	/**
+	 * @return the number of records appended and not yet committed
+	 */
+	public synchronized long getPendingCount() {
+		return pendingCount;
+	}
+
+	public synchronized boolean isEmpty() {
+		return pendingCount == 0;
+	}
+
+	public synchronized int getSegmentCount() {
+		return segments.size();
+	}
+
+	/**
+	 * @return the number of damaged records found when the spool was opened; each cost the rest of its segment
+	 */
+	public synchronized long getCorruptCount() {
+		return corruptCount;
+	}
+
+	public Path getDirectory() {
+		return directory;
+	}
+
+	@Override
+	public synchronized void close() {
+		if (closed) {
+			return;
+		}
+		force();
+		closed = true;
+		segments.clear();
+		try {
+			checkpoint.close();
+		} catch (IOException e) {
+			throw new BeanstalkException(e.getMessage());
+		}
+	}
+
+	private void checkOpen() {
+		if (closed) {
+			throw new BeanstalkException("spool closed");
+		}
+	}
+
+	private Path segmentPath(long index) {
+		return directory.resolve(String.format("%019d%s", index, SEGMENT_SUFFIX));
+	}
+
+	private MappedByteBuffer newSegment(long index) {
+		try {
+			return map(segmentPath(index));
+		} catch (IOException e) {
+			throw new BeanstalkException(e.getMessage());
+		}
+	}
+
+	private MappedByteBuffer map(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE)) {
+			long size = channel.size();
+			return channel.map(FileChannel.MapMode.READ_WRITE, 0, (size > 0) ? size : segmentSize);
+		}
+	}
+}
@@ -0,0 +1,307 @@
+package com.surftools.BeanstalkClientImpl;
+
+/*
+
+ Copyright 2009-2020 Robert Tykulsker
+
+ This file is part of JavaBeanstalkCLient.
+
+ JavaBeanstalkCLient is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version, or alternatively, the BSD license supplied
+ with this project in the file "BSD-LICENSE".
+
+ JavaBeanstalkCLient is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with JavaBeanstalkCLient.  If not, see <http://www.gnu.org/licenses/>.
+
+ */
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.surftools.BeanstalkClient.BatchResult;
+import com.surftools.BeanstalkClient.BeanstalkException;
+import com.surftools.BeanstalkClient.Client;
+import com.surftools.BeanstalkClient.PutBatch;
+
+/**
+ * puts to one tube through a {@link Spool}, so that a slow or unreachable server costs the caller a local disk write
+ * rather than a failed or stalled put. A replayer thread sends what is spooled in pipelined
+ * {@link Client#putAll(PutBatch)} batches and commits each batch once the server has answered it; while the server
+ * is down it tries again every retryMillis.
+ * 
+ * Each tube gets its own SpoolingProducer and Spool, so the directory, segment size, syncing and {@link Mode} are set
+ * per tube.
+ * 
+ * Every put names tubeName, whatever tube the client's connection was left on, so the client may be per-thread,
+ * shared or pooled; a per-thread client reconnects on the replayer's next call after the server comes back.
+ * 
+ * The replayer drops a spooled job only when the server answers JOB_TOO_BIG; a BURIED job was delivered. DRAINING,
+ * OUT_OF_MEMORY and any other answer are taken as passing: that job and the ones after it stay spooled and are sent
+ * again after retryMillis.
+ * 
+ */
+public class SpoolingProducer implements AutoCloseable {
+	static final int DEFAULT_BATCH_SIZE = 128;
+	static final long DEFAULT_RETRY_MILLIS = 1000;
+	static final long POLL_MILLIS = 20;
+
+	/**
+	 * when a put goes through the spool
+	 */
+	public enum Mode {
+		/** every put is spooled and sent by the replayer */
+		ALWAYS,
+		/** a put is sent at once, and only spooled if that fails or if earlier puts are still spooled */
+		ON_FAILURE
+	}
+
+	private final Client client;
+	private final String tubeName;
+	private final Spool spool;
+	private final Mode mode;
+	private final Thread replayer;
+
+	private volatile int batchSize = DEFAULT_BATCH_SIZE;
+	private volatile long retryMillis = DEFAULT_RETRY_MILLIS;
+	private volatile boolean closed = false;
+	private volatile String lastError = null;
+
+	private final LongAdder direct = new LongAdder();
+	private final LongAdder spooled = new LongAdder();
+	private final LongAdder replayed = new LongAdder();
+	private final LongAdder rejected = new LongAdder();
+
+	public SpoolingProducer(Client client, String tubeName, Spool spool, Mode mode) {
+		if (client == null) {
+			throw new BeanstalkException("null client");
+		}
+		if (tubeName == null) {
+			throw new BeanstalkException("null tubeName");
+		}
+		if (spool == null) {
+			throw new BeanstalkException("null spool");
+		}
+		if (mode == null) {
+			throw new BeanstalkException("null mode");
+		}
+		this.client = client;
+		this.tubeName = tubeName;
+		this.spool = spool;
+		this.mode = mode;
+		replayer = new Thread(this::replay, "beanstalk-spool-" + tubeName);
+		replayer.setDaemon(true);
+	}
+
+	/**
+	 * @param batchSize
+	 *            the most records sent in one batch
+	 */
+	public void setBatchSize(int batchSize) {
+		if (batchSize < 1) {
+			throw new BeanstalkException("invalid batchSize");
+		}
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * @param retryMillis
+	 *            how long the replayer waits after a failed batch
+	 */
+	public void setRetryMillis(long retryMillis) {
+		if (retryMillis < 0) {
+			throw new BeanstalkException("invalid retryMillis");
+		}
+		this.retryMillis = retryMillis;
+	}
+
+	/**
+	 * start the replayer; anything left in the spool by an earlier run is sent first
+	 */
+	public void start() {
+		replayer.start();
+	}
+
+	/**
+	 * see {@link Client#put(long, int, int, byte[])} for the meaning of the arguments. The arguments are checked here,
+	 * so a job the server would reject as malformed is never spooled.
+	 * 
+	 * @return the job id, or -1 if the job was spooled
+	 */
+	public long put(long priority, int delaySeconds, int timeToRun, byte[] data) {
+		if (data == null) {
+			throw new BeanstalkException("null data");
+		}
+		if (priority < 0) {
+			throw new BeanstalkException("invalid priority");
+		}
+		if (delaySeconds < 0) {
+			throw new BeanstalkException("invalid delaySeconds");
+		}
+		if (timeToRun < 0) {
+			throw new BeanstalkException("invalid timeToRun");
+		}
+		if (closed) {
+			throw new BeanstalkException("producer closed");
+		}
+
+		// once anything is spooled, later puts queue behind it to keep their order
+		if (mode == Mode.ON_FAILURE && spool.isEmpty()) {
+			BatchResult result = null;
+			try {
+				result = client.putAll(new PutBatch(1).add(tubeName, priority, delaySeconds, timeToRun, data));
+			} catch (BeanstalkException e) {
+				lastError = e.getMessage();
+			}
+			if (result != null) {
+				Status status = Status.forName(result.getStatus(0));
+				if (status == Status.JOB_TOO_BIG) {
+					// spooling would not help
+					throw new BeanstalkException(result.getStatus(0));
+				}
+				if (result.isOk(0) || status == Status.BURIED) {
+					direct.increment();
+					return result.getJobId(0);
+				}
+				lastError = result.getStatus(0);
+			}
+		}
+		spool.append(priority, delaySeconds, timeToRun, data);
+		spooled.increment();
+		return -1;
+	}
+
+	private void replay() {
+		PutBatch batch = new PutBatch(batchSize);
+		while (!closed) {
+			int count;
+			try {
+				count = spool.peek(batch, batchSize, tubeName);
+			} catch (BeanstalkException e) {
+				// the spool was closed
+				return;
+			}
+			if (count == 0) {
+				sleep(POLL_MILLIS);
+				continue;
+			}
+
+			BatchResult result;
+			try {
+				result = client.putAll(batch);
+			} catch (BeanstalkException e) {
+				lastError = e.getMessage();
+				sleep(retryMillis);
+				continue;
+			}
+			// commit up to the first job the server could not take for now
+			int delivered = 0;
+			while (delivered < count) {
+				Status status = Status.forName(result.getStatus(delivered));
+				if (result.isOk(delivered) || status == Status.BURIED) {
+					replayed.increment();
+				} else if (status == Status.JOB_TOO_BIG) {
+					// sending it again would not help
+					rejected.increment();
+					lastError = result.getStatus(delivered);
+				} else {
+					// DRAINING, OUT_OF_MEMORY, INTERNAL_ERROR...
+					lastError = result.getStatus(delivered);
+					break;
+				}
+				++delivered;
+			}
+			try {
+				spool.commit(delivered);
+			} catch (BeanstalkException e) {
+				return;
+			}
+			if (delivered < count) {
+				sleep(retryMillis);
+			}
+		}
+	}
+
+	private void sleep(long millis) {
+		try {
+			TimeUnit.MILLISECONDS.sleep(millis);
+		} catch (InterruptedException e) {
+			closed = true;
+		}
+	}
+
+	/**
+	 * stop taking puts and stop the replayer; whatever is still spooled stays on disk for the next run
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		replayer.interrupt();
+		if (replayer.isAlive()) {
+			try {
+				replayer.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		spool.close();
+	}
+
+	/**
+	 * wait until the spool is empty
+	 * 
+	 * @return false if it still was not empty after timeoutMillis
+	 */
+	public boolean awaitDrained(long timeoutMillis) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		while (!spool.isEmpty()) {
+			if (System.currentTimeMillis() >= deadline) {
+				return false;
+			}
+			TimeUnit.MILLISECONDS.sleep(POLL_MILLIS);
+		}
+		return true;
+	}
+
+	public Spool getSpool() {
+		return spool;
+	}
+
+	/**
+	 * @return the number of puts sent straight to the server
+	 */
+	public long getDirectCount() {
+		return direct.sum();
+	}
+
+	public long getSpooledCount() {
+		return spooled.sum();
+	}
+
+	/**
+	 * @return the number of spooled jobs the server has inserted
+	 */
+	public long getReplayedCount() {
+		return replayed.sum();
+	}
+
+	/**
+	 * @return the number of spooled jobs the server refused; they are not sent again
+	 */
+	public long getRejectedCount() {
+		return rejected.sum();
+	}
+
+	/**
+	 * @return the message of the last failure, or null
+	 */
+	public String getLastError() {
+		return lastError;
+	}
+}
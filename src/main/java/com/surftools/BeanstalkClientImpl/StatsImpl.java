@@ -0,0 +1,261 @@
+package com.surftools.BeanstalkClientImpl;
+
+/*
+
+ Copyright 2009-2020 Robert Tykulsker
+
+ This file is part of JavaBeanstalkCLient.
+
+ JavaBeanstalkCLient is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version, or alternatively, the BSD license supplied
+ with this project in the file "BSD-LICENSE".
+
+ JavaBeanstalkCLient is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with JavaBeanstalkCLient.  If not, see <http://www.gnu.org/licenses/>.
+
+ */
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * a stats reply parsed straight from its bytes. Each known key has a slot: numbers, flags and decimals are kept in a
+ * long[], so the only objects made are the few text values and, for keys this client does not know, the entries of
+ * the overflow map.
+ * 
+ */
+abstract class StatsImpl {
+
+	/**
+	 * the known keys of one kind of stats, and the kind of each: N for a number, D for a decimal, S for text, B for a
+	 * flag. A key's bytes are found in an open-addressing table, without making a String.
+	 */
+	static final class Schema {
+		final byte[][] keys;
+		final String kinds;
+		private final int[] table;
+		private final int mask;
+
+		Schema(String[] keys, String kinds) {
+			if (keys.length != kinds.length()) {
+				throw new IllegalArgumentException("a kind for every key");
+			}
+			this.keys = new byte[keys.length][];
+			this.kinds = kinds;
+			int size = Integer.highestOneBit(keys.length * 4);
+			table = new int[size];
+			mask = size - 1;
+			for (int i = 0; i < keys.length; ++i) {
+				this.keys[i] = keys[i].getBytes(StandardCharsets.ISO_8859_1);
+				int slot = hash(this.keys[i], 0, this.keys[i].length) & mask;
+				while (table[slot] != 0) {
+					slot = (slot + 1) & mask;
+				}
+				table[slot] = i + 1;
+			}
+		}
+
+		/**
+		 * @return the index of the key in data[from, to), or -1 if it is not known
+		 */
+		int find(byte[] data, int from, int to) {
+			int slot = hash(data, from, to) & mask;
+			int entry;
+			while ((entry = table[slot]) != 0) {
+				byte[] key = keys[entry - 1];
+				if (key.length == to - from && equals(key, data, from)) {
+					return entry - 1;
+				}
+				slot = (slot + 1) & mask;
+			}
+			return -1;
+		}
+
+		private static boolean equals(byte[] key, byte[] data, int from) {
+			for (int i = 0; i < key.length; ++i) {
+				if (key[i] != data[from + i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		private static int hash(byte[] data, int from, int to) {
+			// FNV-1a
+			int hash = 0x811c9dc5;
+			for (int i = from; i < to; ++i) {
+				hash = (hash ^ data[i]) * 0x01000193;
+			}
+			return hash ^ (hash >>> 16);
+		}
+	}
+
+	private final Schema schema;
+	private final long[] values;
+	private final String[] texts;
+	private Map<String, String> other = null;
+
+	StatsImpl(Schema schema) {
+		this.schema = schema;
+		this.values = new long[schema.keys.length];
+		this.texts = (schema.kinds.indexOf('S') >= 0) ? new String[schema.keys.length] : null;
+	}
+
+	/**
+	 * parse the "key: value" lines of a reply body; the "---" line and anything else without ": " is skipped
+	 */
+	void parse(byte[] data, int length) {
+		int start = 0;
+		while (start < length) {
+			int lineEnd = start;
+			while (lineEnd < length && data[lineEnd] != '\n') {
+				++lineEnd;
+			}
+			int end = (lineEnd > start && data[lineEnd - 1] == '\r') ? lineEnd - 1 : lineEnd;
+			int colon = start;
+			while (colon < end - 1 && !(data[colon] == ':' && data[colon + 1] == ' ')) {
+				++colon;
+			}
+			if (colon < end - 1 && colon > start) {
+				int index = schema.find(data, start, colon);
+				if (index < 0 || !set(index, data, colon + 2, end)) {
+					if (other == null) {
+						other = new LinkedHashMap<String, String>();
+					}
+					other.put(new String(data, start, colon - start, StandardCharsets.ISO_8859_1),
+							new String(data, colon + 2, end - colon - 2, StandardCharsets.ISO_8859_1));
+				}
+			}
+			start = lineEnd + 1;
+		}
+	}
+
+	/**
+	 * @return false if the value is not of the key's kind
+	 */
+	private boolean set(int index, byte[] data, int from, int to) {
+		switch (schema.kinds.charAt(index)) {
+		case 'S':
+			// text values are quoted by some servers and not by others
+			if (to - from >= 2 && data[from] == '"' && data[to - 1] == '"') {
+				++from;
+				--to;
+			}
+			texts[index] = new String(data, from, to - from, StandardCharsets.ISO_8859_1);
+			return true;
+		case 'B':
+			values[index] = (to - from == 4 && data[from] == 't') ? 1 : 0;
+			return true;
+		case 'D':
+			return parseDecimal(index, data, from, to);
+		default:
+			return parseNumber(index, data, from, to);
+		}
+	}
+
+	private boolean parseNumber(int index, byte[] data, int from, int to) {
+		boolean negative = (from < to && data[from] == '-');
+		if (negative) {
+			++from;
+		}
+		// 18 digits cannot overflow a long
+		if (from == to || to - from > 18) {
+			return false;
+		}
+		long value = 0;
+		for (int i = from; i < to; ++i) {
+			int digit = data[i] - '0';
+			if (digit < 0 || digit > 9) {
+				return false;
+			}
+			value = value * 10 + digit;
+		}
+		values[index] = negative ? -value : value;
+		return true;
+	}
+
+	private boolean parseDecimal(int index, byte[] data, int from, int to) {
+		long whole = 0;
+		long fraction = 0;
+		long scale = 1;
+		boolean point = false;
+		if (from == to || to - from > 18) {
+			return false;
+		}
+		for (int i = from; i < to; ++i) {
+			if (data[i] == '.' && !point) {
+				point = true;
+				continue;
+			}
+			int digit = data[i] - '0';
+			if (digit < 0 || digit > 9) {
+				return false;
+			}
+			if (point) {
+				fraction = fraction * 10 + digit;
+				scale *= 10;
+			} else {
+				whole = whole * 10 + digit;
+			}
+		}
+		values[index] = Double.doubleToRawLongBits(whole + (double) fraction / scale);
+		return true;
+	}
+
+	long number(int index) {
+		return values[index];
+	}
+
+	double decimal(int index) {
+		return Double.longBitsToDouble(values[index]);
+	}
+
+	boolean flag(int index) {
+		return values[index] != 0;
+	}
+
+	String text(int index) {
+		return texts[index];
+	}
+
+	public Map<String, String> getOther() {
+		return (other == null) ? Collections.<String, String> emptyMap() : Collections.unmodifiableMap(other);
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder(getClass().getSimpleName()).append('[');
+		for (int i = 0; i < values.length; ++i) {
+			if (i > 0) {
+				sb.append(", ");
+			}
+			sb.append(new String(schema.keys[i], StandardCharsets.ISO_8859_1)).append('=');
+			switch (schema.kinds.charAt(i)) {
+			case 'S':
+				sb.append(texts[i]);
+				break;
+			case 'B':
+				sb.append(flag(i));
+				break;
+			case 'D':
+				sb.append(decimal(i));
+				break;
+			default:
+				sb.append(values[i]);
+			}
+		}
+		if (other != null) {
+			sb.append(", other=").append(other);
+		}
+		return sb.append(']').toString();
+	}
+}
@@ -0,0 +1,82 @@
+package com.surftools.BeanstalkClientImpl;
+
+/*
+
+ Copyright 2009-2020 Robert Tykulsker
+
+ This file is part of JavaBeanstalkCLient.
+
+ JavaBeanstalkCLient is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version, or alternatively, the BSD license supplied
+ with this project in the file "BSD-LICENSE".
+
+ JavaBeanstalkCLient is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with JavaBeanstalkCLient.  If not, see <http://www.gnu.org/licenses/>.
+
+ */
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * the first word of a beanstalkd reply. {@link ResponseReader} matches it against the bytes in its buffer, so a
+ * status never becomes a String.
+ * 
+ */
+public enum Status {
+	INSERTED, BURIED, EXPECTED_CRLF, JOB_TOO_BIG, DRAINING, USING, RESERVED, DEADLINE_SOON, TIMED_OUT, DELETED,
+	NOT_FOUND, RELEASED, TOUCHED, WATCHING, NOT_IGNORED, FOUND, KICKED, OK, PAUSED, OUT_OF_MEMORY, INTERNAL_ERROR,
+	BAD_FORMAT, UNKNOWN_COMMAND,
+	/**
+	 * a word this client does not know
+	 */
+	UNKNOWN;
+
+	private static final Status[] VALUES = values();
+
+	private final byte[] bytes = name().getBytes(StandardCharsets.US_ASCII);
+
+	/**
+	 * @param buffer
+	 * @param from
+	 *            index of the first byte of the word
+	 * @param to
+	 *            index after the last byte of the word
+	 * @return the matching status, or UNKNOWN
+	 */
+	static Status match(ByteBuffer buffer, int from, int to) {
+		int length = to - from;
+		for (Status status : VALUES) {
+			byte[] b = status.bytes;
+			if (b.length != length || status == UNKNOWN) {
+				continue;
+			}
+			int i = 0;
+			while (i < length && b[i] == buffer.get(from + i)) {
+				++i;
+			}
+			if (i == length) {
+				return status;
+			}
+		}
+		return UNKNOWN;
+	}
+
+	/**
+	 * @return the status with this name, or UNKNOWN
+	 */
+	static Status forName(String name) {
+		for (Status status : VALUES) {
+			if (status.name().equals(name)) {
+				return status;
+			}
+		}
+		return UNKNOWN;
+	}
+}
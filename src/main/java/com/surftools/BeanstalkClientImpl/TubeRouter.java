@@ -0,0 +1,368 @@
+package com.surftools.BeanstalkClientImpl;
+
+/*
+
+ Copyright 2009-2020 Robert Tykulsker
+
+ This file is part of JavaBeanstalkCLient.
+
+ JavaBeanstalkCLient is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version, or alternatively, the BSD license supplied
+ with this project in the file "BSD-LICENSE".
+
+ JavaBeanstalkCLient is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with JavaBeanstalkCLient.  If not, see <http://www.gnu.org/licenses/>.
+
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.surftools.BeanstalkClient.BeanstalkException;
+import com.surftools.BeanstalkClient.Job;
+
+/**
+ * routes each command to a connection already set up for its tubes, so that writing to many tubes never costs a use
+ * between puts, and puts to different tubes do not wait on each other.
+ * 
+ * Producer connections are keyed by the tube they use, consumer connections by the set of tubes they watch. A
+ * connection is opened the first time its key is seen, and once there are more than maxProducerConnections (or
+ * maxConsumerConnections) the least recently used idle one is closed. A consumer connection is not closed while jobs
+ * it reserved are still held, because only it can delete, release, bury or touch them; those commands are routed to
+ * it by job id.
+ * 
+ * A reserve that waits holds its connection, so acknowledging a job reserved on the same connection waits for it;
+ * reserve with a timeout when the same watch set is also being acknowledged.
+ * 
+ */
+public class TubeRouter implements AutoCloseable {
+	static final int DEFAULT_MAX_PRODUCER_CONNECTIONS = 16;
+	static final int DEFAULT_MAX_CONSUMER_CONNECTIONS = 8;
+	static final String DEFAULT_TUBE = "default";
+
+	private static class Route {
+		final Object key;
+		final ProtocolHandler connection;
+		// calls in progress
+		int users = 0;
+		// jobs reserved here and not yet finished
+		int reserved = 0;
+
+		Route(Object key, ProtocolHandler connection) {
+			this.key = key;
+			this.connection = connection;
+		}
+	}
+
+	private final String host;
+	private final int port;
+	private final Transport transport;
+	private final int maxProducerConnections;
+	private final int maxConsumerConnections;
+
+	// least recently used first
+	private final LinkedHashMap<String, Route> producers = new LinkedHashMap<String, Route>(16, 0.75f, true);
+	private final LinkedHashMap<Set<String>, Route> consumers = new LinkedHashMap<Set<String>, Route>(16, 0.75f, true);
+	private final Map<Long, Route> reservedBy = new ConcurrentHashMap<Long, Route>();
+	private long opened = 0;
+	private long evicted = 0;
+	private boolean closed = false;
+
+	public TubeRouter(String host, int port) {
+		this(host, port, Transport.Stream, DEFAULT_MAX_PRODUCER_CONNECTIONS, DEFAULT_MAX_CONSUMER_CONNECTIONS);
+	}
+
+	/**
+	 * @param maxProducerConnections
+	 *            the most producer connections kept open once idle
+	 * @param maxConsumerConnections
+	 *            the most consumer connections kept open once idle and holding no jobs
+	 */
+	public TubeRouter(String host, int port, Transport transport, int maxProducerConnections,
+			int maxConsumerConnections) {
+		if (maxProducerConnections < 1 || maxConsumerConnections < 1) {
+			throw new BeanstalkException("invalid max connections");
+		}
+		this.host = host;
+		this.port = port;
+		this.transport = transport;
+		this.maxProducerConnections = maxProducerConnections;
+		this.maxConsumerConnections = maxConsumerConnections;
+	}
+
+	// ****************************************************************
+	// Producer methods
+	// ****************************************************************
+
+	/**
+	 * put a job to a tube on that tube's connection; see
+	 * {@link com.surftools.BeanstalkClient.Client#put(long, int, int, byte[])}
+	 */
+	public long put(String tubeName, long priority, int delaySeconds, int timeToRun, byte[] data) {
+		Request request = Commands.put(priority, delaySeconds, timeToRun, data);
+		Route route = producer(tubeName);
+		try {
+			return Commands.toPutJobId(process(route, request));
+		} finally {
+			release(route);
+		}
+	}
+
+	// ****************************************************************
+	// Consumer methods
+	// ****************************************************************
+
+	/**
+	 * reserve a job from any of tubeNames, on the connection that watches exactly those tubes; see
+	 * {@link com.surftools.BeanstalkClient.Client#reserve(Integer)}
+	 */
+	public Job reserve(String[] tubeNames, Integer timeoutSeconds) {
+		if (tubeNames == null || tubeNames.length == 0) {
+			throw new BeanstalkException("no tubeNames");
+		}
+		Set<String> key = Collections.unmodifiableSet(new LinkedHashSet<String>(Arrays.asList(tubeNames)));
+		Route route = consumer(key);
+		try {
+			Job job = Commands.toReservedJob(process(route, Commands.reserve(timeoutSeconds)));
+			if (job != null) {
+				synchronized (this) {
+					++route.reserved;
+				}
+				reservedBy.put(job.getJobId(), route);
+			}
+			return job;
+		} finally {
+			release(route);
+		}
+	}
+
+	public boolean delete(long jobId) {
+		return Commands.isOk(processForJob(jobId, Commands.delete(jobId), true));
+	}
+
+	public boolean release(long jobId, long priority, int delaySeconds) {
+		return Commands.isOk(processForJob(jobId, Commands.release(jobId, priority, delaySeconds), true));
+	}
+
+	public boolean bury(long jobId, long priority) {
+		return Commands.isOk(processForJob(jobId, Commands.bury(jobId, priority), true));
+	}
+
+	public boolean touch(long jobId) {
+		return Commands.isOk(processForJob(jobId, Commands.touch(jobId), false));
+	}
+
+	/**
+	 * run a command about a job on the connection that reserved it; a job reserved elsewhere, or not at all, goes over
+	 * the default tube's connection
+	 * 
+	 * @param finishes
+	 *            true if the job is no longer reserved afterwards, whatever the reply
+	 */
+	private Response processForJob(long jobId, Request request, boolean finishes) {
+		Route route = finishes ? reservedBy.remove(jobId) : reservedBy.get(jobId);
+		if (route == null) {
+			route = producer(DEFAULT_TUBE);
+		} else {
+			synchronized (this) {
+				++route.users;
+				if (finishes) {
+					--route.reserved;
+				}
+			}
+		}
+		try {
+			return process(route, request);
+		} finally {
+			release(route);
+		}
+	}
+
+	// ****************************************************************
+	// routing
+	// ****************************************************************
+
+	private Response process(Route route, Request request) {
+		synchronized (route.connection) {
+			return route.connection.processRequest(request);
+		}
+	}
+
+	private Route producer(String tubeName) {
+		if (tubeName == null) {
+			throw new BeanstalkException("null tubeName");
+		}
+		return acquire(producers, tubeName, maxProducerConnections);
+	}
+
+	private Route consumer(Set<String> tubeNames) {
+		return acquire(consumers, tubeNames, maxConsumerConnections);
+	}
+
+	/**
+	 * the route for key, opening and setting up its connection if there is none
+	 */
+	private <K> Route acquire(LinkedHashMap<K, Route> routes, K key, int max) {
+		synchronized (this) {
+			if (closed) {
+				throw new BeanstalkException("router closed");
+			}
+			Route route = routes.get(key);
+			if (route != null) {
+				++route.users;
+				return route;
+			}
+		}
+
+		// connect without holding up the other routes
+		ProtocolHandler connection = ProtocolHandler.newInstance(host, port, transport);
+		try {
+			setUp(connection, key);
+		} catch (BeanstalkException e) {
+			connection.close();
+			throw e;
+		}
+
+		synchronized (this) {
+			Route route = routes.get(key);
+			if (route != null || closed) {
+				// another thread opened one first
+				connection.close();
+				if (route == null) {
+					throw new BeanstalkException("router closed");
+				}
+				++route.users;
+				return route;
+			}
+			route = new Route(key, connection);
+			route.users = 1;
+			routes.put(key, route);
+			++opened;
+			evict(routes, max);
+			return route;
+		}
+	}
+
+	/**
+	 * make a new connection use, or watch exactly, the tubes of its key, in one round trip
+	 */
+	private void setUp(ProtocolHandler connection, Object key) {
+		List<Request> requests = new ArrayList<Request>();
+		if (key instanceof String) {
+			if (!DEFAULT_TUBE.equals(key)) {
+				requests.add(Commands.use((String) key));
+			}
+		} else {
+			Set<?> tubeNames = (Set<?>) key;
+			for (Object tubeName : tubeNames) {
+				requests.add(Commands.watch((String) tubeName));
+			}
+			if (!tubeNames.contains(DEFAULT_TUBE)) {
+				requests.add(Commands.ignore(DEFAULT_TUBE));
+			}
+		}
+		if (requests.isEmpty()) {
+			return;
+		}
+		for (Response response : connection.processRequests(requests)) {
+			if (!response.isMatchOk()) {
+				throw new BeanstalkException(response.getStatus());
+			}
+		}
+	}
+
+	/**
+	 * close the least recently used idle routes until at most max are left
+	 */
+	private <K> void evict(LinkedHashMap<K, Route> routes, int max) {
+		Iterator<Route> iterator = routes.values().iterator();
+		while (routes.size() > max && iterator.hasNext()) {
+			Route route = iterator.next();
+			if (route.users == 0 && route.reserved == 0) {
+				iterator.remove();
+				closeQuietly(route.connection);
+				++evicted;
+			}
+		}
+	}
+
+	private synchronized void release(Route route) {
+		--route.users;
+		if (route.connection.isOpen()) {
+			return;
+		}
+		// it broke: the server has released its jobs
+		if (producers.get(route.key) == route) {
+			producers.remove(route.key);
+		} else if (consumers.get(route.key) == route) {
+			consumers.remove(route.key);
+		}
+		reservedBy.values().removeIf(owner -> owner == route);
+		closeQuietly(route.connection);
+	}
+
+	private void closeQuietly(ProtocolHandler connection) {
+		try {
+			connection.close();
+		} catch (BeanstalkException e) {
+			// already gone
+		}
+	}
+
+	/**
+	 * @return the number of producer connections open
+	 */
+	public synchronized int getProducerConnectionCount() {
+		return producers.size();
+	}
+
+	/**
+	 * @return the number of consumer connections open
+	 */
+	public synchronized int getConsumerConnectionCount() {
+		return consumers.size();
+	}
+
+	/**
+	 * @return the number of connections opened so far
+	 */
+	public synchronized long getOpenedCount() {
+		return opened;
+	}
+
+	/**
+	 * @return the number of connections closed for being least recently used
+	 */
+	public synchronized long getEvictedCount() {
+		return evicted;
+	}
+
+	@Override
+	public synchronized void close() {
+		closed = true;
+		for (Route route : producers.values()) {
+			closeQuietly(route.connection);
+		}
+		for (Route route : consumers.values()) {
+			closeQuietly(route.connection);
+		}
+		producers.clear();
+		consumers.clear();
+		reservedBy.clear();
+	}
+}
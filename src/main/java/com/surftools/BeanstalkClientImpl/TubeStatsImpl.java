@@ -0,0 +1,125 @@
+package com.surftools.BeanstalkClientImpl;
+
+/*
+
+ Copyright 2009-2020 Robert Tykulsker
+
+ This file is part of JavaBeanstalkCLient.
+
+ JavaBeanstalkCLient is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version, or alternatively, the BSD license supplied
+ with this project in the file "BSD-LICENSE".
+
+ JavaBeanstalkCLient is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with JavaBeanstalkCLient.  If not, see <http://www.gnu.org/licenses/>.
+
+ */
+
+import com.surftools.BeanstalkClient.TubeStats;
+
+/**
+ * the typed reply to stats-tube
+ */
+public class TubeStatsImpl extends StatsImpl implements TubeStats {
+	private static final int NAME = 0;
+	private static final int CURRENT_JOBS_URGENT = 1;
+	private static final int CURRENT_JOBS_READY = 2;
+	private static final int CURRENT_JOBS_RESERVED = 3;
+	private static final int CURRENT_JOBS_DELAYED = 4;
+	private static final int CURRENT_JOBS_BURIED = 5;
+	private static final int TOTAL_JOBS = 6;
+	private static final int CURRENT_USING = 7;
+	private static final int CURRENT_WAITING = 8;
+	private static final int CURRENT_WATCHING = 9;
+	private static final int PAUSE = 10;
+	private static final int CMD_DELETE = 11;
+	private static final int CMD_PAUSE_TUBE = 12;
+	private static final int PAUSE_TIME_LEFT = 13;
+
+	private static final Schema SCHEMA = new Schema(new String[] {
+			"name", "current-jobs-urgent", "current-jobs-ready", "current-jobs-reserved",
+			"current-jobs-delayed", "current-jobs-buried", "total-jobs", "current-using", "current-waiting",
+			"current-watching", "pause", "cmd-delete", "cmd-pause-tube", "pause-time-left" },
+			"SNNNNNNNNNNNNN");
+
+	TubeStatsImpl() {
+		super(SCHEMA);
+	}
+
+	@Override
+	public String getName() {
+		return text(NAME);
+	}
+
+	@Override
+	public long getCurrentJobsUrgent() {
+		return number(CURRENT_JOBS_URGENT);
+	}
+
+	@Override
+	public long getCurrentJobsReady() {
+		return number(CURRENT_JOBS_READY);
+	}
+
+	@Override
+	public long getCurrentJobsReserved() {
+		return number(CURRENT_JOBS_RESERVED);
+	}
+
+	@Override
+	public long getCurrentJobsDelayed() {
+		return number(CURRENT_JOBS_DELAYED);
+	}
+
+	@Override
+	public long getCurrentJobsBuried() {
+		return number(CURRENT_JOBS_BURIED);
+	}
+
+	@Override
+	public long getTotalJobs() {
+		return number(TOTAL_JOBS);
+	}
+
+	@Override
+	public long getCurrentUsing() {
+		return number(CURRENT_USING);
+	}
+
+	@Override
+	public long getCurrentWaiting() {
+		return number(CURRENT_WAITING);
+	}
+
+	@Override
+	public long getCurrentWatching() {
+		return number(CURRENT_WATCHING);
+	}
+
+	@Override
+	public long getPause() {
+		return number(PAUSE);
+	}
+
+	@Override
+	public long getCmdDelete() {
+		return number(CMD_DELETE);
+	}
+
+	@Override
+	public long getCmdPauseTube() {
+		return number(CMD_PAUSE_TUBE);
+	}
+
+	@Override
+	public long getPauseTimeLeft() {
+		return number(PAUSE_TIME_LEFT);
+	}
+}
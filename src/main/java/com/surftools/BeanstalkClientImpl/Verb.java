@@ -0,0 +1,72 @@
+package com.surftools.BeanstalkClientImpl;
+
+/*
+
+ Copyright 2009-2020 Robert Tykulsker
+
+ This file is part of JavaBeanstalkCLient.
+
+ JavaBeanstalkCLient is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version, or alternatively, the BSD license supplied
+ with this project in the file "BSD-LICENSE".
+
+ JavaBeanstalkCLient is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with JavaBeanstalkCLient.  If not, see <http://www.gnu.org/licenses/>.
+
+ */
+import java.nio.charset.StandardCharsets;
+
+/**
+ * the beanstalkd commands, each with its name encoded once as ASCII, so that {@link RequestWriter} can copy it
+ * straight into the write buffer
+ * 
+ */
+enum Verb {
+	PUT("put"), //
+	USE("use"), //
+	RESERVE("reserve"), //
+	RESERVE_WITH_TIMEOUT("reserve-with-timeout"), //
+	RESERVE_JOB("reserve-job"), //
+	DELETE("delete"), //
+	RELEASE("release"), //
+	BURY("bury"), //
+	TOUCH("touch"), //
+	WATCH("watch"), //
+	IGNORE("ignore"), //
+	PEEK("peek"), //
+	PEEK_READY("peek-ready"), //
+	PEEK_DELAYED("peek-delayed"), //
+	PEEK_BURIED("peek-buried"), //
+	KICK("kick"), //
+	KICK_JOB("kick-job"), //
+	STATS_JOB("stats-job"), //
+	STATS_TUBE("stats-tube"), //
+	STATS("stats"), //
+	LIST_TUBES("list-tubes"), //
+	LIST_TUBE_USED("list-tube-used"), //
+	LIST_TUBES_WATCHED("list-tubes-watched"), //
+	PAUSE_TUBE("pause-tube");
+
+	private final String name;
+	private final byte[] bytes;
+
+	Verb(String name) {
+		this.name = name;
+		this.bytes = name.getBytes(StandardCharsets.US_ASCII);
+	}
+
+	String getName() {
+		return name;
+	}
+
+	byte[] getBytes() {
+		return bytes;
+	}
+}
@@ -0,0 +1,163 @@
+package com.surftools.BeanstalkClientImpl;
+
+/*
+
+ Copyright 2009-2020 Robert Tykulsker 
+
+ This file is part of JavaBeanstalkCLient.
+
+ JavaBeanstalkCLient is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version, or alternatively, the BSD license supplied
+ with this project in the file "BSD-LICENSE".
+
+ JavaBeanstalkCLient is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with JavaBeanstalkCLient.  If not, see <http://www.gnu.org/licenses/>.
+
+ */
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.surftools.BeanstalkClient.AsyncClient;
+import com.surftools.BeanstalkClient.BeanstalkException;
+import com.surftools.BeanstalkClient.Job;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+public class AsyncClientImplTest extends TestCase {
+
+	private String TEST_HOST = "localhost";
+	private int TEST_PORT = 11300;
+
+	public AsyncClientImplTest(String testName) {
+		super(testName);
+	}
+
+	public static Test suite() {
+		return new TestSuite(AsyncClientImplTest.class);
+	}
+
+	private String useAndWatchNewTube(AsyncClient client) {
+		String tubeName = "tube-" + UUID.randomUUID().toString();
+		client.useTubeAsync(tubeName);
+		client.watchAsync(tubeName);
+		assertEquals(Integer.valueOf(1), client.ignoreAsync("default").join());
+		return tubeName;
+	}
+
+	public void testPutReserveDelete() {
+		AsyncClient client = new AsyncClientImpl(TEST_HOST, TEST_PORT);
+		String tubeName = useAndWatchNewTube(client);
+
+		// issued back-to-back, completed in order
+		CompletableFuture<Long> put = client.putAsync(65536, 0, 120, "testPutReserveDelete".getBytes());
+		CompletableFuture<Job> reserve = client.reserveAsync(0);
+		CompletableFuture<Map<String, String>> stats = client.statsTubeAsync(tubeName);
+		CompletableFuture<Job> nothing = client.reserveAsync(0);
+
+		long jobId = put.join();
+		assertTrue(jobId > 0);
+		Job job = reserve.join();
+		assertEquals(jobId, job.getJobId());
+		assertEquals("testPutReserveDelete", new String(job.getData()));
+		assertEquals("1", stats.join().get("current-jobs-reserved"));
+		assertNull(nothing.join());
+
+		assertTrue(client.deleteAsync(jobId).join());
+		assertFalse(client.deleteAsync(jobId).join());
+		assertEquals(tubeName, client.listTubeUsedAsync().join());
+
+		client.close();
+	}
+
+	public void testManyThreadsOneConnection() throws Exception {
+		final AsyncClient client = new AsyncClientImpl(TEST_HOST, TEST_PORT, Transport.Channel);
+		useAndWatchNewTube(client);
+
+		int nThreads = 8;
+		final int nPuts = 100;
+		ExecutorService executor = Executors.newFixedThreadPool(nThreads);
+		List<Future<List<CompletableFuture<Long>>>> results = new ArrayList<Future<List<CompletableFuture<Long>>>>();
+		for (int t = 0; t < nThreads; ++t) {
+			results.add(executor.submit(() -> {
+				List<CompletableFuture<Long>> futures = new ArrayList<CompletableFuture<Long>>();
+				for (int i = 0; i < nPuts; ++i) {
+					futures.add(client.putAsync(65536, 0, 120, ("job-" + i).getBytes()));
+				}
+				return futures;
+			}));
+		}
+
+		Set<Long> jobIds = new HashSet<Long>();
+		for (Future<List<CompletableFuture<Long>>> result : results) {
+			for (CompletableFuture<Long> future : result.get()) {
+				assertTrue(jobIds.add(future.join()));
+			}
+		}
+		executor.shutdown();
+		assertEquals(nThreads * nPuts, jobIds.size());
+
+		List<CompletableFuture<Boolean>> deletes = new ArrayList<CompletableFuture<Boolean>>();
+		for (long jobId : jobIds) {
+			deletes.add(client.deleteAsync(jobId));
+		}
+		for (CompletableFuture<Boolean> delete : deletes) {
+			assertTrue(delete.join());
+		}
+
+		client.close();
+	}
+
+	public void testErrors() {
+		AsyncClient client = new AsyncClientImpl(TEST_HOST, TEST_PORT);
+
+		// an unexpected status fails only its own future
+		CompletableFuture<Void> badTube = client.useTubeAsync("-foobar");
+		CompletableFuture<String> used = client.listTubeUsedAsync();
+		try {
+			badTube.join();
+			fail("no BAD_FORMAT thrown");
+		} catch (CompletionException e) {
+			assertTrue(e.getCause() instanceof BeanstalkException);
+			assertEquals("BAD_FORMAT", e.getCause().getMessage());
+		}
+		assertEquals("default", used.join());
+
+		// argument errors never reach the server
+		assertTrue(client.putAsync(65536, 0, 120, null).isCompletedExceptionally());
+		// nor does a reserve that would hold up the connection
+		try {
+			client.reserveAsync(null).join();
+			fail("no BeanstalkException thrown");
+		} catch (CompletionException e) {
+			assertTrue(e.getCause() instanceof BeanstalkException);
+		}
+		assertTrue(client.reserveAsync(AsyncClient.MAX_RESERVE_TIMEOUT_SECONDS + 1).isCompletedExceptionally());
+
+		client.close();
+		try {
+			client.statsAsync().join();
+			fail("no exception after close");
+		} catch (CompletionException e) {
+			assertEquals("Socket is closed", e.getCause().getMessage());
+		}
+	}
+}
@@ -0,0 +1,208 @@
+package com.surftools.BeanstalkClientImpl;
+
+/*
+
+ Copyright 2009-2020 Robert Tykulsker 
+
+ This file is part of JavaBeanstalkCLient.
+
+ JavaBeanstalkCLient is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version, or alternatively, the BSD license supplied
+ with this project in the file "BSD-LICENSE".
+
+ JavaBeanstalkCLient is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with JavaBeanstalkCLient.  If not, see <http://www.gnu.org/licenses/>.
+
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.surftools.BeanstalkClient.BeanstalkException;
+import com.surftools.BeanstalkClient.Client;
+import com.surftools.BeanstalkClient.Job;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+public class AsyncProducerTest extends TestCase {
+
+	private String TEST_HOST = "localhost";
+	private int TEST_PORT = 11300;
+
+	public AsyncProducerTest(String testName) {
+		super(testName);
+	}
+
+	public static Test suite() {
+		return new TestSuite(AsyncProducerTest.class);
+	}
+
+	public void testPutsAreBatched() throws Exception {
+		String tubeName = "producer-" + UUID.randomUUID().toString();
+		Client client = new ClientImpl(TEST_HOST, TEST_PORT);
+		AsyncProducer producer = new AsyncProducer(client, tubeName, 1000, 2);
+		producer.setFlushThresholds(50, 5);
+		producer.start();
+
+		final List<CompletableFuture<Long>> futures = new ArrayList<CompletableFuture<Long>>();
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int t = 0; t < 4; ++t) {
+			final int thread = t;
+			threads.add(new Thread(() -> {
+				for (int i = 0; i < 100; ++i) {
+					CompletableFuture<Long> future = producer.put(65536, 0, 120, (thread + ":" + i).getBytes());
+					synchronized (futures) {
+						futures.add(future);
+					}
+				}
+			}));
+		}
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		producer.close();
+
+		assertEquals(400, futures.size());
+		for (CompletableFuture<Long> future : futures) {
+			assertTrue(future.isDone());
+			assertTrue(future.get() > 0);
+		}
+		assertEquals(400, producer.getSubmittedCount());
+		assertEquals(400, producer.getInsertedCount());
+		assertEquals(0, producer.getFailedCount());
+		assertEquals(0, producer.getQueueDepth());
+		assertTrue(producer.getBatchCount() < 400);
+		assertTrue(producer.getMaxQueueDepth() > 0);
+
+		client.watch(tubeName);
+		client.ignore("default");
+		int reserved = 0;
+		Job job;
+		while ((job = client.reserve(0)) != null) {
+			client.delete(job.getJobId());
+			++reserved;
+		}
+		assertEquals(400, reserved);
+		client.close();
+
+		try {
+			producer.put(65536, 0, 120, "late".getBytes());
+			fail("no BeanstalkException thrown");
+		} catch (BeanstalkException be) {
+			assertEquals("producer closed", be.getMessage());
+		}
+	}
+
+	public void testSharedClientAndClose() throws Exception {
+		String tubeName = "producer-" + UUID.randomUUID().toString();
+		final ClientImpl client = new ClientImpl(TEST_HOST, TEST_PORT);
+		client.setUniqueConnectionPerThread(false);
+		final AsyncProducer producer = new AsyncProducer(client, tubeName, 1000, 2);
+		producer.start();
+
+		// another user of the shared connection keeps moving it to a different tube
+		final AtomicBoolean done = new AtomicBoolean(false);
+		Thread competitor = new Thread(() -> {
+			while (!done.get()) {
+				client.useTube(tubeName + "-other");
+				client.useTube("default");
+			}
+		});
+		competitor.start();
+
+		final List<CompletableFuture<Long>> futures = new ArrayList<CompletableFuture<Long>>();
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int t = 0; t < 4; ++t) {
+			threads.add(new Thread(() -> {
+				// put until the producer is closed under us
+				try {
+					while (true) {
+						CompletableFuture<Long> future = producer.put(65536, 0, 120, "x".getBytes());
+						synchronized (futures) {
+							futures.add(future);
+						}
+					}
+				} catch (BeanstalkException be) {
+					assertEquals("producer closed", be.getMessage());
+				}
+			}));
+		}
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		Thread.sleep(200);
+		producer.close();
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		done.set(true);
+		competitor.join();
+
+		// every future is settled, and every inserted job is in the producer's tube
+		long inserted = 0;
+		for (CompletableFuture<Long> future : futures) {
+			assertTrue(future.isDone());
+			if (!future.isCompletedExceptionally()) {
+				assertEquals(tubeName, client.jobStats(future.get()).getTube());
+				client.delete(future.get());
+				++inserted;
+			}
+		}
+		assertTrue(inserted > 0);
+		assertEquals(inserted, producer.getInsertedCount());
+		client.close();
+	}
+
+	public void testOverflow() throws Exception {
+		Client client = new ClientImpl(TEST_HOST, TEST_PORT);
+		// not started, so nothing drains the queue
+		AsyncProducer producer = new AsyncProducer(client, "overflow", 4);
+		assertEquals(4, producer.getCapacity());
+		List<CompletableFuture<Long>> queued = new ArrayList<CompletableFuture<Long>>();
+		for (int i = 0; i < 4; ++i) {
+			queued.add(producer.put(65536, 0, 120, "x".getBytes()));
+		}
+		assertEquals(4, producer.getQueueDepth());
+
+		producer.setOverflow(AsyncProducer.Overflow.FAIL);
+		try {
+			producer.put(65536, 0, 120, "x".getBytes());
+			fail("no BeanstalkException thrown");
+		} catch (BeanstalkException be) {
+			assertEquals("queue full", be.getMessage());
+		}
+
+		producer.setOverflow(AsyncProducer.Overflow.DROP);
+		CompletableFuture<Long> dropped = producer.put(65536, 0, 120, "x".getBytes());
+		assertTrue(dropped.isCompletedExceptionally());
+		assertEquals(1, producer.getDroppedCount());
+		assertEquals(4, producer.getSubmittedCount());
+
+		producer.close();
+		for (CompletableFuture<Long> future : queued) {
+			try {
+				future.get();
+				fail("no exception thrown");
+			} catch (ExecutionException e) {
+				assertEquals("producer closed", e.getCause().getMessage());
+			}
+		}
+		client.close();
+	}
+}
@@ -0,0 +1,185 @@
+package com.surftools.BeanstalkClientImpl;
+
+/*
+
+ Copyright 2009-2020 Robert Tykulsker 
+
+ This file is part of JavaBeanstalkCLient.
+
+ JavaBeanstalkCLient is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version, or alternatively, the BSD license supplied
+ with this project in the file "BSD-LICENSE".
+
+ JavaBeanstalkCLient is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with JavaBeanstalkCLient.  If not, see <http://www.gnu.org/licenses/>.
+
+ */
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.UUID;
+
+import com.surftools.BeanstalkClient.BeanstalkException;
+import com.surftools.BeanstalkClient.Client;
+import com.surftools.BeanstalkClient.Job;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+public class BufferPoolTest extends TestCase {
+
+	private String TEST_HOST = "localhost";
+	private int TEST_PORT = 11300;
+
+	public BufferPoolTest(String testName) {
+		super(testName);
+	}
+
+	public static Test suite() {
+		return new TestSuite(BufferPoolTest.class);
+	}
+
+	public void testSizeClasses() {
+		assertEquals(0, BufferPool.sizeClass(0));
+		assertEquals(0, BufferPool.sizeClass(1024));
+		assertEquals(1, BufferPool.sizeClass(1025));
+		assertEquals(1, BufferPool.sizeClass(2048));
+		assertEquals(10, BufferPool.sizeClass(1024 * 1024));
+		assertEquals(2048, BufferPool.classSize(1));
+
+		for (boolean direct : new boolean[] { false, true }) {
+			BufferPool pool = new BufferPool(direct, 4096);
+			ByteBuffer a = pool.acquire(1500);
+			assertEquals(direct, a.isDirect());
+			assertEquals(0, a.position());
+			assertEquals(1500, a.limit());
+			assertEquals(2048, a.capacity());
+			// a whole slab of 2 KB buffers was carved
+			assertEquals(BufferPool.SLAB_SIZE, pool.getSlabBytes());
+			assertEquals(0, pool.getReuseCount());
+
+			pool.release(a);
+			ByteBuffer b = pool.acquire(2000);
+			assertSame(a, b);
+			assertEquals(1, pool.getReuseCount());
+
+			// too big to pool
+			ByteBuffer big = pool.acquire(5000);
+			assertEquals(5000, big.capacity());
+			assertEquals(1, pool.getUnpooledCount());
+			assertEquals(2, pool.getOutstandingCount());
+			pool.release(big);
+			pool.release(b);
+			assertEquals(0, pool.getOutstandingCount());
+			assertEquals(BufferPool.SLAB_SIZE, pool.getIdleBytes());
+
+			// a buffer that only looks like one of ours, or one released twice, is not taken
+			pool.release(direct ? ByteBuffer.allocateDirect(2048) : ByteBuffer.allocate(2048));
+			pool.release(b);
+			assertEquals(0, pool.getOutstandingCount());
+			assertEquals(BufferPool.SLAB_SIZE, pool.getIdleBytes());
+		}
+
+		try {
+			new BufferPool(false, 100);
+			fail("no BeanstalkException thrown");
+		} catch (BeanstalkException be) {
+			assertEquals("invalid maxPooledSize", be.getMessage());
+		}
+	}
+
+	public void testLeakDetection() throws InterruptedException {
+		BufferPool pool = new BufferPool(false);
+		pool.setLeakDetection(true);
+		BufferPool.Lease lease = pool.lease(100);
+		new PooledJobImpl(1, lease);
+		lease = null;
+		long idleBytes = pool.getIdleBytes();
+
+		for (int i = 0; i < 100 && pool.getLeakCount() == 0; ++i) {
+			System.gc();
+			Thread.sleep(50);
+		}
+		assertEquals(1, pool.getLeakCount());
+		assertEquals(1, pool.getLeakTraces().size());
+		// the leaked buffer is no longer outstanding, and did not go back to the pool
+		assertEquals(0, pool.getOutstandingCount());
+		assertEquals(idleBytes, pool.getIdleBytes());
+
+		// a released job is not a leak
+		Job job = new PooledJobImpl(2, pool.lease(100));
+		job.close();
+		job.close();
+		job = null;
+		for (int i = 0; i < 10; ++i) {
+			System.gc();
+			Thread.sleep(20);
+		}
+		assertEquals(1, pool.getLeakCount());
+		assertEquals(0, pool.getOutstandingCount());
+	}
+
+	public void testPooledJobs() {
+		byte[][] bodies = new byte[][] { new byte[0], new byte[100], new byte[5000], new byte[60000] };
+		Random rng = new Random(3);
+		for (byte[] body : bodies) {
+			rng.nextBytes(body);
+		}
+
+		for (Transport transport : Transport.values()) {
+			for (boolean direct : new boolean[] { false, true }) {
+				ClientImpl client = new ClientImpl(TEST_HOST, TEST_PORT, transport);
+				BufferPool pool = new BufferPool(direct, 8192);
+				client.setBufferPool(pool);
+				String tubeName = "pool-" + UUID.randomUUID().toString();
+				client.useTube(tubeName);
+				client.watch(tubeName);
+				client.ignore("default");
+
+				for (byte[] body : bodies) {
+					long jobId = client.put(65536, 0, 120, body);
+					try (Job job = client.reserve(0)) {
+						assertEquals(jobId, job.getJobId());
+						ByteBuffer view = job.getBuffer();
+						assertEquals(body.length, view.remaining());
+						byte[] dst = new byte[view.remaining()];
+						view.get(dst);
+						assertTrue(Arrays.equals(body, dst));
+						assertTrue(Arrays.equals(body, job.getData()));
+						assertTrue(client.delete(jobId));
+					}
+				}
+				assertEquals(bodies.length, pool.getAcquireCount());
+				assertEquals(1, pool.getUnpooledCount());
+				assertEquals(0, pool.getOutstandingCount());
+
+				// getData copies the body out, so it outlives the release
+				long jobId = client.put(65536, 0, 120, bodies[1]);
+				Job job = client.peek(jobId);
+				byte[] data = job.getData();
+				job.release();
+				assertSame(data, job.getData());
+				Job other = client.peek(jobId);
+				other.release();
+				try {
+					other.getData();
+					fail("no BeanstalkException thrown");
+				} catch (BeanstalkException be) {
+					assertEquals("job released", be.getMessage());
+				}
+				client.delete(jobId);
+
+				client.close();
+			}
+		}
+	}
+}
@@ -22,17 +22,38 @@ package com.surftools.BeanstalkClientImpl;
 
  */
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.Pipe;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import com.surftools.BeanstalkClient.BatchResult;
 import com.surftools.BeanstalkClient.BeanstalkException;
 import com.surftools.BeanstalkClient.Client;
 import com.surftools.BeanstalkClient.Job;
+import com.surftools.BeanstalkClient.MutableJob;
+import com.surftools.BeanstalkClient.PutBatch;
+import com.surftools.BeanstalkClient.StreamedJob;
 
 import junit.framework.Test;
 import junit.framework.TestCase;
@@ -176,6 +197,440 @@ public class ClientImplTest extends TestCase {
 		}
 	}
 
+	public void testChannelTransport() {
+		Client client = new ClientImpl(TEST_HOST, TEST_PORT, Transport.Channel);
+
+		Object[] tubeNames = pushWatchedTubes(client);
+
+		// larger than the read and write buffers, and full of CRLFs
+		byte[] srcBytes = new byte[20000];
+		for (int i = 0; i < srcBytes.length; ++i) {
+			srcBytes[i] = (byte) i;
+		}
+
+		client.useTube((String) tubeNames[1]);
+		for (int i = 0; i < 3; ++i) {
+			long jobId = client.put(65536, 0, 120, srcBytes);
+			assertTrue(jobId > 0);
+
+			Job job = client.reserve(null);
+			assertNotNull(job);
+			assertEquals(jobId, job.getJobId());
+			assertTrue(Arrays.equals(srcBytes, job.getData()));
+			assertTrue(client.delete(jobId));
+		}
+
+		Map<String, String> stats = client.statsTube((String) tubeNames[1]);
+		assertEquals(tubeNames[1], stats.get("name"));
+		assertEquals(1, client.listTubesWatched().size());
+
+		popWatchedTubes(client, tubeNames);
+		client.close();
+	}
+
+	public void testPutSlicesAndBuffers() {
+		byte[] srcBytes = new byte[20000];
+		for (int i = 0; i < srcBytes.length; ++i) {
+			srcBytes[i] = (byte) i;
+		}
+		byte[] slice = Arrays.copyOfRange(srcBytes, 1000, 19000);
+
+		for (Transport transport : Transport.values()) {
+			Client client = new ClientImpl(TEST_HOST, TEST_PORT, transport);
+			Object[] tubeNames = pushWatchedTubes(client);
+			client.useTube((String) tubeNames[1]);
+
+			ByteBuffer direct = ByteBuffer.allocateDirect(srcBytes.length);
+			direct.put(srcBytes).position(1000).limit(19000);
+			long[] jobIds = new long[] { client.put(65536, 0, 120, srcBytes, 1000, 18000),
+					client.putBuffer(65536, 0, 120, ByteBuffer.wrap(srcBytes, 1000, 18000)),
+					client.putBuffer(65536, 0, 120, direct), };
+			assertFalse(direct.hasRemaining());
+
+			for (long jobId : jobIds) {
+				Job job = client.reserve(null);
+				assertNotNull(job);
+				assertEquals(jobId, job.getJobId());
+				assertTrue(Arrays.equals(slice, job.getData()));
+				assertTrue(client.delete(jobId));
+			}
+
+			popWatchedTubes(client, tubeNames);
+			client.close();
+		}
+	}
+
+	public void testStreamedPuts() throws IOException {
+		byte[] srcBytes = new byte[70000];
+		new Random(7).nextBytes(srcBytes);
+		File file = File.createTempFile("ClientImplTest", ".dat");
+		file.deleteOnExit();
+		try (FileOutputStream fos = new FileOutputStream(file)) {
+			fos.write(srcBytes);
+		}
+		byte[] region = Arrays.copyOfRange(srcBytes, 10, 60010);
+
+		for (Transport transport : Transport.values()) {
+			Client client = new ClientImpl(TEST_HOST, TEST_PORT, transport);
+			Object[] tubeNames = pushWatchedTubes(client);
+			client.useTube((String) tubeNames[1]);
+
+			long[] jobIds = new long[3];
+			try (FileChannel fc = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+					InputStream is = new ByteArrayInputStream(srcBytes, 10, 60000)) {
+				jobIds[0] = client.putStream(65536, 0, 120, is, 60000);
+				fc.position(10);
+				jobIds[1] = client.putChannel(65536, 0, 120, fc, 60000);
+				jobIds[2] = client.putFile(65536, 0, 120, fc, 10, 60000);
+				assertEquals(60010, fc.position());
+			}
+
+			// a source that can return no bytes is refused before anything is sent
+			Pipe pipe = Pipe.open();
+			pipe.source().configureBlocking(false);
+			try {
+				client.putChannel(65536, 0, 120, pipe.source(), 10);
+				fail("no BeanstalkException thrown");
+			} catch (BeanstalkException be) {
+				assertEquals("non-blocking data channel", be.getMessage());
+			} finally {
+				pipe.source().close();
+				pipe.sink().close();
+			}
+
+			for (long jobId : jobIds) {
+				Job job = client.reserve(null);
+				assertNotNull(job);
+				assertEquals(jobId, job.getJobId());
+				assertTrue(Arrays.equals(region, job.getData()));
+				assertTrue(client.delete(jobId));
+			}
+
+			popWatchedTubes(client, tubeNames);
+			client.close();
+		}
+	}
+
+	public void testReserveIntoSinks() throws IOException {
+		byte[] srcBytes = new byte[30000];
+		new Random(11).nextBytes(srcBytes);
+
+		for (Transport transport : Transport.values()) {
+			Client client = new ClientImpl(TEST_HOST, TEST_PORT, transport);
+			Object[] tubeNames = pushWatchedTubes(client);
+			client.useTube((String) tubeNames[1]);
+
+			long jobId = client.put(65536, 0, 120, srcBytes);
+			ByteArrayOutputStream os = new ByteArrayOutputStream();
+			StreamedJob job = client.peek(jobId, os);
+			assertEquals(jobId, job.getJobId());
+			assertEquals(srcBytes.length, job.getLength());
+			assertTrue(Arrays.equals(srcBytes, os.toByteArray()));
+
+			os.reset();
+			job = client.peekReady(Channels.newChannel(os));
+			assertEquals(jobId, job.getJobId());
+			assertTrue(Arrays.equals(srcBytes, os.toByteArray()));
+
+			ByteBuffer buffer = ByteBuffer.allocateDirect(40000);
+			job = client.reserve(null, buffer);
+			assertEquals(jobId, job.getJobId());
+			assertEquals(srcBytes.length, buffer.position());
+			buffer.flip();
+			byte[] dstBytes = new byte[buffer.remaining()];
+			buffer.get(dstBytes);
+			assertTrue(Arrays.equals(srcBytes, dstBytes));
+			assertTrue(client.release(jobId, 65536, 0));
+
+			// a buffer too small gets the start of the body, and the connection is still usable
+			ByteBuffer small = ByteBuffer.allocate(100);
+			job = client.reserve(0, small);
+			assertEquals(srcBytes.length, job.getLength());
+			assertTrue(Arrays.equals(Arrays.copyOf(srcBytes, 100), small.array()));
+			assertTrue(client.delete(jobId));
+
+			assertNull(client.reserve(0, new ByteArrayOutputStream()));
+			assertNull(client.peekBuried(ByteBuffer.allocate(10)));
+			assertNull(client.peek(jobId, new ByteArrayOutputStream()));
+
+			popWatchedTubes(client, tubeNames);
+			client.close();
+		}
+	}
+
+	public void testTubeCommandsAreSkippedWhenNothingChanges() {
+		for (int mode = 0; mode < 3; ++mode) {
+			String tubeName = "cache-" + UUID.randomUUID().toString();
+			ClientImpl client = (mode == 2) ? new ClientImpl(new ConnectionPool(TEST_HOST, TEST_PORT, 1, 2))
+					: new ClientImpl(TEST_HOST, TEST_PORT);
+			if (mode == 1) {
+				client.setUniqueConnectionPerThread(false);
+			}
+
+			long uses = Long.parseLong(client.stats().get("cmd-use"));
+			long watches = Long.parseLong(client.stats().get("cmd-watch"));
+			long ignores = Long.parseLong(client.stats().get("cmd-ignore"));
+			for (int i = 0; i < 5; ++i) {
+				client.useTube(tubeName);
+				assertEquals(2, client.watch(tubeName));
+				assertEquals(2, client.ignore("not-watched"));
+				client.put(65536, 0, 120, "cached".getBytes());
+			}
+			assertEquals(tubeName, client.listTubeUsed());
+			assertEquals(1, client.ignore("default"));
+			assertEquals(1, client.ignore("default"));
+
+			// pooled mode applies the thread's tubes to a borrowed connection lazily, at most once per change
+			Map<String, String> stats = client.stats();
+			assertTrue(Long.parseLong(stats.get("cmd-use")) - uses <= 2);
+			assertTrue(Long.parseLong(stats.get("cmd-watch")) - watches <= 2);
+			assertTrue(Long.parseLong(stats.get("cmd-ignore")) - ignores <= 2);
+
+			Job job = client.reserve(0);
+			assertEquals("cached", new String(job.getData()));
+			client.delete(job.getJobId());
+			client.useTube("default");
+			assertEquals("default", client.listTubeUsed());
+			while ((job = client.reserve(0)) != null) {
+				client.delete(job.getJobId());
+			}
+			client.close();
+		}
+	}
+
+	public void testPutAllGroupsByTube() {
+		for (boolean shared : new boolean[] { false, true }) {
+			String prefix = "grouped-" + UUID.randomUUID().toString() + "-";
+			ClientImpl client = new ClientImpl(TEST_HOST, TEST_PORT);
+			client.setUniqueConnectionPerThread(!shared);
+			client.useTube(prefix + "current");
+
+			PutBatch batch = new PutBatch();
+			for (int i = 0; i < 30; ++i) {
+				String tubeName = (i % 3 == 0) ? null : prefix + (i % 3);
+				batch.add(tubeName, 65536, 0, 120, ("job-" + i).getBytes());
+			}
+			long uses = Long.parseLong(client.stats().get("cmd-use"));
+			BatchResult result = client.putAll(batch);
+			// one use for each of the two other tubes and one to go back; a shared connection is not trusted to be
+			// on the current tube, so it gets one first too
+			assertEquals(shared ? 4 : 3, Long.parseLong(client.stats().get("cmd-use")) - uses);
+			assertEquals(prefix + "current", client.listTubeUsed());
+			assertEquals(0, result.getFailureCount());
+
+			for (String suffix : new String[] { "current", "1", "2" }) {
+				client.watch(prefix + suffix);
+			}
+			client.ignore("default");
+			int[] last = new int[3];
+			Arrays.fill(last, -1);
+			for (int n = 0; n < 30; ++n) {
+				Job job = client.reserve(0);
+				int i = Integer.parseInt(new String(job.getData()).substring(4));
+				assertEquals(result.getJobId(i), job.getJobId());
+				assertEquals((i % 3 == 0) ? prefix + "current" : prefix + (i % 3),
+						client.statsJob(job.getJobId()).get("tube"));
+				// in order within each tube
+				assertTrue(i > last[i % 3]);
+				last[i % 3] = i;
+				client.delete(job.getJobId());
+			}
+
+			try {
+				client.putAll(new PutBatch().add("-bad", 65536, 0, 120, "x".getBytes()));
+				fail("no BeanstalkException thrown");
+			} catch (BeanstalkException be) {
+				assertEquals("invalid tubeName", be.getMessage());
+			}
+			client.close();
+		}
+	}
+
+	public void testSharedPutAllWithCompetingUse() throws Exception {
+		String prefix = "competing-" + UUID.randomUUID().toString() + "-";
+		final String mine = prefix + "mine";
+		final String other = prefix + "other";
+		final ClientImpl client = new ClientImpl(TEST_HOST, TEST_PORT);
+		client.setUniqueConnectionPerThread(false);
+		client.useTube(other);
+
+		final AtomicBoolean done = new AtomicBoolean(false);
+		Thread competitor = new Thread(new Runnable() {
+			public void run() {
+				// flip the shared connection between the batch's tube and another
+				while (!done.get()) {
+					client.useTube(mine);
+					client.useTube(other);
+				}
+			}
+		});
+		competitor.start();
+		int jobs = 0;
+		try {
+			for (int n = 0; n < 200; ++n) {
+				PutBatch batch = new PutBatch();
+				// to whichever tube the competitor used last
+				batch.add(65536, 0, 120, "untagged".getBytes());
+				for (int i = 0; i < 5; ++i) {
+					batch.add(mine, 65536, 0, 120, "mine".getBytes());
+				}
+				assertEquals(0, client.putAll(batch).getFailureCount());
+				jobs += 6;
+			}
+		} finally {
+			done.set(true);
+			competitor.join();
+		}
+
+		// every batch went back to the tube the competitor left the client on
+		assertEquals(other, client.listTubeUsed());
+		client.watch(mine);
+		client.watch(other);
+		client.ignore("default");
+		int tagged = 0;
+		for (int i = 0; i < jobs; ++i) {
+			Job job = client.reserve(0);
+			if ("mine".equals(new String(job.getData()))) {
+				assertEquals(mine, client.statsJob(job.getJobId()).get("tube"));
+				++tagged;
+			}
+			client.delete(job.getJobId());
+		}
+		assertEquals(1000, tagged);
+		assertNull(client.reserve(0));
+		client.close();
+	}
+
+	public void testSharedConnectionReconnects() {
+		String prefix = "reconnect-" + UUID.randomUUID().toString() + "-";
+		final List<ProtocolHandler> opened = new ArrayList<ProtocolHandler>();
+		ClientImpl client = new ClientImpl(TEST_HOST, TEST_PORT) {
+			@Override
+			ProtocolHandler newProtocolHandler() {
+				ProtocolHandler protocolHandler = super.newProtocolHandler();
+				opened.add(protocolHandler);
+				return protocolHandler;
+			}
+		};
+		client.setUniqueConnectionPerThread(false);
+		client.useTube(prefix + "used");
+		client.watch(prefix + "watched");
+		client.ignore("default");
+		assertTrue(client.put(65536, 0, 120, "before".getBytes()) > 0);
+
+		// break the shared connection under the client; the call that runs into it fails
+		opened.get(0).close();
+		try {
+			client.put(65536, 0, 120, "lost".getBytes());
+			fail("no BeanstalkException thrown");
+		} catch (BeanstalkException be) {
+			// expected
+		}
+
+		// the next call runs on a new connection that uses and watches the same tubes
+		assertTrue(client.put(65536, 0, 120, "after".getBytes()) > 0);
+		assertEquals(2, opened.size());
+		assertEquals(prefix + "used", client.listTubeUsed());
+		assertEquals(Collections.singletonList(prefix + "watched"), client.listTubesWatched());
+		client.useTube(prefix + "watched");
+		long jobId = client.put(65536, 0, 120, "watched".getBytes());
+		Job job = client.reserve(0);
+		assertEquals(jobId, job.getJobId());
+		assertTrue(client.delete(jobId));
+		assertEquals("2", client.statsTube(prefix + "used").get("current-jobs-ready"));
+
+		client.watch(prefix + "used");
+		for (int i = 0; i < 2; ++i) {
+			assertTrue(client.delete(client.reserve(0).getJobId()));
+		}
+		client.close();
+	}
+
+	public void testReserveInto() {
+		byte[] small = "small".getBytes();
+		byte[] large = new byte[20000];
+		new Random(5).nextBytes(large);
+
+		for (Transport transport : Transport.values()) {
+			Client client = new ClientImpl(TEST_HOST, TEST_PORT, transport);
+			Object[] tubeNames = pushWatchedTubes(client);
+			client.useTube((String) tubeNames[1]);
+
+			MutableJob holder = new MutableJob(16, transport == Transport.Channel);
+			assertFalse(client.reserveInto(holder, 0));
+			assertEquals(-1, holder.getJobId());
+
+			long jobId = client.put(65536, 0, 120, large);
+			assertTrue(client.reserveInto(holder, 0));
+			assertEquals(jobId, holder.getJobId());
+			assertEquals(large.length, holder.getLength());
+			assertTrue(Arrays.equals(large, holder.getData()));
+			assertTrue(client.delete(jobId));
+			int capacity = holder.getCapacity();
+			assertTrue(capacity >= large.length);
+
+			// a smaller body reuses the buffer
+			jobId = client.put(65536, 0, 120, small);
+			assertTrue(client.reserveInto(holder, 1));
+			assertEquals(jobId, holder.getJobId());
+			assertEquals(capacity, holder.getCapacity());
+			ByteBuffer body = holder.getBuffer();
+			assertEquals(small.length, body.remaining());
+			assertEquals('s', body.get(0));
+			assertTrue(Arrays.equals(small, holder.getData()));
+			assertTrue(client.delete(jobId));
+
+			popWatchedTubes(client, tubeNames);
+			client.close();
+		}
+	}
+
+	public void testReserveBatch() {
+		for (Transport transport : Transport.values()) {
+			Client client = new ClientImpl(TEST_HOST, TEST_PORT, transport);
+			Object[] tubeNames = pushWatchedTubes(client);
+			client.useTube((String) tubeNames[1]);
+
+			assertTrue(client.reserveBatch(10, 0).isEmpty());
+
+			long[] putIds = new long[25];
+			for (int i = 0; i < putIds.length; ++i) {
+				putIds[i] = client.put(65536, 0, 120, ("job " + i).getBytes());
+			}
+
+			// more asked for than there are: the batch stops short
+			List<Job> jobs = client.reserveBatch(20, 1);
+			assertEquals(20, jobs.size());
+			for (int i = 0; i < jobs.size(); ++i) {
+				assertEquals(putIds[i], jobs.get(i).getJobId());
+				assertEquals("job " + i, new String(jobs.get(i).getData()));
+			}
+			long[] jobIds = new long[10];
+			byte[][] bodies = new byte[10][];
+			assertEquals(5, client.reserveBatch(0, jobIds, bodies));
+			for (int i = 0; i < 5; ++i) {
+				assertEquals(putIds[20 + i], jobIds[i]);
+				assertEquals("job " + (20 + i), new String(bodies[i]));
+			}
+			assertNull(bodies[5]);
+
+			for (Job job : jobs) {
+				assertTrue(client.delete(job.getJobId()));
+			}
+			assertEquals(5, client.deleteAll(Arrays.copyOf(jobIds, 5)).getOk().cardinality());
+
+			try {
+				client.reserveBatch(0, 0);
+				fail("no BeanstalkException thrown");
+			} catch (BeanstalkException be) {
+				assertEquals("invalid max", be.getMessage());
+			}
+
+			popWatchedTubes(client, tubeNames);
+			client.close();
+		}
+	}
+
 	public void testUseTube() {
 		Client client = new ClientImpl(TEST_HOST, TEST_PORT);
 		client.useTube("foobar");
@@ -252,6 +707,71 @@ public class ClientImplTest extends TestCase {
 		}
 	}
 
+	public void testPutAll() {
+		Client client = new ClientImpl(TEST_HOST, TEST_PORT);
+
+		Object[] tubeNames = pushWatchedTubes(client);
+		client.useTube((String) tubeNames[1]);
+
+		int maxJobSize = Integer.parseInt(client.stats().get("max-job-size"));
+		int tooBigIndex = 550;
+
+		// more than one pipeline window
+		PutBatch batch = new PutBatch();
+		for (int i = 0; i < 600; ++i) {
+			byte[] data = (i == tooBigIndex) ? new byte[maxJobSize + 1] : ("testPutAll-" + i).getBytes();
+			batch.add(65536, 0, 120, data);
+		}
+
+		BatchResult result = client.putAll(batch);
+		assertEquals(600, result.size());
+		assertEquals(1, result.getFailureCount());
+		assertFalse(result.isOk(tooBigIndex));
+		assertEquals("JOB_TOO_BIG", result.getStatus(tooBigIndex));
+		assertEquals(-1, result.getJobId(tooBigIndex));
+		assertEquals(0, result.getFailedJobIds().length);
+
+		long previousJobId = 0;
+		for (int i = 0; i < result.size(); ++i) {
+			if (i == tooBigIndex) {
+				continue;
+			}
+			assertEquals("INSERTED", result.getStatus(i));
+			assertTrue(result.getJobId(i) > previousJobId);
+			previousJobId = result.getJobId(i);
+		}
+
+		// jobs come back in insertion order, with their own bodies
+		for (int i = 0; i < result.size(); ++i) {
+			if (i == tooBigIndex) {
+				continue;
+			}
+			Job job = client.reserve(0);
+			assertNotNull(job);
+			assertEquals(result.getJobId(i), job.getJobId());
+			assertEquals("testPutAll-" + i, new String(job.getData()));
+			assertTrue(client.delete(job.getJobId()));
+		}
+		assertNull(client.reserve(0));
+
+		// the connection is still in sync
+		long jobId = client.put(65536, 0, 120, "testPutAll".getBytes());
+		assertTrue(client.delete(jobId));
+
+		// invalid entries are rejected before anything is sent
+		try {
+			client.putAll(new PutBatch().add(65536, 0, 120, "ok".getBytes()).add(-1, 0, 120, "bad".getBytes()));
+			fail("no BeanstalkException thrown");
+		} catch (BeanstalkException be) {
+			assertEquals("invalid priority", be.getMessage());
+		}
+		assertNull(client.reserve(0));
+
+		assertEquals(0, client.putAll(65536, 0, 120, new ArrayList<byte[]>()).size());
+
+		popWatchedTubes(client, tubeNames);
+	}
+
 	// ****************************************************************
 	// Consumer methods
 	// job-related
@@ -561,6 +1081,55 @@ public class ClientImplTest extends TestCase {
 		popWatchedTubes(client, tubeNames);
 	}
 
+	public void testBulkAcknowledge() {
+		Client client = new ClientImpl(TEST_HOST, TEST_PORT);
+
+		Object[] tubeNames = pushWatchedTubes(client);
+		client.useTube((String) tubeNames[1]);
+
+		int nJobs = 6;
+		long[] jobIds = new long[nJobs];
+		for (int i = 0; i < nJobs; ++i) {
+			jobIds[i] = client.put(65536, 0, 120, ("testBulkAcknowledge-" + i).getBytes());
+			assertEquals(jobIds[i], client.reserve(0).getJobId());
+		}
+		long unknownJobId = jobIds[nJobs - 1] + 1000000;
+
+		// touch everything, plus a job that does not exist
+		long[] touchIds = Arrays.copyOf(jobIds, nJobs + 1);
+		touchIds[nJobs] = unknownJobId;
+		BatchResult result = client.touchAll(touchIds);
+		assertEquals(nJobs + 1, result.size());
+		assertEquals(nJobs, result.getOk().cardinality());
+		assertFalse(result.isOk(nJobs));
+		assertEquals("NOT_FOUND", result.getStatus(nJobs));
+		assertTrue(Arrays.equals(new long[] { unknownJobId }, result.getFailedJobIds()));
+
+		// release the first two, bury the next two
+		result = client.releaseAll(new long[] { jobIds[0], jobIds[1] }, 65536, 0);
+		assertEquals(0, result.getFailureCount());
+		result = client.buryAll(new long[] { jobIds[2], jobIds[3] }, 65536);
+		assertEquals(0, result.getFailureCount());
+		assertEquals("buried", client.statsJob(jobIds[2]).get("state"));
+
+		// released jobs can no longer be released or buried by us
+		result = client.releaseAll(new long[] { jobIds[0], jobIds[4] }, 65536, 0);
+		assertFalse(result.isOk(0));
+		assertTrue(result.isOk(1));
+		assertTrue(Arrays.equals(new long[] { jobIds[0] }, result.getFailedJobIds()));
+
+		// and delete them all, twice
+		result = client.deleteAll(jobIds);
+		assertEquals(nJobs, result.getOk().cardinality());
+		result = client.deleteAll(jobIds);
+		assertEquals(nJobs, result.getFailureCount());
+		assertTrue(Arrays.equals(jobIds, result.getFailedJobIds()));
+
+		assertEquals(0, client.deleteAll(new long[0]).size());
+
+		popWatchedTubes(client, tubeNames);
+	}
+
 	// ****************************************************************
 	// Consumer methods
 	// stats-related
@@ -920,6 +1489,63 @@ public class ClientImplTest extends TestCase {
 		}
 	}
 
+	public void testSharedConnection() throws Exception {
+		final Client client = new ClientImpl(TEST_HOST, TEST_PORT);
+		client.setUniqueConnectionPerThread(false);
+		Object[] tubeNames = pushWatchedTubes(client);
+		final String tubeName = (String) tubeNames[1];
+		client.useTube(tubeName);
+
+		// a blocking reserve must not hold up the other threads
+		ExecutorService executor = Executors.newFixedThreadPool(9);
+		Future<Job> blocked = executor.submit(() -> client.reserve(10));
+
+		int nThreads = 8;
+		final int nPuts = 50;
+		List<Future<List<Long>>> results = new ArrayList<Future<List<Long>>>();
+		for (int t = 0; t < nThreads; ++t) {
+			results.add(executor.submit(() -> {
+				List<Long> jobIds = new ArrayList<Long>();
+				for (int i = 0; i < nPuts; ++i) {
+					jobIds.add(client.put(65536, 0, 120, ("job-" + i).getBytes()));
+					assertEquals(tubeName, client.listTubeUsed());
+				}
+				return jobIds;
+			}));
+		}
+		Set<Long> jobIds = new HashSet<Long>();
+		for (Future<List<Long>> result : results) {
+			for (long jobId : result.get()) {
+				assertTrue(jobIds.add(jobId));
+			}
+		}
+		assertEquals(nThreads * nPuts, jobIds.size());
+
+		// reserved on its own connection, finished from this thread
+		Job job = blocked.get();
+		assertNotNull(job);
+		assertTrue(jobIds.remove(job.getJobId()));
+		assertTrue(client.touch(job.getJobId()));
+		assertTrue(client.delete(job.getJobId()));
+		executor.shutdown();
+
+		long[] rest = new long[jobIds.size()];
+		int n = 0;
+		for (long jobId : jobIds) {
+			rest[n++] = jobId;
+		}
+		assertEquals(0, client.deleteAll(rest).getFailureCount());
+
+		popWatchedTubes(client, tubeNames);
+		client.close();
+		try {
+			client.listTubeUsed();
+			fail("didn't throw expected exception");
+		} catch (BeanstalkException be) {
+			assertEquals("Socket is closed", be.getMessage());
+		}
+	}
+
 	public void testUseBlockIO() {
 
 		String remoteHost = TEST_HOST;
@@ -0,0 +1,229 @@
+package com.surftools.BeanstalkClientImpl;
+
+/*
+
+ Copyright 2009-2020 Robert Tykulsker 
+
+ This file is part of JavaBeanstalkCLient.
+
+ JavaBeanstalkCLient is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version, or alternatively, the BSD license supplied
+ with this project in the file "BSD-LICENSE".
+
+ JavaBeanstalkCLient is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with JavaBeanstalkCLient.  If not, see <http://www.gnu.org/licenses/>.
+
+ */
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.surftools.BeanstalkClient.BeanstalkException;
+import com.surftools.BeanstalkClient.Client;
+import com.surftools.BeanstalkClient.Job;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+public class ConnectionPoolTest extends TestCase {
+
+	private String TEST_HOST = "localhost";
+	private int TEST_PORT = 11300;
+
+	public ConnectionPoolTest(String testName) {
+		super(testName);
+	}
+
+	public static Test suite() {
+		return new TestSuite(ConnectionPoolTest.class);
+	}
+
+	public void testManyThreadsFewConnections() throws Exception {
+		final ConnectionPool pool = new ConnectionPool(TEST_HOST, TEST_PORT, Transport.Stream, 1, 3, 10000, 60000);
+		assertEquals(1, pool.getSize());
+		final Client client = new ClientImpl(pool);
+
+		// every thread has its own tube, though the threads take turns on three connections
+		int nThreads = 12;
+		ExecutorService executor = Executors.newFixedThreadPool(nThreads);
+		List<Future<String>> results = new ArrayList<Future<String>>();
+		for (int t = 0; t < nThreads; ++t) {
+			results.add(executor.submit(() -> {
+				String tubeName = "tube-" + UUID.randomUUID().toString();
+				client.useTube(tubeName);
+				client.watch(tubeName);
+				client.ignore("default");
+				for (int i = 0; i < 20; ++i) {
+					long jobId = client.put(65536, 0, 120, (tubeName + i).getBytes());
+					assertEquals(tubeName, client.listTubeUsed());
+					Job job = client.reserve(0);
+					assertNotNull(job);
+					assertEquals(jobId, job.getJobId());
+					assertEquals(tubeName + i, new String(job.getData()));
+					assertTrue(client.delete(jobId));
+				}
+				return tubeName;
+			}));
+		}
+		for (Future<String> result : results) {
+			result.get();
+		}
+		executor.shutdown();
+
+		assertTrue(pool.getSize() <= 3);
+		assertEquals(pool.getSize(), pool.getIdleCount());
+
+		client.close();
+		assertTrue(pool.isClosed());
+		assertEquals(0, pool.getSize());
+		try {
+			client.stats();
+			fail("no BeanstalkException thrown");
+		} catch (BeanstalkException be) {
+			assertEquals("Connection pool is closed", be.getMessage());
+		}
+	}
+
+	public void testFinishReservedJobFromAnotherThread() throws Exception {
+		ConnectionPool pool = new ConnectionPool(TEST_HOST, TEST_PORT, 0, 2);
+		final Client client = new ClientImpl(pool);
+		String tubeName = "tube-" + UUID.randomUUID().toString();
+		client.useTube(tubeName);
+		client.watch(tubeName);
+		client.ignore("default");
+
+		long[] jobIds = new long[3];
+		for (int i = 0; i < jobIds.length; ++i) {
+			jobIds[i] = client.put(65536, 0, 120, "job".getBytes());
+		}
+		for (int i = 0; i < jobIds.length; ++i) {
+			assertEquals(jobIds[i], client.reserve(0).getJobId());
+		}
+		// all three are held on the connection that reserved them
+		assertEquals(1, pool.getSize());
+		assertEquals(0, pool.getIdleCount());
+
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		assertTrue(executor.submit(() -> client.delete(jobIds[0])).get());
+		assertTrue(executor.submit(() -> client.deleteAll(new long[] { jobIds[1], jobIds[2] }).getFailureCount() == 0)
+				.get());
+		executor.shutdown();
+
+		// finished, so the connection is back
+		assertEquals(1, pool.getIdleCount());
+		client.close();
+	}
+
+	public void testReserveBatchPinsEveryJob() {
+		ConnectionPool pool = new ConnectionPool(TEST_HOST, TEST_PORT, 0, 2);
+		Client client = new ClientImpl(pool);
+		String tubeName = "tube-" + UUID.randomUUID().toString();
+		client.useTube(tubeName);
+		client.watch(tubeName);
+		client.ignore("default");
+
+		for (int i = 0; i < 4; ++i) {
+			client.put(65536, 0, 120, "job".getBytes());
+		}
+		List<Job> jobs = client.reserveBatch(10, 0);
+		assertEquals(4, jobs.size());
+		assertEquals(0, pool.getIdleCount());
+		for (Job job : jobs) {
+			assertTrue(client.delete(job.getJobId()));
+		}
+		assertEquals(1, pool.getIdleCount());
+		client.close();
+	}
+
+	public void testBorrowTimeout() throws Exception {
+		ConnectionPool pool = new ConnectionPool(TEST_HOST, TEST_PORT, Transport.Stream, 0, 1, 100, 0);
+		final Client client = new ClientImpl(pool);
+		String tubeName = "tube-" + UUID.randomUUID().toString();
+		client.useTube(tubeName);
+		client.watch(tubeName);
+		client.put(65536, 0, 120, "job".getBytes());
+		Job job = client.reserve(0);
+		assertNotNull(job);
+
+		// the only connection holds the job
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			executor.submit(() -> client.stats()).get();
+			fail("no BeanstalkException thrown");
+		} catch (java.util.concurrent.ExecutionException e) {
+			assertEquals("Timed out waiting for a connection", e.getCause().getMessage());
+		}
+		executor.shutdown();
+
+		assertTrue(client.delete(job.getJobId()));
+		assertNotNull(client.stats());
+		client.close();
+	}
+
+	public void testIdleEviction() throws Exception {
+		ConnectionPool pool = new ConnectionPool(TEST_HOST, TEST_PORT, Transport.Stream, 1, 4, 10000, 100);
+		List<ProtocolHandler> borrowed = new ArrayList<ProtocolHandler>();
+		for (int i = 0; i < 4; ++i) {
+			borrowed.add(pool.borrow());
+		}
+		assertEquals(4, pool.getSize());
+		for (ProtocolHandler protocolHandler : borrowed) {
+			pool.giveBack(protocolHandler);
+		}
+		assertEquals(4, pool.getIdleCount());
+
+		Thread.sleep(500);
+		assertEquals(1, pool.getSize());
+		pool.close();
+	}
+
+	public void testBrokenConnectionIsNotReturned() {
+		ConnectionPool pool = new ConnectionPool(TEST_HOST, TEST_PORT, 0, 2);
+		pool.setValidateAfterIdleMillis(0);
+		ProtocolHandler protocolHandler = pool.borrow();
+		protocolHandler.close();
+		pool.giveBack(protocolHandler);
+		assertEquals(0, pool.getSize());
+
+		// an idle connection that went away is replaced on borrow
+		protocolHandler = pool.borrow();
+		pool.giveBack(protocolHandler);
+		protocolHandler.close();
+		ProtocolHandler replacement = pool.borrow();
+		assertNotSame(protocolHandler, replacement);
+		assertEquals(1, pool.getSize());
+		pool.giveBack(replacement);
+		pool.close();
+	}
+
+	public void testEvictorRefillsToMinSize() throws Exception {
+		ConnectionPool pool = new ConnectionPool(TEST_HOST, TEST_PORT, Transport.Stream, 2, 4, 10000, 100);
+		ProtocolHandler first = pool.borrow();
+		ProtocolHandler second = pool.borrow();
+		first.close();
+		second.close();
+		pool.giveBack(first);
+		pool.giveBack(second);
+		assertEquals(0, pool.getSize());
+
+		Thread.sleep(500);
+		assertEquals(2, pool.getSize());
+		assertEquals(2, pool.getIdleCount());
+		ProtocolHandler protocolHandler = pool.borrow();
+		assertTrue(protocolHandler.isOpen());
+		pool.giveBack(protocolHandler);
+		pool.close();
+		assertEquals(0, pool.getSize());
+	}
+}
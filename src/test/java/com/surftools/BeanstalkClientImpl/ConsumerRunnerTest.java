@@ -0,0 +1,191 @@
+package com.surftools.BeanstalkClientImpl;
+
+/*
+
+ Copyright 2009-2020 Robert Tykulsker 
+
+ This file is part of JavaBeanstalkCLient.
+
+ JavaBeanstalkCLient is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version, or alternatively, the BSD license supplied
+ with this project in the file "BSD-LICENSE".
+
+ JavaBeanstalkCLient is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with JavaBeanstalkCLient.  If not, see <http://www.gnu.org/licenses/>.
+
+ */
+
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.surftools.BeanstalkClient.Client;
+import com.surftools.BeanstalkClient.Job;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+public class ConsumerRunnerTest extends TestCase {
+
+	private String TEST_HOST = "localhost";
+	private int TEST_PORT = 11300;
+
+	public ConsumerRunnerTest(String testName) {
+		super(testName);
+	}
+
+	public static Test suite() {
+		return new TestSuite(ConsumerRunnerTest.class);
+	}
+
+	private Client newClient(String tubeName) {
+		Client client = new ClientImpl(TEST_HOST, TEST_PORT);
+		client.useTube(tubeName);
+		client.watch(tubeName);
+		client.ignore("default");
+		return client;
+	}
+
+	public void testDeleteRetryAndBury() throws Exception {
+		String tubeName = "consumer-" + UUID.randomUUID().toString();
+		Client producer = newClient(tubeName);
+		for (int i = 0; i < 50; ++i) {
+			producer.put(65536, 0, 120, ((i % 10 == 0) ? "fail" : "ok").getBytes());
+		}
+
+		final Set<Long> handled = ConcurrentHashMap.newKeySet();
+		// the runner sets up its own watch list, on its own thread
+		Client consumer = new ClientImpl(TEST_HOST, TEST_PORT);
+		ConsumerRunner runner = new ConsumerRunner(consumer, new String[] { tubeName }, job -> {
+			if ("fail".equals(new String(job.getData()))) {
+				throw new IllegalStateException("fail");
+			}
+			handled.add(job.getJobId());
+		}, 4);
+		runner.setMaxAttempts(2);
+		runner.setBackoff(0, 0);
+		runner.setPrefetch(8);
+		runner.start();
+
+		for (int i = 0; i < 200 && runner.getBuriedCount() < 5; ++i) {
+			Thread.sleep(50);
+		}
+		runner.shutdown();
+		assertTrue(runner.awaitTermination(10, TimeUnit.SECONDS));
+		assertTrue(runner.isTerminated());
+
+		assertEquals(45, handled.size());
+		assertEquals(45, runner.getSucceededCount());
+		// each failing job was tried twice, then buried
+		assertEquals(10, runner.getFailedCount());
+		assertEquals(5, runner.getBuriedCount());
+		Map<String, String> stats = producer.statsTube(tubeName);
+		assertEquals("5", stats.get("current-jobs-buried"));
+		assertEquals("0", stats.get("current-jobs-ready"));
+		assertEquals("0", stats.get("current-jobs-reserved"));
+		producer.close();
+	}
+
+	public void testShutdownReleasesPrefetchedJobs() throws Exception {
+		String tubeName = "consumer-" + UUID.randomUUID().toString();
+		Client producer = newClient(tubeName);
+		for (int i = 0; i < 10; ++i) {
+			producer.put(65536, 0, 120, "slow".getBytes());
+		}
+
+		final CountDownLatch started = new CountDownLatch(1);
+		Client consumer = new ClientImpl(TEST_HOST, TEST_PORT);
+		ConsumerRunner runner = new ConsumerRunner(consumer, new String[] { tubeName }, job -> {
+			started.countDown();
+			Thread.sleep(300);
+		}, 1);
+		runner.setPrefetch(10);
+		runner.start();
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+		runner.shutdown();
+		assertTrue(runner.awaitTermination(10, TimeUnit.SECONDS));
+
+		// the job being handled was finished and deleted, the rest went back to the ready queue
+		assertEquals(1, runner.getSucceededCount());
+		Map<String, String> stats = producer.statsTube(tubeName);
+		assertEquals("9", stats.get("current-jobs-ready"));
+		assertEquals("0", stats.get("current-jobs-reserved"));
+		for (Job job : producer.reserveBatch(10, 0)) {
+			producer.delete(job.getJobId());
+		}
+		producer.close();
+	}
+
+	public void testExpiredPrefetchedJobIsReleased() throws Exception {
+		String tubeName = "consumer-" + UUID.randomUUID().toString();
+		Client producer = newClient(tubeName);
+		producer.put(65536, 0, 120, "slow".getBytes());
+		producer.put(65536, 0, 120, "waits".getBytes());
+
+		final AtomicInteger calls = new AtomicInteger();
+		Client consumer = new ClientImpl(TEST_HOST, TEST_PORT);
+		ConsumerRunner runner = new ConsumerRunner(consumer, new String[] { tubeName }, job -> {
+			if (calls.incrementAndGet() == 1) {
+				Thread.sleep(1500);
+			}
+		}, 1);
+		runner.setPrefetch(2);
+		// the second job waits in the queue past its time to run, as far as the runner knows
+		runner.setTtrSeconds(2);
+		runner.start();
+
+		// released at once, reserved again and handled, rather than held until the server's ttr of 120s runs out
+		for (int i = 0; i < 100 && runner.getSucceededCount() < 2; ++i) {
+			Thread.sleep(50);
+		}
+		runner.shutdown();
+		assertTrue(runner.awaitTermination(10, TimeUnit.SECONDS));
+		assertEquals(2, runner.getSucceededCount());
+		assertTrue(runner.getExpiredCount() >= 1);
+		assertNull(runner.getLastError());
+		assertEquals("0", producer.statsTube(tubeName).get("current-jobs-reserved"));
+		producer.close();
+	}
+
+	public void testEmptyPollsBackOff() throws Exception {
+		String tubeName = "consumer-" + UUID.randomUUID().toString();
+		Client producer = newClient(tubeName);
+		producer.put(65536, 0, 120, "slow".getBytes());
+
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(1);
+		Client consumer = new ClientImpl(TEST_HOST, TEST_PORT);
+		ConsumerRunner runner = new ConsumerRunner(consumer, new String[] { tubeName }, job -> {
+			started.countDown();
+			Thread.sleep(1500);
+			done.countDown();
+		}, 1);
+		// one free slot, so each poll is one reserve-with-timeout
+		runner.setPrefetch(1);
+		runner.start();
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+		long before = Long.parseLong(producer.stats().get("cmd-reserve-with-timeout"));
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		long polls = Long.parseLong(producer.stats().get("cmd-reserve-with-timeout")) - before;
+		// a poll every 20ms would be about 75
+		assertTrue("polls: " + polls, polls < 20);
+
+		runner.shutdown();
+		assertTrue(runner.awaitTermination(10, TimeUnit.SECONDS));
+		assertEquals(1, runner.getSucceededCount());
+		assertNull(runner.getLastError());
+		producer.close();
+	}
+}
@@ -0,0 +1,93 @@
+package com.surftools.BeanstalkClientImpl;
+
+/*
+
+ Copyright 2009-2020 Robert Tykulsker 
+
+ This file is part of JavaBeanstalkCLient.
+
+ JavaBeanstalkCLient is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version, or alternatively, the BSD license supplied
+ with this project in the file "BSD-LICENSE".
+
+ JavaBeanstalkCLient is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with JavaBeanstalkCLient.  If not, see <http://www.gnu.org/licenses/>.
+
+ */
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+
+/**
+ * heap allocated per request encoded, for put, delete and reserve. Not run by surefire, and needs no server:
+ *
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.surftools.BeanstalkClientImpl.EncodingBenchmark
+ *
+ * optional args: iterations
+ *
+ * "string" is the way commands used to be built, by concatenation; the request object itself is counted in both.
+ *
+ */
+public class EncodingBenchmark {
+
+	private interface Encode {
+		Request request(int i);
+	}
+
+	private static final byte[] BODY = new byte[256];
+
+	public static void main(String[] args) {
+		int iterations = (args.length > 0) ? Integer.parseInt(args[0]) : 1000000;
+
+		for (int round = 0; round < 2; ++round) {
+			// first round warms up
+			boolean report = round > 0;
+			run("put", iterations, report, i -> Commands.put(65536, 0, 120, BODY));
+			run("put string", iterations, report, i -> new Request("put " + 65536 + " " + 0 + " " + 120 + " "
+					+ BODY.length, "INSERTED", "JOB_TOO_BIG", BODY, ExpectedResponse.None));
+			run("delete", iterations, report, i -> Commands.delete(1000000L + i));
+			run("delete string", iterations, report,
+					i -> new Request("delete " + (1000000L + i), "DELETED", "NOT_FOUND", null, ExpectedResponse.None));
+			run("reserve", iterations, report, i -> Commands.reserve(5));
+			run("reserve string", iterations, report, i -> new Request("reserve-with-timeout " + Integer.valueOf(5),
+					"RESERVED", "TIMED_OUT", null, ExpectedResponse.ByteArray, 2));
+		}
+	}
+
+	private static void run(String name, int iterations, boolean report, Encode encode) {
+		RequestWriter writer = new RequestWriter(new OutputStream() {
+			@Override
+			public void write(int b) {
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) {
+			}
+		});
+
+		long startBytes = allocatedBytes();
+		long startNanos = System.nanoTime();
+		for (int i = 0; i < iterations; ++i) {
+			writer.write(encode.request(i));
+			writer.flush();
+		}
+		long nanos = System.nanoTime() - startNanos;
+		long bytes = allocatedBytes() - startBytes;
+
+		if (report) {
+			System.out.println(String.format("%-16s %8.1f ns/op %6d bytes/op", name, (double) nanos / iterations,
+					bytes / iterations));
+		}
+	}
+
+	private static long allocatedBytes() {
+		return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+				.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+}
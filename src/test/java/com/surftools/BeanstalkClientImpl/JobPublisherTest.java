@@ -0,0 +1,165 @@
+package com.surftools.BeanstalkClientImpl;
+
+/*
+
+ Copyright 2009-2020 Robert Tykulsker 
+
+ This file is part of JavaBeanstalkCLient.
+
+ JavaBeanstalkCLient is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version, or alternatively, the BSD license supplied
+ with this project in the file "BSD-LICENSE".
+
+ JavaBeanstalkCLient is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with JavaBeanstalkCLient.  If not, see <http://www.gnu.org/licenses/>.
+
+ */
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Flow;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+
+import com.surftools.BeanstalkClient.Client;
+import com.surftools.BeanstalkClient.Job;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+public class JobPublisherTest extends TestCase {
+
+	private String TEST_HOST = "localhost";
+	private int TEST_PORT = 11300;
+
+	public JobPublisherTest(String testName) {
+		super(testName);
+	}
+
+	public static Test suite() {
+		return new TestSuite(JobPublisherTest.class);
+	}
+
+	private Map<String, String> awaitStats(Client client, String tubeName, int ready, int reserved)
+			throws InterruptedException {
+		Map<String, String> stats = null;
+		for (int i = 0; i < 100; ++i) {
+			stats = client.statsTube(tubeName);
+			if (stats.get("current-jobs-ready").equals(Integer.toString(ready))
+					&& stats.get("current-jobs-reserved").equals(Integer.toString(reserved))) {
+				break;
+			}
+			Thread.sleep(20);
+		}
+		return stats;
+	}
+
+	public void testDemandAndCancel() throws Exception {
+		String tubeName = "publisher-" + UUID.randomUUID().toString();
+		Client producer = new ClientImpl(TEST_HOST, TEST_PORT);
+		producer.useTube(tubeName);
+		for (int i = 0; i < 10; ++i) {
+			producer.put(65536, 0, 120, ("job-" + i).getBytes());
+		}
+
+		final Client client = new ClientImpl(TEST_HOST, TEST_PORT);
+		final BlockingQueue<String> received = new LinkedBlockingQueue<String>();
+		final Flow.Subscription[] subscription = new Flow.Subscription[1];
+		final boolean[] cancelOnNext = new boolean[1];
+		JobPublisher publisher = new JobPublisher(client, new String[] { tubeName });
+		publisher.setReserveTimeoutSeconds(0);
+		publisher.subscribe(new Flow.Subscriber<Job>() {
+			@Override
+			public void onSubscribe(Flow.Subscription s) {
+				subscription[0] = s;
+				s.request(3);
+			}
+
+			@Override
+			public void onNext(Job job) {
+				// acknowledged on the thread, and so the connection, that reserved it
+				client.delete(job.getJobId());
+				received.add(new String(job.getData()));
+				if (cancelOnNext[0]) {
+					subscription[0].cancel();
+				}
+			}
+
+			@Override
+			public void onError(Throwable throwable) {
+				received.add("error: " + throwable.getMessage());
+			}
+
+			@Override
+			public void onComplete() {
+				received.add("complete");
+			}
+		});
+
+		for (int i = 0; i < 3; ++i) {
+			assertEquals("job-" + i, received.poll(5, TimeUnit.SECONDS));
+		}
+		// no demand, no reserves
+		assertNull(received.poll(300, TimeUnit.MILLISECONDS));
+		Map<String, String> stats = awaitStats(producer, tubeName, 7, 0);
+		assertEquals("7", stats.get("current-jobs-ready"));
+		assertEquals("0", stats.get("current-jobs-reserved"));
+
+		// a batch of five is reserved, one is delivered and the rest go back
+		cancelOnNext[0] = true;
+		subscription[0].request(5);
+		assertEquals("job-3", received.poll(5, TimeUnit.SECONDS));
+		stats = awaitStats(producer, tubeName, 6, 0);
+		assertEquals("6", stats.get("current-jobs-ready"));
+		assertEquals("0", stats.get("current-jobs-reserved"));
+		assertNull(received.poll(300, TimeUnit.MILLISECONDS));
+
+		producer.watch(tubeName);
+		Job job;
+		while ((job = producer.reserve(0)) != null) {
+			producer.delete(job.getJobId());
+		}
+		producer.close();
+	}
+
+	public void testPutSubscriberBatches() throws Exception {
+		String tubeName = "subscriber-" + UUID.randomUUID().toString();
+		Client client = new ClientImpl(TEST_HOST, TEST_PORT);
+		client.setUniqueConnectionPerThread(false);
+		PutSubscriber subscriber = new PutSubscriber(client, tubeName, 65536, 0, 120, 8);
+		try (SubmissionPublisher<byte[]> publisher = new SubmissionPublisher<byte[]>()) {
+			publisher.subscribe(subscriber);
+			for (int i = 0; i < 50; ++i) {
+				publisher.submit(("body-" + i).getBytes());
+				if (i % 10 == 0) {
+					// another user of the shared connection moves it to a different tube
+					client.useTube(tubeName + "-other");
+				}
+			}
+		}
+		assertEquals(Long.valueOf(50), subscriber.getCompletion().get(10, TimeUnit.SECONDS));
+		assertEquals(0, subscriber.getFailedCount());
+
+		Client consumer = new ClientImpl(TEST_HOST, TEST_PORT);
+		consumer.watch(tubeName);
+		consumer.ignore("default");
+		for (int i = 0; i < 50; ++i) {
+			Job job = consumer.reserve(0);
+			assertEquals("body-" + i, new String(job.getData()));
+			consumer.delete(job.getJobId());
+		}
+		assertNull(consumer.reserve(0));
+		consumer.close();
+		client.close();
+	}
+}
@@ -0,0 +1,156 @@
+package com.surftools.BeanstalkClientImpl;
+
+/*
+
+ Copyright 2009-2020 Robert Tykulsker 
+
+ This file is part of JavaBeanstalkCLient.
+
+ JavaBeanstalkCLient is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version, or alternatively, the BSD license supplied
+ with this project in the file "BSD-LICENSE".
+
+ JavaBeanstalkCLient is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with JavaBeanstalkCLient.  If not, see <http://www.gnu.org/licenses/>.
+
+ */
+
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import com.surftools.BeanstalkClient.BeanstalkException;
+import com.surftools.BeanstalkClient.Client;
+import com.surftools.BeanstalkClient.Job;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+public class LeaseRenewerTest extends TestCase {
+
+	private String TEST_HOST = "localhost";
+	private int TEST_PORT = 11300;
+
+	public LeaseRenewerTest(String testName) {
+		super(testName);
+	}
+
+	public static Test suite() {
+		return new TestSuite(LeaseRenewerTest.class);
+	}
+
+	private ClientImpl newSharedClient(String tubeName) {
+		ClientImpl client = new ClientImpl(TEST_HOST, TEST_PORT);
+		client.setUniqueConnectionPerThread(false);
+		client.useTube(tubeName);
+		client.watch(tubeName);
+		client.ignore("default");
+		return client;
+	}
+
+	public void testJobsOutliveTheirTtr() throws Exception {
+		String tubeName = "lease-" + UUID.randomUUID().toString();
+		ClientImpl client = newSharedClient(tubeName);
+		long first = client.put(65536, 0, 2, "first".getBytes());
+		long second = client.put(65536, 0, 2, "second".getBytes());
+
+		LeaseRenewer renewer = new LeaseRenewer(client, 0.5, 50);
+		try {
+			Job job = renewer.reserve(0);
+			assertEquals(first, job.getJobId());
+			assertTrue(renewer.isTracked(first));
+			Job other = client.reserve(0);
+			assertEquals(second, other.getJobId());
+			renewer.track(second, 2);
+			assertEquals(2, renewer.getTrackedCount());
+
+			// hold both well past their time to run
+			Thread.sleep(4500);
+			assertEquals("reserved", client.statsJob(first).get("state"));
+			assertEquals("reserved", client.statsJob(second).get("state"));
+			assertTrue(renewer.getTouchCount() >= 4);
+			assertEquals(0, renewer.getLostCount());
+
+			// an untracked job runs out
+			renewer.untrack(second);
+			Thread.sleep(3000);
+			assertEquals("ready", client.statsJob(second).get("state"));
+			assertEquals("reserved", client.statsJob(first).get("state"));
+
+			assertTrue(client.delete(first));
+			// its next touch finds it gone
+			Thread.sleep(1500);
+			assertFalse(renewer.isTracked(first));
+			assertEquals(1, renewer.getLostCount());
+			assertTrue(client.delete(second));
+		} finally {
+			renewer.close();
+			client.close();
+		}
+	}
+
+	public void testWaitingConnectionDoesNotStallOthers() throws Exception {
+		final String tubeName = "lease-" + UUID.randomUUID().toString();
+		final ClientImpl client = new ClientImpl(new ConnectionPool(TEST_HOST, TEST_PORT, 1, 2));
+		client.useTube(tubeName);
+		client.watch(tubeName);
+		client.ignore("default");
+		long other = client.put(65536, 0, 2, "other".getBytes());
+		Job job = client.reserve(0);
+		assertEquals(other, job.getJobId());
+		final long waiter = client.put(65536, 0, 10, "waiter".getBytes());
+
+		LeaseRenewer renewer = new LeaseRenewer(client, 0.5, 50);
+		final CountDownLatch reserved = new CountDownLatch(1);
+		Thread thread = new Thread(new Runnable() {
+			public void run() {
+				client.watch(tubeName);
+				client.ignore("default");
+				Job job = client.reserve(0);
+				assertEquals(waiter, job.getJobId());
+				reserved.countDown();
+				// blocks its connection, which holds the job, until the timeout
+				assertNull(client.reserve(4));
+			}
+		});
+		try {
+			thread.start();
+			assertTrue(reserved.await(5, TimeUnit.SECONDS));
+			// due on the same ticks, so both are in each batch
+			renewer.track(waiter, 2);
+			renewer.track(other, 2);
+
+			Thread.sleep(3000);
+			assertEquals("reserved", client.statsJob(other).get("state"));
+			thread.join();
+			Thread.sleep(1500);
+			assertEquals(0, renewer.getLostCount());
+			assertTrue(renewer.isTracked(waiter));
+			assertTrue(client.delete(other));
+			assertTrue(client.delete(waiter));
+		} finally {
+			renewer.close();
+			client.close();
+		}
+	}
+
+	public void testPerThreadClientIsRejected() {
+		Client client = new ClientImpl(TEST_HOST, TEST_PORT);
+		try {
+			new LeaseRenewer(client);
+			fail("no BeanstalkException thrown");
+		} catch (BeanstalkException be) {
+			assertEquals("lease renewal needs a shared or pooled client", be.getMessage());
+		} finally {
+			client.close();
+		}
+	}
+}
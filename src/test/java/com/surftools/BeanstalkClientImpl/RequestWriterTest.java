@@ -0,0 +1,183 @@
+package com.surftools.BeanstalkClientImpl;
+
+/*
+
+ Copyright 2009-2020 Robert Tykulsker 
+
+ This file is part of JavaBeanstalkCLient.
+
+ JavaBeanstalkCLient is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version, or alternatively, the BSD license supplied
+ with this project in the file "BSD-LICENSE".
+
+ JavaBeanstalkCLient is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with JavaBeanstalkCLient.  If not, see <http://www.gnu.org/licenses/>.
+
+ */
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import com.surftools.BeanstalkClient.BeanstalkException;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * checks the bytes put on the wire, without a server
+ */
+public class RequestWriterTest extends TestCase {
+
+	public RequestWriterTest(String testName) {
+		super(testName);
+	}
+
+	public static Test suite() {
+		return new TestSuite(RequestWriterTest.class);
+	}
+
+	private String encode(Request request, int bufferSize) {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		RequestWriter writer = new RequestWriter(os, bufferSize);
+		writer.write(request);
+		writer.flush();
+		return new String(os.toByteArray());
+	}
+
+	private String encodeOverChannel(Request request, int bufferSize) {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		RequestWriter writer = new RequestWriter(Channels.newChannel(os), bufferSize);
+		writer.write(request);
+		writer.flush();
+		return new String(os.toByteArray());
+	}
+
+	public void testCommands() {
+		assertEquals("put 4294967296 0 120 3\r\nabc\r\n",
+				encode(Commands.put(4294967296L, 0, 120, "abc".getBytes()), 64));
+		assertEquals("reserve\r\n", encode(Commands.reserve(null), 64));
+		assertEquals("reserve-with-timeout -1\r\n", encode(Commands.reserve(-1), 64));
+		assertEquals("delete 9223372036854775807\r\n", encode(Commands.delete(Long.MAX_VALUE), 64));
+		assertEquals("release 1 -2 -2147483648\r\n", encode(Commands.release(1, -2, Integer.MIN_VALUE), 64));
+		assertEquals("use my-tube\r\n", encode(Commands.use("my-tube"), 64));
+		assertEquals("pause-tube my-tube 10\r\n", encode(Commands.pauseTube("my-tube", 10), 64));
+		assertEquals("stats-tube null\r\n", encode(Commands.statsTube(null), 64));
+		assertEquals("list-tubes-watched\r\n", encode(Commands.listTubesWatched(), 64));
+	}
+
+	public void testCommandLineMatchesEncoding() {
+		Request request = Commands.release(17, 1024, 5);
+		assertEquals(request.getCommand() + "\r\n", encode(request, 64));
+
+		// the old way of building a request still works
+		Request legacy = new Request("release 17 1024 5", "RELEASED", "NOT_FOUND", null, ExpectedResponse.None);
+		assertEquals("release 17 1024 5\r\n", encode(legacy, 64));
+	}
+
+	public void testBufferBoundaries() {
+		byte[] body = new byte[1000];
+		Arrays.fill(body, (byte) 'x');
+		String expected = "put 65536 0 120 1000\r\n" + new String(body) + "\r\n";
+		for (int bufferSize : new int[] { 20, 21, 33, 64, 4096 }) {
+			assertEquals(expected, encode(Commands.put(65536, 0, 120, body), bufferSize));
+		}
+	}
+
+	public void testBodySlicesAndBuffers() {
+		byte[] body = new byte[1000];
+		for (int i = 0; i < body.length; ++i) {
+			body[i] = (byte) ('a' + i % 26);
+		}
+		String slice = new String(body, 100, 700);
+		String expected = "put 1 2 3 700\r\n" + slice + "\r\nuse t\r\n";
+
+		for (int bufferSize : new int[] { 20, 64, 4096 }) {
+			for (int kind = 0; kind < 3; ++kind) {
+				ByteBuffer direct = ByteBuffer.allocateDirect(body.length);
+				direct.put(body).position(100).limit(800);
+				ByteBuffer heap = ByteBuffer.wrap(body, 100, 700);
+				Request put = (kind == 0) ? Commands.put(new Request(), 1, 2, 3, body, 100, 700)
+						: Commands.put(new Request(), 1, 2, 3, (kind == 1) ? heap : direct);
+
+				ByteArrayOutputStream os = new ByteArrayOutputStream();
+				RequestWriter writer = new RequestWriter(os, bufferSize);
+				writer.write(put);
+				writer.write(Commands.use("t"));
+				writer.flush();
+				assertEquals(expected, new String(os.toByteArray()));
+
+				// rewind any buffer for the channel run
+				heap.position(100);
+				direct.position(100);
+				String onChannel = encodeOverChannel(put, bufferSize);
+				assertEquals(expected.substring(0, expected.length() - 7), onChannel);
+				if (kind > 0) {
+					assertEquals(800, ((kind == 1) ? heap : direct).position());
+				}
+			}
+		}
+
+		try {
+			Commands.put(new Request(), 1, 2, 3, body, 900, 200);
+			fail("no BeanstalkException thrown");
+		} catch (BeanstalkException be) {
+			assertEquals("invalid offset or length", be.getMessage());
+		}
+	}
+
+	public void testStreamedBodies() throws IOException {
+		byte[] body = new byte[5000];
+		for (int i = 0; i < body.length; ++i) {
+			body[i] = (byte) ('a' + i % 26);
+		}
+		File file = File.createTempFile("RequestWriterTest", ".dat");
+		file.deleteOnExit();
+		try (FileOutputStream fos = new FileOutputStream(file)) {
+			fos.write(new byte[100]);
+			fos.write(body);
+		}
+
+		String expected = "put 1 2 3 5000\r\n" + new String(body) + "\r\n";
+		try (FileChannel fc = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			for (int bufferSize : new int[] { 20, 64, 4096, 8192 }) {
+				for (boolean onChannel : new boolean[] { false, true }) {
+					Request[] requests = new Request[] {
+							Commands.put(new Request(), 1, 2, 3, new ByteArrayInputStream(body), 5000),
+							Commands.put(new Request(), 1, 2, 3, Channels.newChannel(new ByteArrayInputStream(body)), -1,
+									5000),
+							Commands.put(new Request(), 1, 2, 3, fc, 100, 5000), };
+					for (Request request : requests) {
+						String wire = onChannel ? encodeOverChannel(request, bufferSize) : encode(request, bufferSize);
+						assertEquals(expected, wire);
+					}
+				}
+			}
+			// a region read at the file's own position moves it past the body
+			fc.position(100);
+			encodeOverChannel(Commands.put(new Request(), 1, 2, 3, fc, -1, 5000), 64);
+			assertEquals(5100, fc.position());
+		}
+
+		try {
+			encode(Commands.put(new Request(), 1, 2, 3, new ByteArrayInputStream(body), 6000), 64);
+			fail("no BeanstalkException thrown");
+		} catch (BeanstalkException be) {
+			assertEquals("The end of the data is reached - 6000 bytes expected, 5000 bytes read", be.getMessage());
+		}
+	}
+}
@@ -0,0 +1,244 @@
+package com.surftools.BeanstalkClientImpl;
+
+/*
+
+ Copyright 2009-2020 Robert Tykulsker
+
+ This file is part of JavaBeanstalkCLient.
+
+ JavaBeanstalkCLient is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version, or alternatively, the BSD license supplied
+ with this project in the file "BSD-LICENSE".
+
+ JavaBeanstalkCLient is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with JavaBeanstalkCLient.  If not, see <http://www.gnu.org/licenses/>.
+
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.surftools.BeanstalkClient.BeanstalkException;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * exercises the read buffer without a server; the input stream hands out a few bytes at a time, the way a socket
+ * does under load
+ */
+public class ResponseReaderTest extends TestCase {
+
+	public ResponseReaderTest(String testName) {
+		super(testName);
+	}
+
+	public static Test suite() {
+		return new TestSuite(ResponseReaderTest.class);
+	}
+
+	private InputStream trickle(byte[] bytes, final int chunk) {
+		return new ByteArrayInputStream(bytes) {
+			@Override
+			public synchronized int read(byte[] b, int off, int len) {
+				return super.read(b, off, Math.min(len, chunk));
+			}
+		};
+	}
+
+	public void testLinesAndBodiesAreNotLost() {
+		byte[] body = new byte[100];
+		for (int i = 0; i < body.length; ++i) {
+			body[i] = (byte) (i % 2 == 0 ? '\r' : '\n');
+		}
+
+		byte[] head = "RESERVED 1 100\r\n".getBytes();
+		byte[] tail = "\r\nINSERTED 2\r\nDELETED\r\n".getBytes();
+		byte[] wire = new byte[head.length + body.length + tail.length];
+		System.arraycopy(head, 0, wire, 0, head.length);
+		System.arraycopy(body, 0, wire, head.length, body.length);
+		System.arraycopy(tail, 0, wire, head.length + body.length, tail.length);
+
+		for (int chunk : new int[] { 1, 3, 7, 64, 4096 }) {
+			for (int bufferSize : new int[] { 4, 16, 8192 }) {
+				ResponseReader reader = new ResponseReader(trickle(wire, chunk), bufferSize);
+				assertEquals("RESERVED 1 100", new String(reader.readLine()));
+				assertTrue(Arrays.equals(body, reader.readBody(100)));
+				assertEquals("INSERTED 2", new String(reader.readLine()));
+				assertEquals("DELETED", new String(reader.readLine()));
+				assertEquals(0, reader.available());
+			}
+		}
+	}
+
+	public void testStatusLineIsParsedInPlace() {
+		byte[] wire = ("RESERVED 12 3\r\nabc\r\nUSING my-tube\r\nNOT_IGNORED\r\n"
+				+ "INSERTED 18446744073709551616\r\nHELLO world\r\n\r\n").getBytes();
+		for (int chunk : new int[] { 1, 5, 4096 }) {
+			ResponseReader reader = new ResponseReader(trickle(wire, chunk), 8);
+			reader.readStatusLine();
+			assertEquals(Status.RESERVED, reader.getStatus());
+			assertEquals(3, reader.getWordCount());
+			assertEquals(12, reader.getNumber(1));
+			assertEquals(3, reader.getNumber(2));
+			assertEquals(-1, reader.getNumber(3));
+			assertEquals("abc", new String(reader.readBody(3)));
+
+			reader.readStatusLine();
+			assertEquals(Status.USING, reader.getStatus());
+			assertEquals(-1, reader.getNumber(1));
+			assertEquals("my-tube", reader.getWord(1));
+
+			reader.readStatusLine();
+			assertEquals(Status.NOT_IGNORED, reader.getStatus());
+			assertNull(reader.getWord(1));
+
+			// too big for a long
+			reader.readStatusLine();
+			assertEquals(Status.INSERTED, reader.getStatus());
+			assertEquals(-1, reader.getNumber(1));
+
+			reader.readStatusLine();
+			assertEquals(Status.UNKNOWN, reader.getStatus());
+			assertEquals("HELLO world", reader.getLine());
+
+			reader.readStatusLine();
+			assertEquals(0, reader.getWordCount());
+			assertEquals(Status.UNKNOWN, reader.getStatus());
+		}
+	}
+
+	public void testBodiesIntoSinks() {
+		byte[] body = new byte[3000];
+		for (int i = 0; i < body.length; ++i) {
+			body[i] = (byte) i;
+		}
+		byte[] head = "RESERVED 1 3000\r\n".getBytes();
+		byte[] tail = "\r\nDELETED\r\n".getBytes();
+		byte[] wire = new byte[head.length + body.length + tail.length];
+		System.arraycopy(head, 0, wire, 0, head.length);
+		System.arraycopy(body, 0, wire, head.length, body.length);
+		System.arraycopy(tail, 0, wire, head.length + body.length, tail.length);
+
+		for (int chunk : new int[] { 1, 7, 4096 }) {
+			for (int bufferSize : new int[] { 16, 8192 }) {
+				for (int sink = 0; sink < 5; ++sink) {
+					for (boolean overChannel : new boolean[] { false, true }) {
+						ResponseReader reader = overChannel
+								? new ResponseReader(Channels.newChannel(trickle(wire, chunk)), bufferSize)
+								: new ResponseReader(trickle(wire, chunk), bufferSize);
+						reader.readStatusLine();
+						ByteArrayOutputStream os = new ByteArrayOutputStream();
+						ByteBuffer heap = ByteBuffer.allocate(4000);
+						ByteBuffer direct = ByteBuffer.allocateDirect(4000);
+						ByteBuffer small = ByteBuffer.allocate(1000);
+						switch (sink) {
+						case 0:
+							reader.readBody(3000, os);
+							break;
+						case 1:
+							reader.readBody(3000, Channels.newChannel(os));
+							break;
+						case 2:
+							reader.readBody(3000, heap);
+							os.write(heap.array(), 0, heap.position());
+							break;
+						case 3:
+							reader.readBody(3000, direct);
+							direct.flip();
+							byte[] copy = new byte[direct.remaining()];
+							direct.get(copy);
+							os.write(copy, 0, copy.length);
+							break;
+						default:
+							// only the first 1000 bytes fit, the rest is skipped
+							reader.readBody(3000, small);
+							assertFalse(small.hasRemaining());
+							assertTrue(Arrays.equals(Arrays.copyOf(body, 1000), small.array()));
+							os.write(body, 0, body.length);
+							break;
+						}
+						assertTrue(Arrays.equals(body, os.toByteArray()));
+						assertEquals("DELETED", new String(reader.readLine()));
+					}
+				}
+			}
+		}
+	}
+
+	public void testYamlIsScannedInPlace() {
+		StringBuilder yaml = new StringBuilder("---\n");
+		for (int i = 0; i < 20000; ++i) {
+			yaml.append("- tube-").append(i).append('\n');
+		}
+		byte[] list = yaml.toString().getBytes();
+		byte[] map = "---\ncurrent-jobs-ready: 3\nversion: \"1.13\"\nodd: a: b\nno-separator\n".getBytes();
+		byte[] wire = ("OK " + list.length + "\r\n" + yaml + "\r\nOK " + map.length + "\r\n" + new String(map)
+				+ "\r\nOK 0\r\n\r\nDELETED\r\n").getBytes();
+
+		for (int chunk : new int[] { 1, 1000, 1 << 20 }) {
+			for (boolean overChannel : new boolean[] { false, true }) {
+				ResponseReader reader = overChannel ? new ResponseReader(Channels.newChannel(trickle(wire, chunk)), 16)
+						: new ResponseReader(trickle(wire, chunk), 16);
+				reader.readStatusLine();
+				List<String> tubes = new ArrayList<String>();
+				reader.readYaml((int) reader.getNumber(1), tubes, null);
+				assertEquals(20000, tubes.size());
+				assertEquals("tube-0", tubes.get(0));
+				assertEquals("tube-19999", tubes.get(19999));
+
+				reader.readStatusLine();
+				Map<String, String> stats = new LinkedHashMap<String, String>();
+				reader.readYaml((int) reader.getNumber(1), null, stats);
+				assertEquals(3, stats.size());
+				assertEquals("3", stats.get("current-jobs-ready"));
+				assertEquals("\"1.13\"", stats.get("version"));
+				assertEquals("a: b", stats.get("odd"));
+
+				reader.readStatusLine();
+				List<String> empty = new ArrayList<String>();
+				reader.readYaml(0, empty, null);
+				assertTrue(empty.isEmpty());
+				assertEquals("DELETED", new String(reader.readLine()));
+				assertEquals(0, reader.available());
+			}
+		}
+	}
+
+	public void testEndOfStream() {
+		ResponseReader reader = new ResponseReader(trickle("INSERTED".getBytes(), 3));
+		try {
+			reader.readLine();
+			fail("no BeanstalkException thrown");
+		} catch (BeanstalkException be) {
+			assertEquals("The end of InputStream is reached", be.getMessage());
+		}
+	}
+
+	public void testMissingCRLFAfterBody() {
+		ResponseReader reader = new ResponseReader(trickle("FOUND 1 3\r\nabcXY".getBytes(), 2));
+		reader.readLine();
+		try {
+			reader.readBody(3);
+			fail("no BeanstalkException thrown");
+		} catch (BeanstalkException be) {
+			assertTrue(be.getMessage().startsWith("The end of InputStream is reached"));
+		}
+	}
+}
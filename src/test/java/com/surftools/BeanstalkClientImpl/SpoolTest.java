@@ -0,0 +1,217 @@
+package com.surftools.BeanstalkClientImpl;
+
+/*
+
+ Copyright 2009-2020 Robert Tykulsker 
+
+ This file is part of JavaBeanstalkCLient.
+
+ JavaBeanstalkCLient is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version, or alternatively, the BSD license supplied
+ with this project in the file "BSD-LICENSE".
+
+ JavaBeanstalkCLient is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with JavaBeanstalkCLient.  If not, see <http://www.gnu.org/licenses/>.
+
+ */
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import com.surftools.BeanstalkClient.BatchResult;
+import com.surftools.BeanstalkClient.BeanstalkException;
+import com.surftools.BeanstalkClient.Client;
+import com.surftools.BeanstalkClient.Job;
+import com.surftools.BeanstalkClient.PutBatch;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+public class SpoolTest extends TestCase {
+
+	private String TEST_HOST = "localhost";
+	private int TEST_PORT = 11300;
+
+	private Path directory;
+
+	public SpoolTest(String testName) {
+		super(testName);
+	}
+
+	public static Test suite() {
+		return new TestSuite(SpoolTest.class);
+	}
+
+	@Override
+	protected void setUp() throws IOException {
+		directory = Files.createTempDirectory("SpoolTest");
+	}
+
+	@Override
+	protected void tearDown() throws IOException {
+		try (Stream<Path> paths = Files.walk(directory)) {
+			paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+		}
+	}
+
+	private long segmentFiles() throws IOException {
+		try (Stream<Path> paths = Files.list(directory)) {
+			return paths.filter(path -> path.toString().endsWith(Spool.SEGMENT_SUFFIX)).count();
+		}
+	}
+
+	public void testRecoveryAndCompaction() throws IOException {
+		// room for four 40-byte records a segment
+		Spool spool = new Spool(directory, 4 * (Spool.RECORD_HEADER + Spool.JOB_HEADER + 16));
+		for (int i = 0; i < 10; ++i) {
+			spool.append(i, 0, 120, String.format("job-%012d", i).getBytes());
+		}
+		assertEquals(10, spool.getPendingCount());
+		assertEquals(3, spool.getSegmentCount());
+
+		PutBatch batch = new PutBatch();
+		assertEquals(6, spool.peek(batch, 6));
+		assertEquals(0, batch.getPriority(0));
+		assertEquals("job-000000000005", new String(batch.getData(5)));
+		spool.commit(5);
+		assertEquals(5, spool.getPendingCount());
+		// the first segment is behind the read position
+		assertEquals(2, segmentFiles());
+		spool.close();
+
+		try {
+			spool.append(0, 0, 120, "late".getBytes());
+			fail("no BeanstalkException thrown");
+		} catch (BeanstalkException be) {
+			assertEquals("spool closed", be.getMessage());
+		}
+
+		// tear the last record, as a crash in the middle of an append would
+		Path last;
+		try (Stream<Path> paths = Files.list(directory)) {
+			last = paths.filter(path -> path.toString().endsWith(Spool.SEGMENT_SUFFIX)).max(Comparator.naturalOrder())
+					.get();
+		}
+		try (FileChannel channel = FileChannel.open(last, StandardOpenOption.WRITE)) {
+			channel.write(ByteBuffer.wrap(new byte[] { 'x' }), Spool.RECORD_HEADER + Spool.JOB_HEADER + 20);
+		}
+
+		spool = new Spool(directory, 1024);
+		assertEquals(1, spool.getCorruptCount());
+		assertEquals(4, spool.getPendingCount());
+		spool.append(10, 0, 120, String.format("job-%012d", 10).getBytes());
+		assertEquals(5, spool.peek(batch, 100));
+		assertEquals(5, batch.getPriority(0));
+		assertEquals(8, batch.getPriority(3));
+		assertEquals(10, batch.getPriority(4));
+		spool.commit(5);
+		assertTrue(spool.isEmpty());
+		assertEquals(0, spool.peek(batch, 100));
+		spool.close();
+	}
+
+	public void testReplayAcrossRestarts() throws Exception {
+		String tubeName = "spool-" + UUID.randomUUID().toString();
+		Client client = new ClientImpl(TEST_HOST, TEST_PORT);
+
+		// not started: everything stays spooled
+		SpoolingProducer producer = new SpoolingProducer(client, tubeName, new Spool(directory, 4096),
+				SpoolingProducer.Mode.ALWAYS);
+		for (int i = 0; i < 20; ++i) {
+			assertEquals(-1, producer.put(65536 + i, 0, 120, ("job-" + i).getBytes()));
+		}
+		producer.close();
+
+		producer = new SpoolingProducer(client, tubeName, new Spool(directory, 4096), SpoolingProducer.Mode.ON_FAILURE);
+		assertEquals(20, producer.getSpool().getPendingCount());
+		// still queued behind the spooled jobs
+		assertEquals(-1, producer.put(65536 + 20, 0, 120, "job-20".getBytes()));
+		producer.start();
+		assertTrue(producer.awaitDrained(10000));
+		assertEquals(21, producer.getReplayedCount());
+
+		// the spool is empty again, so puts go straight to the server
+		assertTrue(producer.put(65536 + 21, 0, 120, "job-21".getBytes()) > 0);
+		assertEquals(1, producer.getDirectCount());
+
+		// this thread's connection is gone, the replayer's is not
+		client.close();
+		assertEquals(-1, producer.put(65536 + 22, 0, 120, "job-22".getBytes()));
+		assertTrue(producer.awaitDrained(10000));
+		assertEquals(22, producer.getReplayedCount());
+		producer.close();
+
+		Client consumer = new ClientImpl(TEST_HOST, TEST_PORT);
+		consumer.watch(tubeName);
+		consumer.ignore("default");
+		for (int i = 0; i < 23; ++i) {
+			Job job = consumer.reserve(0);
+			assertEquals("job-" + i, new String(job.getData()));
+			consumer.delete(job.getJobId());
+		}
+		assertNull(consumer.reserve(0));
+		consumer.close();
+	}
+
+	public void testOnlyJobTooBigIsDropped() throws Exception {
+		String tubeName = "spool-" + UUID.randomUUID().toString();
+		final AtomicInteger drainingReplies = new AtomicInteger(2);
+		Client client = new ClientImpl(TEST_HOST, TEST_PORT) {
+			@Override
+			public BatchResult putAll(PutBatch batch) {
+				if (batch.size() < 2 || drainingReplies.getAndDecrement() <= 0) {
+					return super.putAll(batch);
+				}
+				// the server takes the first job, then starts draining
+				BatchResult first = super.putAll(new PutBatch(1).add(batch.getTubeName(0), batch.getPriority(0),
+						batch.getDelaySeconds(0), batch.getTimeToRun(0), batch.getData(0)));
+				BatchResultImpl result = new BatchResultImpl(batch.size());
+				result.set(0, first.getJobId(0), first.getStatus(0), first.isOk(0));
+				for (int i = 1; i < batch.size(); ++i) {
+					result.set(i, -1, "DRAINING", false);
+				}
+				return result;
+			}
+		};
+		// the connection is left on another tube; every put names its own
+		client.useTube(tubeName + "-other");
+
+		SpoolingProducer producer = new SpoolingProducer(client, tubeName, new Spool(directory, 1 << 20),
+				SpoolingProducer.Mode.ALWAYS);
+		producer.setRetryMillis(50);
+		for (int i = 0; i < 5; ++i) {
+			producer.put(65536, 0, 120, (i == 2) ? new byte[70000] : ("job-" + i).getBytes());
+		}
+		producer.start();
+		assertTrue(producer.awaitDrained(10000));
+		assertEquals(4, producer.getReplayedCount());
+		assertEquals(1, producer.getRejectedCount());
+		producer.close();
+
+		client.watch(tubeName);
+		client.ignore("default");
+		for (int i : new int[] { 0, 1, 3, 4 }) {
+			Job job = client.reserve(0);
+			assertEquals("job-" + i, new String(job.getData()));
+			client.delete(job.getJobId());
+		}
+		assertNull(client.reserve(0));
+		client.close();
+	}
+}
@@ -0,0 +1,129 @@
+package com.surftools.BeanstalkClientImpl;
+
+/*
+
+ Copyright 2009-2020 Robert Tykulsker 
+
+ This file is part of JavaBeanstalkCLient.
+
+ JavaBeanstalkCLient is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version, or alternatively, the BSD license supplied
+ with this project in the file "BSD-LICENSE".
+
+ JavaBeanstalkCLient is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with JavaBeanstalkCLient.  If not, see <http://www.gnu.org/licenses/>.
+
+ */
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.UUID;
+
+import com.surftools.BeanstalkClient.Client;
+import com.surftools.BeanstalkClient.JobStats;
+import com.surftools.BeanstalkClient.ServerStats;
+import com.surftools.BeanstalkClient.TubeStats;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+public class StatsTest extends TestCase {
+
+	private String TEST_HOST = "localhost";
+	private int TEST_PORT = 11300;
+
+	public StatsTest(String testName) {
+		super(testName);
+	}
+
+	public static Test suite() {
+		return new TestSuite(StatsTest.class);
+	}
+
+	private void parse(StatsImpl stats, String reply) {
+		byte[] data = (reply + "trailing garbage past the length").getBytes(StandardCharsets.ISO_8859_1);
+		stats.parse(data, reply.length());
+	}
+
+	public void testParse() {
+		ServerStatsImpl server = new ServerStatsImpl();
+		parse(server, "---\r\ncurrent-jobs-ready: 42\r\nversion: \"1.13\"\r\nrusage-utime: 0.125000\r\n"
+				+ "draining: true\r\nhostname: box\r\nuptime: 12345678901234\r\nnew-key: 7\r\npid: not-a-number\r\n");
+		assertEquals(42, server.getCurrentJobsReady());
+		assertEquals("1.13", server.getVersion());
+		assertEquals(0.125, server.getRusageUtime(), 1e-9);
+		assertEquals(0.0, server.getRusageStime(), 1e-9);
+		assertTrue(server.isDraining());
+		assertEquals("box", server.getHostname());
+		assertEquals(12345678901234L, server.getUptime());
+		assertNull(server.getOs());
+
+		Map<String, String> other = server.getOther();
+		assertEquals(2, other.size());
+		assertEquals("7", other.get("new-key"));
+		assertEquals("not-a-number", other.get("pid"));
+		assertEquals(0, server.getPid());
+
+		// plain newlines, and a value cut off by the length
+		JobStatsImpl job = new JobStatsImpl();
+		parse(job, "---\nid: 9\ntube: default\nstate: reserved\npri: 4294967295\nttr: 120\ntime-left: 11");
+		assertEquals(9, job.getId());
+		assertEquals("default", job.getTube());
+		assertEquals("reserved", job.getState());
+		assertEquals(4294967295L, job.getPriority());
+		assertEquals(120, job.getTimeToRun());
+		assertEquals(11, job.getTimeLeft());
+		assertTrue(job.getOther().isEmpty());
+
+		TubeStatsImpl tube = new TubeStatsImpl();
+		parse(tube, "---\nname: \"\"\npause-time-left: -1\ntotal-jobs: 1234567890123456789\n");
+		assertEquals("", tube.getName());
+		assertEquals(-1, tube.getPauseTimeLeft());
+		// 19 digits are not taken as a number
+		assertEquals(0, tube.getTotalJobs());
+		assertEquals("1234567890123456789", tube.getOther().get("total-jobs"));
+	}
+
+	public void testMatchesMaps() {
+		String tubeName = "stats-" + UUID.randomUUID().toString();
+		Client client = new ClientImpl(TEST_HOST, TEST_PORT);
+		client.useTube(tubeName);
+		long jobId = client.put(1025, 0, 60, "stats".getBytes());
+
+		ServerStats server = client.serverStats();
+		Map<String, String> serverMap = client.stats();
+		assertEquals(serverMap.get("max-job-size"), String.valueOf(server.getMaxJobSize()));
+		assertEquals(serverMap.get("version").replace("\"", ""), server.getVersion());
+		assertEquals(serverMap.get("draining"), String.valueOf(server.isDraining()));
+		assertEquals(serverMap.get("os"), server.getOs());
+		assertTrue(server.getCmdPut() > 0);
+
+		TubeStats tube = client.tubeStats(tubeName);
+		Map<String, String> tubeMap = client.statsTube(tubeName);
+		assertEquals(tubeName, tube.getName());
+		assertEquals(1, tube.getCurrentJobsReady());
+		assertEquals(tubeMap.get("total-jobs"), String.valueOf(tube.getTotalJobs()));
+		assertTrue(tube.getOther().isEmpty());
+
+		JobStats job = client.jobStats(jobId);
+		assertEquals(jobId, job.getId());
+		assertEquals(tubeName, job.getTube());
+		assertEquals("ready", job.getState());
+		assertEquals(1025, job.getPriority());
+		assertEquals(60, job.getTimeToRun());
+
+		client.delete(jobId);
+		assertNull(client.jobStats(jobId));
+		assertNull(client.tubeStats(tubeName + "-none"));
+		assertNull(client.tubeStats(null));
+		client.close();
+	}
+}
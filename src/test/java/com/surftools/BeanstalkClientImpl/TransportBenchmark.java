@@ -0,0 +1,118 @@
+package com.surftools.BeanstalkClientImpl;
+
+/*
+
+ Copyright 2009-2020 Robert Tykulsker
+
+ This file is part of JavaBeanstalkCLient.
+
+ JavaBeanstalkCLient is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version, or alternatively, the BSD license supplied
+ with this project in the file "BSD-LICENSE".
+
+ JavaBeanstalkCLient is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with JavaBeanstalkCLient.  If not, see <http://www.gnu.org/licenses/>.
+
+ */
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+import java.util.UUID;
+
+import com.surftools.BeanstalkClient.Client;
+import com.surftools.BeanstalkClient.Job;
+import com.surftools.BeanstalkClient.MutableJob;
+
+/**
+ * compares the Stream and Channel transports: put throughput and heap allocated per put, then a reserve/delete
+ * round trip, then the same with reserveInto. Not run by surefire; run it against a live beanstalkd:
+ *
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.surftools.BeanstalkClientImpl.TransportBenchmark
+ *
+ * optional args: host port iterations
+ *
+ */
+public class TransportBenchmark {
+
+	public static void main(String[] args) {
+		String host = (args.length > 0) ? args[0] : "localhost";
+		int port = (args.length > 1) ? Integer.parseInt(args[1]) : 11300;
+		int iterations = (args.length > 2) ? Integer.parseInt(args[2]) : 20000;
+
+		// 2-4 KB bodies
+		Random rng = new Random(42);
+		byte[][] bodies = new byte[16][];
+		for (int i = 0; i < bodies.length; ++i) {
+			bodies[i] = new byte[2048 + rng.nextInt(2048)];
+			rng.nextBytes(bodies[i]);
+		}
+
+		for (int round = 0; round < 2; ++round) {
+			// first round warms up
+			for (Transport transport : Transport.values()) {
+				run(host, port, transport, iterations, bodies, round > 0);
+			}
+		}
+	}
+
+	private static void run(String host, int port, Transport transport, int iterations, byte[][] bodies,
+			boolean report) {
+		Client client = new ClientImpl(host, port, transport);
+		String tubeName = "bench-" + UUID.randomUUID().toString();
+		client.useTube(tubeName);
+		client.watch(tubeName);
+		client.ignore("default");
+
+		long startBytes = allocatedBytes();
+		long startNanos = System.nanoTime();
+		for (int i = 0; i < iterations; ++i) {
+			client.put(0, 0, 120, bodies[i % bodies.length]);
+		}
+		long putNanos = System.nanoTime() - startNanos;
+		long putBytes = allocatedBytes() - startBytes;
+
+		startBytes = allocatedBytes();
+		startNanos = System.nanoTime();
+		for (int i = 0; i < iterations; ++i) {
+			Job job = client.reserve(0);
+			client.delete(job.getJobId());
+		}
+		long reserveNanos = System.nanoTime() - startNanos;
+		long reserveBytes = allocatedBytes() - startBytes;
+
+		for (int i = 0; i < iterations; ++i) {
+			client.put(0, 0, 120, bodies[i % bodies.length]);
+		}
+		MutableJob holder = new MutableJob();
+		startBytes = allocatedBytes();
+		startNanos = System.nanoTime();
+		for (int i = 0; i < iterations; ++i) {
+			client.reserveInto(holder, 0);
+			client.delete(holder.getJobId());
+		}
+		long intoNanos = System.nanoTime() - startNanos;
+		long intoBytes = allocatedBytes() - startBytes;
+
+		client.close();
+
+		if (report) {
+			System.out.println(String.format(
+					"%-8s put: %8.0f ops/s %8d bytes/op   reserve+delete: %8.0f ops/s %8d bytes/op"
+							+ "   reserveInto+delete: %8.0f ops/s %8d bytes/op",
+					transport, iterations * 1e9 / putNanos, putBytes / iterations, iterations * 1e9 / reserveNanos,
+					reserveBytes / iterations, iterations * 1e9 / intoNanos, intoBytes / iterations));
+		}
+	}
+
+	private static long allocatedBytes() {
+		return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+				.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+}
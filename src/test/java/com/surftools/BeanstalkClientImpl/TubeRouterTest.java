@@ -0,0 +1,100 @@
+package com.surftools.BeanstalkClientImpl;
+
+/*
+
+ Copyright 2009-2020 Robert Tykulsker 
+
+ This file is part of JavaBeanstalkCLient.
+
+ JavaBeanstalkCLient is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version, or alternatively, the BSD license supplied
+ with this project in the file "BSD-LICENSE".
+
+ JavaBeanstalkCLient is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with JavaBeanstalkCLient.  If not, see <http://www.gnu.org/licenses/>.
+
+ */
+
+import java.util.UUID;
+
+import com.surftools.BeanstalkClient.Client;
+import com.surftools.BeanstalkClient.Job;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+public class TubeRouterTest extends TestCase {
+
+	private String TEST_HOST = "localhost";
+	private int TEST_PORT = 11300;
+
+	public TubeRouterTest(String testName) {
+		super(testName);
+	}
+
+	public static Test suite() {
+		return new TestSuite(TubeRouterTest.class);
+	}
+
+	private long uses(Client client) {
+		return Long.parseLong(client.stats().get("cmd-use"));
+	}
+
+	public void testRoutesByTube() {
+		String prefix = "router-" + UUID.randomUUID().toString() + "-";
+		String a = prefix + "a";
+		String b = prefix + "b";
+		String c = prefix + "c";
+		Client client = new ClientImpl(TEST_HOST, TEST_PORT);
+		TubeRouter router = new TubeRouter(TEST_HOST, TEST_PORT, Transport.Stream, 2, 2);
+
+		long before = uses(client);
+		for (int i = 0; i < 3; ++i) {
+			router.put(a, 65536, 0, 120, ("a" + i).getBytes());
+			router.put(b, 65536, 0, 120, ("b" + i).getBytes());
+		}
+		// one use per connection, none between puts
+		assertEquals(2, uses(client) - before);
+		assertEquals(2, router.getOpenedCount());
+
+		// the least recently used connection, a's, makes room for c's
+		router.put(c, 65536, 0, 120, "c0".getBytes());
+		assertEquals(3, router.getOpenedCount());
+		assertEquals(1, router.getEvictedCount());
+		assertEquals(2, router.getProducerConnectionCount());
+
+		// a held job keeps its connection from being evicted, and acks find it
+		Job held = router.reserve(new String[] { b }, 0);
+		assertEquals("b0", new String(held.getData()));
+		for (String[] tubeNames : new String[][] { { a }, { c, a } }) {
+			Job job = router.reserve(tubeNames, 0);
+			assertNotNull(job);
+			assertTrue(router.delete(job.getJobId()));
+		}
+		// a's idle connection made room for c and a's
+		assertEquals(2, router.getConsumerConnectionCount());
+		assertEquals(2, router.getEvictedCount());
+		assertTrue(router.touch(held.getJobId()));
+		assertTrue(router.release(held.getJobId(), 65536, 0));
+
+		int left = 0;
+		Job job;
+		while ((job = router.reserve(new String[] { a, b, c }, 0)) != null) {
+			assertTrue(router.delete(job.getJobId()));
+			++left;
+		}
+		assertEquals(5, left);
+		assertEquals(2, router.getConsumerConnectionCount());
+
+		router.close();
+		client.close();
+	}
+}